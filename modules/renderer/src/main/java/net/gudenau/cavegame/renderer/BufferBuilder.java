@@ -4,20 +4,26 @@ import net.gudenau.cavegame.renderer.internal.BufferBuilderImpl;
 import net.gudenau.cavegame.renderer.shader.Shader;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
 import org.joml.Vector4f;
 
 import java.nio.ByteBuffer;
 import java.util.Map;
-import java.util.function.BiFunction;
-import java.util.function.Function;
 
-public interface BufferBuilder {
+// Builders hold native memory until they are built or closed
+public interface BufferBuilder extends AutoCloseable {
     @NotNull
     @Contract("_, _ -> new")
-    static BufferBuilder create(@NotNull Shader shader, @NotNull BiFunction<ByteBuffer, BufferType, GraphicsBuffer> factory) {
-        return new BufferBuilderImpl(shader, factory);
+    static BufferBuilder create(@NotNull Shader shader, @NotNull Factory factory) {
+        return create(shader, factory, true);
+    }
+
+    @NotNull
+    @Contract("_, _, _ -> new")
+    static BufferBuilder create(@NotNull Shader shader, @NotNull Factory factory, boolean deduplicate) {
+        return new BufferBuilderImpl(shader, factory, deduplicate);
     }
 
     @Contract("_, _, _ -> this")
@@ -81,4 +87,12 @@ public interface BufferBuilder {
     @NotNull Map<BufferType, GraphicsBuffer> build();
 
     int vertexCount();
+
+    @Override void close();
+
+    @FunctionalInterface
+    interface Factory {
+        // The index type is null for vertex buffers
+        @NotNull GraphicsBuffer create(@NotNull ByteBuffer data, @NotNull BufferType type, @Nullable IndexType indexType);
+    }
 }
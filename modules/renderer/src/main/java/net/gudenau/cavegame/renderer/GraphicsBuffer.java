@@ -7,7 +7,12 @@ import org.jetbrains.annotations.Nullable;
 import java.nio.ByteBuffer;
 
 public interface GraphicsBuffer extends AutoCloseable {
-    void upload(@NotNull ByteBuffer data);
+    default void upload(@NotNull ByteBuffer data) {
+        upload(data, 0);
+    }
+
+    // Replaces part of the contents of this buffer, starting at offset bytes
+    void upload(@NotNull ByteBuffer data, int offset);
     @Nullable Shader shader();
 
     @Override void close();
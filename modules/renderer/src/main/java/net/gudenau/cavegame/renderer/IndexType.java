@@ -0,0 +1,22 @@
+package net.gudenau.cavegame.renderer;
+
+public enum IndexType {
+    UINT16(Short.BYTES),
+    UINT32(Integer.BYTES),
+    ;
+
+    private final int size;
+
+    IndexType(int size) {
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // The smallest type that can address every vertex of a buffer
+    public static IndexType forVertexCount(int vertexCount) {
+        return vertexCount <= 0x10000 ? UINT16 : UINT32;
+    }
+}
@@ -21,8 +21,23 @@ public interface Renderer extends AutoCloseable {
     @NotNull
     GraphicsBuffer createBuffer(@NotNull BufferType type, int size);
 
+    @NotNull
+    StreamBuffer createStreamBuffer(@NotNull BufferType type, int frameSize);
+
     void drawBuffer(int vertexCount, @NotNull GraphicsBuffer vertexBuffer, @Nullable GraphicsBuffer indexBuffer);
 
+    void drawInstanced(
+        int vertexCount,
+        @NotNull GraphicsBuffer vertexBuffer,
+        @Nullable GraphicsBuffer indexBuffer,
+        @NotNull GraphicsBuffer instanceBuffer,
+        int firstInstance,
+        int instanceCount
+    );
+
+    // Shared by every shader, draws use the values the uniforms had when they were submitted
+    @NotNull UniformBufferObject uniforms();
+
     void begin();
 
     void waitForIdle();
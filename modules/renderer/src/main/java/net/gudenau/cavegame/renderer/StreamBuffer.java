@@ -0,0 +1,20 @@
+package net.gudenau.cavegame.renderer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+// A persistently mapped buffer with a region for every frame in flight, for data that is rewritten every frame.
+public interface StreamBuffer extends AutoCloseable {
+    // The buffer to draw from, the region of the current frame starts at frameOffset
+    @NotNull GraphicsBuffer buffer();
+
+    int frameSize();
+
+    // Only valid between Renderer.begin and Renderer.draw, the memory is reused once the GPU finished the frame
+    @NotNull ByteBuffer frame();
+
+    int frameOffset();
+
+    @Override void close();
+}
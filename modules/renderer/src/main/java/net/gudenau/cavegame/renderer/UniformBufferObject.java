@@ -11,6 +11,9 @@ public record UniformBufferObject(
     @NotNull Matrix4f view,
     @NotNull Matrix4f proj
 ) {
+    // The amount of bytes written by write
+    public static final int SIZE = Float.BYTES * 16 * 3;
+
     public UniformBufferObject() {
         this(new Matrix4f(), new Matrix4f(), new Matrix4f());
     }
@@ -22,9 +25,19 @@ public record UniformBufferObject(
     }
 
     public void write(ByteBuffer buffer) {
-        var position = buffer.position();
-        model.get(position, buffer);
-        view.get(position + Float.BYTES * 16, buffer);
-        proj.get(position + Float.BYTES * 16 * 2, buffer);
+        write(buffer.position(), buffer);
+    }
+
+    // Does not change the position of the buffer
+    public void write(int index, ByteBuffer buffer) {
+        model.get(index, buffer);
+        view.get(index + Float.BYTES * 16, buffer);
+        proj.get(index + Float.BYTES * 16 * 2, buffer);
+    }
+
+    public void set(@NotNull UniformBufferObject other) {
+        model.set(other.model);
+        view.set(other.view);
+        proj.set(other.proj);
     }
 }
@@ -1,161 +1,114 @@
 package net.gudenau.cavegame.renderer.internal;
 
-import it.unimi.dsi.fastutil.ints.IntArrayList;
-import it.unimi.dsi.fastutil.ints.IntList;
-import it.unimi.dsi.fastutil.objects.Object2IntMap;
-import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.HashCommon;
 import net.gudenau.cavegame.renderer.BufferBuilder;
 import net.gudenau.cavegame.renderer.BufferType;
 import net.gudenau.cavegame.renderer.GraphicsBuffer;
+import net.gudenau.cavegame.renderer.IndexType;
 import net.gudenau.cavegame.renderer.shader.Shader;
+import net.gudenau.cavegame.renderer.shader.VertexAttribute;
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
-import org.lwjgl.system.MemoryUtil;
 
 import java.nio.ByteBuffer;
-import java.util.*;
-import java.util.function.BiFunction;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.Objects;
 
-//TODO This is trash, fix it.
-//TODO Don't assume 16 bit indices
-public class BufferBuilderImpl implements BufferBuilder {
-    private record Data(float[] elements) {
-        public int put(int offset, @NotNull ByteBuffer buffer) {
-            for(var element : elements) {
-                buffer.putFloat(offset, element);
-                offset += Float.BYTES;
-            }
-            return offset;
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if(this == o) return true;
-            if(o == null || getClass() != o.getClass()) return false;
-            Data data = (Data) o;
-            return Arrays.equals(elements, data.elements);
-        }
-
-        @Override
-        public int hashCode() {
-            return Arrays.hashCode(elements);
-        }
-
-        @Override
-        public String toString() {
-            return "Data{" +
-                "elements=" + Arrays.toString(elements) +
-                '}';
-        }
-    }
-
-    private final class Vertex {
-        private final @Nullable Data position;
-        private final @Nullable Data color;
-        private final @Nullable Data textureCoord;
+import static org.lwjgl.system.MemoryUtil.*;
 
-        private Vertex(@Nullable Data position, @Nullable Data color, @Nullable Data textureCoord) {
-            this.position = position;
-            this.color = color;
-            this.textureCoord = textureCoord;
-        }
-
-        public void put(int offset, ByteBuffer buffer) {
-            if(position != null) {
-                position.put(positionOffset + offset, buffer);
-            }
-            if(color != null) {
-                color.put(colorOffset + offset, buffer);
-            }
-            if(textureCoord != null) {
-                textureCoord.put(textureCoordOffset + offset, buffer);
-            }
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if(obj == this) return true;
-            if(obj == null || obj.getClass() != this.getClass()) return false;
-            var that = (Vertex) obj;
-            return Objects.equals(this.position, that.position) &&
-                Objects.equals(this.color, that.color) &&
-                Objects.equals(this.textureCoord, that.textureCoord);
-        }
+// Writes interleaved vertices straight into native memory, nothing is allocated per vertex.
+public class BufferBuilderImpl implements BufferBuilder {
+    private static final int POSITION = 1;
+    private static final int COLOR = 1 << 1;
+    private static final int TEXTURE_COORD = 1 << 2;
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(position, color, textureCoord);
-        }
+    private static final int INITIAL_VERTICES = 64;
 
-        @Override
-        public String toString() {
-            return "Vertex[" +
-                "position=" + position + ", " +
-                "color=" + color + ", " +
-                "textureCoord=" + textureCoord + ']';
-        }
-    }
-
-    private final BiFunction<ByteBuffer, BufferType, GraphicsBuffer> factory;
-    private final Object2IntMap<Vertex> vertices = new Object2IntOpenHashMap<>();
-    private final IntList indices = new IntArrayList();
+    private final Factory factory;
+    private final boolean deduplicate;
     private final int stride;
 
     private final int positionOffset;
     private final int positionSize;
-    private Data position;
-
     private final int colorOffset;
     private final int colorSize;
-    private Data color;
-
     private final int textureCoordOffset;
     private final int textureCoordSize;
-    private Data textureCoord;
 
-    public BufferBuilderImpl(@NotNull Shader shader, @NotNull BiFunction<ByteBuffer, BufferType, GraphicsBuffer> factory) {
-        this.factory = factory;
+    // The attributes every vertex has to set
+    private final int required;
+
+    // The attributes set for the current vertex
+    private int written = 0;
+
+    // True if the slot after the last vertex was cleared for the current vertex
+    private boolean pending = false;
+
+    private ByteBuffer vertices;
+    private long vertexAddress;
+    private int vertexCount = 0;
+
+    // Always 32 bit while building, narrowed in place when built
+    private ByteBuffer indices;
+    private long indexAddress;
+    private int indexCount = 0;
+
+    // Open addressing table of vertex index + 1, 0 is an empty slot
+    private int[] slots;
+    private int[] slotHashes;
+
+    public BufferBuilderImpl(@NotNull Shader shader, @NotNull Factory factory, boolean deduplicate) {
+        this.factory = Objects.requireNonNull(factory, "factory can't be null");
+        this.deduplicate = deduplicate;
+
+        var format = Objects.requireNonNull(shader, "shader can't be null").format();
+        stride = format.stride();
 
-        var format = shader.format();
         var position = format.position().orElse(null);
-        int stride = 0;
-        if(position != null) {
-            positionOffset = position.offset();
-            positionSize = position.count();
-            stride += positionSize * Float.BYTES;
-        } else {
-            positionOffset = -1;
-            positionSize = -1;
-        }
+        positionOffset = position == null ? -1 : position.offset();
+        positionSize = floats(position, 3);
 
         var color = format.color().orElse(null);
-        if(color != null) {
-            colorOffset = color.offset();
-            colorSize = color.count();
-            stride += colorSize * Float.BYTES;
-        } else {
-            colorOffset = -1;
-            colorSize = -1;
-        }
+        colorOffset = color == null ? -1 : color.offset();
+        colorSize = floats(color, 4);
 
         var textureCoord = format.textureCoord().orElse(null);
-        if(textureCoord != null) {
-            textureCoordOffset = textureCoord.offset();
-            textureCoordSize = textureCoord.count();
-            stride += textureCoordSize * Float.BYTES;
-        } else {
-            textureCoordOffset = -1;
-            textureCoordSize = -1;
+        textureCoordOffset = textureCoord == null ? -1 : textureCoord.offset();
+        textureCoordSize = floats(textureCoord, 2);
+
+        required = (position == null ? 0 : POSITION) |
+            (color == null ? 0 : COLOR) |
+            (textureCoord == null ? 0 : TEXTURE_COORD);
+
+        vertices = memAlloc(Math.max(stride, 1) * INITIAL_VERTICES);
+        vertexAddress = memAddress(vertices);
+        indices = memAlloc(Integer.BYTES * INITIAL_VERTICES);
+        indexAddress = memAddress(indices);
+
+        if(deduplicate) {
+            slots = new int[INITIAL_VERTICES * 2];
+            slotHashes = new int[INITIAL_VERTICES * 2];
         }
+    }
 
-        this.stride = stride;
+    // The amount of floats that are written for an attribute, missing components stay zero
+    private static int floats(VertexAttribute attribute, int provided) {
+        return attribute == null ? 0 : Math.min(attribute.count(), provided);
     }
 
     @NotNull
     @Override
     public BufferBuilder position(float x, float y, float z) {
         if(positionOffset != -1) {
-            position = new Data(Arrays.copyOf(new float[] {x, y, z}, positionSize));
+            var address = beginVertex() + positionOffset;
+            memPutFloat(address, x);
+            if(positionSize > 1) {
+                memPutFloat(address + Float.BYTES, y);
+            }
+            if(positionSize > 2) {
+                memPutFloat(address + Float.BYTES * 2, z);
+            }
+            written |= POSITION;
         }
 
         return this;
@@ -165,7 +118,18 @@ public class BufferBuilderImpl implements BufferBuilder {
     @Override
     public BufferBuilder color(float r, float g, float b, float a) {
         if(colorOffset != -1) {
-            color = new Data(Arrays.copyOf(new float[] {r, g, b, a}, colorSize));
+            var address = beginVertex() + colorOffset;
+            memPutFloat(address, r);
+            if(colorSize > 1) {
+                memPutFloat(address + Float.BYTES, g);
+            }
+            if(colorSize > 2) {
+                memPutFloat(address + Float.BYTES * 2, b);
+            }
+            if(colorSize > 3) {
+                memPutFloat(address + Float.BYTES * 3, a);
+            }
+            written |= COLOR;
         }
 
         return this;
@@ -174,70 +138,198 @@ public class BufferBuilderImpl implements BufferBuilder {
     @Override
     public @NotNull BufferBuilder textureCoord(float u, float v) {
         if(textureCoordOffset != -1) {
-            textureCoord = new Data(Arrays.copyOf(new float[] {u, v}, textureCoordSize));
+            var address = beginVertex() + textureCoordOffset;
+            memPutFloat(address, u);
+            if(textureCoordSize > 1) {
+                memPutFloat(address + Float.BYTES, v);
+            }
+            written |= TEXTURE_COORD;
         }
 
         return this;
     }
 
+    // Gets the address of the vertex being built, clearing it first if it was not touched yet
+    private long beginVertex() {
+        ensureOpen();
+
+        var address = vertexAddress + (long) vertexCount * stride;
+        if(!pending) {
+            if((long) (vertexCount + 1) * stride > vertices.capacity()) {
+                vertices = memRealloc(vertices, Math.multiplyExact(vertices.capacity(), 2));
+                vertexAddress = memAddress(vertices);
+                address = vertexAddress + (long) vertexCount * stride;
+            }
+            memSet(address, 0, stride);
+            pending = true;
+        }
+        return address;
+    }
+
     @Override
     public @NotNull BufferBuilder next() {
-        if((positionOffset == -1) != (position == null)) {
+        ensureOpen();
+
+        var missing = required & ~written;
+        if((missing & POSITION) != 0) {
             throw new IllegalStateException("Missing position data");
         }
-        if((colorOffset == -1) != (color == null)) {
+        if((missing & COLOR) != 0) {
             throw new IllegalStateException("Missing color data");
         }
-        if((textureCoordOffset == -1) != (textureCoord == null)) {
+        if((missing & TEXTURE_COORD) != 0) {
             throw new IllegalStateException("Missing texture coord data");
         }
 
-        var vertex = new Vertex(position, color, textureCoord);
-        var size = vertices.size();
-        var index = vertices.getOrDefault(vertex, size);
-        if(size == index) {
-            vertices.put(vertex, index);
+        var address = beginVertex();
+        int index;
+        if(deduplicate) {
+            index = deduplicate(address);
+        } else {
+            index = vertexCount++;
         }
 
-        indices.add(index);
+        if((long) (indexCount + 1) * Integer.BYTES > indices.capacity()) {
+            indices = memRealloc(indices, Math.multiplyExact(indices.capacity(), 2));
+            indexAddress = memAddress(indices);
+        }
+        memPutInt(indexAddress + (long) indexCount * Integer.BYTES, index);
+        indexCount++;
 
-        position = null;
-        color = null;
+        written = 0;
+        pending = false;
 
         return this;
     }
 
+    // Finds an identical vertex or keeps the new one
+    private int deduplicate(long address) {
+        var hash = hash(address);
+        var mask = slots.length - 1;
+        for(int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            var existing = slots[slot];
+            if(existing == 0) {
+                break;
+            }
+            if(slotHashes[slot] == hash && equal(vertexAddress + (long) (existing - 1) * stride, address)) {
+                return existing - 1;
+            }
+        }
+
+        var index = vertexCount++;
+        if(vertexCount * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        insert(index + 1, hash);
+        return index;
+    }
+
+    private void insert(int value, int hash) {
+        var mask = slots.length - 1;
+        var slot = hash & mask;
+        while(slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = value;
+        slotHashes[slot] = hash;
+    }
+
+    private void rehash(int capacity) {
+        var oldSlots = slots;
+        var oldHashes = slotHashes;
+        slots = new int[capacity];
+        slotHashes = new int[capacity];
+        for(int i = 0; i < oldSlots.length; i++) {
+            if(oldSlots[i] != 0) {
+                insert(oldSlots[i], oldHashes[i]);
+            }
+        }
+    }
+
+    // Vertices are compared as raw bytes, the stride is always a multiple of a float
+    private int hash(long address) {
+        // Every word is mixed, float bits of nearby positions only differ in a few bits
+        long hash = stride;
+        int offset = 0;
+        for(; offset + Long.BYTES <= stride; offset += Long.BYTES) {
+            hash = HashCommon.mix(hash ^ memGetLong(address + offset));
+        }
+        for(; offset < stride; offset += Integer.BYTES) {
+            hash = HashCommon.mix(hash ^ memGetInt(address + offset));
+        }
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private boolean equal(long a, long b) {
+        int offset = 0;
+        for(; offset + Long.BYTES <= stride; offset += Long.BYTES) {
+            if(memGetLong(a + offset) != memGetLong(b + offset)) {
+                return false;
+            }
+        }
+        for(; offset < stride; offset += Integer.BYTES) {
+            if(memGetInt(a + offset) != memGetInt(b + offset)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public @NotNull Map<BufferType, GraphicsBuffer> build() {
-        var vertexBuffer = MemoryUtil.memAlloc(vertices.size() * stride);
-        var indexBuffer = MemoryUtil.memAlloc(indices.size() * Short.BYTES);
+        ensureOpen();
 
         try {
-            vertices.object2IntEntrySet().stream()
-                .sorted(Comparator.comparingInt(Object2IntMap.Entry::getIntValue))
-                .forEachOrdered((entry) -> {
-                    var offset = vertexBuffer.position();
-                    entry.getKey().put(offset, vertexBuffer);
-                    vertexBuffer.position(offset + stride);
-                });
-            vertexBuffer.position(0);
-
-            for(int i = 0, size = indices.size(); i < size; i++) {
-                indexBuffer.putShort(i << 1, (short) indices.getInt(i));
+            var vertexData = vertices.slice(0, vertexCount * stride).order(ByteOrder.nativeOrder());
+
+            var indexType = IndexType.forVertexCount(vertexCount);
+            if(indexType == IndexType.UINT16) {
+                // Every short is written at or before the int it came from
+                for(int i = 0; i < indexCount; i++) {
+                    memPutShort(indexAddress + (long) i * Short.BYTES, (short) memGetInt(indexAddress + (long) i * Integer.BYTES));
+                }
             }
+            var indexData = indices.slice(0, indexCount * indexType.size()).order(ByteOrder.nativeOrder());
 
             return Map.of(
-                BufferType.VERTEX, factory.apply(vertexBuffer, BufferType.VERTEX),
-                BufferType.INDEX, factory.apply(indexBuffer, BufferType.INDEX)
+                BufferType.VERTEX, factory.create(vertexData, BufferType.VERTEX, null),
+                BufferType.INDEX, factory.create(indexData, BufferType.INDEX, indexType)
             );
         } finally {
-            MemoryUtil.memFree(indexBuffer);
-            MemoryUtil.memFree(vertexBuffer);
+            close();
         }
     }
 
     @Override
     public int vertexCount() {
-        return indices.size();
+        return indexCount;
+    }
+
+    private void ensureOpen() {
+        if(vertices == null) {
+            throw new IllegalStateException("Buffer builder was already built");
+        }
+    }
+
+    @Override
+    public void close() {
+        if(vertices != null) {
+            memFree(vertices);
+            memFree(indices);
+            vertices = null;
+            indices = null;
+            slots = null;
+            slotHashes = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BufferBuilderImpl{" +
+            "stride=" + stride +
+            ", vertices=" + vertexCount +
+            ", indices=" + indexCount +
+            ", deduplicate=" + deduplicate +
+            '}';
     }
 }
@@ -2,6 +2,7 @@ package net.gudenau.cavegame.renderer.shader;
 
 public enum AttributeType {
     FLOAT(Float.BYTES),
+    UINT(Integer.BYTES),
     STRUCT(0),
     SAMPLER(0),
     ;
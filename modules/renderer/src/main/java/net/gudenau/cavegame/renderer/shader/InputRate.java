@@ -0,0 +1,12 @@
+package net.gudenau.cavegame.renderer.shader;
+
+import net.gudenau.cavegame.codec.Codec;
+import net.gudenau.cavegame.codec.CodecBuilder;
+
+public enum InputRate {
+    VERTEX,
+    INSTANCE,
+    ;
+
+    public static final Codec<InputRate> CODEC = CodecBuilder.ofEnum(InputRate.class);
+}
@@ -49,9 +49,16 @@ public record ShaderMeta(
     }
 
     public record Attribute(
-        @Required @NotNull AttributeUsage usage
+        @Optional @Nullable AttributeUsage usage,
+        @Optional @Nullable InputRate rate
     ) {
         public static final Codec<Attribute> CODEC = CodecBuilder.record(Attribute.class);
+
+        public Attribute {
+            if(rate == null) {
+                rate = InputRate.VERTEX;
+            }
+        }
     }
 
     public record Uniform(
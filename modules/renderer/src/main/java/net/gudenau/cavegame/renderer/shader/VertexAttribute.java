@@ -10,5 +10,6 @@ public interface VertexAttribute {
     int stride();
     int location();
     @Nullable AttributeUsage usage();
+    @NotNull InputRate rate();
     int offset();
 }
@@ -21,4 +21,7 @@ public interface VertexFormat {
     Optional<VertexAttribute> textureCoord();
 
     int stride();
+
+    // The size of the per-instance data, 0 if there are no instanced attributes
+    int instanceStride();
 }
@@ -64,7 +64,7 @@ public final class NativeTexture implements Texture {
         if(texture.format() != format()) {
             throw new UnsupportedOperationException("Blitting between different formats is not yet implemented");
         }
-        if(x < 0 || y < 0 || x + texture.width() >= width() || y + texture.height() >= height()) {
+        if(x < 0 || y < 0 || x + texture.width() > width() || y + texture.height() > height()) {
             throw new IllegalArgumentException("Texture is out of bounds");
         }
 
@@ -1,6 +1,15 @@
 package net.gudenau.cavegame.renderer.texture;
 
 public interface Sprite extends Texture {
+    int width();
+    int height();
+
+    // The normalized coordinates of this sprite in its atlas
+    float minU();
+    float minV();
+    float maxU();
+    float maxV();
+
     @Override
     default void close() {}
 }
@@ -4,6 +4,7 @@ import net.gudenau.cavegame.resource.Identifier;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
+import java.util.Collection;
 
 public interface TextureManager {
     @NotNull
@@ -14,6 +15,14 @@ public interface TextureManager {
     @NotNull
     Texture loadTexture(@NotNull Identifier identifier, @NotNull TextureFormat format) throws IOException;
 
+    // Creates a texture from pixels that were generated at runtime, like an atlas
+    @NotNull
+    Texture createTexture(@NotNull Identifier identifier, @NotNull NativeTexture texture, boolean mipmaps);
+
+    // Packs textures into a single texture, the sprites are keyed by the identifiers of the textures
+    @NotNull
+    AtlasedTexture<Identifier> loadAtlas(@NotNull Identifier identifier, @NotNull Collection<Identifier> textures) throws IOException;
+
     @NotNull
     default Font loadFont(@NotNull Identifier identifier) throws IOException {
         return loadFont(identifier, TextureFormat.GRAYSCALE);
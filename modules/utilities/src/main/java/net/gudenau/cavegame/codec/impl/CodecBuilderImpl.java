@@ -12,21 +12,28 @@ import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodType;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
 public final class CodecBuilderImpl<T> implements CodecBuilder<T> {
-    private record Argument<T>(
+    private record Argument<O, T>(
         @NotNull String name,
         @NotNull Codec<T> codec,
         @NotNull Class<T> type,
+        @NotNull Function<O, T> getter,
         boolean required
-    ) {}
+    ) {
+        private <R> CodecResult<R> encode(Operations<R> operations, O input) {
+            return codec.encode(operations, getter.apply(input));
+        }
+    }
 
-    private final List<Argument<?>> arguments = new ArrayList<>();
+    private final List<Argument<T, ?>> arguments = new ArrayList<>();
 
     private <A> void argument(String name, Codec<A> codec, Function<T, A> getter, boolean required) {
-        arguments.add(new Argument<>(name, codec, codec.type(), required));
+        arguments.add(new Argument<>(name, codec, codec.type(), getter, required));
     }
 
     @Override
@@ -119,7 +126,32 @@ public final class CodecBuilderImpl<T> implements CodecBuilder<T> {
 
             @Override
             public <R> CodecResult<R> encode(Operations<R> operations, T input, R prefix) {
-                return null;
+                if(!Objects.equals(operations.blank(), prefix)) {
+                    return CodecResult.error(() -> "Unable to handle partial result: " + prefix);
+                }
+
+                var entries = new ArrayList<Map.Entry<R, R>>(arguments.size());
+                var errors = new ArrayList<String>();
+                for(var argument : arguments) {
+                    if(argument.getter().apply(input) == null) {
+                        if(argument.required()) {
+                            errors.add("Required argument \"" + argument.name() + "\" is null");
+                        }
+                        continue;
+                    }
+
+                    var result = argument.encode(operations, input);
+                    if(result.hasResult()) {
+                        entries.add(Map.entry(operations.fromString(argument.name()), result.getResult()));
+                    } else {
+                        errors.add(result.getPartial().error());
+                    }
+                }
+
+                if(!errors.isEmpty()) {
+                    return CodecResult.error(() -> String.join(", ", errors));
+                }
+                return CodecResult.success(operations.createMap(entries.stream()));
             }
         };
     }
@@ -127,19 +159,24 @@ public final class CodecBuilderImpl<T> implements CodecBuilder<T> {
     @Override
     @NotNull
     public Codec<T> build(Class<T> type) {
+        var constructorType = MethodType.methodType(
+            void.class,
+            arguments.stream()
+                .map(Argument::type)
+                .toArray(Class[]::new)
+        );
+        MethodHandle constructor;
         try {
-            var codec = build(Treachery.constructor(
-                type,
-                MethodType.methodType(
-                    void.class,
-                    arguments.stream()
-                        .map(Argument::type)
-                        .toArray(Class[]::new))
-                )
-            );
-            return CodecCache.put(codec);
+            constructor = Treachery.constructor(type, constructorType);
         } catch (NoSuchMethodException e) {
-            throw new RuntimeException("Failed to find constructor for " + MiscUtils.longClassName(type), e);
+            // Codecs work with boxed values, records usually use primitives
+            try {
+                constructor = Treachery.constructor(type, constructorType.unwrap());
+            } catch (NoSuchMethodException suppressed) {
+                e.addSuppressed(suppressed);
+                throw new RuntimeException("Failed to find constructor for " + MiscUtils.longClassName(type), e);
+            }
         }
+        return CodecCache.put(build(constructor));
     }
 }
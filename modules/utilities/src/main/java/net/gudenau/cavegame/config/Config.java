@@ -59,6 +59,48 @@ public final class Config<T> {
      */
     public static final Config<Boolean> DEBUG_VULKAN_ALLOCATOR = bool("debug_vk_alloc", false, TRUE);
 
+    /**
+     * Set to false to stop the Vulkan renderer from indexing textures out of a single descriptor table, even when the
+     * device supports descriptor indexing.
+     */
+    public static final Config<Boolean> BINDLESS_TEXTURES = bool("bindless_textures", true, TRUE);
+
+    /**
+     * The amount of ticks per second the dedicated server runs at.
+     */
+    public static final Config<Integer> TICK_RATE = integer("tick_rate", 20, TRUE);
+
+    /**
+     * The path of the Unix domain socket the dedicated server accepts control commands on.
+     */
+    public static final Config<String> CONTROL_SOCKET = string("control_socket", "cavegame.sock", TRUE);
+
+    /**
+     * The width and height of the level the dedicated server creates when there is no save to load.
+     */
+    public static final Config<Integer> LEVEL_SIZE = integer("level_size", 64, TRUE);
+
+    /**
+     * The directory the dedicated server saves its level into, an empty string disables saving.
+     */
+    public static final Config<String> SAVE_DIRECTORY = string("save_directory", "", TRUE);
+
+    /**
+     * The directory compiled shaders and the Vulkan pipeline cache are kept in between runs, an empty string disables
+     * both caches.
+     */
+    public static final Config<String> CACHE_DIRECTORY = string("cache_directory", "cache", TRUE);
+
+    /**
+     * The loopback port the dedicated server replicates its level on, 0 disables replication.
+     */
+    public static final Config<Integer> REPLICATION_PORT = integer("replication_port", 0, TRUE);
+
+    /**
+     * Shows a simulated level instead of the model viewer when the game starts.
+     */
+    public static final Config<Boolean> LEVEL_VIEW = bool("level_view", false, TRUE);
+
     static {
         // Check system props for any matching values
         CONFIGURATION.stream()
@@ -0,0 +1,259 @@
+package net.gudenau.cavegame.renderer.vk;
+
+import net.gudenau.cavegame.logger.Logger;
+import net.gudenau.cavegame.renderer.shader.AttributeType;
+import net.gudenau.cavegame.resource.Identifier;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.lwjgl.util.shaderc.Shaderc.shaderc_get_spv_version;
+
+// Keeps the SPIR-V and the reflection results of compiled shaders on disk so a warm start does not need shaderc or
+// spvc. Entries are named after a hash of everything that goes into compiling them, so stale entries are never read and
+// a cache directory can be shared between builds.
+public final class ShaderCache {
+    private static final Logger LOGGER = Logger.forName("Vulkan");
+
+    private static final int MAGIC = 0x43475356;
+    // Has to be bumped when the compiler options or the entry layout change
+    private static final int VERSION = 1;
+
+    private static final int SPIRV_VERSION;
+    private static final int SPIRV_REVISION;
+    static {
+        try(var stack = MemoryStack.stackPush()) {
+            var version = stack.ints(0);
+            var revision = stack.ints(0);
+            shaderc_get_spv_version(version, revision);
+            SPIRV_VERSION = version.get(0);
+            SPIRV_REVISION = revision.get(0);
+        }
+    }
+
+    // The code is a native buffer that has to be freed by closing the shader
+    public record Shader(
+        @NotNull ByteBuffer code,
+        @NotNull List<VulkanShaderModule.Resource> inputs,
+        @NotNull List<VulkanShaderModule.Resource> outputs,
+        @NotNull List<VulkanShaderModule.Resource> uniforms,
+        @NotNull List<VulkanShaderModule.Resource> samplers
+    ) implements AutoCloseable {
+        @Override
+        public void close() {
+            MemoryUtil.memFree(code);
+        }
+    }
+
+    // Null when caching is disabled
+    @Nullable
+    private final Path directory;
+
+    public ShaderCache(@Nullable Path directory) {
+        if(directory != null) {
+            try {
+                Files.createDirectories(directory);
+            } catch(IOException e) {
+                LOGGER.warn("Failed to create shader cache directory " + directory + ", shaders will not be cached", e);
+                directory = null;
+            }
+        }
+        this.directory = directory;
+    }
+
+    @NotNull
+    public Shader load(@NotNull Identifier identifier, @NotNull VulkanShaderModule.Type type) {
+        return load(identifier, type, Map.of());
+    }
+
+    @NotNull
+    public Shader load(@NotNull Identifier identifier, @NotNull VulkanShaderModule.Type type, @NotNull Map<String, String> macros) {
+        var source = VulkanUtils.readIntoNativeBuffer(identifier);
+        try {
+            if(directory == null) {
+                return compile(source, type, identifier, macros);
+            }
+
+            var file = directory.resolve(key(source, type, identifier, macros) + ".spv");
+            var cached = read(file);
+            if(cached != null) {
+                return cached;
+            }
+
+            var shader = compile(source, type, identifier, macros);
+            try {
+                VulkanUtils.writeAtomically(file, serialize(shader));
+            } catch(IOException e) {
+                LOGGER.warn("Failed to cache shader " + identifier, e);
+            }
+            return shader;
+        } finally {
+            MemoryUtil.memFree(source);
+        }
+    }
+
+    @NotNull
+    private static Shader compile(
+        @NotNull ByteBuffer source,
+        @NotNull VulkanShaderModule.Type type,
+        @NotNull Identifier identifier,
+        @NotNull Map<String, String> macros
+    ) {
+        ByteBuffer code;
+        try(var compiler = ShaderCompiler.acquire()) {
+            code = compiler.compile(source, type.shadercType, identifier.toString(), macros);
+        }
+
+        try(var reflection = ShaderReflection.acquire(code)) {
+            return new Shader(
+                code,
+                reflection.inputs().stream().map(VulkanShaderModule.Resource::of).toList(),
+                reflection.outputs().stream().map(VulkanShaderModule.Resource::of).toList(),
+                reflection.uniforms().stream().map(VulkanShaderModule.Resource::of).toList(),
+                reflection.samplers().stream().map(VulkanShaderModule.Resource::of).toList()
+            );
+        } catch(Throwable e) {
+            MemoryUtil.memFree(code);
+            throw e;
+        }
+    }
+
+    // The identifier is part of the key because it ends up in the debug info
+    @NotNull
+    private static String key(
+        @NotNull ByteBuffer source,
+        @NotNull VulkanShaderModule.Type type,
+        @NotNull Identifier identifier,
+        @NotNull Map<String, String> macros
+    ) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch(NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not supported", e);
+        }
+
+        var header = ByteBuffer.allocate(Integer.BYTES * 3)
+            .putInt(VERSION)
+            .putInt(SPIRV_VERSION)
+            .putInt(SPIRV_REVISION)
+            .flip();
+        digest.update(header);
+        digest.update(type.name().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(identifier.toString().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        // Sorted so the key does not depend on the iteration order of the map
+        for(var macro : new TreeMap<>(macros).entrySet()) {
+            digest.update(macro.getKey().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '=');
+            digest.update(macro.getValue().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        digest.update(source.duplicate());
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    @Nullable
+    private static Shader read(@NotNull Path file) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch(NoSuchFileException e) {
+            return null;
+        } catch(IOException e) {
+            LOGGER.warn("Failed to read cached shader " + file, e);
+            return null;
+        }
+
+        try(var input = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if(input.readInt() != MAGIC || input.readInt() != VERSION) {
+                return null;
+            }
+
+            var inputs = readResources(input);
+            var outputs = readResources(input);
+            var uniforms = readResources(input);
+            var samplers = readResources(input);
+
+            var length = input.readInt();
+            if(length <= 0 || length % Integer.BYTES != 0 || length != input.available()) {
+                throw new IOException("Bad code length " + length);
+            }
+            var code = MemoryUtil.memAlloc(length);
+            code.put(bytes, bytes.length - length, length).flip();
+            return new Shader(code, inputs, outputs, uniforms, samplers);
+        } catch(IOException | IllegalArgumentException e) {
+            LOGGER.warn("Ignoring corrupt cached shader " + file, e);
+            return null;
+        }
+    }
+
+    @NotNull
+    private static List<VulkanShaderModule.Resource> readResources(@NotNull DataInput input) throws IOException {
+        var count = input.readInt();
+        if(count < 0) {
+            throw new IOException("Bad resource count " + count);
+        }
+
+        var resources = new ArrayList<VulkanShaderModule.Resource>(count);
+        for(int i = 0; i < count; i++) {
+            resources.add(new VulkanShaderModule.Resource(
+                input.readUTF(),
+                input.readInt(),
+                input.readInt(),
+                AttributeType.valueOf(input.readUTF()),
+                input.readInt(),
+                input.readInt()
+            ));
+        }
+        return List.copyOf(resources);
+    }
+
+    private static byte[] serialize(@NotNull Shader shader) throws IOException {
+        var bytes = new ByteArrayOutputStream(shader.code().remaining() + 256);
+        try(var output = new DataOutputStream(bytes)) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+
+            writeResources(output, shader.inputs());
+            writeResources(output, shader.outputs());
+            writeResources(output, shader.uniforms());
+            writeResources(output, shader.samplers());
+
+            var code = shader.code();
+            var array = new byte[code.remaining()];
+            code.get(code.position(), array);
+            output.writeInt(array.length);
+            output.write(array);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeResources(@NotNull DataOutput output, @NotNull List<VulkanShaderModule.Resource> resources) throws IOException {
+        output.writeInt(resources.size());
+        for(var resource : resources) {
+            output.writeUTF(resource.name());
+            output.writeInt(resource.location());
+            output.writeInt(resource.binding());
+            output.writeUTF(resource.type().name());
+            output.writeInt(resource.size());
+            output.writeInt(resource.stride());
+        }
+    }
+}
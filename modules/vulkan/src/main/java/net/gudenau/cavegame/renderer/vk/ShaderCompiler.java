@@ -7,6 +7,7 @@ import org.lwjgl.system.MemoryStack;
 import org.lwjgl.system.MemoryUtil;
 
 import java.nio.ByteBuffer;
+import java.util.Map;
 import java.util.Stack;
 
 import static org.lwjgl.system.MemoryUtil.NULL;
@@ -62,8 +63,24 @@ public final class ShaderCompiler implements AutoCloseable {
 
     @NotNull
     public ByteBuffer compile(@NotNull ByteBuffer source, int kind, @NotNull String filename) {
+        return compile(source, kind, filename, Map.of());
+    }
+
+    @NotNull
+    public ByteBuffer compile(@NotNull ByteBuffer source, int kind, @NotNull String filename, @NotNull Map<String, String> macros) {
         long result = NULL;
+        long options = this.options;
         try(var stack = MemoryStack.stackPush()) {
+            if(!macros.isEmpty()) {
+                options = shaderc_compile_options_clone(this.options);
+                if(options == NULL) {
+                    throw new RuntimeException("Failed to clone shaderc options instance");
+                }
+                for(var macro : macros.entrySet()) {
+                    shaderc_compile_options_add_macro_definition(options, macro.getKey(), macro.getValue());
+                }
+            }
+
             result = shaderc_compile_into_spv(
                 handle,
                 source,
@@ -95,6 +112,9 @@ public final class ShaderCompiler implements AutoCloseable {
             if(result != NULL) {
                 shaderc_result_release(result);
             }
+            if(options != this.options) {
+                shaderc_compile_options_release(options);
+            }
         }
     }
 
@@ -52,6 +52,7 @@ public final class ShaderReflection implements AutoCloseable {
         public AttributeType baseType() {
             return switch(spvc_type_get_basetype(base)) {
                 case SPVC_BASETYPE_FP32 -> AttributeType.FLOAT;
+                case SPVC_BASETYPE_UINT32 -> AttributeType.UINT;
                 case SPVC_BASETYPE_STRUCT -> AttributeType.STRUCT;
                 case SPVC_BASETYPE_SAMPLED_IMAGE -> AttributeType.SAMPLER;
                 default -> throw new RuntimeException("Don't know how to handle a base type of " + spvc_type_get_basetype(base));
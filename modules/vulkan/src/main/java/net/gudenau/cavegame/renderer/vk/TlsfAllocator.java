@@ -0,0 +1,317 @@
+package net.gudenau.cavegame.renderer.vk;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.Arrays;
+
+// Two level segregated fit allocator for ranges of a single block of memory, it only tracks offsets so it does not
+// need a device. Allocations are identified by an index that stays valid until they are freed.
+final class TlsfAllocator {
+    // Every offset and size is a multiple of this
+    static final long MIN_ALIGNMENT = 16;
+
+    private static final int SL_SHIFT = 4;
+    private static final int SL_COUNT = 1 << SL_SHIFT;
+    // The smallest size class covers MIN_ALIGNMENT * SL_COUNT bytes in steps of MIN_ALIGNMENT
+    private static final int FL_SHIFT = Long.numberOfTrailingZeros(MIN_ALIGNMENT) + SL_SHIFT;
+    private static final int FL_COUNT = 64 - FL_SHIFT + 1;
+
+    private static final int NONE = -1;
+
+    private final long size;
+
+    // Nodes are the free and used ranges of the block, ordered by offset through prev/next
+    private long[] offsets = new long[16];
+    private long[] sizes = new long[16];
+    private int[] prevPhysical = new int[16];
+    private int[] nextPhysical = new int[16];
+    private int[] prevFree = new int[16];
+    private int[] nextFree = new int[16];
+    private boolean[] used = new boolean[16];
+    private int nodeCount = 0;
+    private final IntArrayList unusedNodes = new IntArrayList();
+
+    private long firstLevelMap = 0;
+    private final int[] secondLevelMaps = new int[FL_COUNT];
+    private final int[] freeHeads = new int[FL_COUNT * SL_COUNT];
+
+    private long usedBytes = 0;
+    private int allocationCount = 0;
+
+    TlsfAllocator(long size) {
+        if(size < MIN_ALIGNMENT || size % MIN_ALIGNMENT != 0) {
+            throw new IllegalArgumentException("size must be a positive multiple of " + MIN_ALIGNMENT);
+        }
+        this.size = size;
+
+        Arrays.fill(freeHeads, NONE);
+        var node = createNode(0, size);
+        insertFree(node);
+    }
+
+    // Returns the allocation or -1 if there is no free range that is large enough
+    int allocate(long size, long alignment) {
+        if(size <= 0) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        if(Long.bitCount(alignment) != 1) {
+            throw new IllegalArgumentException("alignment must be a power of two");
+        }
+
+        size = alignUp(size, MIN_ALIGNMENT);
+        alignment = Math.max(alignment, MIN_ALIGNMENT);
+        // Free ranges always start at a multiple of MIN_ALIGNMENT, so this much padding is always enough
+        var searchSize = size + alignment - MIN_ALIGNMENT;
+        if(searchSize > this.size || searchSize < 0) {
+            return NONE;
+        }
+
+        var node = findFree(searchSize);
+        if(node == NONE) {
+            return NONE;
+        }
+        removeFree(node);
+
+        var padding = alignUp(offsets[node], alignment) - offsets[node];
+        if(padding != 0) {
+            // Neighbouring free ranges are always merged, so the padding can not join the previous range
+            var front = createNode(offsets[node], padding);
+            linkBefore(front, node);
+            offsets[node] += padding;
+            sizes[node] -= padding;
+            insertFree(front);
+        }
+
+        var remaining = sizes[node] - size;
+        if(remaining != 0) {
+            var back = createNode(offsets[node] + size, remaining);
+            linkAfter(back, node);
+            sizes[node] = size;
+            insertFree(back);
+        }
+
+        used[node] = true;
+        usedBytes += size;
+        allocationCount++;
+        return node;
+    }
+
+    void free(int node) {
+        if(node < 0 || node >= nodeCount || !used[node]) {
+            throw new IllegalArgumentException("Allocation " + node + " is not in use");
+        }
+
+        used[node] = false;
+        usedBytes -= sizes[node];
+        allocationCount--;
+
+        var previous = prevPhysical[node];
+        if(previous != NONE && !used[previous]) {
+            removeFree(previous);
+            offsets[node] = offsets[previous];
+            sizes[node] += sizes[previous];
+            unlink(previous);
+        }
+
+        var next = nextPhysical[node];
+        if(next != NONE && !used[next]) {
+            removeFree(next);
+            sizes[node] += sizes[next];
+            unlink(next);
+        }
+
+        insertFree(node);
+    }
+
+    long offset(int node) {
+        return offsets[node];
+    }
+
+    long size(int node) {
+        return sizes[node];
+    }
+
+    long size() {
+        return size;
+    }
+
+    long usedBytes() {
+        return usedBytes;
+    }
+
+    int allocationCount() {
+        return allocationCount;
+    }
+
+    boolean isEmpty() {
+        return allocationCount == 0;
+    }
+
+    // The largest allocation with the minimum alignment that would still fit
+    long largestFree() {
+        if(firstLevelMap == 0) {
+            return 0;
+        }
+
+        // Only the highest non-empty class can hold the largest range, its ranges are not sorted
+        var firstLevel = 63 - Long.numberOfLeadingZeros(firstLevelMap);
+        var secondLevel = 31 - Integer.numberOfLeadingZeros(secondLevelMaps[firstLevel]);
+        long largest = 0;
+        for(var node = freeHeads[firstLevel * SL_COUNT + secondLevel]; node != NONE; node = nextFree[node]) {
+            largest = Math.max(largest, sizes[node]);
+        }
+        return largest;
+    }
+
+    private static long alignUp(long value, long alignment) {
+        return (value + alignment - 1) & -alignment;
+    }
+
+    private static int firstLevel(long size) {
+        return Math.max(0, 63 - Long.numberOfLeadingZeros(size) - FL_SHIFT + 1);
+    }
+
+    private static int secondLevel(long size, int firstLevel) {
+        if(firstLevel == 0) {
+            return (int) (size / MIN_ALIGNMENT) & (SL_COUNT - 1);
+        }
+        return (int) (size >>> (firstLevel + FL_SHIFT - 1 - SL_SHIFT)) & (SL_COUNT - 1);
+    }
+
+    // Finds a free range that is at least size bytes
+    private int findFree(long size) {
+        // Rounding up to the next class skips the class that might contain smaller ranges
+        var firstLevel = firstLevel(size);
+        var secondLevel = secondLevel(size, firstLevel);
+        var rounded = firstLevel == 0 ? size : size + (1L << (firstLevel + FL_SHIFT - 1 - SL_SHIFT)) - 1;
+        var node = findFreeList(firstLevel(rounded), secondLevel(rounded, firstLevel(rounded)));
+        if(node != NONE) {
+            return node;
+        }
+
+        // The class of the size itself can still hold a range that is large enough
+        for(node = freeHeads[firstLevel * SL_COUNT + secondLevel]; node != NONE; node = nextFree[node]) {
+            if(sizes[node] >= size) {
+                return node;
+            }
+        }
+        return NONE;
+    }
+
+    // Finds the first non-empty free list at or above a size class
+    private int findFreeList(int firstLevel, int secondLevel) {
+        if(firstLevel >= FL_COUNT) {
+            return NONE;
+        }
+
+        var secondMap = secondLevelMaps[firstLevel] & (-1 << secondLevel);
+        if(secondMap == 0) {
+            var firstMap = firstLevelMap & (-1L << (firstLevel + 1));
+            if(firstMap == 0) {
+                return NONE;
+            }
+            firstLevel = Long.numberOfTrailingZeros(firstMap);
+            secondMap = secondLevelMaps[firstLevel];
+        }
+        return freeHeads[firstLevel * SL_COUNT + Integer.numberOfTrailingZeros(secondMap)];
+    }
+
+    private void insertFree(int node) {
+        var firstLevel = firstLevel(sizes[node]);
+        var secondLevel = secondLevel(sizes[node], firstLevel);
+        var list = firstLevel * SL_COUNT + secondLevel;
+
+        var head = freeHeads[list];
+        prevFree[node] = NONE;
+        nextFree[node] = head;
+        if(head != NONE) {
+            prevFree[head] = node;
+        }
+        freeHeads[list] = node;
+        firstLevelMap |= 1L << firstLevel;
+        secondLevelMaps[firstLevel] |= 1 << secondLevel;
+    }
+
+    private void removeFree(int node) {
+        var firstLevel = firstLevel(sizes[node]);
+        var secondLevel = secondLevel(sizes[node], firstLevel);
+        var list = firstLevel * SL_COUNT + secondLevel;
+
+        var previous = prevFree[node];
+        var next = nextFree[node];
+        if(previous != NONE) {
+            nextFree[previous] = next;
+        } else {
+            freeHeads[list] = next;
+        }
+        if(next != NONE) {
+            prevFree[next] = previous;
+        }
+
+        if(freeHeads[list] == NONE) {
+            secondLevelMaps[firstLevel] &= ~(1 << secondLevel);
+            if(secondLevelMaps[firstLevel] == 0) {
+                firstLevelMap &= ~(1L << firstLevel);
+            }
+        }
+    }
+
+    private int createNode(long offset, long size) {
+        int node;
+        if(!unusedNodes.isEmpty()) {
+            node = unusedNodes.popInt();
+        } else {
+            if(nodeCount == offsets.length) {
+                var capacity = nodeCount * 2;
+                offsets = Arrays.copyOf(offsets, capacity);
+                sizes = Arrays.copyOf(sizes, capacity);
+                prevPhysical = Arrays.copyOf(prevPhysical, capacity);
+                nextPhysical = Arrays.copyOf(nextPhysical, capacity);
+                prevFree = Arrays.copyOf(prevFree, capacity);
+                nextFree = Arrays.copyOf(nextFree, capacity);
+                used = Arrays.copyOf(used, capacity);
+            }
+            node = nodeCount++;
+        }
+
+        offsets[node] = offset;
+        sizes[node] = size;
+        prevPhysical[node] = NONE;
+        nextPhysical[node] = NONE;
+        used[node] = false;
+        return node;
+    }
+
+    private void linkBefore(int node, int next) {
+        var previous = prevPhysical[next];
+        prevPhysical[node] = previous;
+        nextPhysical[node] = next;
+        prevPhysical[next] = node;
+        if(previous != NONE) {
+            nextPhysical[previous] = node;
+        }
+    }
+
+    private void linkAfter(int node, int previous) {
+        var next = nextPhysical[previous];
+        prevPhysical[node] = previous;
+        nextPhysical[node] = next;
+        nextPhysical[previous] = node;
+        if(next != NONE) {
+            prevPhysical[next] = node;
+        }
+    }
+
+    // Removes a node from the physical list and recycles it
+    private void unlink(int node) {
+        var previous = prevPhysical[node];
+        var next = nextPhysical[node];
+        if(previous != NONE) {
+            nextPhysical[previous] = next;
+        }
+        if(next != NONE) {
+            prevPhysical[next] = previous;
+        }
+        unusedNodes.add(node);
+    }
+}
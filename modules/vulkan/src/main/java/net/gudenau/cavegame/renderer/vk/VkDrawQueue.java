@@ -0,0 +1,213 @@
+package net.gudenau.cavegame.renderer.vk;
+
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+import static org.lwjgl.vulkan.VK10.VK_SHADER_STAGE_FRAGMENT_BIT;
+
+// Collects the draws of a frame so they can be recorded into a single render pass, grouped by their state.
+final class VkDrawQueue {
+    // Draws can overlap, so draws of different pipelines have to stay in submission order. Every change of pipeline
+    // starts a new layer and the layer is the highest part of the sort key, only the buffers are grouped within a layer.
+    // The sort is stable so draws with the same key stay in submission order. Buffer ranks that don't fit are clamped,
+    // those draws are grouped less but still recorded correctly. Layers can't be clamped, the queue is recorded in
+    // submission order when they run out.
+    private static final int LAYER_BITS = 19;
+    private static final int BUFFER_BITS = 22;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private VulkanGraphicsPipeline[] pipelines = new VulkanGraphicsPipeline[INITIAL_CAPACITY];
+    private VkGraphicsBuffer[] vertexBuffers = new VkGraphicsBuffer[INITIAL_CAPACITY];
+    private VkGraphicsBuffer[] indexBuffers = new VkGraphicsBuffer[INITIAL_CAPACITY];
+    private VkGraphicsBuffer[] instanceBuffers = new VkGraphicsBuffer[INITIAL_CAPACITY];
+    private int[] vertexCounts = new int[INITIAL_CAPACITY];
+    private int[] firstInstances = new int[INITIAL_CAPACITY];
+    private int[] instanceCounts = new int[INITIAL_CAPACITY];
+    private int[] uniformOffsets = new int[INITIAL_CAPACITY];
+    private int[][] textureEntries = new int[INITIAL_CAPACITY][];
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private int[] order = new int[INITIAL_CAPACITY];
+    private int count = 0;
+    // The offset of the uniform region of the frame, the queued offsets are relative to it
+    private int uniformBase = 0;
+    private int layer = 0;
+    private boolean sortable = true;
+
+    private final ReferenceOpenHashSet<VulkanGraphicsPipeline> queuedPipelines = new ReferenceOpenHashSet<>();
+    // The order in which buffers were first seen this frame, used instead of handles to keep the keys small
+    private final Reference2IntOpenHashMap<Object> vertexRanks = new Reference2IntOpenHashMap<>();
+    private final Reference2IntOpenHashMap<Object> indexRanks = new Reference2IntOpenHashMap<>();
+
+    VkDrawQueue() {
+        vertexRanks.defaultReturnValue(-1);
+        indexRanks.defaultReturnValue(-1);
+    }
+
+    void add(@NotNull VkShader shader, int uniformOffset, @NotNull VkGraphicsBuffer vertexBuffer, @Nullable VkGraphicsBuffer indexBuffer, int vertexCount) {
+        add(shader, uniformOffset, vertexBuffer, indexBuffer, vertexCount, null, 0, 1);
+    }
+
+    // Instance buffers, uniforms and textures are not part of the key, draws sharing a mesh usually share them as well
+    void add(
+        @NotNull VkShader shader,
+        int uniformOffset,
+        @NotNull VkGraphicsBuffer vertexBuffer,
+        @Nullable VkGraphicsBuffer indexBuffer,
+        int vertexCount,
+        @Nullable VkGraphicsBuffer instanceBuffer,
+        int firstInstance,
+        int instanceCount
+    ) {
+        if(count == keys.length) {
+            var capacity = keys.length * 2;
+            pipelines = Arrays.copyOf(pipelines, capacity);
+            vertexBuffers = Arrays.copyOf(vertexBuffers, capacity);
+            indexBuffers = Arrays.copyOf(indexBuffers, capacity);
+            instanceBuffers = Arrays.copyOf(instanceBuffers, capacity);
+            vertexCounts = Arrays.copyOf(vertexCounts, capacity);
+            firstInstances = Arrays.copyOf(firstInstances, capacity);
+            instanceCounts = Arrays.copyOf(instanceCounts, capacity);
+            uniformOffsets = Arrays.copyOf(uniformOffsets, capacity);
+            textureEntries = Arrays.copyOf(textureEntries, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            order = Arrays.copyOf(order, capacity);
+        }
+
+        var pipeline = shader.pipeline();
+        var index = count++;
+        if(index > 0 && pipelines[index - 1] != pipeline) {
+            if(layer == (1 << LAYER_BITS) - 1) {
+                sortable = false;
+            } else {
+                layer++;
+            }
+        }
+        queuedPipelines.add(pipeline);
+        pipelines[index] = pipeline;
+        vertexBuffers[index] = vertexBuffer;
+        indexBuffers[index] = indexBuffer;
+        instanceBuffers[index] = instanceBuffer;
+        vertexCounts[index] = vertexCount;
+        firstInstances[index] = firstInstance;
+        instanceCounts[index] = instanceCount;
+        uniformOffsets[index] = uniformOffset;
+        textureEntries[index] = shader.textureEntries();
+
+        // Index buffers use rank 0 for none, the key stays positive so the signed sort order is the unsigned one
+        keys[index] = (long) layer << BUFFER_BITS * 2 |
+            (long) rank(vertexRanks, vertexBuffer, BUFFER_BITS) << BUFFER_BITS |
+            (indexBuffer == null ? 0 : rank(indexRanks, indexBuffer, BUFFER_BITS - 1) + 1);
+        order[index] = index;
+    }
+
+    private static int rank(@NotNull Reference2IntOpenHashMap<Object> ranks, @NotNull Object state, int bits) {
+        var rank = ranks.getInt(state);
+        if(rank == -1) {
+            rank = ranks.size();
+            ranks.put(state, rank);
+        }
+        return Math.min(rank, (1 << bits) - 1);
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    int size() {
+        return count;
+    }
+
+    // Points every queued pipeline at the current uniform buffer, has to be called before recording
+    void bindUniforms(@NotNull VkUniformAllocator uniforms) {
+        uniformBase = uniforms.frameOffset();
+        var buffer = uniforms.buffer();
+        for(var pipeline : queuedPipelines) {
+            pipeline.uniformBuffer(buffer);
+        }
+    }
+
+    // Has to be called before recording, ranges of the sorted queue can then be recorded from several threads at once
+    void sort() {
+        if(sortable) {
+            LongArrays.radixSortIndirect(order, keys, 0, count, true);
+        }
+    }
+
+    // Records a range of the sorted draws, state that did not change between two draws is not bound again
+    void record(@NotNull VulkanCommandBuffer commandBuffer, int start, int end) {
+        VulkanGraphicsPipeline boundPipeline = null;
+        long[] boundDescriptorSets = null;
+        int boundUniformOffset = -1;
+        int[] boundTextureEntries = null;
+        VkGraphicsBuffer boundVertexBuffer = null;
+        VkGraphicsBuffer boundIndexBuffer = null;
+        VkGraphicsBuffer boundInstanceBuffer = null;
+        for(int i = start; i < end; i++) {
+            var index = order[i];
+
+            var pipeline = pipelines[index];
+            if(pipeline != boundPipeline) {
+                commandBuffer.bindPipeline(pipeline);
+                boundPipeline = pipeline;
+                // Push constants of a different pipeline layout are not kept
+                boundTextureEntries = null;
+            }
+
+            var descriptorSets = pipeline.descriptorSets();
+            var uniformOffset = uniformBase + uniformOffsets[index];
+            if(descriptorSets != boundDescriptorSets || uniformOffset != boundUniformOffset) {
+                commandBuffer.bindDescriptorSets(pipeline.layout(), descriptorSets, uniformOffset, pipeline.uniformCount());
+                boundDescriptorSets = descriptorSets;
+                boundUniformOffset = uniformOffset;
+            }
+
+            var entries = textureEntries[index];
+            if(entries != null && entries != boundTextureEntries) {
+                commandBuffer.pushConstants(pipeline.layout(), VK_SHADER_STAGE_FRAGMENT_BIT, entries);
+                boundTextureEntries = entries;
+            }
+
+            var vertexBuffer = vertexBuffers[index];
+            if(vertexBuffer != boundVertexBuffer) {
+                commandBuffer.bindVertexBuffer(vertexBuffer);
+                boundVertexBuffer = vertexBuffer;
+            }
+
+            var instanceBuffer = instanceBuffers[index];
+            if(instanceBuffer != null && instanceBuffer != boundInstanceBuffer) {
+                commandBuffer.bindVertexBuffer(1, instanceBuffer);
+                boundInstanceBuffer = instanceBuffer;
+            }
+
+            var indexBuffer = indexBuffers[index];
+            if(indexBuffer == null) {
+                commandBuffer.draw(vertexCounts[index], instanceCounts[index], 0, firstInstances[index]);
+            } else {
+                if(indexBuffer != boundIndexBuffer) {
+                    commandBuffer.bindIndexBuffer(indexBuffer);
+                    boundIndexBuffer = indexBuffer;
+                }
+                commandBuffer.drawIndexed(vertexCounts[index], instanceCounts[index], 0, 0, firstInstances[index]);
+            }
+        }
+    }
+
+    void clear() {
+        Arrays.fill(pipelines, 0, count, null);
+        Arrays.fill(vertexBuffers, 0, count, null);
+        Arrays.fill(indexBuffers, 0, count, null);
+        Arrays.fill(instanceBuffers, 0, count, null);
+        Arrays.fill(textureEntries, 0, count, null);
+        count = 0;
+        layer = 0;
+        sortable = true;
+        queuedPipelines.clear();
+        vertexRanks.clear();
+        indexRanks.clear();
+    }
+}
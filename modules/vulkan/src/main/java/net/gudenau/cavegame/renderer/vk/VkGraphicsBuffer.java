@@ -2,6 +2,7 @@ package net.gudenau.cavegame.renderer.vk;
 
 import net.gudenau.cavegame.renderer.BufferType;
 import net.gudenau.cavegame.renderer.GraphicsBuffer;
+import net.gudenau.cavegame.renderer.IndexType;
 import net.gudenau.cavegame.renderer.shader.Shader;
 import net.gudenau.cavegame.util.Treachery;
 import org.jetbrains.annotations.NotNull;
@@ -17,27 +18,39 @@ import static org.lwjgl.vulkan.VK10.*;
 
 public class VkGraphicsBuffer implements GraphicsBuffer {
     private final VulkanLogicalDevice device;
-    private final VulkanCommandPool commandPool;
+    private final VkUploadManager uploads;
     private final boolean empherial;
+    private final boolean staging;
     private final int size;
 
     private final long handle;
     private final VulkanMemory memory;
 
+    // Nothing can be reading the buffer before its first upload, so that one can go through the transfer queue
+    private boolean uploaded = false;
+
     private VkShader shader;
+    private IndexType indexType = IndexType.UINT16;
+
+    VkGraphicsBuffer(@NotNull VulkanLogicalDevice device, @NotNull VkUploadManager uploads, @NotNull BufferType type, int size) {
+        this(device, uploads, type, size, false);
+    }
 
-    VkGraphicsBuffer(@NotNull VulkanLogicalDevice device, @NotNull VulkanCommandPool commandPool, @NotNull BufferType type, int size) {
+    // Host visible buffers are written directly instead of through a staging buffer
+    VkGraphicsBuffer(@NotNull VulkanLogicalDevice device, @NotNull VkUploadManager uploads, @NotNull BufferType type, int size, boolean hostVisible) {
         this.device = device;
-        this.commandPool = commandPool;
-        this.empherial = switch(type) {
+        this.uploads = uploads;
+        this.empherial = hostVisible || switch(type) {
             case UNIFORM, STAGING -> true;
             default -> false;
         };
+        this.staging = type == BufferType.STAGING;
         this.size = size;
 
         try(var stack = MemoryStack.stackPush()) {
             var handlePointer = stack.longs(0);
             memory = createBuffer(
+                size,
                 switch(type) {
                     case VERTEX -> VK_BUFFER_USAGE_VERTEX_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT;
                     case INDEX -> VK_BUFFER_USAGE_INDEX_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT;
@@ -52,7 +65,7 @@ public class VkGraphicsBuffer implements GraphicsBuffer {
         }
     }
 
-    private VulkanMemory createBuffer(int usage, int properties, @NotNull LongBuffer handle) {
+    private VulkanMemory createBuffer(int size, int usage, int properties, @NotNull LongBuffer handle) {
         VulkanMemory memory;
 
         try(var stack = MemoryStack.stackPush()) {
@@ -60,7 +73,13 @@ public class VkGraphicsBuffer implements GraphicsBuffer {
             bufferInfo.sType$Default();
             bufferInfo.size(size);
             bufferInfo.usage(usage);
-            bufferInfo.sharingMode(VK_SHARING_MODE_EXCLUSIVE);
+            var queueFamilies = device.concurrentQueueFamilies(stack);
+            if(queueFamilies != null) {
+                bufferInfo.sharingMode(VK_SHARING_MODE_CONCURRENT);
+                bufferInfo.pQueueFamilyIndices(queueFamilies);
+            } else {
+                bufferInfo.sharingMode(VK_SHARING_MODE_EXCLUSIVE);
+            }
 
             var result = vkCreateBuffer(device.handle(), bufferInfo, VulkanAllocator.get(), handle);
             if(result != VK_SUCCESS) {
@@ -68,12 +87,14 @@ public class VkGraphicsBuffer implements GraphicsBuffer {
             }
             var buffer = handle.get(0);
 
-            var memoryRequirements = VkMemoryRequirements.calloc(stack);
-            vkGetBufferMemoryRequirements(device.handle(), buffer, memoryRequirements);
-
-            memory = new VulkanMemory(device, memoryRequirements, properties);
+            try {
+                memory = device.memoryAllocator().allocateBuffer(buffer, properties);
+            } catch(RuntimeException e) {
+                vkDestroyBuffer(device.handle(), buffer, VulkanAllocator.get());
+                throw e;
+            }
 
-            result = vkBindBufferMemory(device.handle(), buffer, memory.handle(), 0);
+            result = vkBindBufferMemory(device.handle(), buffer, memory.handle(), memory.offset());
             if(result != VK_SUCCESS) {
                 vkDestroyBuffer(device.handle(), handle.get(0), VulkanAllocator.get());
                 memory.close();
@@ -88,12 +109,26 @@ public class VkGraphicsBuffer implements GraphicsBuffer {
         this.shader = shader;
     }
 
+    public void indexType(@NotNull IndexType indexType) {
+        this.indexType = indexType;
+    }
+
+    @NotNull
+    public IndexType indexType() {
+        return indexType;
+    }
+
     @Override
-    public void upload(@NotNull ByteBuffer data) {
+    public void upload(@NotNull ByteBuffer data, int offset) {
+        if(offset < 0 || data.remaining() > size - offset) {
+            throw new IllegalArgumentException("Upload of " + data.remaining() + " bytes at " + offset + " does not fit in a buffer of " + size + " bytes");
+        }
+
         if(empherial) {
-            memory.upload(data);
+            memory.upload(data, offset);
         } else {
-            doUpload(data);
+            uploads.upload(this, data, offset, !uploaded);
+            uploaded = true;
         }
     }
 
@@ -101,29 +136,9 @@ public class VkGraphicsBuffer implements GraphicsBuffer {
         return size;
     }
 
-    private void doUpload(ByteBuffer data) {
-        try(var stack = MemoryStack.stackPush()) {
-            var stagingPointer = stack.longs(0);
-            var stagingMemory = createBuffer(
-                VK_BUFFER_USAGE_TRANSFER_SRC_BIT,
-                VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT | VK_MEMORY_PROPERTY_HOST_COHERENT_BIT,
-                stagingPointer
-            );
-            var staging = stagingPointer.get(0);
-
-            stagingMemory.upload(data);
-
-            try(var commandBuffer = new VulkanCommandBuffer(device, commandPool)) {
-                commandBuffer.begin();
-                commandBuffer.copyBuffer(staging, 0, handle, 0, size);
-                commandBuffer.end();
-                commandBuffer.submit(device.graphicsQueue());
-                vkQueueWaitIdle(device.graphicsQueue());
-            }
-
-            vkDestroyBuffer(device.handle(), staging, VulkanAllocator.get());
-            stagingMemory.close();
-        }
+    @NotNull
+    VulkanMemory memory() {
+        return memory;
     }
 
     @Override
@@ -133,6 +148,16 @@ public class VkGraphicsBuffer implements GraphicsBuffer {
 
     @Override
     public void close() {
+        // Frames in flight might still read the buffer and pending uploads might still copy into it. Staging buffers
+        // belong to the upload manager, it only closes them once the batches using them finished.
+        if(staging) {
+            destroy();
+        } else {
+            uploads.release(this::destroy);
+        }
+    }
+
+    private void destroy() {
         vkDestroyBuffer(device.handle(), handle, VulkanAllocator.get());
         memory.close();
     }
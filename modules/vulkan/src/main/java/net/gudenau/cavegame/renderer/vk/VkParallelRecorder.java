@@ -0,0 +1,89 @@
+package net.gudenau.cavegame.renderer.vk;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Records large draw queues on worker threads, every worker records a contiguous range of the sorted queue into a
+// secondary command buffer and the primary command buffer executes them in order. Command pools can only be used by one
+// thread at a time, so every worker has its own pool per frame in flight.
+final class VkParallelRecorder implements AutoCloseable {
+    // Handing off a smaller range costs more than recording it
+    private static final int MIN_DRAWS_PER_RANGE = 256;
+    private static final int MAX_WORKERS = 8;
+
+    private final int workers;
+    private final ExecutorService executor;
+    // Indexed by frame * workers + worker, every pool only ever holds its one command buffer
+    private final VulkanCommandPool[] pools;
+    private final VulkanCommandBuffer[] commandBuffers;
+
+    VkParallelRecorder(@NotNull VulkanLogicalDevice device, int frames) {
+        workers = Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors());
+        executor = Executors.newFixedThreadPool(workers, Thread.ofPlatform().daemon().name("VulkanRecorder-", 0).factory());
+
+        var queueFamily = device.device().graphicsQueue();
+        pools = new VulkanCommandPool[frames * workers];
+        commandBuffers = new VulkanCommandBuffer[frames * workers];
+        for(int i = 0; i < pools.length; i++) {
+            pools[i] = new VulkanCommandPool(device, queueFamily);
+            commandBuffers[i] = new VulkanCommandBuffer(device, pools[i], true);
+        }
+    }
+
+    // Less than two ranges are not worth the hand off, the queue should be recorded inline instead
+    int ranges(int draws) {
+        return Math.min(workers, draws / MIN_DRAWS_PER_RANGE);
+    }
+
+    // The primary command buffer has to be inside of a render pass that was begun for secondary command buffers and the
+    // queue has to be sorted. Returns once every range was recorded and executed.
+    void record(
+        @NotNull VulkanCommandBuffer primary,
+        @NotNull VkDrawQueue queue,
+        int frame,
+        int ranges,
+        @NotNull VulkanRenderPass renderPass,
+        @NotNull VulkanFramebuffer framebuffer,
+        int width,
+        int height
+    ) {
+        var count = queue.size();
+        var futures = new CompletableFuture<?>[ranges];
+        var recorded = new ArrayList<VulkanCommandBuffer>(ranges);
+        for(int i = 0; i < ranges; i++) {
+            var slot = frame * workers + i;
+            var start = (int) ((long) count * i / ranges);
+            var end = (int) ((long) count * (i + 1) / ranges);
+            var pool = pools[slot];
+            var commandBuffer = commandBuffers[slot];
+            recorded.add(commandBuffer);
+
+            // The fence of this frame was waited on, so nothing from the pool can still be pending
+            futures[i] = CompletableFuture.runAsync(() -> {
+                pool.reset();
+                commandBuffer.beginSecondary(renderPass, framebuffer);
+                // Dynamic state is not inherited from the primary command buffer
+                commandBuffer.setViewport(width, height);
+                commandBuffer.setScissor(0, 0, width, height);
+                queue.record(commandBuffer, start, end);
+                commandBuffer.end();
+            }, executor);
+        }
+        CompletableFuture.allOf(futures).join();
+
+        primary.executeCommands(recorded);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        for(int i = 0; i < pools.length; i++) {
+            commandBuffers[i].close();
+            pools[i].close();
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package net.gudenau.cavegame.renderer.vk;
 
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
 import it.unimi.dsi.fastutil.ints.IntList;
+import net.gudenau.cavegame.config.Config;
 import net.gudenau.cavegame.logger.Logger;
 import net.gudenau.cavegame.renderer.*;
 import net.gudenau.cavegame.renderer.screen.Screen;
@@ -12,14 +14,15 @@ import net.gudenau.cavegame.renderer.texture.TextureManager;
 import net.gudenau.cavegame.renderer.vk.texture.VulkanTexture;
 import net.gudenau.cavegame.renderer.vk.texture.VulkanTextureManager;
 import net.gudenau.cavegame.resource.Identifier;
+import net.gudenau.cavegame.util.SharedLock;
 import net.gudenau.cavegame.util.collection.FastCollectors;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import org.joml.Vector3f;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.VkFormatProperties;
 import org.lwjgl.vulkan.VkPresentInfoKHR;
 
+import java.nio.file.Path;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -31,7 +34,11 @@ import static org.lwjgl.vulkan.VK10.*;
 public final class VkRenderer implements Renderer {
     public static final Logger LOGGER = Logger.forName("Vulkan");
 
-    private static final int MAX_FRAMES_IN_FLIGHT = 2;
+    static final int MAX_FRAMES_IN_FLIGHT = 2;
+    // Every shader has a single descriptor set
+    private static final int MAX_SHADERS = 64;
+    // The smallest maxPushConstantsSize devices are allowed to have
+    private static final int MAX_PUSH_CONSTANTS_SIZE = 128;
     private int currentFrame = 0;
     private int currentSemaphore = 0;
     private boolean framebufferResized = false;
@@ -59,6 +66,12 @@ public final class VkRenderer implements Renderer {
     @NotNull
     private final VulkanCommandPool commandPool;
     @NotNull
+    private final VkUploadManager uploads;
+    @NotNull
+    private final ShaderCache shaderCache;
+    @NotNull
+    private final VulkanPipelineCache pipelineCache;
+    @NotNull
     private VulkanImageBuffer colorBuffer;
     @NotNull
     private VulkanImageBuffer depthBuffer;
@@ -67,12 +80,28 @@ public final class VkRenderer implements Renderer {
     private FrameState currentFrameState;
     private int currentImageIndex;
     private final VulkanDescriptorPool descriptorPool;
+    // Null when the device can not index textures from a single descriptor set
+    @Nullable
+    private final VkTextureTable textureTable;
+    // Pipelines of shaders that use the texture table, keyed by the shader they were loaded from
+    private final Map<Identifier, CompiledShader> sharedShaders = new HashMap<>();
+    private final SharedLock sharedShadersLock = new SharedLock();
     private final VulkanTextureManager textureManager;
+    private final VkDrawQueue drawQueue = new VkDrawQueue();
+    private final VkParallelRecorder recorder;
+    private final VkUniformAllocator uniformAllocator;
+    private final UniformBufferObject uniforms = new UniformBufferObject();
 
     public VulkanPhysicalDevice physicalDevice() {
         return physicalDevice;
     }
 
+    // A snapshot of the device memory use per heap, cheap enough to query every frame for a debug overlay
+    @NotNull
+    public List<VulkanMemoryAllocator.HeapStatistics> memoryStatistics() {
+        return logicalDevice.memoryAllocator().statistics();
+    }
+
     private record SwapChainState(
         @NotNull VulkanFramebuffer framebuffer,
         @NotNull VulkanSemaphore imageAvailableSemaphore,
@@ -97,12 +126,10 @@ public final class VkRenderer implements Renderer {
     private record FrameState(
         int index,
         @NotNull VulkanCommandBuffer commandBuffer,
-        @NotNull VulkanFence inFlightFence,
-        @NotNull GraphicsBuffer uniformBuffer
+        @NotNull VulkanFence inFlightFence
     ) implements AutoCloseable {
         @Override
         public void close() {
-            uniformBuffer.close();
             commandBuffer.close();
             inFlightFence.close();
         }
@@ -116,8 +143,7 @@ public final class VkRenderer implements Renderer {
         return new FrameState(
             index,
             new VulkanCommandBuffer(device, commandPool),
-            new VulkanFence(device),
-            createBuffer(BufferType.UNIFORM, Float.BYTES * 4 * 4 * 3)
+            new VulkanFence(device)
         );
     }
 
@@ -139,6 +165,12 @@ public final class VkRenderer implements Renderer {
                 .toList();
 
             commandPool = new VulkanCommandPool(physicalDevice, logicalDevice);
+            uploads = new VkUploadManager(logicalDevice);
+
+            var cacheDirectory = Config.CACHE_DIRECTORY.get();
+            var cachePath = cacheDirectory.isEmpty() ? null : Path.of(cacheDirectory);
+            shaderCache = new ShaderCache(cachePath == null ? null : cachePath.resolve("shaders"));
+            pipelineCache = new VulkanPipelineCache(logicalDevice, cachePath == null ? null : cachePath.resolve("pipelines.bin"));
 
             colorBuffer = new VulkanImageBuffer(logicalDevice, swapchain, swapchain.imageFormat(), VK_IMAGE_USAGE_TRANSIENT_ATTACHMENT_BIT | VK_IMAGE_USAGE_COLOR_ATTACHMENT_BIT);
             depthBuffer = new VulkanImageBuffer(logicalDevice, swapchain, findDepthFormat(physicalDevice), VK_IMAGE_USAGE_DEPTH_STENCIL_ATTACHMENT_BIT);
@@ -152,15 +184,26 @@ public final class VkRenderer implements Renderer {
 
             descriptorPool = new VulkanDescriptorPool(
                 logicalDevice,
-                new VulkanDescriptorPool.Info(VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER, swapChainState.size()),
-                new VulkanDescriptorPool.Info(VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER, swapChainState.size())
+                new VulkanDescriptorPool.Info(VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC, MAX_SHADERS),
+                new VulkanDescriptorPool.Info(VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER, MAX_SHADERS)
             );
 
+            var bindlessTextures = physicalDevice.bindlessTextures();
+            if(bindlessTextures != 0) {
+                textureTable = new VkTextureTable(logicalDevice, bindlessTextures);
+                LOGGER.info("Using a bindless texture table with " + bindlessTextures + " entries");
+            } else {
+                textureTable = null;
+            }
+
             frameState = IntStream.range(0, swapChainState.size())
                 .mapToObj((index) -> createFrameState(index, logicalDevice, commandPool))
                 .toList();
 
             textureManager = new VulkanTextureManager(this);
+
+            recorder = new VkParallelRecorder(logicalDevice, MAX_FRAMES_IN_FLIGHT);
+            uniformAllocator = new VkUniformAllocator(logicalDevice, uploads, MAX_FRAMES_IN_FLIGHT);
         }
     }
 
@@ -216,9 +259,17 @@ public final class VkRenderer implements Renderer {
 
         destroySwapChain();
 
+        recorder.close();
+        uniformAllocator.close();
         frameState.forEach(FrameState::close);
+        sharedShaders.values().forEach((shader) -> shader.pipeline().close());
+        if(textureTable != null) {
+            textureTable.close();
+        }
         descriptorPool.close();
         renderPass.close();
+        pipelineCache.close();
+        uploads.close();
         commandPool.close();
         logicalDevice.close();
         physicalDevice.close();
@@ -240,6 +291,7 @@ public final class VkRenderer implements Renderer {
         var inFlightFence = currentFrameState.inFlightFence();
 
         inFlightFence.yield();
+        uniformAllocator.begin(currentFrame);
 
         int imageIndex = swapchain.acquireNextImage(imageAvailableSemaphore);
         //TODO Fix this
@@ -248,44 +300,10 @@ public final class VkRenderer implements Renderer {
         }
         currentImageIndex = imageIndex;
 
-        updateUniforms();
-
         commandBuffer.reset();
         commandBuffer.begin();
     }
 
-    private long startTime = System.nanoTime();
-    private void updateUniforms() {
-        var currentTime = System.nanoTime();
-        var delta = (float)((currentTime - startTime) / 10000000000D);
-
-        var ubo = new UniformBufferObject();
-        ubo.model().rotate(
-            (float) (delta * Math.toRadians(90)),
-            new Vector3f(0, 0, 1)
-        );
-        ubo.view().lookAt(
-            new Vector3f(2, 2, 2),
-            new Vector3f(0, 0, 0),
-            new Vector3f(0, 0, 1)
-        );
-        var projection = ubo.proj();
-        projection.perspective(
-            (float) Math.toRadians(45),
-            swapchain.extent().width() / (float) swapchain.extent().height(),
-            0.1F,
-            10.0F,
-            true
-        );
-        projection.m11(-projection.m11());
-
-        try(var stack = MemoryStack.stackPush()) {
-            var buffer = stack.calloc(Float.BYTES * 4 * 4 * 3);
-            ubo.write(buffer);
-            currentFrameState.uniformBuffer.upload(buffer);
-        }
-    }
-
     @Override
     public void waitForIdle() {
         logicalDevice.waitForIdle();
@@ -299,21 +317,36 @@ public final class VkRenderer implements Renderer {
 
     @Override
     public void drawBuffer(int vertexCount, @NotNull GraphicsBuffer vertexBuffer, @Nullable GraphicsBuffer indexBuffer) {
-        var commandBuffer = currentFrameState.commandBuffer;
-        commandBuffer.beginRenderPass(swapchain.extent(), renderPass, swapChainState.get(currentImageIndex).framebuffer());
         var vulkanShader = (VkShader) vertexBuffer.shader();
-        commandBuffer.bindPipeline(vulkanShader.pipeline());
-        commandBuffer.setViewport(swapchain.extent().width(), swapchain.extent().height());
-        commandBuffer.setScissor(0, 0, swapchain.extent().width(), swapchain.extent().height());
-        commandBuffer.bindVertexBuffer((VkGraphicsBuffer) vertexBuffer);
-        var pipeline = vulkanShader.pipeline();
-        commandBuffer.bindDescriptorSets(pipeline.layout(), pipeline.descriptorSet(currentFrame));
-        if(indexBuffer != null) {
-            commandBuffer.bindIndexBuffer((VkGraphicsBuffer) indexBuffer);
-            commandBuffer.drawIndexed(vertexCount, 1, 0, 0, 0);
-        } else {
-            commandBuffer.draw(vertexCount, 1, 0, 0);
-        }
+        drawQueue.add(vulkanShader, uniformAllocator.allocate(uniforms), (VkGraphicsBuffer) vertexBuffer, (VkGraphicsBuffer) indexBuffer, vertexCount);
+    }
+
+    @Override
+    public void drawInstanced(
+        int vertexCount,
+        @NotNull GraphicsBuffer vertexBuffer,
+        @Nullable GraphicsBuffer indexBuffer,
+        @NotNull GraphicsBuffer instanceBuffer,
+        int firstInstance,
+        int instanceCount
+    ) {
+        var vulkanShader = (VkShader) vertexBuffer.shader();
+        drawQueue.add(
+            vulkanShader,
+            uniformAllocator.allocate(uniforms),
+            (VkGraphicsBuffer) vertexBuffer,
+            (VkGraphicsBuffer) indexBuffer,
+            vertexCount,
+            (VkGraphicsBuffer) instanceBuffer,
+            firstInstance,
+            instanceCount
+        );
+    }
+
+    @NotNull
+    @Override
+    public UniformBufferObject uniforms() {
+        return uniforms;
     }
 
     @Override
@@ -323,8 +356,28 @@ public final class VkRenderer implements Renderer {
         var imageAvailableSemaphore = swapChainState.get(currentSemaphore).imageAvailableSemaphore();
         var inFlightFence = currentFrameState.inFlightFence();
 
+        var extent = swapchain.extent();
+        var framebuffer = swapChainState.get(currentImageIndex).framebuffer();
+        try {
+            drawQueue.bindUniforms(uniformAllocator);
+            drawQueue.sort();
+            // Large frames are recorded into secondary command buffers in parallel
+            var ranges = recorder.ranges(drawQueue.size());
+            commandBuffer.beginRenderPass(extent, renderPass, framebuffer, ranges > 1);
+            if(ranges > 1) {
+                recorder.record(commandBuffer, drawQueue, currentFrame, ranges, renderPass, framebuffer, extent.width(), extent.height());
+            } else if(!drawQueue.isEmpty()) {
+                commandBuffer.setViewport(extent.width(), extent.height());
+                commandBuffer.setScissor(0, 0, extent.width(), extent.height());
+                drawQueue.record(commandBuffer, 0, drawQueue.size());
+            }
+        } finally {
+            drawQueue.clear();
+        }
         commandBuffer.endRenderPass();
-        commandBuffer.submit(logicalDevice.graphicsQueue(), imageAvailableSemaphore, renderFinishedSemaphore, inFlightFence);
+
+        // Everything uploaded while the frame was recorded has to be submitted before it
+        uploads.flush();
 
         try(var stack = MemoryStack.stackPush()) {
             var presentInfo = VkPresentInfoKHR.calloc(stack);
@@ -333,7 +386,10 @@ public final class VkRenderer implements Renderer {
             presentInfo.swapchainCount(1);
             presentInfo.pSwapchains(stack.longs(swapchain.handle()));
             presentInfo.pImageIndices(stack.ints(currentImageIndex));
-            var result = vkQueuePresentKHR(logicalDevice.presentQueue(), presentInfo);
+            var result = logicalDevice.queueLock().write(() -> {
+                commandBuffer.submit(logicalDevice.graphicsQueue(), imageAvailableSemaphore, renderFinishedSemaphore, inFlightFence);
+                return vkQueuePresentKHR(logicalDevice.presentQueue(), presentInfo);
+            });
             switch (result) {
                 case VK_SUCCESS -> {}
                 case VK_ERROR_OUT_OF_DATE_KHR, VK_SUBOPTIMAL_KHR -> recreateSwapChain();
@@ -364,6 +420,49 @@ public final class VkRenderer implements Renderer {
             metadata = result.getResult();
         }
 
+        if(textureTable == null || metadata.textures().isEmpty()) {
+            var shader = compileShader(identifier, metadata, textures);
+            return new VkShader(this, shader.pipeline(), shader.vertexFormat());
+        }
+
+        // Textures are only indices into the texture table, so every shader loaded from a file shares its pipeline
+        var names = metadata.textures().keySet().stream().sorted().toList();
+        if(!textures.keySet().containsAll(names)) {
+            throw new RuntimeException("Textures supplied to shader " + identifier + " where missing elements");
+        }
+        var textureEntries = names.stream()
+            .mapToInt((name) -> ((VulkanTexture) textures.get(name)).tableEntry())
+            .toArray();
+
+        var shader = sharedShadersLock.write(() ->
+            sharedShaders.computeIfAbsent(identifier, (key) -> compileShader(key, metadata, textures))
+        );
+        return new VkShader(this, shader.pipeline(), shader.vertexFormat(), textureEntries, false);
+    }
+
+    private record CompiledShader(@NotNull VulkanGraphicsPipeline pipeline, @NotNull VkVertexFormat vertexFormat) {}
+
+    @NotNull
+    private CompiledShader compileShader(@NotNull Identifier identifier, @NotNull ShaderMeta metadata, @NotNull Map<String, Texture> textures) {
+        var bindless = textureTable != null && !metadata.textures().isEmpty();
+
+        // Every texture name becomes an entry of the texture table that is selected by a push constant
+        var macros = new HashMap<String, String>();
+        var textureCount = 0;
+        if(bindless) {
+            var names = metadata.textures().keySet().stream().sorted().toList();
+            textureCount = names.size();
+            if(textureCount * Integer.BYTES > MAX_PUSH_CONSTANTS_SIZE) {
+                throw new RuntimeException("Shader " + identifier + " uses too many textures");
+            }
+
+            macros.put("BINDLESS", "1");
+            macros.put("BINDLESS_TEXTURES", Integer.toString(textureCount));
+            for(int i = 0; i < textureCount; i++) {
+                macros.put(names.get(i), "textures[textureIndices.indices[" + i + "]]");
+            }
+        }
+
         var modules = new HashMap<VulkanShaderModule.Type, VulkanShaderModule>();
         var required = new HashSet<>(VulkanShaderModule.Type.REQUIRED);
         metadata.shaders().forEach((type, info) -> {
@@ -374,8 +473,10 @@ public final class VkRenderer implements Renderer {
             required.remove(vkType);
             modules.put(vkType, new VulkanShaderModule(
                 logicalDevice,
+                shaderCache,
                 vkType,
-                info.files().get("vulkan").normalize("shader", '.' + type.extension())
+                info.files().get("vulkan").normalize("shader", '.' + type.extension()),
+                macros
             ));
         });
         if(!required.isEmpty()) {
@@ -388,7 +489,9 @@ public final class VkRenderer implements Renderer {
         }
 
         Int2ObjectMap<VulkanTexture> textureBindings;
-        {
+        if(bindless) {
+            textureBindings = Int2ObjectMaps.emptyMap();
+        } else {
             var fragmentShader = modules.get(VulkanShaderModule.Type.FRAGMENT);
             var fragmentSamplers = fragmentShader.samplers().stream()
                 .collect(Collectors.toUnmodifiableMap(
@@ -416,19 +519,20 @@ public final class VkRenderer implements Renderer {
         try(var stack = MemoryStack.stackPush()) {
             var pipeline = new VulkanGraphicsPipeline(
                 logicalDevice,
+                pipelineCache,
                 physicalDevice.surfaceExtent(stack),
                 renderPass,
                 modules.values(),
                 vertexFormat,
                 uniforms,
                 descriptorPool,
-                frameState.stream()
-                    .map(FrameState::uniformBuffer)
-                    .toList(),
-                textureBindings
+                uniformAllocator.buffer(),
+                textureBindings,
+                bindless ? textureTable : null,
+                textureCount
             );
 
-            return new VkShader(this, pipeline, vertexFormat);
+            return new CompiledShader(pipeline, vertexFormat);
         } finally {
             modules.values().forEach(VulkanShaderModule::close);
         }
@@ -437,7 +541,22 @@ public final class VkRenderer implements Renderer {
     @NotNull
     @Override
     public VkGraphicsBuffer createBuffer(@NotNull BufferType type, int size) {
-        return new VkGraphicsBuffer(logicalDevice, commandPool, type, size);
+        return new VkGraphicsBuffer(logicalDevice, uploads, type, size);
+    }
+
+    @NotNull
+    @Override
+    public VkStreamBuffer createStreamBuffer(@NotNull BufferType type, int frameSize) {
+        var buffer = new VkGraphicsBuffer(logicalDevice, uploads, type, Math.multiplyExact(frameSize, MAX_FRAMES_IN_FLIGHT), true);
+        return new VkStreamBuffer(this, buffer, frameSize);
+    }
+
+    // The frame being recorded, its fence was already waited on so its resources can be reused
+    int recordingFrame() {
+        if(currentFrameState == null) {
+            throw new IllegalStateException("No frame is being recorded");
+        }
+        return currentFrame;
     }
 
     @Override
@@ -465,4 +584,14 @@ public final class VkRenderer implements Renderer {
     public VulkanCommandPool commandPool() {
         return commandPool;
     }
+
+    @NotNull
+    public VkUploadManager uploads() {
+        return uploads;
+    }
+
+    @Nullable
+    public VkTextureTable textureTable() {
+        return textureTable;
+    }
 }
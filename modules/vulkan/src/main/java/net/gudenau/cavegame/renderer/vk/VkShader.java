@@ -5,29 +5,51 @@ import net.gudenau.cavegame.renderer.BufferType;
 import net.gudenau.cavegame.renderer.shader.Shader;
 import net.gudenau.cavegame.renderer.shader.VertexFormat;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class VkShader implements Shader {
     private final VkRenderer renderer;
     private final VulkanGraphicsPipeline pipeline;
     private final VkVertexFormat vertexFormat;
+    // The texture table entries that are pushed for every draw, null without a texture table
+    private final int @Nullable [] textureEntries;
+    // Pipelines that use the texture table are shared by every shader loaded from the same file
+    private final boolean ownsPipeline;
 
     public VkShader(@NotNull VkRenderer renderer, @NotNull VulkanGraphicsPipeline pipeline, @NotNull VkVertexFormat vertexFormat) {
+        this(renderer, pipeline, vertexFormat, null, true);
+    }
+
+    public VkShader(
+        @NotNull VkRenderer renderer,
+        @NotNull VulkanGraphicsPipeline pipeline,
+        @NotNull VkVertexFormat vertexFormat,
+        int @Nullable [] textureEntries,
+        boolean ownsPipeline
+    ) {
         this.renderer = renderer;
         this.pipeline = pipeline;
         this.vertexFormat = vertexFormat;
+        this.textureEntries = textureEntries;
+        this.ownsPipeline = ownsPipeline;
     }
 
     @Override
     public void close() {
-        pipeline.close();
+        if(ownsPipeline) {
+            pipeline.close();
+        }
     }
 
     @NotNull
     @Override
     public BufferBuilder builder() {
-        return BufferBuilder.create(this, (data, type) -> {
+        return BufferBuilder.create(this, (data, type, indexType) -> {
             var buffer = renderer.createBuffer(type, data.remaining());
             buffer.shader(this);
+            if(indexType != null) {
+                buffer.indexType(indexType);
+            }
             buffer.upload(data);
             return buffer;
         });
@@ -41,4 +63,8 @@ public class VkShader implements Shader {
     public VulkanGraphicsPipeline pipeline() {
         return pipeline;
     }
+
+    public int @Nullable [] textureEntries() {
+        return textureEntries;
+    }
 }
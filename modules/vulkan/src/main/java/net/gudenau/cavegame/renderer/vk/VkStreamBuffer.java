@@ -0,0 +1,56 @@
+package net.gudenau.cavegame.renderer.vk;
+
+import net.gudenau.cavegame.renderer.GraphicsBuffer;
+import net.gudenau.cavegame.renderer.StreamBuffer;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Every frame in flight owns one region of the buffer, the frame fence waited on in begin guards its reuse.
+public final class VkStreamBuffer implements StreamBuffer {
+    private final VkRenderer renderer;
+    private final VkGraphicsBuffer buffer;
+    private final int frameSize;
+    private final ByteBuffer[] frames;
+
+    VkStreamBuffer(@NotNull VkRenderer renderer, @NotNull VkGraphicsBuffer buffer, int frameSize) {
+        this.renderer = renderer;
+        this.buffer = buffer;
+        this.frameSize = frameSize;
+
+        // Host coherent, so nothing has to be flushed after writing
+        var mapping = buffer.memory().map();
+        frames = new ByteBuffer[VkRenderer.MAX_FRAMES_IN_FLIGHT];
+        for(int i = 0; i < frames.length; i++) {
+            frames[i] = mapping.slice(i * frameSize, frameSize).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    @NotNull
+    @Override
+    public GraphicsBuffer buffer() {
+        return buffer;
+    }
+
+    @Override
+    public int frameSize() {
+        return frameSize;
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer frame() {
+        return frames[renderer.recordingFrame()].clear();
+    }
+
+    @Override
+    public int frameOffset() {
+        return renderer.recordingFrame() * frameSize;
+    }
+
+    @Override
+    public void close() {
+        buffer.close();
+    }
+}
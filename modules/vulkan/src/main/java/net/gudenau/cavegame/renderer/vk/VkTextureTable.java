@@ -0,0 +1,155 @@
+package net.gudenau.cavegame.renderer.vk;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.gudenau.cavegame.renderer.vk.texture.VulkanSampler;
+import net.gudenau.cavegame.util.SharedLock;
+import org.jetbrains.annotations.NotNull;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+
+import static org.lwjgl.vulkan.EXTDescriptorIndexing.*;
+import static org.lwjgl.vulkan.VK10.*;
+
+// A single descriptor set with an array of every texture, shaders select their textures with indices that are pushed
+// as constants. Textures register themselves when they are created, so switching textures needs neither new descriptor
+// sets nor new pipelines. The binding is update after bind and partially bound, entries can be written while frames
+// that use other entries are in flight.
+public final class VkTextureTable implements AutoCloseable {
+    // Devices that can not hold at least this many textures use a descriptor set per shader instead
+    static final int MIN_SIZE = 256;
+    static final int MAX_SIZE = 4096;
+
+    @NotNull
+    private final VulkanLogicalDevice device;
+    private final int size;
+    private final long layout;
+    private final long pool;
+    private final long set;
+
+    private final SharedLock lock = new SharedLock();
+    private final IntArrayList freeEntries = new IntArrayList();
+    private int nextEntry = 0;
+
+    VkTextureTable(@NotNull VulkanLogicalDevice device, int size) {
+        this.device = device;
+        this.size = size;
+
+        try(var stack = MemoryStack.stackPush()) {
+            var bindings = VkDescriptorSetLayoutBinding.calloc(1, stack);
+            bindings.get(0)
+                .binding(0)
+                .descriptorType(VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER)
+                .descriptorCount(size)
+                .stageFlags(VK_SHADER_STAGE_FRAGMENT_BIT);
+
+            var bindingFlags = VkDescriptorSetLayoutBindingFlagsCreateInfoEXT.calloc(stack);
+            bindingFlags.sType$Default();
+            bindingFlags.pBindingFlags(stack.ints(
+                VK_DESCRIPTOR_BINDING_PARTIALLY_BOUND_BIT_EXT | VK_DESCRIPTOR_BINDING_UPDATE_AFTER_BIND_BIT_EXT
+            ));
+
+            var layoutInfo = VkDescriptorSetLayoutCreateInfo.calloc(stack);
+            layoutInfo.sType$Default();
+            layoutInfo.pNext(bindingFlags);
+            layoutInfo.flags(VK_DESCRIPTOR_SET_LAYOUT_CREATE_UPDATE_AFTER_BIND_POOL_BIT_EXT);
+            layoutInfo.pBindings(bindings);
+
+            var pointer = stack.longs(0);
+            var result = vkCreateDescriptorSetLayout(device.handle(), layoutInfo, VulkanAllocator.get(), pointer);
+            if(result != VK_SUCCESS) {
+                throw new RuntimeException("Failed to create Vulkan texture table layout: " + VulkanUtils.errorString(result));
+            }
+            layout = pointer.get(0);
+
+            var poolSizes = VkDescriptorPoolSize.calloc(1, stack);
+            poolSizes.get(0).set(VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER, size);
+
+            var poolInfo = VkDescriptorPoolCreateInfo.calloc(stack);
+            poolInfo.sType$Default();
+            poolInfo.flags(VK_DESCRIPTOR_POOL_CREATE_UPDATE_AFTER_BIND_BIT_EXT);
+            poolInfo.maxSets(1);
+            poolInfo.pPoolSizes(poolSizes);
+
+            result = vkCreateDescriptorPool(device.handle(), poolInfo, VulkanAllocator.get(), pointer);
+            if(result != VK_SUCCESS) {
+                vkDestroyDescriptorSetLayout(device.handle(), layout, VulkanAllocator.get());
+                throw new RuntimeException("Failed to create Vulkan texture table pool: " + VulkanUtils.errorString(result));
+            }
+            pool = pointer.get(0);
+
+            var allocInfo = VkDescriptorSetAllocateInfo.calloc(stack);
+            allocInfo.sType$Default();
+            allocInfo.descriptorPool(pool);
+            allocInfo.pSetLayouts(stack.longs(layout));
+
+            result = vkAllocateDescriptorSets(device.handle(), allocInfo, pointer);
+            if(result != VK_SUCCESS) {
+                vkDestroyDescriptorPool(device.handle(), pool, VulkanAllocator.get());
+                vkDestroyDescriptorSetLayout(device.handle(), layout, VulkanAllocator.get());
+                throw new RuntimeException("Failed to allocate Vulkan texture table: " + VulkanUtils.errorString(result));
+            }
+            set = pointer.get(0);
+        }
+    }
+
+    // Returns the index shaders use to sample the texture
+    public int register(@NotNull VulkanImageView imageView, @NotNull VulkanSampler sampler) {
+        return lock.write(() -> {
+            int entry;
+            if(!freeEntries.isEmpty()) {
+                entry = freeEntries.removeInt(freeEntries.size() - 1);
+            } else if(nextEntry < size) {
+                entry = nextEntry++;
+            } else {
+                throw new IllegalStateException("The texture table is full, it holds " + size + " textures");
+            }
+
+            try(var stack = MemoryStack.stackPush()) {
+                var imageInfos = VkDescriptorImageInfo.calloc(1, stack);
+                imageInfos.get(0)
+                    .imageLayout(VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL)
+                    .imageView(imageView.handle())
+                    .sampler(sampler.handle());
+
+                var descriptorWrites = VkWriteDescriptorSet.calloc(1, stack);
+                var descriptorWrite = descriptorWrites.get(0);
+                descriptorWrite.sType$Default();
+                descriptorWrite.dstSet(set);
+                descriptorWrite.dstBinding(0);
+                descriptorWrite.dstArrayElement(entry);
+                descriptorWrite.descriptorType(VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER);
+                descriptorWrite.descriptorCount(1);
+                descriptorWrite.pImageInfo(imageInfos);
+                vkUpdateDescriptorSets(device.handle(), descriptorWrites, null);
+            }
+            return entry;
+        });
+    }
+
+    // The entry can not be used by any frame in flight anymore, the stale descriptor is never read because the binding is
+    // partially bound
+    public void release(int entry) {
+        lock.write(() -> {
+            freeEntries.add(entry);
+        });
+    }
+
+    public long layout() {
+        return layout;
+    }
+
+    public long set() {
+        return set;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void close() {
+        // Destroying the pool frees the set
+        vkDestroyDescriptorPool(device.handle(), pool, VulkanAllocator.get());
+        vkDestroyDescriptorSetLayout(device.handle(), layout, VulkanAllocator.get());
+    }
+}
@@ -0,0 +1,102 @@
+package net.gudenau.cavegame.renderer.vk;
+
+import net.gudenau.cavegame.renderer.BufferType;
+import net.gudenau.cavegame.renderer.UniformBufferObject;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+// Hands out the uniforms of every draw from one persistently mapped buffer with a region per frame in flight. A region
+// is reused once the fence of its frame was waited on. Draws select their uniforms with a dynamic descriptor offset, so
+// every draw can have its own uniforms with a single descriptor set per pipeline. Frames that don't fit into their region
+// grow the buffer, offsets are relative to the region of the frame so draws that were already queued stay valid.
+final class VkUniformAllocator implements AutoCloseable {
+    private static final int INITIAL_FRAME_SIZE = 1 << 20;
+
+    @NotNull
+    private final VulkanLogicalDevice device;
+    @NotNull
+    private final VkUploadManager uploads;
+    private final int frames;
+    private final int stride;
+
+    private VkGraphicsBuffer buffer;
+    // A view of the whole mapping, written with absolute indices so nothing is allocated per draw
+    private ByteBuffer mapping;
+    private int frameSize = INITIAL_FRAME_SIZE;
+
+    private int frame;
+    private int head;
+
+    // Consecutive draws usually share their uniforms, those draws share the allocation as well
+    private final UniformBufferObject last = new UniformBufferObject();
+    private int lastOffset = -1;
+
+    VkUniformAllocator(@NotNull VulkanLogicalDevice device, @NotNull VkUploadManager uploads, int frames) {
+        this.device = device;
+        this.uploads = uploads;
+        this.frames = frames;
+        var alignment = (int) device.device().properties().limits().minUniformBufferOffsetAlignment();
+        stride = (UniformBufferObject.SIZE + alignment - 1) / alignment * alignment;
+
+        buffer = new VkGraphicsBuffer(device, uploads, BufferType.UNIFORM, Math.multiplyExact(frameSize, frames), true);
+        mapping = buffer.memory().map();
+    }
+
+    // The fence of the frame has to be waited on first
+    void begin(int frame) {
+        this.frame = frame;
+        head = 0;
+        lastOffset = -1;
+    }
+
+    // Returns the offset of a copy of the uniforms, relative to the region of the frame
+    int allocate(@NotNull UniformBufferObject uniforms) {
+        if(lastOffset != -1 && uniforms.equals(last)) {
+            return lastOffset;
+        }
+        if(head + UniformBufferObject.SIZE > frameSize) {
+            grow();
+        }
+
+        var offset = head;
+        uniforms.write(frameOffset() + offset, mapping);
+        head += stride;
+
+        last.set(uniforms);
+        lastOffset = offset;
+        return offset;
+    }
+
+    // Replaces the buffer with one that has twice the region size, the uniforms of the current frame are copied over.
+    // Frames in flight still use the old buffer, so this waits for the device. It only happens while the size ramps up.
+    private void grow() {
+        device.waitForIdle();
+
+        var newFrameSize = Math.multiplyExact(frameSize, 2);
+        var newBuffer = new VkGraphicsBuffer(device, uploads, BufferType.UNIFORM, Math.multiplyExact(newFrameSize, frames), true);
+        var newMapping = newBuffer.memory().map();
+        newMapping.put(frame * newFrameSize, mapping, frameOffset(), head);
+
+        buffer.close();
+        buffer = newBuffer;
+        mapping = newMapping;
+        frameSize = newFrameSize;
+    }
+
+    // Added to the offsets of the current frame when the uniforms are bound
+    int frameOffset() {
+        return frame * frameSize;
+    }
+
+    // Changes when the buffer grows, pipelines have to be pointed at the new one before they are bound again
+    @NotNull
+    VkGraphicsBuffer buffer() {
+        return buffer;
+    }
+
+    @Override
+    public void close() {
+        buffer.close();
+    }
+}
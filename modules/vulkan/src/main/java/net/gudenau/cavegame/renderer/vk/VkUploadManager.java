@@ -0,0 +1,312 @@
+package net.gudenau.cavegame.renderer.vk;
+
+import net.gudenau.cavegame.renderer.BufferType;
+import net.gudenau.cavegame.util.SharedLock;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.system.MemoryUtil.memCopy;
+import static org.lwjgl.vulkan.VK10.*;
+
+// Copies data into device local buffers and images through a persistently mapped staging ring. Copies are batched into
+// a transfer and a graphics command buffer that are submitted together, normally once per frame by flush(), and batches
+// are retired by polling their fence instead of waiting for the queues to go idle.
+//
+// New resources are filled from the dedicated transfer queue when there is one. Updates of existing buffers are recorded
+// on the graphics queue behind a barrier because frames in flight might still read them.
+public final class VkUploadManager implements AutoCloseable {
+    private static final int RING_SIZE = 32 << 20;
+
+    // Every way a frame reads uploaded data
+    private static final int READ_STAGES = VK_PIPELINE_STAGE_VERTEX_INPUT_BIT | VK_PIPELINE_STAGE_VERTEX_SHADER_BIT | VK_PIPELINE_STAGE_FRAGMENT_SHADER_BIT;
+    private static final int READ_ACCESS = VK_ACCESS_VERTEX_ATTRIBUTE_READ_BIT | VK_ACCESS_INDEX_READ_BIT | VK_ACCESS_UNIFORM_READ_BIT | VK_ACCESS_SHADER_READ_BIT;
+
+    private final class Batch implements AutoCloseable {
+        private final VulkanCommandBuffer graphics;
+        @Nullable
+        private final VulkanCommandBuffer transfer;
+        @Nullable
+        private final VulkanSemaphore transferFinished;
+        private final VulkanFence fence;
+        // Runs once the batch finished on the GPU
+        private final List<Runnable> garbage = new ArrayList<>();
+
+        private boolean graphicsRecording = false;
+        private boolean transferRecording = false;
+        private boolean updating = false;
+        // The end of the staging ring that was in use when this batch was submitted
+        private int ringEnd;
+
+        private Batch() {
+            graphics = new VulkanCommandBuffer(device, graphicsPool);
+            if(transferPool != null) {
+                transfer = new VulkanCommandBuffer(device, transferPool);
+                transferFinished = new VulkanSemaphore(device);
+            } else {
+                transfer = null;
+                transferFinished = null;
+            }
+            fence = new VulkanFence(device);
+        }
+
+        @NotNull
+        private VulkanCommandBuffer graphics() {
+            if(!graphicsRecording) {
+                graphics.begin(true);
+                graphicsRecording = true;
+            }
+            return graphics;
+        }
+
+        @NotNull
+        private VulkanCommandBuffer transfer() {
+            if(transfer == null) {
+                return graphics();
+            }
+            if(!transferRecording) {
+                transfer.begin(true);
+                transferRecording = true;
+            }
+            return transfer;
+        }
+
+        @Override
+        public void close() {
+            graphics.close();
+            if(transfer != null) {
+                transfer.close();
+            }
+            if(transferFinished != null) {
+                transferFinished.close();
+            }
+            fence.close();
+        }
+    }
+
+    private record Staging(long buffer, long offset) {}
+
+    private final VulkanLogicalDevice device;
+    private final SharedLock lock = new SharedLock();
+
+    private final VulkanCommandPool graphicsPool;
+    @Nullable
+    private final VulkanCommandPool transferPool;
+
+    private final VkGraphicsBuffer ring;
+    private final long ringAddress;
+    // Wrapped around when head < tail, head never catches up to tail so head == tail means the ring is empty
+    private int head = 0;
+    private int tail = 0;
+
+    @Nullable
+    private Batch current;
+    private final ArrayDeque<Batch> inFlight = new ArrayDeque<>();
+    private final ArrayDeque<Batch> idle = new ArrayDeque<>();
+
+    VkUploadManager(@NotNull VulkanLogicalDevice device) {
+        this.device = device;
+
+        graphicsPool = new VulkanCommandPool(device, device.device().graphicsQueue());
+        transferPool = device.hasTransferQueue() ? new VulkanCommandPool(device, device.transferQueueFamily()) : null;
+
+        ring = new VkGraphicsBuffer(device, this, BufferType.STAGING, RING_SIZE);
+        ringAddress = memAddress(ring.memory().map());
+    }
+
+    void upload(@NotNull VkGraphicsBuffer buffer, @NotNull ByteBuffer data, int offset, boolean initial) {
+        var length = data.remaining();
+        if(length == 0) {
+            return;
+        }
+
+        lock.write(() -> {
+            var staging = stage(data, 16);
+            var batch = batch();
+
+            VulkanCommandBuffer commandBuffer;
+            if(initial) {
+                commandBuffer = batch.transfer();
+            } else {
+                commandBuffer = batch.graphics();
+                if(!batch.updating) {
+                    // Frames in flight might still read the buffers that are about to be overwritten
+                    commandBuffer.memoryBarrier(READ_STAGES, 0, VK_PIPELINE_STAGE_TRANSFER_BIT, 0);
+                    batch.updating = true;
+                }
+            }
+            commandBuffer.copyBuffer(staging.buffer(), staging.offset(), buffer.handle(), offset, length);
+        });
+    }
+
+    // The image has to be new, finish records the transition out of the transfer layout on the graphics queue
+    public void upload(
+        @NotNull VulkanImage image,
+        int width,
+        int height,
+        int texelSize,
+        @NotNull ByteBuffer pixels,
+        @NotNull Consumer<@NotNull VulkanCommandBuffer> finish
+    ) {
+        lock.write(() -> {
+            // Buffer to image copies have to start on a multiple of the texel size and of 4
+            var staging = stage(pixels, texelSize * 4);
+            var batch = batch();
+
+            var transfer = batch.transfer();
+            transfer.imageBarrier(
+                image,
+                VK_IMAGE_LAYOUT_UNDEFINED, VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL,
+                VK_PIPELINE_STAGE_TOP_OF_PIPE_BIT, 0,
+                VK_PIPELINE_STAGE_TRANSFER_BIT, VK_ACCESS_TRANSFER_WRITE_BIT
+            );
+            transfer.copyBufferToImage(staging.buffer(), staging.offset(), image, width, height);
+
+            finish.accept(batch.graphics());
+        });
+    }
+
+    // Runs an action after every upload and every frame submitted so far finished, used to destroy resources the GPU
+    // might still use. The next batch is submitted on the graphics queue after those frames, so its fence covers them.
+    public void release(@NotNull Runnable action) {
+        lock.write(() -> batch().garbage.add(action));
+    }
+
+    // Submits the uploads recorded since the last flush, they finish before any work submitted afterwards starts
+    public void flush() {
+        lock.write(() -> {
+            if(current != null) {
+                submit();
+            }
+            retire();
+        });
+    }
+
+    @NotNull
+    private Staging stage(@NotNull ByteBuffer data, int alignment) {
+        var length = data.remaining();
+        if(length > RING_SIZE / 2) {
+            // Would have to wait for the ring to drain, a temporary buffer is cheaper
+            var temporary = new VkGraphicsBuffer(device, this, BufferType.STAGING, length);
+            temporary.upload(data);
+            batch().garbage.add(temporary::close);
+            return new Staging(temporary.handle(), 0);
+        }
+
+        var offset = reserve(length, alignment);
+        memCopy(memAddress(data), ringAddress + offset, length);
+        return new Staging(ring.handle(), offset);
+    }
+
+    private int reserve(int size, int alignment) {
+        while(true) {
+            if(head == tail) {
+                head = 0;
+                tail = 0;
+            }
+
+            var start = (head + alignment - 1) / alignment * alignment;
+            if(head >= tail) {
+                if(start + size <= RING_SIZE) {
+                    head = start + size;
+                    return start;
+                }
+                // The skipped end of the ring is reclaimed along with the batch that wrapped around
+                if(size < tail) {
+                    head = size;
+                    return 0;
+                }
+            } else if(start + size < tail) {
+                head = start + size;
+                return start;
+            }
+
+            // Only submitted batches can give space back
+            if(inFlight.isEmpty()) {
+                submit();
+            }
+            inFlight.getFirst().fence.await();
+            retire();
+        }
+    }
+
+    @NotNull
+    private Batch batch() {
+        if(current == null) {
+            current = idle.isEmpty() ? new Batch() : idle.removeFirst();
+        }
+        return current;
+    }
+
+    private void submit() {
+        var batch = current;
+        if(batch == null) {
+            throw new IllegalStateException("There is nothing to submit");
+        }
+        current = null;
+
+        var transferUsed = batch.transferRecording;
+        if(transferUsed) {
+            batch.transfer.end();
+        }
+        // Makes every copy of the batch visible to the frames submitted after it
+        var graphics = batch.graphics();
+        graphics.memoryBarrier(VK_PIPELINE_STAGE_TRANSFER_BIT, VK_ACCESS_TRANSFER_WRITE_BIT, READ_STAGES, READ_ACCESS);
+        graphics.end();
+
+        batch.graphicsRecording = false;
+        batch.transferRecording = false;
+        batch.updating = false;
+        batch.ringEnd = head;
+        batch.fence.reset();
+
+        device.queueLock().write(() -> {
+            if(transferUsed) {
+                batch.transfer.submit(device.transferQueue(), null, 0, batch.transferFinished, null);
+            }
+            graphics.submit(
+                device.graphicsQueue(),
+                transferUsed ? batch.transferFinished : null, VK_PIPELINE_STAGE_ALL_COMMANDS_BIT,
+                null,
+                batch.fence
+            );
+        });
+        inFlight.addLast(batch);
+    }
+
+    // Batches finish in submission order, they all end with the graphics queue
+    private void retire() {
+        while(!inFlight.isEmpty() && inFlight.getFirst().fence.signaled()) {
+            var batch = inFlight.removeFirst();
+            tail = batch.ringEnd;
+            batch.garbage.forEach(Runnable::run);
+            batch.garbage.clear();
+            idle.addLast(batch);
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.write(() -> {
+            if(current != null) {
+                submit();
+            }
+            inFlight.forEach((batch) -> batch.fence.await());
+            retire();
+            idle.forEach(Batch::close);
+            idle.clear();
+        });
+
+        ring.close();
+        if(transferPool != null) {
+            transferPool.close();
+        }
+        graphicsPool.close();
+    }
+}
@@ -2,6 +2,7 @@ package net.gudenau.cavegame.renderer.vk;
 
 import net.gudenau.cavegame.renderer.shader.AttributeType;
 import net.gudenau.cavegame.renderer.shader.AttributeUsage;
+import net.gudenau.cavegame.renderer.shader.InputRate;
 import net.gudenau.cavegame.renderer.shader.ShaderMeta;
 import net.gudenau.cavegame.renderer.shader.VertexAttribute;
 import org.jetbrains.annotations.NotNull;
@@ -14,6 +15,7 @@ public record VkVertexAttribute(
     int stride,
     int location,
     @Nullable AttributeUsage usage,
+    @NotNull InputRate rate,
     int offset
 ) implements VertexAttribute {
     public VkVertexAttribute(VulkanShaderModule.Resource input, ShaderMeta.Attribute meta, int offset) {
@@ -24,6 +26,7 @@ public record VkVertexAttribute(
             input.stride(),
             input.location(),
             meta.usage(),
+            meta.rate(),
             offset
         );
     }
@@ -1,5 +1,6 @@
 package net.gudenau.cavegame.renderer.vk;
 
+import net.gudenau.cavegame.renderer.shader.InputRate;
 import net.gudenau.cavegame.renderer.shader.ShaderMeta;
 import net.gudenau.cavegame.renderer.shader.VertexAttribute;
 import net.gudenau.cavegame.renderer.shader.VertexFormat;
@@ -10,6 +11,7 @@ import java.util.*;
 public final class VkVertexFormat implements VertexFormat {
     private final List<VertexAttribute> attributes;
     private final int stride;
+    private final int instanceStride;
     private final VertexAttribute color;
     private final VertexAttribute position;
     private final VertexAttribute textureCoord;
@@ -18,13 +20,19 @@ public final class VkVertexFormat implements VertexFormat {
         Set<String> missing = new HashSet<>();
 
         List<VertexAttribute> attributes = new ArrayList<>();
+        // Instanced attributes live in their own buffer, so both bindings start at 0
         int offset = 0;
+        int instanceOffset = 0;
 
         VertexAttribute color = null;
         VertexAttribute position = null;
         VertexAttribute textureCoord = null;
 
-        for(var input : vertex.inputs()) {
+        // Sorted by location so instance data written by hand has a predictable layout
+        var inputs = vertex.inputs().stream()
+            .sorted(Comparator.comparingInt(VulkanShaderModule.Resource::location))
+            .toList();
+        for(var input : inputs) {
             var name = input.name();
             var meta = metadata.get(name);
             if(meta == null) {
@@ -32,8 +40,14 @@ public final class VkVertexFormat implements VertexFormat {
                 continue;
             }
 
-            var attribute = new VkVertexAttribute(input, meta, offset);
-            offset += attribute.stride();
+            VkVertexAttribute attribute;
+            if(meta.rate() == InputRate.INSTANCE) {
+                attribute = new VkVertexAttribute(input, meta, instanceOffset);
+                instanceOffset += attribute.stride();
+            } else {
+                attribute = new VkVertexAttribute(input, meta, offset);
+                offset += attribute.stride();
+            }
             attributes.add(attribute);
             var usage = attribute.usage();
             if(usage != null) {
@@ -57,9 +71,8 @@ public final class VkVertexFormat implements VertexFormat {
         }
 
         this.attributes = Collections.unmodifiableList(attributes);
-        this.stride = attributes.stream()
-            .mapToInt(VertexAttribute::stride)
-            .sum();
+        this.stride = offset;
+        this.instanceStride = instanceOffset;
     }
 
     @Override
@@ -90,4 +103,9 @@ public final class VkVertexFormat implements VertexFormat {
     public int stride() {
         return stride;
     }
+
+    @Override
+    public int instanceStride() {
+        return instanceStride;
+    }
 }
@@ -2,9 +2,12 @@ package net.gudenau.cavegame.renderer.vk;
 
 import net.gudenau.cavegame.renderer.GraphicsBuffer;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.*;
 
+import java.util.List;
+
 import static org.lwjgl.vulkan.VK10.*;
 
 public final class VulkanCommandBuffer implements AutoCloseable {
@@ -16,6 +19,10 @@ public final class VulkanCommandBuffer implements AutoCloseable {
     private final VkCommandBuffer handle;
 
     public VulkanCommandBuffer(@NotNull VulkanLogicalDevice device, @NotNull VulkanCommandPool commandPool) {
+        this(device, commandPool, false);
+    }
+
+    public VulkanCommandBuffer(@NotNull VulkanLogicalDevice device, @NotNull VulkanCommandPool commandPool, boolean secondary) {
         this.device = device;
         this.commandPool = commandPool;
 
@@ -23,7 +30,7 @@ public final class VulkanCommandBuffer implements AutoCloseable {
             var allocInfo = VkCommandBufferAllocateInfo.calloc(stack);
             allocInfo.sType$Default();
             allocInfo.commandPool(commandPool.handle());
-            allocInfo.level(VK_COMMAND_BUFFER_LEVEL_PRIMARY);
+            allocInfo.level(secondary ? VK_COMMAND_BUFFER_LEVEL_SECONDARY : VK_COMMAND_BUFFER_LEVEL_PRIMARY);
             allocInfo.commandBufferCount(1);
 
             var pointer = stack.pointers(0);
@@ -61,6 +68,27 @@ public final class VulkanCommandBuffer implements AutoCloseable {
         }
     }
 
+    // Secondary command buffers record the first subpass of a render pass that the primary one already began
+    public void beginSecondary(@NotNull VulkanRenderPass renderPass, @NotNull VulkanFramebuffer framebuffer) {
+        try(var stack = MemoryStack.stackPush()) {
+            var inheritanceInfo = VkCommandBufferInheritanceInfo.calloc(stack);
+            inheritanceInfo.sType$Default();
+            inheritanceInfo.renderPass(renderPass.handle());
+            inheritanceInfo.subpass(0);
+            inheritanceInfo.framebuffer(framebuffer.handle());
+
+            var beginInfo = VkCommandBufferBeginInfo.calloc(stack);
+            beginInfo.sType$Default();
+            beginInfo.flags(VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT | VK_COMMAND_BUFFER_USAGE_RENDER_PASS_CONTINUE_BIT);
+            beginInfo.pInheritanceInfo(inheritanceInfo);
+
+            var result = vkBeginCommandBuffer(handle, beginInfo);
+            if(result != VK_SUCCESS) {
+                throw new RuntimeException("Failed to begin Vulkan command buffer: " + VulkanUtils.errorString(result));
+            }
+        }
+    }
+
     public void endRenderPass() {
         vkCmdEndRenderPass(handle);
         end();
@@ -74,6 +102,11 @@ public final class VulkanCommandBuffer implements AutoCloseable {
     }
 
     public void beginRenderPass(@NotNull VkExtent2D extent, @NotNull VulkanRenderPass renderPass, @NotNull VulkanFramebuffer framebuffer) {
+        beginRenderPass(extent, renderPass, framebuffer, false);
+    }
+
+    // When secondary is set the render pass can only contain executeCommands
+    public void beginRenderPass(@NotNull VkExtent2D extent, @NotNull VulkanRenderPass renderPass, @NotNull VulkanFramebuffer framebuffer, boolean secondary) {
         try(var stack = MemoryStack.stackPush()) {
             var beginInfo = VkRenderPassBeginInfo.calloc(stack);
             beginInfo.sType$Default();
@@ -87,7 +120,17 @@ public final class VulkanCommandBuffer implements AutoCloseable {
             clearColor.get(1).depthStencil().set(1, 0);
             beginInfo.pClearValues(clearColor);
 
-            vkCmdBeginRenderPass(handle, beginInfo, VK_SUBPASS_CONTENTS_INLINE);
+            vkCmdBeginRenderPass(handle, beginInfo, secondary ? VK_SUBPASS_CONTENTS_SECONDARY_COMMAND_BUFFERS : VK_SUBPASS_CONTENTS_INLINE);
+        }
+    }
+
+    public void executeCommands(@NotNull List<VulkanCommandBuffer> commandBuffers) {
+        try(var stack = MemoryStack.stackPush()) {
+            var handles = stack.mallocPointer(commandBuffers.size());
+            for(var commandBuffer : commandBuffers) {
+                handles.put(commandBuffer.handle);
+            }
+            vkCmdExecuteCommands(handle, handles.flip());
         }
     }
 
@@ -127,8 +170,12 @@ public final class VulkanCommandBuffer implements AutoCloseable {
     }
 
     public void bindVertexBuffer(VkGraphicsBuffer buffer) {
+        bindVertexBuffer(0, buffer);
+    }
+
+    public void bindVertexBuffer(int binding, VkGraphicsBuffer buffer) {
         try(var stack = MemoryStack.stackPush()) {
-            vkCmdBindVertexBuffers(handle, 0, stack.longs(buffer.handle()), stack.longs(0));
+            vkCmdBindVertexBuffers(handle, binding, stack.longs(buffer.handle()), stack.longs(0));
         }
     }
 
@@ -138,9 +185,26 @@ public final class VulkanCommandBuffer implements AutoCloseable {
         }
     }
 
+    // Every dynamic descriptor of the sets uses the same offset
+    public void bindDescriptorSets(long layout, long[] descriptorSets, int dynamicOffset, int dynamicOffsetCount) {
+        try(var stack = MemoryStack.stackPush()) {
+            var offsets = stack.mallocInt(dynamicOffsetCount);
+            for(int i = 0; i < dynamicOffsetCount; i++) {
+                offsets.put(i, dynamicOffset);
+            }
+            vkCmdBindDescriptorSets(handle, VK_PIPELINE_BIND_POINT_GRAPHICS, layout, 0, stack.longs(descriptorSets), offsets);
+        }
+    }
+
+    public void pushConstants(long layout, int stages, int[] values) {
+        vkCmdPushConstants(handle, layout, stages, 0, values);
+    }
+
     public void bindIndexBuffer(VkGraphicsBuffer buffer) {
-        //TODO Don't assume 16 bit index buffers
-        vkCmdBindIndexBuffer(handle, buffer.handle(), 0, VK_INDEX_TYPE_UINT16);
+        vkCmdBindIndexBuffer(handle, buffer.handle(), 0, switch(buffer.indexType()) {
+            case UINT16 -> VK_INDEX_TYPE_UINT16;
+            case UINT32 -> VK_INDEX_TYPE_UINT32;
+        });
     }
 
     public void copyBuffer(long source, long sourceOff, long destination, long destOff, long size) {
@@ -156,6 +220,74 @@ public final class VulkanCommandBuffer implements AutoCloseable {
         }
     }
 
+    public void copyBufferToImage(long source, long sourceOff, @NotNull VulkanImage destination, int width, int height) {
+        try(var stack = MemoryStack.stackPush()) {
+            var regions = VkBufferImageCopy.calloc(1, stack);
+            var region = regions.get(0);
+            region.bufferOffset(sourceOff);
+            region.bufferRowLength(0);
+            region.bufferImageHeight(0);
+            region.imageSubresource().set(VK_IMAGE_ASPECT_COLOR_BIT, 0, 0, 1);
+            region.imageOffset().set(0, 0, 0);
+            region.imageExtent().set(width, height, 1);
+            vkCmdCopyBufferToImage(handle, source, destination.handle(), VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL, regions);
+        }
+    }
+
+    public void memoryBarrier(int sourceStage, int sourceAccess, int destinationStage, int destinationAccess) {
+        try(var stack = MemoryStack.stackPush()) {
+            var barriers = VkMemoryBarrier.calloc(1, stack);
+            var barrier = barriers.get(0);
+            barrier.sType$Default();
+            barrier.srcAccessMask(sourceAccess);
+            barrier.dstAccessMask(destinationAccess);
+            vkCmdPipelineBarrier(handle, sourceStage, destinationStage, 0, barriers, null, null);
+        }
+    }
+
+    // Transitions every mip level of a color image
+    public void imageBarrier(
+        @NotNull VulkanImage image,
+        int oldLayout, int newLayout,
+        int sourceStage, int sourceAccess,
+        int destinationStage, int destinationAccess
+    ) {
+        try(var stack = MemoryStack.stackPush()) {
+            var barriers = VkImageMemoryBarrier.calloc(1, stack);
+            var barrier = barriers.get(0);
+            barrier.sType$Default();
+            barrier.oldLayout(oldLayout);
+            barrier.newLayout(newLayout);
+            barrier.srcQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED);
+            barrier.dstQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED);
+            barrier.image(image.handle());
+            barrier.subresourceRange().set(VK_IMAGE_ASPECT_COLOR_BIT, 0, image.mipLevels(), 0, 1);
+            barrier.srcAccessMask(sourceAccess);
+            barrier.dstAccessMask(destinationAccess);
+            vkCmdPipelineBarrier(handle, sourceStage, destinationStage, 0, null, null, barriers);
+        }
+    }
+
+    public void submit(@NotNull VkQueue queue, @Nullable VulkanSemaphore waitSemaphore, int waitStage, @Nullable VulkanSemaphore signalSemaphore, @Nullable VulkanFence fence) {
+        try(var stack = MemoryStack.stackPush()) {
+            var submitInfo = VkSubmitInfo.calloc(stack);
+            submitInfo.sType$Default();
+            if(waitSemaphore != null) {
+                submitInfo.waitSemaphoreCount(1);
+                submitInfo.pWaitSemaphores(stack.longs(waitSemaphore.handle()));
+                submitInfo.pWaitDstStageMask(stack.ints(waitStage));
+            }
+            submitInfo.pCommandBuffers(stack.pointers(handle));
+            if(signalSemaphore != null) {
+                submitInfo.pSignalSemaphores(stack.longs(signalSemaphore.handle()));
+            }
+            var result = vkQueueSubmit(queue, submitInfo, fence == null ? VK_NULL_HANDLE : fence.handle());
+            if(result != VK_SUCCESS) {
+                throw new RuntimeException("Failed to submit Vulkan queue: " + VulkanUtils.errorString(result));
+            }
+        }
+    }
+
     public void submit(@NotNull VkQueue queue) {
         try(var stack = MemoryStack.stackPush()) {
             var submitInfo = VkSubmitInfo.calloc(stack);
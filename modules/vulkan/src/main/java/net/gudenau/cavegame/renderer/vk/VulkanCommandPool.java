@@ -12,13 +12,17 @@ public final class VulkanCommandPool implements AutoCloseable {
     private final long handle;
 
     public VulkanCommandPool(@NotNull VulkanPhysicalDevice physicalDevice, @NotNull VulkanLogicalDevice logicalDevice) {
+        this(logicalDevice, physicalDevice.graphicsQueue());
+    }
+
+    public VulkanCommandPool(@NotNull VulkanLogicalDevice logicalDevice, int queueFamily) {
         this.device = logicalDevice;
 
         try(var stack = MemoryStack.stackPush()) {
             var poolInfo = VkCommandPoolCreateInfo.calloc(stack);
             poolInfo.sType$Default();
             poolInfo.flags(VK_COMMAND_POOL_CREATE_RESET_COMMAND_BUFFER_BIT);
-            poolInfo.queueFamilyIndex(physicalDevice.graphicsQueue());
+            poolInfo.queueFamilyIndex(queueFamily);
 
             var pointer = stack.longs(0);
             var result = vkCreateCommandPool(logicalDevice.handle(), poolInfo, VulkanAllocator.get(), pointer);
@@ -29,6 +33,14 @@ public final class VulkanCommandPool implements AutoCloseable {
         }
     }
 
+    // Resets every command buffer of the pool at once, none of them can be pending
+    public void reset() {
+        var result = vkResetCommandPool(device.handle(), handle, 0);
+        if(result != VK_SUCCESS) {
+            throw new RuntimeException("Failed to reset Vulkan command pool: " + VulkanUtils.errorString(result));
+        }
+    }
+
     public long handle() {
         return handle;
     }
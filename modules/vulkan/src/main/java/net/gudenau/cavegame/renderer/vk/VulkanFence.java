@@ -38,6 +38,23 @@ public final class VulkanFence implements AutoCloseable {
         }
     }
 
+    public boolean signaled() {
+        var result = vkGetFenceStatus(device.handle(), handle);
+        return switch(result) {
+            case VK_SUCCESS -> true;
+            case VK_NOT_READY -> false;
+            default -> throw new RuntimeException("Failed to get Vulkan fence status: " + VulkanUtils.errorString(result));
+        };
+    }
+
+    public void await() {
+        vkWaitForFences(device.handle(), handle, true, -1L);
+    }
+
+    public void reset() {
+        vkResetFences(device.handle(), handle);
+    }
+
     public long handle() {
         return handle;
     }
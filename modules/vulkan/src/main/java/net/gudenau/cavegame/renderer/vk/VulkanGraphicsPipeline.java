@@ -1,16 +1,16 @@
 package net.gudenau.cavegame.renderer.vk;
 
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
-import net.gudenau.cavegame.renderer.GraphicsBuffer;
+import net.gudenau.cavegame.renderer.UniformBufferObject;
+import net.gudenau.cavegame.renderer.shader.InputRate;
 import net.gudenau.cavegame.renderer.shader.VertexAttribute;
 import net.gudenau.cavegame.renderer.vk.texture.VulkanTexture;
-import net.gudenau.cavegame.util.BufferUtil;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.*;
 
 import java.util.Collection;
-import java.util.List;
 
 import static org.lwjgl.system.MemoryUtil.NULL;
 import static org.lwjgl.vulkan.VK10.*;
@@ -22,21 +22,31 @@ public final class VulkanGraphicsPipeline implements AutoCloseable {
     private final long handle;
     private final long descriptorSetLayout;
     private final VulkanDescriptorSets descriptorSets;
+    // The own set followed by the texture table when there is one
+    private final long[] boundSets;
+    private final int uniformCount;
+    // The uniform buffer the own set points at
+    @NotNull
+    private VkGraphicsBuffer uniformBuffer;
 
-    //TODO Cache stuff
     //FIXME Break this up
     public VulkanGraphicsPipeline(
         @NotNull VulkanLogicalDevice device,
+        @NotNull VulkanPipelineCache cache,
         @NotNull VkExtent2D viewportExtent,
         @NotNull VulkanRenderPass renderPass,
         @NotNull Collection<VulkanShaderModule> modules,
         @NotNull VkVertexFormat format,
         @NotNull VkUniformLayout uniforms,
         @NotNull VulkanDescriptorPool descriptorPool,
-        @NotNull List<GraphicsBuffer> buffers,
-        @NotNull Int2ObjectMap<VulkanTexture> textures
+        @NotNull VkGraphicsBuffer uniformBuffer,
+        @NotNull Int2ObjectMap<VulkanTexture> textures,
+        @Nullable VkTextureTable textureTable,
+        int textureCount
     ) {
         this.device = device;
+        this.uniformBuffer = uniformBuffer;
+        uniformCount = uniforms.uniforms().size();
 
         try (var stack = MemoryStack.stackPush()) {
             var dynamicState = VkPipelineDynamicStateCreateInfo.calloc(stack);
@@ -47,23 +57,27 @@ public final class VulkanGraphicsPipeline implements AutoCloseable {
             ));
 
             var inputs = format.attributes();
-            var bindingDescriptions = VkVertexInputBindingDescription.calloc(1, stack);
-            var bindingDescription = bindingDescriptions.get(0);
-            bindingDescription.binding(0);
-            bindingDescription.stride(format.stride());
-            bindingDescription.inputRate(VK_VERTEX_INPUT_RATE_VERTEX);
+            var bindingDescriptions = VkVertexInputBindingDescription.calloc(format.instanceStride() == 0 ? 1 : 2, stack);
+            bindingDescriptions.get(0)
+                .binding(0)
+                .stride(format.stride())
+                .inputRate(VK_VERTEX_INPUT_RATE_VERTEX);
+            if(format.instanceStride() != 0) {
+                bindingDescriptions.get(1)
+                    .binding(1)
+                    .stride(format.instanceStride())
+                    .inputRate(VK_VERTEX_INPUT_RATE_INSTANCE);
+            }
 
             var attributeDescriptions = VkVertexInputAttributeDescription.calloc(inputs.size(), stack);
-            int offset = 0;
             for(var attribute : inputs) {
                 //noinspection resource
                 attributeDescriptions.get().set(
                     attribute.location(),
-                    0,
+                    attribute.rate() == InputRate.INSTANCE ? 1 : 0,
                     format(attribute),
-                    offset
+                    attribute.offset()
                 );
-                offset += attribute.stride();
             }
             attributeDescriptions.flip();
 
@@ -125,12 +139,14 @@ public final class VulkanGraphicsPipeline implements AutoCloseable {
             colorBlending.logicOpEnable(false);
             colorBlending.pAttachments(colorBlendAttachment);
 
-            var layoutBindings = VkDescriptorSetLayoutBinding.calloc(uniforms.uniforms().size() + 1, stack);
+            // Textures come from the texture table instead of a sampler binding when there is one
+            var layoutBindings = VkDescriptorSetLayoutBinding.calloc(uniforms.uniforms().size() + (textureTable == null ? 1 : 0), stack);
             for(int i = 0, limit = uniforms.uniforms().size(); i < limit; i++) {
                 var uniform = uniforms.uniforms().get(i);
                 var binding = layoutBindings.get(i);
                 binding.binding(uniform.location());
-                binding.descriptorType(VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER);
+                // Draws select their uniforms with the offset they are bound with
+                binding.descriptorType(VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC);
                 binding.descriptorCount(1);
                 binding.stageFlags(switch(uniform.shader()) {
                     case FRAGMENT -> VK_SHADER_STAGE_FRAGMENT_BIT;
@@ -138,7 +154,7 @@ public final class VulkanGraphicsPipeline implements AutoCloseable {
                 });
             }
 
-            {
+            if(textureTable == null) {
                 var binding = layoutBindings.get(uniforms.uniforms().size());
                 binding.binding(1);
                 binding.descriptorCount(1);
@@ -159,8 +175,17 @@ public final class VulkanGraphicsPipeline implements AutoCloseable {
 
             var pilelineLayoutInfo = VkPipelineLayoutCreateInfo.calloc(stack);
             pilelineLayoutInfo.sType$Default();
-            pilelineLayoutInfo.pSetLayouts(descriptorSetLayoutPointer);
-            pilelineLayoutInfo.pPushConstantRanges(null);
+            if(textureTable == null) {
+                pilelineLayoutInfo.pSetLayouts(descriptorSetLayoutPointer);
+                pilelineLayoutInfo.pPushConstantRanges(null);
+            } else {
+                pilelineLayoutInfo.pSetLayouts(stack.longs(descriptorSetLayout, textureTable.layout()));
+
+                // The texture table indices of the textures of the draw
+                var pushConstantRanges = VkPushConstantRange.calloc(1, stack);
+                pushConstantRanges.get(0).set(VK_SHADER_STAGE_FRAGMENT_BIT, 0, textureCount * Integer.BYTES);
+                pilelineLayoutInfo.pPushConstantRanges(pushConstantRanges);
+            }
 
             var pointer = stack.longs(0);
             result = vkCreatePipelineLayout(device.handle(), pilelineLayoutInfo, VulkanAllocator.get(), pointer);
@@ -210,60 +235,58 @@ public final class VulkanGraphicsPipeline implements AutoCloseable {
             pipelineInfo.basePipelineHandle(VK_NULL_HANDLE);
             pipelineInfo.pDepthStencilState(depthStencil);
 
-            result = vkCreateGraphicsPipelines(device.handle(), VK_NULL_HANDLE, pipelineInfo, VulkanAllocator.get(), pointer);
+            result = vkCreateGraphicsPipelines(device.handle(), cache.handle(), pipelineInfo, VulkanAllocator.get(), pointer);
             if(result != VK_SUCCESS) {
                 vkDestroyPipelineLayout(device.handle(), pipelineLayout, VulkanAllocator.get());
                 throw new RuntimeException("Failed to create Vulkan graphics pipeline: " + VulkanUtils.errorString(result));
             }
             handle = pointer.get(0);
 
-            descriptorSets = new VulkanDescriptorSets(device, descriptorPool, BufferUtil.ofFilled(stack, buffers.size(), descriptorSetLayout));
+            descriptorSets = new VulkanDescriptorSets(device, descriptorPool, stack.longs(descriptorSetLayout));
+            var descriptorSet = descriptorSets.get(0);
+            boundSets = textureTable == null ? new long[]{descriptorSet} : new long[]{descriptorSet, textureTable.set()};
 
-            var descriptorWrites = VkWriteDescriptorSet.calloc(buffers.size() + buffers.size() * textures.size(), stack);
-            for(int i = 0; i < buffers.size(); i++) {
+            var descriptorWrites = VkWriteDescriptorSet.calloc(1 + textures.size(), stack);
+            {
                 var bufferInfos = VkDescriptorBufferInfo.calloc(1, stack);
                 var bufferInfo = bufferInfos.get(0);
-                bufferInfo.buffer(((VkGraphicsBuffer) buffers.get(i)).handle());
+                bufferInfo.buffer(uniformBuffer.handle());
                 bufferInfo.offset(0);
-                bufferInfo.range(VK_WHOLE_SIZE);
+                bufferInfo.range(UniformBufferObject.SIZE);
 
                 var descriptorWrite = descriptorWrites.get();
                 descriptorWrite.sType$Default();
-                descriptorWrite.dstSet(descriptorSets.get(i));
+                descriptorWrite.dstSet(descriptorSet);
                 descriptorWrite.dstBinding(0);
                 descriptorWrite.dstArrayElement(0);
-                descriptorWrite.descriptorType(VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER);
+                descriptorWrite.descriptorType(VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC);
                 descriptorWrite.descriptorCount(1);
                 descriptorWrite.pBufferInfo(bufferInfos);
                 descriptorWrite.pImageInfo(null);
                 descriptorWrite.pTexelBufferView(null);
             }
 
-            if(!textures.isEmpty()) {
-                for(int i = 0; i < buffers.size(); i++) {
-                    for(var entry : textures.int2ObjectEntrySet()) {
-                        var binding = entry.getIntKey();
-                        var texture = entry.getValue();
-
-                        //TODO This seems wrong.
-                        var imageInfos = VkDescriptorImageInfo.calloc(1, stack);
-                        var imageInfo = imageInfos.get(0);
-                        imageInfo.imageLayout(VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL);
-                        imageInfo.imageView(texture.imageView().handle());
-                        imageInfo.sampler(texture.sampler().handle());
-
-                        var descriptorWrite = descriptorWrites.get();
-                        descriptorWrite.sType$Default();
-                        descriptorWrite.dstSet(descriptorSets.get(i));
-                        descriptorWrite.dstBinding(binding);
-                        descriptorWrite.dstArrayElement(0);
-                        descriptorWrite.descriptorType(VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER);
-                        descriptorWrite.descriptorCount(1);
-                        descriptorWrite.pBufferInfo(null);
-                        descriptorWrite.pImageInfo(imageInfos);
-                        descriptorWrite.pTexelBufferView(null);
-                    }
-                }
+            for(var entry : textures.int2ObjectEntrySet()) {
+                var binding = entry.getIntKey();
+                var texture = entry.getValue();
+
+                //TODO This seems wrong.
+                var imageInfos = VkDescriptorImageInfo.calloc(1, stack);
+                var imageInfo = imageInfos.get(0);
+                imageInfo.imageLayout(VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL);
+                imageInfo.imageView(texture.imageView().handle());
+                imageInfo.sampler(texture.sampler().handle());
+
+                var descriptorWrite = descriptorWrites.get();
+                descriptorWrite.sType$Default();
+                descriptorWrite.dstSet(descriptorSet);
+                descriptorWrite.dstBinding(binding);
+                descriptorWrite.dstArrayElement(0);
+                descriptorWrite.descriptorType(VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER);
+                descriptorWrite.descriptorCount(1);
+                descriptorWrite.pBufferInfo(null);
+                descriptorWrite.pImageInfo(imageInfos);
+                descriptorWrite.pTexelBufferView(null);
             }
 
             descriptorWrites.flip();
@@ -280,6 +303,13 @@ public final class VulkanGraphicsPipeline implements AutoCloseable {
                 case 4 -> VK_FORMAT_R32G32B32A32_SFLOAT;
                 default -> throw new RuntimeException("Unknown format for " + attribute.type().name().toLowerCase() + attribute.count());
             };
+            case UINT -> switch(attribute.count()) {
+                case 1 -> VK_FORMAT_R32_UINT;
+                case 2 -> VK_FORMAT_R32G32_UINT;
+                case 3 -> VK_FORMAT_R32G32B32_UINT;
+                case 4 -> VK_FORMAT_R32G32B32A32_UINT;
+                default -> throw new RuntimeException("Unknown format for " + attribute.type().name().toLowerCase() + attribute.count());
+            };
             case STRUCT -> throw new RuntimeException("Struct is not yet supported");
             case SAMPLER -> throw new RuntimeException("Sampler is not yet supported");
         };
@@ -301,7 +331,40 @@ public final class VulkanGraphicsPipeline implements AutoCloseable {
         vkDestroyPipelineLayout(device.handle(), pipelineLayout, VulkanAllocator.get());
     }
 
-    public long descriptorSet(int index) {
-        return descriptorSets.get(index);
+    // Has to be called before the set is recorded. A set that still points at an old buffer was not used since the buffer
+    // grew and growing waits for the device, so no pending command buffer can use it.
+    public void uniformBuffer(@NotNull VkGraphicsBuffer buffer) {
+        if(buffer == uniformBuffer) {
+            return;
+        }
+        uniformBuffer = buffer;
+
+        try(var stack = MemoryStack.stackPush()) {
+            var bufferInfos = VkDescriptorBufferInfo.calloc(1, stack);
+            bufferInfos.get(0)
+                .buffer(buffer.handle())
+                .offset(0)
+                .range(UniformBufferObject.SIZE);
+
+            var descriptorWrites = VkWriteDescriptorSet.calloc(1, stack);
+            var descriptorWrite = descriptorWrites.get(0);
+            descriptorWrite.sType$Default();
+            descriptorWrite.dstSet(boundSets[0]);
+            descriptorWrite.dstBinding(0);
+            descriptorWrite.dstArrayElement(0);
+            descriptorWrite.descriptorType(VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC);
+            descriptorWrite.descriptorCount(1);
+            descriptorWrite.pBufferInfo(bufferInfos);
+            vkUpdateDescriptorSets(device.handle(), descriptorWrites, null);
+        }
+    }
+
+    public long[] descriptorSets() {
+        return boundSets;
+    }
+
+    // The amount of dynamic offsets the descriptor set has to be bound with
+    public int uniformCount() {
+        return uniformCount;
     }
 }
@@ -53,7 +53,14 @@ public final class VulkanImage implements AutoCloseable {
             imageInfo.tiling(VK_IMAGE_TILING_OPTIMAL);
             imageInfo.initialLayout(VK_IMAGE_LAYOUT_UNDEFINED);
             imageInfo.usage(usage);
-            imageInfo.sharingMode(VK_SHARING_MODE_EXCLUSIVE);
+            // Uploads can be written from the transfer queue
+            var queueFamilies = (usage & VK_IMAGE_USAGE_TRANSFER_DST_BIT) != 0 ? device.concurrentQueueFamilies(stack) : null;
+            if(queueFamilies != null) {
+                imageInfo.sharingMode(VK_SHARING_MODE_CONCURRENT);
+                imageInfo.pQueueFamilyIndices(queueFamilies);
+            } else {
+                imageInfo.sharingMode(VK_SHARING_MODE_EXCLUSIVE);
+            }
             imageInfo.samples(samples);
             imageInfo.flags(0);
 
@@ -67,8 +74,8 @@ public final class VulkanImage implements AutoCloseable {
             }
             handle = texturePointer.get(0);
 
-            memory = VulkanMemory.ofImage(device, this, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT);
-            vkBindImageMemory(device.handle(), handle, memory.handle(), 0);
+            memory = device.memoryAllocator().allocateImage(handle, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT);
+            vkBindImageMemory(device.handle(), handle, memory.handle(), memory.offset());
         }
     }
 
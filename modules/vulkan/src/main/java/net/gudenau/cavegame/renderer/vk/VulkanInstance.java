@@ -7,13 +7,18 @@ import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.*;
 
 import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
 
 import static org.lwjgl.glfw.GLFWVulkan.glfwGetRequiredInstanceExtensions;
+import static org.lwjgl.vulkan.KHRGetPhysicalDeviceProperties2.VK_KHR_GET_PHYSICAL_DEVICE_PROPERTIES_2_EXTENSION_NAME;
 import static org.lwjgl.vulkan.KHRPortabilityEnumeration.VK_INSTANCE_CREATE_ENUMERATE_PORTABILITY_BIT_KHR;
 import static org.lwjgl.vulkan.VK10.*;
 
 public final class VulkanInstance implements AutoCloseable {
     private final VkInstance handle;
+    // Needed to query the features of extensions on Vulkan 1.0
+    private final boolean physicalDeviceProperties2;
 
     public VulkanInstance() {
         try(var stack = MemoryStack.stackPush()) {
@@ -34,13 +39,17 @@ public final class VulkanInstance implements AutoCloseable {
                 createInfo.flags(createInfo.flags() | VK_INSTANCE_CREATE_ENUMERATE_PORTABILITY_BIT_KHR);
             }
 
+            var availableExtensions = availableExtensions();
+            physicalDeviceProperties2 = availableExtensions.contains(VK_KHR_GET_PHYSICAL_DEVICE_PROPERTIES_2_EXTENSION_NAME);
+
             var requiredExtensions = VulkanUtils.mergeBuffers(
                 stack,
                 glfwGetRequiredInstanceExtensions(),
                 VulkanUtils.osxInstanceExtensions(stack),
-                VulkanUtils.requiredInstanceExtensions(stack)
+                VulkanUtils.requiredInstanceExtensions(stack),
+                physicalDeviceProperties2 ? stack.pointers(stack.UTF8(VK_KHR_GET_PHYSICAL_DEVICE_PROPERTIES_2_EXTENSION_NAME)) : null
             );
-            validateExtensionSupport(requiredExtensions);
+            validateExtensionSupport(requiredExtensions, availableExtensions);
             createInfo.ppEnabledExtensionNames(requiredExtensions);
 
             var requiredLayers = VulkanUtils.enabledInstanceLayers(stack);
@@ -80,11 +89,8 @@ public final class VulkanInstance implements AutoCloseable {
         }
     }
 
-    private void validateExtensionSupport(@Nullable PointerBuffer requiredExtensions) {
-        if(requiredExtensions == null) {
-            return;
-        }
-
+    @NotNull
+    private static Set<@NotNull String> availableExtensions() {
         try(var stack = MemoryStack.stackPush()) {
             var extensionCountPointer = stack.ints(0);
             vkEnumerateInstanceExtensionProperties((ByteBuffer) null, extensionCountPointer, null);
@@ -93,14 +99,23 @@ public final class VulkanInstance implements AutoCloseable {
             var extensionProps = VkExtensionProperties.calloc(extensionCount, stack);
             vkEnumerateInstanceExtensionProperties((ByteBuffer) null, extensionCountPointer, extensionProps);
 
-            var missingExtensions = VulkanUtils.extractSet(requiredExtensions);
+            var extensions = new HashSet<String>(extensionCount);
             for (var extensionProp : extensionProps) {
-                missingExtensions.remove(extensionProp.extensionNameString());
+                extensions.add(extensionProp.extensionNameString());
             }
+            return extensions;
+        }
+    }
 
-            if(!missingExtensions.isEmpty()) {
-                throw new RuntimeException("Required Vulkan instance extensions are missing: " + String.join(", ", missingExtensions));
-            }
+    private void validateExtensionSupport(@Nullable PointerBuffer requiredExtensions, @NotNull Set<@NotNull String> availableExtensions) {
+        if(requiredExtensions == null) {
+            return;
+        }
+
+        var missingExtensions = VulkanUtils.extractSet(requiredExtensions);
+        missingExtensions.removeAll(availableExtensions);
+        if(!missingExtensions.isEmpty()) {
+            throw new RuntimeException("Required Vulkan instance extensions are missing: " + String.join(", ", missingExtensions));
         }
     }
 
@@ -109,6 +124,10 @@ public final class VulkanInstance implements AutoCloseable {
         return handle;
     }
 
+    public boolean physicalDeviceProperties2() {
+        return physicalDeviceProperties2;
+    }
+
     @Override
     public void close() {
         vkDestroyInstance(handle, VulkanAllocator.get());
@@ -2,10 +2,15 @@ package net.gudenau.cavegame.renderer.vk;
 
 import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import net.gudenau.cavegame.util.SharedLock;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.*;
 
+import java.nio.IntBuffer;
+import java.util.HashSet;
+
 import static org.lwjgl.vulkan.VK10.*;
 
 public final class VulkanLogicalDevice implements AutoCloseable {
@@ -18,6 +23,14 @@ public final class VulkanLogicalDevice implements AutoCloseable {
     private final VkQueue graphicsQueue;
     @NotNull
     private final VkQueue presentQueue;
+    @NotNull
+    private final VkQueue transferQueue;
+    private final int transferQueueFamily;
+
+    @NotNull
+    private final VulkanMemoryAllocator memoryAllocator;
+    // Queues have to be externally synchronized, uploads can be submitted from any thread
+    private final SharedLock queueLock = new SharedLock();
 
     public VulkanLogicalDevice(@NotNull VulkanPhysicalDevice physicalDevice) {
         this.device = physicalDevice;
@@ -26,6 +39,9 @@ public final class VulkanLogicalDevice implements AutoCloseable {
             var queueSet = new IntOpenHashSet();
             queueSet.add(physicalDevice.graphicsQueue());
             queueSet.add(physicalDevice.presentQueue());
+            // Transfers share the graphics queue when there is no dedicated family
+            transferQueueFamily = physicalDevice.transferQueue() != -1 ? physicalDevice.transferQueue() : physicalDevice.graphicsQueue();
+            queueSet.add(transferQueueFamily);
 
             var queueCreateInfo = VkDeviceQueueCreateInfo.calloc(queueSet.size(), stack);
             int index = 0; // This sucks
@@ -44,8 +60,22 @@ public final class VulkanLogicalDevice implements AutoCloseable {
             var createInfo = VkDeviceCreateInfo.calloc(stack);
             createInfo.sType$Default();
             createInfo.pQueueCreateInfos(queueCreateInfo);
+
+            var extensions = new HashSet<>(VulkanUtils.DEVICE_EXTENSIONS);
+            if(physicalDevice.bindlessTextures() != 0) {
+                extensions.addAll(VulkanUtils.BINDLESS_DEVICE_EXTENSIONS);
+                deviceFeatures.shaderSampledImageArrayDynamicIndexing(true);
+
+                var indexingFeatures = VkPhysicalDeviceDescriptorIndexingFeaturesEXT.calloc(stack);
+                indexingFeatures.sType$Default();
+                indexingFeatures.runtimeDescriptorArray(true);
+                indexingFeatures.descriptorBindingPartiallyBound(true);
+                indexingFeatures.descriptorBindingSampledImageUpdateAfterBind(true);
+                createInfo.pNext(indexingFeatures);
+            }
+
             createInfo.pEnabledFeatures(deviceFeatures);
-            createInfo.ppEnabledExtensionNames(VulkanUtils.packStrings(stack, VulkanUtils.DEVICE_EXTENSIONS));
+            createInfo.ppEnabledExtensionNames(VulkanUtils.packStrings(stack, extensions));
 
             var pointer = stack.pointers(0);
             var result = vkCreateDevice(physicalDevice.device(), createInfo, VulkanAllocator.get(), pointer);
@@ -60,7 +90,10 @@ public final class VulkanLogicalDevice implements AutoCloseable {
             }
             graphicsQueue = queueMap.get(physicalDevice.graphicsQueue());
             presentQueue = queueMap.get(physicalDevice.presentQueue());
+            transferQueue = queueMap.get(transferQueueFamily);
         }
+
+        memoryAllocator = new VulkanMemoryAllocator(this);
     }
 
     @NotNull
@@ -82,21 +115,54 @@ public final class VulkanLogicalDevice implements AutoCloseable {
         return presentQueue;
     }
 
+    @NotNull
+    public VkQueue transferQueue() {
+        return transferQueue;
+    }
+
+    public int transferQueueFamily() {
+        return transferQueueFamily;
+    }
+
+    @NotNull
+    public SharedLock queueLock() {
+        return queueLock;
+    }
+
+    public boolean hasTransferQueue() {
+        return transferQueueFamily != device.graphicsQueue();
+    }
+
+    // Resources written by the transfer queue and read by the graphics queue are shared instead of having their
+    // ownership transferred, null when both are the same family
+    @Nullable
+    public IntBuffer concurrentQueueFamilies(@NotNull MemoryStack stack) {
+        return hasTransferQueue() ? stack.ints(device.graphicsQueue(), transferQueueFamily) : null;
+    }
+
     public VulkanPhysicalDevice device() {
         return device;
     }
 
+    @NotNull
+    public VulkanMemoryAllocator memoryAllocator() {
+        return memoryAllocator;
+    }
+
     @NotNull
     public VkDevice handle() {
         return handle;
     }
 
     public void waitForIdle() {
-        vkDeviceWaitIdle(handle);
+        queueLock.write(() -> {
+            vkDeviceWaitIdle(handle);
+        });
     }
 
     @Override
     public void close() {
+        memoryAllocator.close();
         vkDestroyDevice(handle, VulkanAllocator.get());
     }
 }
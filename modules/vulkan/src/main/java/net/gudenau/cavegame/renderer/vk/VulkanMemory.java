@@ -1,114 +1,82 @@
 package net.gudenau.cavegame.renderer.vk;
 
 import org.jetbrains.annotations.NotNull;
-import org.lwjgl.system.MemoryStack;
 import org.lwjgl.system.MemoryUtil;
-import org.lwjgl.vulkan.VkMemoryAllocateInfo;
-import org.lwjgl.vulkan.VkMemoryRequirements;
-import org.lwjgl.vulkan.VkPhysicalDeviceMemoryProperties;
 
 import java.nio.ByteBuffer;
 
-import static org.lwjgl.vulkan.VK10.*;
-
-public class VulkanMemory implements AutoCloseable {
-    private final VulkanLogicalDevice device;
+import static org.lwjgl.system.MemoryUtil.NULL;
 
+// A range of a block of device memory from a VulkanMemoryAllocator, resources have to be bound at offset()
+public final class VulkanMemory implements AutoCloseable {
+    private final VulkanMemoryAllocator allocator;
+    private final VulkanMemoryAllocator.Block block;
+    private final int range;
+    private final long offset;
     private final long size;
-    private final long handle;
 
-    public static VulkanMemory ofImage(VulkanLogicalDevice device, VulkanImage image, int properties) {
-        try(var stack = MemoryStack.stackPush()) {
-            var memoryRequirements = VkMemoryRequirements.calloc(stack);
-            vkGetImageMemoryRequirements(device.handle(), image.handle(), memoryRequirements);
-            return new VulkanMemory(device, memoryRequirements, properties);
-        }
-    }
+    private boolean closed = false;
 
-    public VulkanMemory(VulkanLogicalDevice device, VkMemoryRequirements requirements, int properties) {
-        this.size = requirements.size();
-        this.device = device;
-
-        try(var stack = MemoryStack.stackPush()) {
-            var allocInfo = VkMemoryAllocateInfo.calloc(stack);
-            allocInfo.sType$Default();
-            allocInfo.allocationSize(size);
-            allocInfo.memoryTypeIndex(determineMemoryType(
-                requirements.memoryTypeBits(),
-                properties
-            ));
-
-            var memoryPointer = stack.longs(0);
-            var result = vkAllocateMemory(device.handle(), allocInfo, VulkanAllocator.get(), memoryPointer);
-            if(result != VK_SUCCESS) {
-                throw new RuntimeException("Failed to allocate memory: " + VulkanUtils.errorString(result));
-            }
-            handle = memoryPointer.get();
-        }
+    VulkanMemory(@NotNull VulkanMemoryAllocator allocator, @NotNull VulkanMemoryAllocator.Block block, int range, long offset, long size) {
+        this.allocator = allocator;
+        this.block = block;
+        this.range = range;
+        this.offset = offset;
+        this.size = size;
     }
 
-    private int determineMemoryType(int filter, int flags) {
-        try(var stack = MemoryStack.stackPush()) {
-            var properties = VkPhysicalDeviceMemoryProperties.calloc(stack);
-            vkGetPhysicalDeviceMemoryProperties(device.device().device(), properties);
-
-            var types = properties.memoryTypes();
-            var count = properties.memoryTypeCount();
-            for(int i = 0; i < count; i++) {
-                if(
-                    (filter & (1 << i)) != 0 &&
-                        (types.get(i).propertyFlags() & flags) == flags
-                ) {
-                    return i;
-                }
-            }
+    @Override
+    public void close() {
+        if(closed) {
+            throw new IllegalStateException("Memory was already freed");
         }
+        closed = true;
+        allocator.free(this);
+    }
 
-        throw new RuntimeException("Failed to find memory type");
+    @NotNull
+    VulkanMemoryAllocator.Block block() {
+        return block;
     }
 
-    @Override
-    public void close() {
-        vkFreeMemory(device.handle(), handle, VulkanAllocator.get());
+    int range() {
+        return range;
     }
 
     public long handle() {
-        return handle;
+        return block.handle();
+    }
+
+    public long offset() {
+        return offset;
     }
 
+    public long size() {
+        return size;
+    }
+
+    // Host visible memory stays mapped until it is freed, so this is only a view of the mapping
+    @NotNull
     public ByteBuffer map() {
+        if(block.address() == NULL) {
+            throw new IllegalStateException("Memory is not host visible");
+        }
         if(size > Integer.MAX_VALUE) {
             throw new IllegalStateException("Memory size is too large for NIO buffers");
         }
 
-        try(var stack = MemoryStack.stackPush()) {
-            var bufferPointer = stack.pointers(0);
-            var result = vkMapMemory(device.handle(), handle, 0, size, 0, bufferPointer);
-            if(result != VK_SUCCESS) {
-                throw new RuntimeException("Failed to map Vulkan memory: " + VulkanUtils.errorString(result));
-            }
-            return bufferPointer.getByteBuffer(0, (int) size);
-        }
+        return MemoryUtil.memByteBuffer(block.address() + offset, (int) size);
     }
 
-    public void unmap() {
-        vkUnmapMemory(device.handle(), handle);
+    public void upload(@NotNull ByteBuffer data) {
+        upload(data, 0);
     }
 
-    public void upload(ByteBuffer data) {
-        if(data.remaining() > size) {
+    public void upload(@NotNull ByteBuffer data, int offset) {
+        if(offset < 0 || data.remaining() > size - offset) {
             throw new IllegalArgumentException("Provided buffer was too large for allocate memory");
         }
 
-        var buffer = map();
-        try {
-            MemoryUtil.memCopy(data, buffer);
-        } finally {
-            unmap();
-        }
-    }
-
-    public long size() {
-        return size;
+        MemoryUtil.memCopy(MemoryUtil.memAddress(data), MemoryUtil.memAddress(map()) + offset, data.remaining());
     }
 }
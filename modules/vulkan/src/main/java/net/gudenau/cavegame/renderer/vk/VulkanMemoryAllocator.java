@@ -0,0 +1,320 @@
+package net.gudenau.cavegame.renderer.vk;
+
+import net.gudenau.cavegame.logger.Logger;
+import net.gudenau.cavegame.util.SharedLock;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VkMemoryAllocateInfo;
+import org.lwjgl.vulkan.VkMemoryRequirements;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.system.MemoryUtil.NULL;
+import static org.lwjgl.vulkan.VK10.*;
+
+// Hands out ranges of a few large blocks per memory type instead of allocating device memory for every resource,
+// drivers only guarantee a few thousand live allocations.
+public final class VulkanMemoryAllocator implements AutoCloseable {
+    private static final Logger LOGGER = Logger.forName("Vulkan");
+
+    private static final long MAX_BLOCK_SIZE = 64L << 20;
+    // Images this large get their own allocation, they would fragment the blocks
+    private static final long DEDICATED_IMAGE_SIZE = 16L << 20;
+
+    // largestFree is the largest range a pooled allocation can get without a new block, compared to the free bytes of
+    // the blocks it shows how fragmented they are
+    public record HeapStatistics(
+        int heap,
+        long size,
+        long reserved,
+        long used,
+        int blocks,
+        int allocations,
+        long largestFree
+    ) {
+        // 0 when the free memory of the blocks is one range, close to 1 when it is split into many small ones
+        public double fragmentation() {
+            var free = reserved - used;
+            return free <= 0 ? 0 : 1 - (double) largestFree / free;
+        }
+    }
+
+    static final class Block {
+        private final int type;
+        // -1 for dedicated allocations
+        private final int pool;
+        private final long handle;
+        private final long size;
+        // 0 unless the memory type is host visible, those blocks stay mapped for their entire life
+        private final long address;
+        // Null for dedicated allocations
+        @Nullable
+        private final TlsfAllocator ranges;
+
+        private Block(int type, int pool, long handle, long size, long address, @Nullable TlsfAllocator ranges) {
+            this.type = type;
+            this.pool = pool;
+            this.handle = handle;
+            this.size = size;
+            this.address = address;
+            this.ranges = ranges;
+        }
+
+        long handle() {
+            return handle;
+        }
+
+        long address() {
+            return address;
+        }
+    }
+
+    private final VulkanLogicalDevice device;
+    private final SharedLock lock = new SharedLock();
+
+    // Cached, querying them is not free on every driver
+    private final int[] typeFlags;
+    private final int[] typeHeaps;
+    private final long[] heapSizes;
+
+    // Linear and optimal resources only need separate blocks when they could share a granularity page
+    private final boolean separateImages;
+    // Indexed by memory type * 2, plus one for images when they are kept apart
+    private final List<List<Block>> pools;
+
+    private final long[] heapReserved;
+    private final long[] heapUsed;
+    private final int[] heapBlocks;
+    private final int[] heapAllocations;
+
+    VulkanMemoryAllocator(@NotNull VulkanLogicalDevice device) {
+        this.device = device;
+
+        var physicalDevice = device.device();
+        var properties = physicalDevice.memoryProperties();
+        var typeCount = properties.memoryTypeCount();
+        typeFlags = new int[typeCount];
+        typeHeaps = new int[typeCount];
+        for(int i = 0; i < typeCount; i++) {
+            var type = properties.memoryTypes(i);
+            typeFlags[i] = type.propertyFlags();
+            typeHeaps[i] = type.heapIndex();
+        }
+        var heapCount = properties.memoryHeapCount();
+        heapSizes = new long[heapCount];
+        for(int i = 0; i < heapCount; i++) {
+            heapSizes[i] = properties.memoryHeaps(i).size();
+        }
+
+        separateImages = physicalDevice.bufferImageGranularity() > TlsfAllocator.MIN_ALIGNMENT;
+        pools = new ArrayList<>(typeCount * 2);
+        for(int i = 0; i < typeCount * 2; i++) {
+            pools.add(new ArrayList<>());
+        }
+
+        heapReserved = new long[heapCount];
+        heapUsed = new long[heapCount];
+        heapBlocks = new int[heapCount];
+        heapAllocations = new int[heapCount];
+    }
+
+    @NotNull
+    public VulkanMemory allocateBuffer(long buffer, int properties) {
+        try(var stack = MemoryStack.stackPush()) {
+            var requirements = VkMemoryRequirements.calloc(stack);
+            vkGetBufferMemoryRequirements(device.handle(), buffer, requirements);
+            return allocate(requirements, properties, false);
+        }
+    }
+
+    @NotNull
+    public VulkanMemory allocateImage(long image, int properties) {
+        try(var stack = MemoryStack.stackPush()) {
+            var requirements = VkMemoryRequirements.calloc(stack);
+            vkGetImageMemoryRequirements(device.handle(), image, requirements);
+            return allocate(requirements, properties, true);
+        }
+    }
+
+    @NotNull
+    private VulkanMemory allocate(@NotNull VkMemoryRequirements requirements, int properties, boolean image) {
+        var size = requirements.size();
+        var alignment = requirements.alignment();
+        var type = determineMemoryType(requirements.memoryTypeBits(), properties);
+        var blockSize = blockSize(type);
+
+        if(size > blockSize / 2 || image && size >= DEDICATED_IMAGE_SIZE) {
+            return lock.write(() -> {
+                var block = createBlock(type, -1, size);
+                heapUsed[typeHeaps[type]] += size;
+                heapAllocations[typeHeaps[type]]++;
+                return new VulkanMemory(this, block, -1, 0, size);
+            });
+        }
+
+        var poolIndex = type * 2 + (image && separateImages ? 1 : 0);
+        var pool = pools.get(poolIndex);
+        return lock.write(() -> {
+            for(var block : pool) {
+                var memory = allocate(block, size, alignment);
+                if(memory != null) {
+                    return memory;
+                }
+            }
+
+            var block = createBlock(type, poolIndex, blockSize);
+            pool.add(block);
+            var memory = allocate(block, size, alignment);
+            if(memory == null) {
+                throw new AssertionError("Allocation of " + size + " bytes did not fit into a new block");
+            }
+            return memory;
+        });
+    }
+
+    @Nullable
+    private VulkanMemory allocate(@NotNull Block block, long size, long alignment) {
+        var ranges = block.ranges;
+        assert ranges != null;
+        var range = ranges.allocate(size, alignment);
+        if(range == -1) {
+            return null;
+        }
+
+        var heap = typeHeaps[block.type];
+        heapUsed[heap] += ranges.size(range);
+        heapAllocations[heap]++;
+        return new VulkanMemory(this, block, range, ranges.offset(range), size);
+    }
+
+    void free(@NotNull VulkanMemory memory) {
+        lock.write(() -> {
+            var block = memory.block();
+            var heap = typeHeaps[block.type];
+            heapAllocations[heap]--;
+
+            var ranges = block.ranges;
+            if(ranges == null) {
+                heapUsed[heap] -= memory.size();
+                destroyBlock(block);
+                return;
+            }
+
+            var range = memory.range();
+            heapUsed[heap] -= ranges.size(range);
+            ranges.free(range);
+
+            // One empty block is kept around per pool so a resource that is recreated every frame does not allocate
+            if(ranges.isEmpty()) {
+                var pool = pools.get(block.pool);
+                if(pool.stream().filter((other) -> other.ranges.isEmpty()).count() > 1) {
+                    pool.remove(block);
+                    destroyBlock(block);
+                }
+            }
+        });
+    }
+
+    private long blockSize(int type) {
+        var heapBlock = heapSizes[typeHeaps[type]] / 8 & -TlsfAllocator.MIN_ALIGNMENT;
+        return Math.max(TlsfAllocator.MIN_ALIGNMENT, Math.min(MAX_BLOCK_SIZE, heapBlock));
+    }
+
+    private int determineMemoryType(int filter, int flags) {
+        for(int i = 0; i < typeFlags.length; i++) {
+            if((filter & (1 << i)) != 0 && (typeFlags[i] & flags) == flags) {
+                return i;
+            }
+        }
+
+        throw new RuntimeException("Failed to find memory type");
+    }
+
+    @NotNull
+    private Block createBlock(int type, int pool, long size) {
+        try(var stack = MemoryStack.stackPush()) {
+            var allocInfo = VkMemoryAllocateInfo.calloc(stack);
+            allocInfo.sType$Default();
+            allocInfo.allocationSize(size);
+            allocInfo.memoryTypeIndex(type);
+
+            var memoryPointer = stack.longs(0);
+            var result = vkAllocateMemory(device.handle(), allocInfo, VulkanAllocator.get(), memoryPointer);
+            if(result != VK_SUCCESS) {
+                throw new RuntimeException("Failed to allocate memory: " + VulkanUtils.errorString(result));
+            }
+            var handle = memoryPointer.get(0);
+
+            var address = NULL;
+            if((typeFlags[type] & VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT) != 0) {
+                var addressPointer = stack.pointers(NULL);
+                result = vkMapMemory(device.handle(), handle, 0, VK_WHOLE_SIZE, 0, addressPointer);
+                if(result != VK_SUCCESS) {
+                    vkFreeMemory(device.handle(), handle, VulkanAllocator.get());
+                    throw new RuntimeException("Failed to map Vulkan memory: " + VulkanUtils.errorString(result));
+                }
+                address = addressPointer.get(0);
+            }
+
+            var heap = typeHeaps[type];
+            heapReserved[heap] += size;
+            heapBlocks[heap]++;
+            return new Block(type, pool, handle, size, address, pool == -1 ? null : new TlsfAllocator(size));
+        }
+    }
+
+    private void destroyBlock(@NotNull Block block) {
+        // Freeing mapped memory implicitly unmaps it
+        vkFreeMemory(device.handle(), block.handle, VulkanAllocator.get());
+
+        var heap = typeHeaps[block.type];
+        heapReserved[heap] -= block.size;
+        heapBlocks[heap]--;
+    }
+
+    @NotNull
+    public List<HeapStatistics> statistics() {
+        return lock.read(() -> {
+            var largestFree = new long[heapSizes.length];
+            for(int i = 0; i < pools.size(); i++) {
+                var heap = typeHeaps[i / 2];
+                for(var block : pools.get(i)) {
+                    largestFree[heap] = Math.max(largestFree[heap], block.ranges.largestFree());
+                }
+            }
+
+            var statistics = new ArrayList<HeapStatistics>(heapSizes.length);
+            for(int i = 0; i < heapSizes.length; i++) {
+                statistics.add(new HeapStatistics(
+                    i,
+                    heapSizes[i],
+                    heapReserved[i],
+                    heapUsed[i],
+                    heapBlocks[i],
+                    heapAllocations[i],
+                    largestFree[i]
+                ));
+            }
+            return statistics;
+        });
+    }
+
+    @Override
+    public void close() {
+        for(var heap : statistics()) {
+            LOGGER.debug("Memory heap " + heap.heap() + ": " + heap.used() + "/" + heap.reserved() + " bytes used in " + heap.blocks() + " blocks, largest free range " + heap.largestFree() + " bytes");
+            if(heap.allocations() != 0) {
+                LOGGER.warn("Leaked " + heap.allocations() + " allocations (" + heap.used() + " bytes) from memory heap " + heap.heap());
+            }
+        }
+
+        lock.write(() -> {
+            for(var pool : pools) {
+                pool.forEach(this::destroyBlock);
+                pool.clear();
+            }
+        });
+    }
+}
@@ -1,5 +1,6 @@
 package net.gudenau.cavegame.renderer.vk;
 
+import net.gudenau.cavegame.config.Config;
 import net.gudenau.cavegame.util.MathUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -11,7 +12,9 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.Set;
 
+import static org.lwjgl.vulkan.KHRGetPhysicalDeviceProperties2.*;
 import static org.lwjgl.vulkan.KHRSurface.*;
 import static org.lwjgl.vulkan.VK10.*;
 
@@ -27,28 +30,40 @@ public final class VulkanPhysicalDevice implements AutoCloseable {
     private final VkPhysicalDeviceProperties deviceProperties;
     @NotNull
     private final VkPhysicalDeviceFeatures deviceFeatures;
+    @NotNull
+    private final VkPhysicalDeviceMemoryProperties memoryProperties;
+
+    @NotNull
+    private final Set<@NotNull String> extensions;
 
     private final int maxSampleCount;
+    // The size of the bindless texture table, 0 when it can not be used
+    private final int bindlessTextures;
     private final int rank;
 
     private int graphicsQueue = -1;
     private int presentQueue = -1;
+    private int transferQueue = -1;
     @Nullable
     private VkSurfaceFormatKHR surfaceFormat = null;
     private int surfacePresentMode = -1;
 
-    private VulkanPhysicalDevice(@NotNull VkPhysicalDevice device, @NotNull VulkanSurface surface, @NotNull VkWindow window) {
+    private VulkanPhysicalDevice(@NotNull VulkanInstance instance, @NotNull VkPhysicalDevice device, @NotNull VulkanSurface surface, @NotNull VkWindow window) {
         this.device = device;
         this.surface = surface;
         this.window = window;
 
         deviceProperties = VkPhysicalDeviceProperties.calloc();
         deviceFeatures = VkPhysicalDeviceFeatures.calloc();
+        memoryProperties = VkPhysicalDeviceMemoryProperties.calloc();
 
         vkGetPhysicalDeviceProperties(device, deviceProperties);
         vkGetPhysicalDeviceFeatures(device, deviceFeatures);
+        vkGetPhysicalDeviceMemoryProperties(device, memoryProperties);
+        extensions = queryExtensions();
 
         maxSampleCount = getMaxSampleCount();
+        bindlessTextures = queryBindlessTextures(instance);
         findQueues();
         querySwapChainSupport();
         this.rank = calculateRank();
@@ -85,6 +100,7 @@ public final class VulkanPhysicalDevice implements AutoCloseable {
             vkGetPhysicalDeviceQueueFamilyProperties(device, countPointer, queues);
 
             var presentSupport = stack.ints(VK_FALSE);
+            var transferFlags = 0;
             for(int i = 0; i < count; i++) {
                 var queue = queues.get(i);
                 var queueFlags = queue.queueFlags();
@@ -92,6 +108,16 @@ public final class VulkanPhysicalDevice implements AutoCloseable {
                     graphicsQueue = i;
                 }
 
+                // Transfer only families are usually backed by DMA engines, prefer them over compute families
+                if(
+                    (queueFlags & VK_QUEUE_TRANSFER_BIT) != 0 &&
+                        (queueFlags & VK_QUEUE_GRAPHICS_BIT) == 0 &&
+                        (transferQueue == -1 || Integer.bitCount(queueFlags) < Integer.bitCount(transferFlags))
+                ) {
+                    transferQueue = i;
+                    transferFlags = queueFlags;
+                }
+
                 if(presentQueue == -1) {
                     vkGetPhysicalDeviceSurfaceSupportKHR(device, i, surface.handle(), presentSupport);
                     if (presentSupport.get() == VK_TRUE) {
@@ -201,7 +227,8 @@ public final class VulkanPhysicalDevice implements AutoCloseable {
         };
     }
 
-    private boolean validateExtensions() {
+    @NotNull
+    private Set<@NotNull String> queryExtensions() {
         try(var stack = MemoryStack.stackPush()) {
             var countPointer = stack.ints(0);
             vkEnumerateDeviceExtensionProperties(device, (ByteBuffer) null, countPointer, null);
@@ -210,12 +237,57 @@ public final class VulkanPhysicalDevice implements AutoCloseable {
             var extensions = VkExtensionProperties.calloc(count, stack);
             vkEnumerateDeviceExtensionProperties(device, (ByteBuffer) null, countPointer, extensions);
 
-            var missingExtensions = new HashSet<>(VulkanUtils.DEVICE_EXTENSIONS);
+            var result = new HashSet<String>(count);
             for (var extension : extensions) {
-                missingExtensions.remove(extension.extensionNameString());
+                result.add(extension.extensionNameString());
             }
+            return result;
+        }
+    }
+
+    private boolean validateExtensions() {
+        return extensions.containsAll(VulkanUtils.DEVICE_EXTENSIONS);
+    }
 
-            return missingExtensions.isEmpty();
+    private int queryBindlessTextures(@NotNull VulkanInstance instance) {
+        if(
+            !Config.BINDLESS_TEXTURES.get() ||
+                !instance.physicalDeviceProperties2() ||
+                !extensions.containsAll(VulkanUtils.BINDLESS_DEVICE_EXTENSIONS) ||
+                !deviceFeatures.shaderSampledImageArrayDynamicIndexing()
+        ) {
+            return 0;
+        }
+
+        try(var stack = MemoryStack.stackPush()) {
+            var indexingFeatures = VkPhysicalDeviceDescriptorIndexingFeaturesEXT.calloc(stack);
+            indexingFeatures.sType$Default();
+            var features = VkPhysicalDeviceFeatures2KHR.calloc(stack);
+            features.sType$Default();
+            features.pNext(indexingFeatures);
+            vkGetPhysicalDeviceFeatures2KHR(device, features);
+            if(
+                !indexingFeatures.runtimeDescriptorArray() ||
+                    !indexingFeatures.descriptorBindingPartiallyBound() ||
+                    !indexingFeatures.descriptorBindingSampledImageUpdateAfterBind()
+            ) {
+                return 0;
+            }
+
+            var indexingProperties = VkPhysicalDeviceDescriptorIndexingPropertiesEXT.calloc(stack);
+            indexingProperties.sType$Default();
+            var properties = VkPhysicalDeviceProperties2KHR.calloc(stack);
+            properties.sType$Default();
+            properties.pNext(indexingProperties);
+            vkGetPhysicalDeviceProperties2KHR(device, properties);
+
+            // Combined image samplers count as both a sampler and a sampled image
+            var limit = Math.min(VkTextureTable.MAX_SIZE, indexingProperties.maxPerStageUpdateAfterBindResources());
+            limit = Math.min(limit, indexingProperties.maxPerStageDescriptorUpdateAfterBindSamplers());
+            limit = Math.min(limit, indexingProperties.maxPerStageDescriptorUpdateAfterBindSampledImages());
+            limit = Math.min(limit, indexingProperties.maxDescriptorSetUpdateAfterBindSamplers());
+            limit = Math.min(limit, indexingProperties.maxDescriptorSetUpdateAfterBindSampledImages());
+            return limit < VkTextureTable.MIN_SIZE ? 0 : limit;
         }
     }
 
@@ -234,7 +306,7 @@ public final class VulkanPhysicalDevice implements AutoCloseable {
             }
 
             return devices.stream()
-                .map((device) -> new VulkanPhysicalDevice(device, surface, window))
+                .map((device) -> new VulkanPhysicalDevice(instance, device, surface, window))
                 .filter((device) -> {
                     if(device.rank() == -1) {
                         device.close();
@@ -255,6 +327,15 @@ public final class VulkanPhysicalDevice implements AutoCloseable {
         return presentQueue;
     }
 
+    // -1 when there is no queue family dedicated to transfers
+    public int transferQueue() {
+        return transferQueue;
+    }
+
+    public int bindlessTextures() {
+        return bindlessTextures;
+    }
+
     public float maxSamplerAnisotropy() {
         if(deviceFeatures.samplerAnisotropy()) {
             return deviceProperties.limits().maxSamplerAnisotropy();
@@ -263,6 +344,20 @@ public final class VulkanPhysicalDevice implements AutoCloseable {
         }
     }
 
+    @NotNull
+    public VkPhysicalDeviceMemoryProperties memoryProperties() {
+        return memoryProperties;
+    }
+
+    @NotNull
+    public VkPhysicalDeviceProperties properties() {
+        return deviceProperties;
+    }
+
+    public long bufferImageGranularity() {
+        return deviceProperties.limits().bufferImageGranularity();
+    }
+
     @NotNull
     public VkSurfaceCapabilitiesKHR surfaceCapabilities(@NotNull MemoryStack stack) {
         var capabilities = VkSurfaceCapabilitiesKHR.calloc(stack);
@@ -289,6 +384,7 @@ public final class VulkanPhysicalDevice implements AutoCloseable {
 
     @Override
     public void close() {
+        memoryProperties.close();
         deviceFeatures.close();
         deviceProperties.close();
 
@@ -0,0 +1,143 @@
+package net.gudenau.cavegame.renderer.vk;
+
+import net.gudenau.cavegame.logger.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.VkPipelineCacheCreateInfo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import static org.lwjgl.vulkan.VK10.*;
+
+// A pipeline cache that is loaded from and saved to disk. Drivers are allowed to crash on data from another device or
+// driver version, so the file starts with the identity of the device that wrote it and is only handed to the driver
+// when that matches.
+public final class VulkanPipelineCache implements AutoCloseable {
+    private static final Logger LOGGER = Logger.forName("Vulkan");
+
+    private static final int MAGIC = 0x43475043;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = Integer.BYTES * 5 + VK_UUID_SIZE;
+
+    @NotNull
+    private final VulkanLogicalDevice device;
+    // Null when the cache is not persisted
+    @Nullable
+    private final Path file;
+    private final long handle;
+
+    public VulkanPipelineCache(@NotNull VulkanLogicalDevice device, @Nullable Path file) {
+        this.device = device;
+        this.file = file;
+
+        var data = file == null ? null : read(file);
+        try(var stack = MemoryStack.stackPush()) {
+            var createInfo = VkPipelineCacheCreateInfo.calloc(stack);
+            createInfo.sType$Default();
+            if(data != null) {
+                createInfo.pInitialData(data);
+            }
+
+            var pointer = stack.longs(0);
+            var result = vkCreatePipelineCache(device.handle(), createInfo, VulkanAllocator.get(), pointer);
+            if(result != VK_SUCCESS) {
+                throw new RuntimeException("Failed to create Vulkan pipeline cache: " + VulkanUtils.errorString(result));
+            }
+            handle = pointer.get(0);
+        } finally {
+            MemoryUtil.memFree(data);
+        }
+    }
+
+    // Returns the driver data of the file or null if it is missing or from another device
+    @Nullable
+    private ByteBuffer read(@NotNull Path file) {
+        ByteBuffer bytes;
+        try {
+            bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+        } catch(NoSuchFileException e) {
+            return null;
+        } catch(IOException e) {
+            LOGGER.warn("Failed to read pipeline cache " + file, e);
+            return null;
+        }
+
+        if(bytes.remaining() <= HEADER_SIZE) {
+            return null;
+        }
+        var expected = header();
+        if(!bytes.slice(0, HEADER_SIZE).equals(expected)) {
+            LOGGER.info("Discarding pipeline cache from a different device or driver");
+            return null;
+        }
+
+        var data = MemoryUtil.memAlloc(bytes.remaining() - HEADER_SIZE);
+        data.put(bytes.position(HEADER_SIZE)).flip();
+        return data;
+    }
+
+    @NotNull
+    private ByteBuffer header() {
+        var properties = device.device().properties();
+        return ByteBuffer.allocate(HEADER_SIZE)
+            .putInt(MAGIC)
+            .putInt(VERSION)
+            .putInt(properties.vendorID())
+            .putInt(properties.deviceID())
+            .putInt(properties.driverVersion())
+            .put(properties.pipelineCacheUUID())
+            .flip();
+    }
+
+    // Writes everything the driver put into the cache so far to disk
+    public void save() {
+        if(file == null) {
+            return;
+        }
+
+        try(var stack = MemoryStack.stackPush()) {
+            var sizePointer = stack.pointers(0);
+            var result = vkGetPipelineCacheData(device.handle(), handle, sizePointer, null);
+            if(result != VK_SUCCESS) {
+                LOGGER.warn("Failed to get pipeline cache size: " + VulkanUtils.errorString(result));
+                return;
+            }
+
+            var data = MemoryUtil.memAlloc(Math.toIntExact(sizePointer.get(0)));
+            try {
+                result = vkGetPipelineCacheData(device.handle(), handle, sizePointer, data);
+                if(result != VK_SUCCESS) {
+                    LOGGER.warn("Failed to get pipeline cache data: " + VulkanUtils.errorString(result));
+                    return;
+                }
+                data.limit((int) sizePointer.get(0));
+
+                var bytes = ByteBuffer.allocate(HEADER_SIZE + data.remaining())
+                    .put(header())
+                    .put(data);
+                Files.createDirectories(file.toAbsolutePath().getParent());
+                VulkanUtils.writeAtomically(file, bytes.array());
+            } catch(IOException e) {
+                LOGGER.warn("Failed to write pipeline cache " + file, e);
+            } finally {
+                MemoryUtil.memFree(data);
+            }
+        }
+    }
+
+    public long handle() {
+        return handle;
+    }
+
+    @Override
+    public void close() {
+        save();
+        vkDestroyPipelineCache(device.handle(), handle, VulkanAllocator.get());
+    }
+}
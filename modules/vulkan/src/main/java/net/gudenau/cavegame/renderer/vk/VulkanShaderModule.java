@@ -4,11 +4,10 @@ import net.gudenau.cavegame.renderer.shader.AttributeType;
 import net.gudenau.cavegame.resource.Identifier;
 import org.jetbrains.annotations.NotNull;
 import org.lwjgl.system.MemoryStack;
-import org.lwjgl.system.MemoryUtil;
 import org.lwjgl.vulkan.VkShaderModuleCreateInfo;
 
-import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -43,7 +42,7 @@ public final class VulkanShaderModule implements AutoCloseable {
         int size,
         int stride
     ) {
-        private static Resource of(ShaderReflection.Resource resource) {
+        static Resource of(ShaderReflection.Resource resource) {
             return switch(resource.baseType()) {
                 case STRUCT -> {
                     int bytes = 0;
@@ -72,35 +71,25 @@ public final class VulkanShaderModule implements AutoCloseable {
         }
     }
 
-    public VulkanShaderModule(@NotNull VulkanLogicalDevice device, @NotNull Type type, @NotNull Identifier identifier) {
+    public VulkanShaderModule(@NotNull VulkanLogicalDevice device, @NotNull ShaderCache cache, @NotNull Type type, @NotNull Identifier identifier) {
+        this(device, cache, type, identifier, Map.of());
+    }
+
+    public VulkanShaderModule(
+        @NotNull VulkanLogicalDevice device,
+        @NotNull ShaderCache cache,
+        @NotNull Type type,
+        @NotNull Identifier identifier,
+        @NotNull Map<String, String> macros
+    ) {
         this.device = device;
         this.type = type;
 
-        var source = VulkanUtils.readIntoNativeBuffer(identifier);
-        ByteBuffer code;
-        try(var compiler = ShaderCompiler.acquire()) {
-            code = compiler.compile(source, type.shadercType, identifier.toString());
-        } finally {
-            MemoryUtil.memFree(source);
-        }
-
-        try(var reflection = ShaderReflection.acquire(code)) {
-            inputs = reflection.inputs().stream()
-                .map(Resource::of)
-                .toList();
-
-            outputs = reflection.outputs().stream()
-                .map(Resource::of)
-                .toList();
-
-            uniforms = reflection.uniforms().stream()
-                .map(Resource::of)
-                .toList();
-
-            samplers = reflection.samplers().stream()
-                .map(Resource::of)
-                .toList();
-        }
+        var shader = cache.load(identifier, type, macros);
+        inputs = shader.inputs();
+        outputs = shader.outputs();
+        uniforms = shader.uniforms();
+        samplers = shader.samplers();
 
         inputStride = inputs.stream()
             .mapToInt(Resource::stride)
@@ -113,7 +102,7 @@ public final class VulkanShaderModule implements AutoCloseable {
         try(var stack = MemoryStack.stackPush()) {
             var createInfo = VkShaderModuleCreateInfo.calloc(stack);
             createInfo.sType$Default();
-            createInfo.pCode(code);
+            createInfo.pCode(shader.code());
 
             var pointer = stack.longs(0);
             var result = vkCreateShaderModule(device.handle(), createInfo, VulkanAllocator.get(), pointer);
@@ -122,7 +111,7 @@ public final class VulkanShaderModule implements AutoCloseable {
             }
             handle = pointer.get(0);
         } finally {
-            MemoryUtil.memFree(code);
+            shader.close();
         }
     }
 
@@ -169,7 +158,7 @@ public final class VulkanShaderModule implements AutoCloseable {
             .filter((value) -> value.required)
             .collect(Collectors.toUnmodifiableSet());
 
-        private final int shadercType;
+        final int shadercType;
         final int vulkanType;
         private final boolean required;
 
@@ -13,15 +13,21 @@ import org.lwjgl.PointerBuffer;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.system.MemoryUtil;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import java.nio.LongBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Locale;
 import java.util.Set;
 
 import static org.lwjgl.vulkan.EXTDebugUtils.VK_EXT_DEBUG_UTILS_EXTENSION_NAME;
+import static org.lwjgl.vulkan.EXTDescriptorIndexing.VK_EXT_DESCRIPTOR_INDEXING_EXTENSION_NAME;
+import static org.lwjgl.vulkan.KHRMaintenance3.VK_KHR_MAINTENANCE3_EXTENSION_NAME;
 import static org.lwjgl.vulkan.KHRPortabilityEnumeration.VK_KHR_PORTABILITY_ENUMERATION_EXTENSION_NAME;
 import static org.lwjgl.vulkan.KHRSwapchain.VK_KHR_SWAPCHAIN_EXTENSION_NAME;
 import static org.lwjgl.vulkan.VK10.*;
@@ -41,6 +47,12 @@ public final class VulkanUtils {
         VK_KHR_SWAPCHAIN_EXTENSION_NAME
     );
 
+    // Only enabled when bindless textures are used
+    public static final Set<String> BINDLESS_DEVICE_EXTENSIONS = Set.of(
+        VK_EXT_DESCRIPTOR_INDEXING_EXTENSION_NAME,
+        VK_KHR_MAINTENANCE3_EXTENSION_NAME
+    );
+
     @Nullable
     public static PointerBuffer mergeBuffers(@NotNull MemoryStack stack, @Nullable PointerBuffer @NotNull ... buffers) {
         int size = 0;
@@ -168,4 +180,11 @@ public final class VulkanUtils {
             throw new RuntimeException("Failed to read resource " + identifier + " into a native buffer", e);
         }
     }
+
+    // Readers either see the old file or the complete new one
+    public static void writeAtomically(@NotNull Path file, byte @NotNull [] data) throws IOException {
+        var temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, data);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
 }
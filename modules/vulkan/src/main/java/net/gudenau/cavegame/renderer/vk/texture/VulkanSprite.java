@@ -0,0 +1,24 @@
+package net.gudenau.cavegame.renderer.vk.texture;
+
+import net.gudenau.cavegame.renderer.texture.Sprite;
+
+public record VulkanSprite(
+    int width,
+    int height,
+    float minU,
+    float minV,
+    float maxU,
+    float maxV
+) implements Sprite {
+    // Creates a sprite from the pixel position of a texture inside of an atlas
+    public static VulkanSprite of(int x, int y, int width, int height, int atlasWidth, int atlasHeight) {
+        return new VulkanSprite(
+            width,
+            height,
+            x / (float) atlasWidth,
+            y / (float) atlasHeight,
+            (x + width) / (float) atlasWidth,
+            (y + height) / (float) atlasHeight
+        );
+    }
+}
@@ -5,6 +5,7 @@ import net.gudenau.cavegame.renderer.texture.PngReader;
 import net.gudenau.cavegame.renderer.texture.Texture;
 import net.gudenau.cavegame.renderer.vk.*;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.*;
 
@@ -20,6 +21,8 @@ public sealed class VulkanTexture implements Texture permits VulkanAtlasedTextur
 
     @NotNull
     private final VulkanTextureManager textureManager;
+    @NotNull
+    private final VkUploadManager uploads;
 
     private final VulkanLogicalDevice device;
 
@@ -30,27 +33,30 @@ public sealed class VulkanTexture implements Texture permits VulkanAtlasedTextur
 
     private final VulkanImage image;
     private final VulkanImageView imageView;
+    @Nullable
+    private final VkTextureTable textureTable;
+    // The index of this texture in the texture table, -1 when there is no table
+    private final int tableEntry;
 
     private int layout = VK_IMAGE_LAYOUT_UNDEFINED;
 
     public VulkanTexture(
         @NotNull VkRenderer renderer,
         @NotNull VulkanTextureManager textureManager,
-        @NotNull VkGraphicsBuffer stagingBuffer,
         @NotNull NativeTexture imageResult,
         @NotNull Flag @NotNull ... flags
     ) {
-        this(renderer, textureManager, stagingBuffer, imageResult, Set.of(flags));
+        this(renderer, textureManager, imageResult, Set.of(flags));
     }
 
     public VulkanTexture(
         @NotNull VkRenderer renderer,
         @NotNull VulkanTextureManager textureManager,
-        @NotNull VkGraphicsBuffer stagingBuffer,
         @NotNull NativeTexture imageResult,
         @NotNull Set<@NotNull Flag> flags
     ) {
         this.textureManager = textureManager;
+        this.uploads = renderer.uploads();
 
         width = imageResult.width();
         height = imageResult.height();
@@ -76,7 +82,6 @@ public sealed class VulkanTexture implements Texture permits VulkanAtlasedTextur
 
         device = renderer.logicalDevice();
         this.sampler = textureManager.sampler(mipLevels);
-        VulkanCommandPool commandPool = renderer.commandPool();
 
         image = new VulkanImage(
             device,
@@ -87,23 +92,26 @@ public sealed class VulkanTexture implements Texture permits VulkanAtlasedTextur
             mipLevels
         );
 
-        try(var commandBuffer = new VulkanCommandBuffer(device, commandPool)) {
-            commandBuffer.begin();
+        var pixels = imageResult.pixels();
+        if(pixels.remaining() > image.size()) {
+            throw new IllegalArgumentException("Pixels were too large; expected at most " + image.size() + " bytes and got " + pixels.remaining());
+        }
 
-            transitionLayout(commandBuffer, VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL);
-            upload(commandBuffer, stagingBuffer);
-            if(mipLevels > 1) {
+        // Finishes on the GPU before the first frame that is submitted after this
+        layout = VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL;
+        var mipmapped = mipLevels > 1;
+        uploads.upload(image, width, height, imageResult.format().size(), pixels, (commandBuffer) -> {
+            if(mipmapped) {
                 generateMipmaps(commandBuffer);
             } else {
                 transitionLayout(commandBuffer, VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL);
             }
-
-            commandBuffer.end();
-            commandBuffer.submit(device.graphicsQueue());
-            vkQueueWaitIdle(device.graphicsQueue());
-        }
+        });
 
         imageView = new VulkanImageView(device, image);
+
+        textureTable = renderer.textureTable();
+        tableEntry = textureTable == null ? -1 : textureTable.register(imageView, sampler);
     }
 
     @NotNull
@@ -116,6 +124,10 @@ public sealed class VulkanTexture implements Texture permits VulkanAtlasedTextur
         return sampler;
     }
 
+    public int tableEntry() {
+        return tableEntry;
+    }
+
     private record LayoutInfo(int accessMask, int stage) {}
     private static LayoutInfo layoutInfo(int layout) {
         return switch(layout) {
@@ -123,7 +135,7 @@ public sealed class VulkanTexture implements Texture permits VulkanAtlasedTextur
                 0, VK_PIPELINE_STAGE_TOP_OF_PIPE_BIT
             );
             case VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL -> new LayoutInfo(
-                0, VK_PIPELINE_STAGE_TRANSFER_BIT
+                VK_ACCESS_TRANSFER_WRITE_BIT, VK_PIPELINE_STAGE_TRANSFER_BIT
             );
             case VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL -> new LayoutInfo(
                 VK_ACCESS_SHADER_READ_BIT, VK_PIPELINE_STAGE_FRAGMENT_SHADER_BIT
@@ -153,7 +165,7 @@ public sealed class VulkanTexture implements Texture permits VulkanAtlasedTextur
                 );
 
                 var source = layoutInfo(layout);
-                var destination = layoutInfo(layout);
+                var destination = layoutInfo(newLayout);
 
                 barrier.srcAccessMask(source.accessMask);
                 barrier.dstAccessMask(destination.accessMask);
@@ -276,44 +288,17 @@ public sealed class VulkanTexture implements Texture permits VulkanAtlasedTextur
         }
     }
 
-    private void upload(VulkanCommandBuffer commandBuffer, @NotNull VkGraphicsBuffer buffer) {
-        if(buffer.size() > image.size()) {
-            throw new IllegalArgumentException("Buffer was the too large; expected at most " + image.size() + " and got " + buffer.size());
-        }
-
-        //try(var commandBuffer = new VulkanCommandBuffer(device, commandPool)) {
-        //    commandBuffer.begin();
-            try(var stack = MemoryStack.stackPush()) {  //TODO Move to VulkanCommandBuffer
-                var regions = VkBufferImageCopy.calloc(1, stack);
-                var region = regions.get(0);
-                region.bufferOffset(0);
-                region.bufferRowLength(0);
-                region.bufferImageHeight(0);
-                region.imageSubresource().set(
-                    VK_IMAGE_ASPECT_COLOR_BIT,
-                    0,
-                    0,
-                    1
-                );
-                region.imageOffset().set(0, 0, 0);
-                region.imageExtent().set(
-                    width,
-                    height,
-                    1
-                );
-                vkCmdCopyBufferToImage(commandBuffer.handle(), buffer.handle(), image.handle(), VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL, regions);
-            }
-        //    commandBuffer.end();
-        //    commandBuffer.submit(device.graphicsQueue());
-        //    vkQueueWaitIdle(device.graphicsQueue());
-        //}
-    }
-
     @Override
     public void close() {
         textureManager.removeTexture(this);
 
-        imageView.close();
-        image.close();
+        // The upload might not have finished yet and frames in flight might still sample it
+        uploads.release(() -> {
+            if(textureTable != null) {
+                textureTable.release(tableEntry);
+            }
+            imageView.close();
+            image.close();
+        });
     }
 }
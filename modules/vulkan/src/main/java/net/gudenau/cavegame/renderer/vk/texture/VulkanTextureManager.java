@@ -3,10 +3,8 @@ package net.gudenau.cavegame.renderer.vk.texture;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import net.gudenau.cavegame.logger.Logger;
-import net.gudenau.cavegame.renderer.BufferType;
 import net.gudenau.cavegame.renderer.font.FreeTypeFont;
 import net.gudenau.cavegame.renderer.texture.*;
-import net.gudenau.cavegame.renderer.vk.VkGraphicsBuffer;
 import net.gudenau.cavegame.renderer.vk.VkRenderer;
 import net.gudenau.cavegame.resource.Identifier;
 import net.gudenau.cavegame.resource.ResourceLoader;
@@ -65,20 +63,11 @@ public final class VulkanTextureManager implements TextureManager, AutoCloseable
         } finally {
             MemoryUtil.memFree(imageFileBuffer);
         }
-        var pixels = imageResult.pixels();
-        VkGraphicsBuffer stagingBuffer;
-        try {
-            stagingBuffer = renderer.createBuffer(BufferType.STAGING, pixels.remaining());
-            stagingBuffer.upload(pixels);
-        } finally {
-            imageResult.close();
-        }
-
         VulkanTexture loadedTexture;
         try {
-            loadedTexture = new VulkanTexture(renderer, this, stagingBuffer, imageResult);
+            loadedTexture = new VulkanTexture(renderer, this, imageResult);
         } finally {
-            stagingBuffer.close();
+            imageResult.close();
         }
 
         var existing = textureLock.write(() -> textures.putIfAbsent(identifier, loadedTexture));
@@ -90,6 +79,80 @@ public final class VulkanTextureManager implements TextureManager, AutoCloseable
         }
     }
 
+    @NotNull
+    @Override
+    public Texture createTexture(@NotNull Identifier identifier, @NotNull NativeTexture texture, boolean mipmaps) {
+        var createdTexture = mipmaps ?
+            new VulkanTexture(renderer, this, texture) :
+            new VulkanTexture(renderer, this, texture, VulkanTexture.Flag.DISABLE_MIPMAP);
+
+        var existing = textureLock.write(() -> textures.putIfAbsent(identifier, createdTexture));
+        if(existing != null) {
+            createdTexture.close();
+            throw new IllegalStateException("Texture " + identifier + " already exists");
+        }
+        return createdTexture;
+    }
+
+    @NotNull
+    @Override
+    public AtlasedTexture<Identifier> loadAtlas(@NotNull Identifier identifier, @NotNull Collection<Identifier> textures) throws IOException {
+        {
+            var texture = textureLock.read(() -> this.textures.get(identifier));
+            if(texture instanceof VulkanAtlasedTexture<?> atlas) {
+                //noinspection unchecked
+                return (AtlasedTexture<Identifier>) atlas;
+            }
+        }
+
+        record Entry(@NotNull Identifier identifier, @NotNull NativeTexture texture) {}
+
+        TexturePacker<Entry> packer = new TexturePacker<>(1);
+        List<Entry> loaded = new ArrayList<>();
+        try {
+            for(var textureIdentifier : new LinkedHashSet<>(textures)) {
+                var fileBuffer = ResourceLoader.buffer(textureIdentifier.normalize("texture", ".png"));
+                try {
+                    var entry = new Entry(textureIdentifier, PngReader.read(fileBuffer, TextureFormat.RGBA));
+                    loaded.add(entry);
+                    packer.add(entry.texture().width(), entry.texture().height(), entry);
+                } finally {
+                    MemoryUtil.memFree(fileBuffer);
+                }
+            }
+            packer.pack();
+
+            try(var atlasTexture = NativeTexture.create(packer.width(), packer.height(), TextureFormat.RGBA)) {
+                MemoryUtil.memSet(atlasTexture.pixels(), 0);
+
+                Map<Identifier, Sprite> sprites = new HashMap<>();
+                packer.entries().forEach((entry) -> {
+                    atlasTexture.blit(entry.x(), entry.y(), entry.data().texture());
+                    sprites.put(entry.data().identifier(), VulkanSprite.of(
+                        entry.x(), entry.y(),
+                        entry.width(), entry.height(),
+                        atlasTexture.width(), atlasTexture.height()
+                    ));
+                });
+
+                var texture = new VulkanAtlasedTexture<>(renderer, this, atlasTexture, sprites);
+
+                var existing = textureLock.write(() -> this.textures.putIfAbsent(identifier, texture));
+                if(existing != null) {
+                    texture.close();
+                    if(!(existing instanceof VulkanAtlasedTexture<?> atlas)) {
+                        throw new IllegalStateException("Texture " + identifier + " was loaded as a plain texture, not an atlas");
+                    }
+                    //noinspection unchecked
+                    return (AtlasedTexture<Identifier>) atlas;
+                }
+                return texture;
+            }
+        } finally {
+            loaded.forEach((entry) -> entry.texture().close());
+        }
+    }
+
     @Override
     @NotNull
     public Font loadFont(@NotNull Identifier identifier, @NotNull TextureFormat format) throws IOException {
@@ -162,20 +225,22 @@ public final class VulkanTextureManager implements TextureManager, AutoCloseable
                     .filter(GlyphTexture::hasTexture)
                     .forEach((glyph) -> atlasTexture.blit(glyph.x, glyph.y, glyph.texture));
 
-                VkGraphicsBuffer stagingBuffer = renderer.createBuffer(BufferType.STAGING, atlasTexture.pixels().remaining());
-                stagingBuffer.upload(atlasTexture.pixels());
+                Map<Integer, Sprite> sprites = new HashMap<>();
+                //noinspection DataFlowIssue
+                glyphs.stream()
+                    .filter(GlyphTexture::hasTexture)
+                    .forEach((glyph) -> sprites.put(glyph.character, VulkanSprite.of(
+                        glyph.x, glyph.y,
+                        glyph.texture.width(), glyph.texture.height(),
+                        atlasTexture.width(), atlasTexture.height()
+                    )));
 
-                VulkanFont texture;
-                try {
-                    texture = new VulkanFont(
-                        renderer,
-                        this,
-                        stagingBuffer,
-                        atlasTexture
-                    );
-                } finally {
-                    stagingBuffer.close();
-                }
+                var texture = new VulkanFont(
+                    renderer,
+                    this,
+                    atlasTexture,
+                    sprites
+                );
 
                 var existing = textureLock.write(() -> textures.putIfAbsent(identifier, texture));
                 if(existing != null) {
@@ -0,0 +1,217 @@
+package net.gudenau.cavegame.renderer.vk;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+final class TlsfAllocatorTest {
+    private static final long BLOCK_SIZE = 1 << 20;
+
+    @Test
+    void allocatesFromAnEmptyBlock() {
+        var allocator = new TlsfAllocator(BLOCK_SIZE);
+        assertTrue(allocator.isEmpty());
+        assertEquals(BLOCK_SIZE, allocator.largestFree());
+
+        var range = allocator.allocate(100, 1);
+        assertNotEquals(-1, range);
+        assertEquals(0, allocator.offset(range));
+        // Sizes are rounded up to the minimum alignment
+        assertEquals(112, allocator.size(range));
+        assertEquals(112, allocator.usedBytes());
+        assertEquals(1, allocator.allocationCount());
+        assertEquals(BLOCK_SIZE - 112, allocator.largestFree());
+    }
+
+    @Test
+    void rejectsInvalidRequests() {
+        var allocator = new TlsfAllocator(BLOCK_SIZE);
+        assertThrows(IllegalArgumentException.class, () -> allocator.allocate(0, 16));
+        assertThrows(IllegalArgumentException.class, () -> allocator.allocate(16, 24));
+        assertThrows(IllegalArgumentException.class, () -> allocator.free(0));
+        assertThrows(IllegalArgumentException.class, () -> new TlsfAllocator(100));
+    }
+
+    @Test
+    void failsWhenFull() {
+        var allocator = new TlsfAllocator(BLOCK_SIZE);
+        assertEquals(-1, allocator.allocate(BLOCK_SIZE + 16, 16));
+
+        var range = allocator.allocate(BLOCK_SIZE, 16);
+        assertNotEquals(-1, range);
+        assertEquals(0, allocator.largestFree());
+        assertEquals(-1, allocator.allocate(16, 16));
+
+        allocator.free(range);
+        assertTrue(allocator.isEmpty());
+        assertNotEquals(-1, allocator.allocate(16, 16));
+    }
+
+    @Test
+    void freedRangesAreReused() {
+        var allocator = new TlsfAllocator(BLOCK_SIZE);
+        var first = allocator.allocate(4096, 16);
+        var second = allocator.allocate(4096, 16);
+        var offset = allocator.offset(first);
+
+        allocator.free(first);
+        assertEquals(4096, allocator.usedBytes());
+        assertEquals(1, allocator.allocationCount());
+        assertThrows(IllegalArgumentException.class, () -> allocator.free(first));
+
+        var third = allocator.allocate(4096, 16);
+        assertEquals(offset, allocator.offset(third));
+        assertNotEquals(allocator.offset(second), allocator.offset(third));
+    }
+
+    @Test
+    void coalescesNeighbours() {
+        var allocator = new TlsfAllocator(BLOCK_SIZE);
+        var ranges = new int[4];
+        for(int i = 0; i < ranges.length; i++) {
+            ranges[i] = allocator.allocate(BLOCK_SIZE / 4, 16);
+            assertNotEquals(-1, ranges[i]);
+        }
+        assertEquals(0, allocator.largestFree());
+
+        // Freeing the outer ranges leaves two separate holes
+        allocator.free(ranges[0]);
+        allocator.free(ranges[2]);
+        assertEquals(BLOCK_SIZE / 4, allocator.largestFree());
+        assertEquals(-1, allocator.allocate(BLOCK_SIZE / 2, 16));
+
+        // The middle range joins the previous and next hole
+        allocator.free(ranges[1]);
+        assertEquals(BLOCK_SIZE / 4 * 3, allocator.largestFree());
+
+        allocator.free(ranges[3]);
+        assertTrue(allocator.isEmpty());
+        assertEquals(0, allocator.usedBytes());
+        assertEquals(BLOCK_SIZE, allocator.largestFree());
+
+        var whole = allocator.allocate(BLOCK_SIZE, 16);
+        assertNotEquals(-1, whole);
+        assertEquals(0, allocator.offset(whole));
+    }
+
+    @Test
+    void alignsOffsets() {
+        var allocator = new TlsfAllocator(BLOCK_SIZE);
+        var small = allocator.allocate(16, 16);
+        assertEquals(0, allocator.offset(small));
+
+        for(long alignment = 32; alignment <= 4096; alignment <<= 1) {
+            var range = allocator.allocate(48, alignment);
+            assertNotEquals(-1, range);
+            assertEquals(0, allocator.offset(range) % alignment, "Alignment " + alignment);
+        }
+
+        // The padding in front of aligned ranges is free again and gets merged when they are freed
+        var used = allocator.usedBytes();
+        assertEquals(16 + 48 * 8, used);
+        allocator.free(small);
+        assertEquals(used - 16, allocator.usedBytes());
+    }
+
+    @Test
+    void paddingCanBeAllocated() {
+        var allocator = new TlsfAllocator(BLOCK_SIZE);
+        allocator.allocate(16, 16);
+        var aligned = allocator.allocate(16, 4096);
+        assertEquals(4096, allocator.offset(aligned));
+
+        // Small ranges fill the gap in front of the aligned range before they use the rest of the block
+        for(long offset = 16; offset < 4096; offset += 16) {
+            assertEquals(offset, allocator.offset(allocator.allocate(16, 16)));
+        }
+        assertEquals(4096 + 16, allocator.usedBytes());
+        assertTrue(allocator.offset(allocator.allocate(16, 16)) > 4096);
+    }
+
+    @Test
+    void neverOverlaps() {
+        var allocator = new TlsfAllocator(BLOCK_SIZE);
+        var random = new Random(0x5EED);
+        var live = new IntArrayList();
+        for(int step = 0; step < 20_000; step++) {
+            if(live.isEmpty() || random.nextInt(3) != 0) {
+                var size = 16L + random.nextInt(8192);
+                var alignment = 16L << random.nextInt(6);
+                var range = allocator.allocate(size, alignment);
+                if(range != -1) {
+                    assertEquals(0, allocator.offset(range) % alignment);
+                    assertTrue(allocator.size(range) >= size);
+                    assertTrue(allocator.offset(range) + allocator.size(range) <= BLOCK_SIZE);
+                    live.add(range);
+                }
+            } else {
+                allocator.free(live.removeInt(random.nextInt(live.size())));
+            }
+        }
+
+        var offsets = live.intStream()
+            .mapToObj((range) -> new long[]{allocator.offset(range), allocator.offset(range) + allocator.size(range)})
+            .sorted((a, b) -> Long.compare(a[0], b[0]))
+            .toList();
+        long used = 0;
+        for(int i = 0; i < offsets.size(); i++) {
+            used += offsets.get(i)[1] - offsets.get(i)[0];
+            if(i > 0) {
+                assertTrue(offsets.get(i - 1)[1] <= offsets.get(i)[0], "Ranges overlap");
+            }
+        }
+        assertEquals(used, allocator.usedBytes());
+        assertEquals(live.size(), allocator.allocationCount());
+
+        live.forEach(allocator::free);
+        assertTrue(allocator.isEmpty());
+        assertEquals(BLOCK_SIZE, allocator.largestFree());
+    }
+
+    @Test
+    void reportsFragmentation() {
+        var allocator = new TlsfAllocator(BLOCK_SIZE);
+        var ranges = new IntArrayList();
+        int range;
+        while((range = allocator.allocate(1024, 16)) != -1) {
+            ranges.add(range);
+        }
+        assertEquals(BLOCK_SIZE / 1024, ranges.size());
+
+        // Every other range is freed, plenty of memory is free but no large allocation fits
+        for(int i = 0; i < ranges.size(); i += 2) {
+            allocator.free(ranges.getInt(i));
+        }
+        assertEquals(BLOCK_SIZE / 2, allocator.size() - allocator.usedBytes());
+        assertEquals(1024, allocator.largestFree());
+        assertEquals(-1, allocator.allocate(2048, 16));
+        var fragmented = statistics(allocator);
+        assertEquals(1024, fragmented.largestFree());
+        assertTrue(fragmented.fragmentation() > 0.99);
+
+        // Small allocations still fit into the holes
+        var hole = allocator.allocate(1024, 16);
+        assertNotEquals(-1, hole);
+        allocator.free(hole);
+
+        for(int i = 1; i < ranges.size(); i += 2) {
+            allocator.free(ranges.getInt(i));
+        }
+        assertTrue(statistics(allocator).fragmentation() < 0.01);
+    }
+
+    private static VulkanMemoryAllocator.HeapStatistics statistics(TlsfAllocator allocator) {
+        return new VulkanMemoryAllocator.HeapStatistics(
+            0,
+            allocator.size(),
+            allocator.size(),
+            allocator.usedBytes(),
+            1,
+            allocator.allocationCount(),
+            allocator.largestFree()
+        );
+    }
+}
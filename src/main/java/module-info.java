@@ -6,6 +6,7 @@ module net.gudenau.cavegame {
     exports net.gudenau.cavegame.material;
     exports net.gudenau.cavegame.tile;
     exports net.gudenau.cavegame.level;
+    exports net.gudenau.cavegame.replication;
 
     requires jdk.unsupported;
     
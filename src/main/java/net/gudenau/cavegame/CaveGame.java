@@ -1,16 +1,22 @@
 package net.gudenau.cavegame;
 
+import net.gudenau.cavegame.ai.JobTypes;
 import net.gudenau.cavegame.config.Config;
 import net.gudenau.cavegame.logger.Logger;
+import net.gudenau.cavegame.material.Materials;
 import net.gudenau.cavegame.renderer.GlfwUtils;
 import net.gudenau.cavegame.renderer.RendererInfo;
 import net.gudenau.cavegame.renderer.font.HarfBuzzFont;
 import net.gudenau.cavegame.resource.ClassPathResourceProvider;
 import net.gudenau.cavegame.resource.Identifier;
 import net.gudenau.cavegame.resource.ResourceLoader;
+import net.gudenau.cavegame.screen.LevelScreen;
 import net.gudenau.cavegame.screen.VikingScreen;
+import net.gudenau.cavegame.server.DedicatedServer;
+import net.gudenau.cavegame.tile.Tiles;
 import net.gudenau.cavegame.util.Closer;
 import net.gudenau.cavegame.util.MiscUtils;
+import net.gudenau.cavegame.util.Treachery;
 import org.lwjgl.system.Configuration;
 
 public final class CaveGame {
@@ -73,7 +79,19 @@ public final class CaveGame {
 
             window.bind();
 
-            window.pushScreen(new VikingScreen(renderer));
+            DedicatedServer server = null;
+            if(Config.LEVEL_VIEW.get()) {
+                Treachery.ensureInitialized(Registries.class, Tiles.class, Materials.class, JobTypes.class);
+                var level = DedicatedServer.newLevel(Config.LEVEL_SIZE.get());
+                // Created before the simulation starts, the level is only read through snapshots afterwards
+                window.pushScreen(new LevelScreen(renderer, level));
+                server = new DedicatedServer(level, Config.TICK_RATE.get());
+                var thread = new Thread(server::run, "Simulation");
+                thread.setDaemon(true);
+                thread.start();
+            } else {
+                window.pushScreen(new VikingScreen(renderer));
+            }
 
             window.visible(true);
 
@@ -84,6 +102,9 @@ public final class CaveGame {
                 GlfwUtils.poll();
             } while(!window.closeRequested());
 
+            if(server != null) {
+                server.stop();
+            }
             renderer.waitForIdle();
 
             while(window.currentScreen().isPresent()) {
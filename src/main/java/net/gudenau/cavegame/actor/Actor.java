@@ -11,7 +11,11 @@ import java.util.Optional;
 
 /**
  * An actor that can exist in a level. Used for anything that is not based on tiles, like resources, player characters
- * and monsters.
+ * and monsters.<br>
+ * <br>
+ * While an actor is spawned in a level its state is usually stored in the {@link ActorStore} of the level and this
+ * class is a handle to that state. Actors that are not spawned yet, were removed, or are not supported by the store keep
+ * their state in their own fields instead and are ticked through {@link #tick()}.
  */
 public abstract class Actor {
     /**
@@ -20,27 +24,50 @@ public abstract class Actor {
     protected final Level level;
 
     /**
-     * The X position of this actor.
+     * The store of the level of this actor, it only contains the state of this actor while it has a {@link #slot}.
      */
-    private double x;
+    @NotNull
+    final ActorStore store;
 
     /**
-     * The Y position of this actor.
+     * The slot of this actor in the {@link #store}, {@link ActorStore#NONE} while the state is in the fields.
      */
-    private double y;
+    int slot = ActorStore.NONE;
 
+    /**
+     * The id of this actor in its level while it has no slot, -1 before it was spawned.
+     */
+    long id = -1;
+
+    /**
+     * The X position of this actor while it has no slot.
+     */
+    double x;
+
+    /**
+     * The Y position of this actor while it has no slot.
+     */
+    double y;
+
+    /**
+     * The facing of this actor while it has no slot, in radians. Use {@link #facing()} and {@link #facing(double)} to
+     * access the facing of any actor.
+     */
     protected double facing = 0;
 
+    /**
+     * The holder of this actor if either of them has no slot, links between two slots are kept in the {@link #store}.
+     */
+    @Nullable
+    LivingActor holder;
+
     /**
      * A flag that marks this actor for removal at the end of a tick.
      */
     private boolean needsRemoval = false;
 
     @Nullable
-    private LivingActor holder;
-
-    @Nullable
-    private TilePos tilePos;
+    TilePos tilePos;
 
     /**
      * Creates a new actor instance at the provided position with the provided level instance.
@@ -51,6 +78,7 @@ public abstract class Actor {
      */
     public Actor(double x, double y, @NotNull Level level) {
         this.level = Objects.requireNonNull(level, "level can't be null");
+        store = level.actorStore();
         this.x = x;
         this.y = y;
     }
@@ -66,7 +94,7 @@ public abstract class Actor {
      * @return The X position of this actor
      */
     public final double x() {
-        return x;
+        return slot != ActorStore.NONE ? store.x[slot] : x;
     }
 
     /**
@@ -75,7 +103,7 @@ public abstract class Actor {
      * @return The Y position of this actor
      */
     public final double y() {
-        return y;
+        return slot != ActorStore.NONE ? store.y[slot] : y;
     }
 
     /**
@@ -93,7 +121,7 @@ public abstract class Actor {
         if(tilePos != null) {
             return tilePos;
         }
-        return tilePos = new TilePos(x, y);
+        return tilePos = new TilePos(x(), y());
     }
 
     /**
@@ -122,36 +150,64 @@ public abstract class Actor {
 
     @NotNull
     protected Optional<LivingActor> holder() {
+        if(slot != ActorStore.NONE && store.holder[slot] != ActorStore.NONE) {
+            return Optional.of((LivingActor) store.handles[store.holder[slot]]);
+        }
         return Optional.ofNullable(holder);
     }
 
-    protected void holder(@Nullable LivingActor actor) {
-        holder = actor;
+    public boolean isHeld() {
+        return holder != null || slot != ActorStore.NONE && store.holder[slot] != ActorStore.NONE;
     }
 
-    public boolean isHeld() {
-        return holder != null;
+    /**
+     * Gets the direction this actor is facing.
+     *
+     * @return The facing of this actor, in radians
+     */
+    public double facing() {
+        return slot != ActorStore.NONE ? store.facing[slot] : facing;
+    }
+
+    /**
+     * Sets the direction this actor is facing.
+     *
+     * @param facing The new facing, in radians
+     */
+    protected void facing(double facing) {
+        if(slot != ActorStore.NONE) {
+            store.facing[slot] = facing;
+        } else {
+            this.facing = facing;
+        }
     }
 
     protected void pos(double x, double y) {
+        if(slot != ActorStore.NONE) {
+            store.move(slot, x, y);
+            return;
+        }
+
+        var oldX = this.x;
+        var oldY = this.y;
         this.x = x;
         this.y = y;
-        tilePos = null;
+        if(Math.floor(oldX) != Math.floor(x) || Math.floor(oldY) != Math.floor(y)) {
+            tilePos = null;
+            level.actorMoved(this, oldX, oldY);
+        }
     }
 
     public double posX() {
-        return x;
+        return x();
     }
 
     public double posY() {
-        return y;
+        return y();
     }
 
     public void removed() {
-        if(holder != null) {
-            holder.drop(this);
-            holder = null;
-        }
+        holder().ifPresent((holder) -> holder.drop(this));
     }
 
     public boolean isAdjacentTo(@NotNull Tile tile) {
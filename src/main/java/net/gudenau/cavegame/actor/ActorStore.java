@@ -0,0 +1,565 @@
+package net.gudenau.cavegame.actor;
+
+import it.unimi.dsi.fastutil.objects.ReferenceLinkedOpenHashSet;
+import net.gudenau.cavegame.ai.Job;
+import net.gudenau.cavegame.level.Level;
+import net.gudenau.cavegame.level.TilePos;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The data-oriented storage for the {@link Actor}s of a {@link Level}.<br>
+ * <br>
+ * The hot state of every {@link Actor} lives in parallel arrays indexed by a slot, the {@link Actor} instances are just
+ * handles into this store. The slots are kept dense by moving the last slot into any released slot, which allows the
+ * systems in {@link #tick()} to be simple loops over the arrays instead of virtual calls on every {@link Actor}.<br>
+ * <br>
+ * Slots are allocated when an {@link Actor} is spawned and released when it is removed. {@link Actor}s that override
+ * {@link Actor#tick()} with their own logic can't be run by the systems, they and every {@link Actor} of a store with
+ * batching disabled are kept "unbacked": their state stays in their own fields and they are ticked one by one.<br>
+ * <br>
+ * Not thread safe.
+ */
+public final class ActorStore {
+    /**
+     * The initial amount of slots.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The value used for slot references that point to nothing.
+     */
+    static final int NONE = -1;
+
+    /**
+     * Set for {@link LivingActor}s, these take part in the movement and job systems.
+     */
+    private static final byte FLAG_LIVING = 0b01;
+
+    /**
+     * Set once an {@link Actor} has been spawned into the level, actors are not processed until they are active.
+     */
+    private static final byte FLAG_ACTIVE = 0b10;
+
+    /**
+     * An empty path.
+     */
+    private static final long[] NO_PATH = new long[0];
+
+    /**
+     * Checks if the systems can run an {@link Actor} class, which is the case as long as it does not have its own tick
+     * logic.
+     */
+    private static final ClassValue<Boolean> SUPPORTED = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(@NotNull Class<?> type) {
+            try {
+                var owner = type.getMethod("tick").getDeclaringClass();
+                return owner == Actor.class || owner == LivingActor.class;
+            } catch(NoSuchMethodException e) {
+                return false;
+            }
+        }
+    };
+
+    /**
+     * The level that owns this store.
+     */
+    @NotNull
+    private final Level level;
+
+    /**
+     * If slots are allocated at all, when false every {@link Actor} is unbacked.
+     */
+    private final boolean batching;
+
+    /**
+     * The spawned {@link Actor}s that have no slot, in spawn order.
+     */
+    @NotNull
+    private final Set<Actor> unbacked = new ReferenceLinkedOpenHashSet<>();
+
+    /**
+     * The unbacked {@link Actor}s that were spawned in the current tick, they are not ticked until they are activated.
+     */
+    @NotNull
+    private final Set<Actor> pending = new ReferenceLinkedOpenHashSet<>();
+
+    /**
+     * The scratch array used to tick the unbacked {@link Actor}s.
+     */
+    private Actor @NotNull [] tickOrder = new Actor[0];
+
+    /**
+     * The amount of used slots.
+     */
+    private int size = 0;
+
+    /**
+     * The handle of each slot.
+     */
+    Actor @NotNull [] handles = new Actor[INITIAL_CAPACITY];
+
+    /**
+     * The level id of each slot, see {@link Level#spawn(Actor)}.
+     */
+    long @NotNull [] ids = new long[INITIAL_CAPACITY];
+
+    /**
+     * The flags of each slot.
+     */
+    byte @NotNull [] flags = new byte[INITIAL_CAPACITY];
+
+    /**
+     * The X position of each slot.
+     */
+    double @NotNull [] x = new double[INITIAL_CAPACITY];
+
+    /**
+     * The Y position of each slot.
+     */
+    double @NotNull [] y = new double[INITIAL_CAPACITY];
+
+    /**
+     * The facing of each slot, in radians.
+     */
+    double @NotNull [] facing = new double[INITIAL_CAPACITY];
+
+    /**
+     * The health of each slot, only meaningful for {@link LivingActor}s.
+     */
+    double @NotNull [] health = new double[INITIAL_CAPACITY];
+
+    /**
+     * The slot of the actor that is holding each slot or {@link #NONE}.
+     */
+    int @NotNull [] holder = new int[INITIAL_CAPACITY];
+
+    /**
+     * The slot of the actor that each slot is holding or {@link #NONE}.
+     */
+    int @NotNull [] held = new int[INITIAL_CAPACITY];
+
+    /**
+     * The current job of each slot.
+     */
+    Job @Nullable [] jobs = new Job[INITIAL_CAPACITY];
+
+    /**
+     * The path nodes of each slot, packed with {@link TilePos#pack(int, int)}.
+     */
+    long @NotNull [] @NotNull [] paths = new long[INITIAL_CAPACITY][];
+
+    /**
+     * The index of the next path node of each slot.
+     */
+    int @NotNull [] pathCursor = new int[INITIAL_CAPACITY];
+
+    /**
+     * The {@link net.gudenau.cavegame.ai.JobManager#generation() job generation} at which each slot last failed to find
+     * a job.
+     */
+    long @NotNull [] idleGeneration = new long[INITIAL_CAPACITY];
+
+    /**
+     * Creates a new store for a level.
+     *
+     * @param level The level that owns this store
+     */
+    public ActorStore(@NotNull Level level) {
+        this(level, true);
+    }
+
+    /**
+     * Creates a new store for a level.
+     *
+     * @param level The level that owns this store
+     * @param batching False to keep every {@link Actor} unbacked
+     */
+    public ActorStore(@NotNull Level level, boolean batching) {
+        this.level = Objects.requireNonNull(level, "level can't be null");
+        this.batching = batching;
+    }
+
+    /**
+     * Gets the amount of {@link Actor}s in this store, including ones that are not active yet.
+     *
+     * @return The amount of {@link Actor}s
+     */
+    public int size() {
+        return size + unbacked.size();
+    }
+
+    /**
+     * Adds a spawned {@link Actor} to this store. The {@link Actor} gets a slot if the systems can run it, the state in
+     * its fields is moved into the slot.
+     *
+     * @param actor The {@link Actor} that was spawned
+     * @param id The id of the {@link Actor} in the level
+     */
+    public void allocate(@NotNull Actor actor, long id) {
+        if(actor.store != this) {
+            throw new IllegalArgumentException("Actor " + actor + " belongs to a different level");
+        }
+        if(actor.slot != NONE || unbacked.contains(actor)) {
+            return;
+        }
+        if(!batching || !SUPPORTED.get(actor.getClass())) {
+            actor.id = id;
+            unbacked.add(actor);
+            pending.add(actor);
+            return;
+        }
+
+        if(size == handles.length) {
+            grow(size << 1);
+        }
+
+        var slot = size++;
+        handles[slot] = actor;
+        ids[slot] = id;
+        flags[slot] = 0;
+        x[slot] = actor.x;
+        y[slot] = actor.y;
+        facing[slot] = actor.facing;
+        health[slot] = 0;
+        holder[slot] = NONE;
+        held[slot] = NONE;
+        jobs[slot] = null;
+        paths[slot] = NO_PATH;
+        pathCursor[slot] = 0;
+        idleGeneration[slot] = -1;
+        actor.slot = slot;
+
+        if(actor instanceof LivingActor living) {
+            flags[slot] = FLAG_LIVING;
+            health[slot] = living.health;
+            jobs[slot] = living.job;
+            living.job = null;
+            path(slot, living.nodes);
+            living.nodes.clear();
+
+            // Links between two slots live in the store
+            var heldActor = living.heldActor;
+            if(heldActor != null && heldActor.slot != NONE) {
+                link(slot, heldActor.slot);
+                living.heldActor = null;
+                heldActor.holder = null;
+            }
+        }
+        var holderActor = actor.holder;
+        if(holderActor != null && holderActor.slot != NONE) {
+            link(holderActor.slot, slot);
+            holderActor.heldActor = null;
+            actor.holder = null;
+        }
+    }
+
+    private void link(int holderSlot, int heldSlot) {
+        held[holderSlot] = heldSlot;
+        holder[heldSlot] = holderSlot;
+    }
+
+    private void grow(int capacity) {
+        handles = Arrays.copyOf(handles, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        facing = Arrays.copyOf(facing, capacity);
+        health = Arrays.copyOf(health, capacity);
+        holder = Arrays.copyOf(holder, capacity);
+        held = Arrays.copyOf(held, capacity);
+        jobs = Arrays.copyOf(jobs, capacity);
+        paths = Arrays.copyOf(paths, capacity);
+        pathCursor = Arrays.copyOf(pathCursor, capacity);
+        idleGeneration = Arrays.copyOf(idleGeneration, capacity);
+    }
+
+    /**
+     * Marks an {@link Actor} as spawned, it will be processed by the systems from now on.
+     *
+     * @param actor The {@link Actor} that was spawned
+     */
+    public void activate(@NotNull Actor actor) {
+        var slot = actor.slot;
+        if(slot != NONE) {
+            flags[slot] |= FLAG_ACTIVE;
+        } else {
+            pending.remove(actor);
+        }
+    }
+
+    /**
+     * Releases a removed {@link Actor}, the state of its slot is moved back into its fields.
+     *
+     * @param actor The {@link Actor} to release
+     */
+    public void release(@NotNull Actor actor) {
+        var slot = actor.slot;
+        if(slot == NONE) {
+            if(unbacked.remove(actor)) {
+                pending.remove(actor);
+            }
+            return;
+        }
+
+        // Break any links to the released slot
+        if(holder[slot] != NONE) {
+            held[holder[slot]] = NONE;
+        }
+        if(held[slot] != NONE) {
+            holder[held[slot]] = NONE;
+        }
+        actor.x = x[slot];
+        actor.y = y[slot];
+        actor.facing = facing[slot];
+        actor.id = ids[slot];
+        if(actor instanceof LivingActor living) {
+            living.health = health[slot];
+            living.job = jobs[slot];
+        }
+        actor.slot = NONE;
+
+        // Keep the slots dense by moving the last slot into the hole
+        var last = --size;
+        if(slot != last) {
+            var moved = handles[last];
+            handles[slot] = moved;
+            ids[slot] = ids[last];
+            flags[slot] = flags[last];
+            x[slot] = x[last];
+            y[slot] = y[last];
+            facing[slot] = facing[last];
+            health[slot] = health[last];
+            holder[slot] = holder[last];
+            held[slot] = held[last];
+            jobs[slot] = jobs[last];
+            paths[slot] = paths[last];
+            pathCursor[slot] = pathCursor[last];
+            idleGeneration[slot] = idleGeneration[last];
+
+            if(holder[slot] != NONE) {
+                held[holder[slot]] = slot;
+            }
+            if(held[slot] != NONE) {
+                holder[held[slot]] = slot;
+            }
+            moved.slot = slot;
+        }
+
+        handles[last] = null;
+        jobs[last] = null;
+        paths[last] = NO_PATH;
+    }
+
+    /**
+     * Copies the handles, ids and positions of every active {@link Actor} into the provided arrays, the arrays must be
+     * at least {@link #size()} elements long.
+     *
+     * @param handles The array to copy the handles into
+     * @param ids The array to copy the level ids into
+     * @param x The array to copy the X positions into
+     * @param y The array to copy the Y positions into
+     * @param facing The array to copy the facings into
+     * @return The amount of copied {@link Actor}s
+     */
+    public int copyActive(
+        Actor @NotNull [] handles,
+        long @NotNull [] ids,
+        double @NotNull [] x,
+        double @NotNull [] y,
+        double @NotNull [] facing
+    ) {
+        int count = 0;
+        for(int slot = 0; slot < size; slot++) {
+            if((flags[slot] & FLAG_ACTIVE) == 0) {
+                continue;
+            }
+            handles[count] = this.handles[slot];
+            ids[count] = this.ids[slot];
+            x[count] = this.x[slot];
+            y[count] = this.y[slot];
+            facing[count] = this.facing[slot];
+            count++;
+        }
+        if(unbacked.size() != pending.size()) {
+            for(var actor : unbacked) {
+                if(pending.contains(actor)) {
+                    continue;
+                }
+                handles[count] = actor;
+                ids[count] = actor.id;
+                x[count] = actor.x;
+                y[count] = actor.y;
+                facing[count] = actor.facing;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sets the path of a slot.
+     *
+     * @param slot The slot to modify
+     * @param nodes The nodes of the path
+     */
+    void path(int slot, @NotNull Collection<TilePos> nodes) {
+        var size = nodes.size();
+        if(size == 0) {
+            paths[slot] = NO_PATH;
+        } else {
+            var path = new long[size];
+            var i = 0;
+            for(var node : nodes) {
+                path[i++] = node.asLong();
+            }
+            paths[slot] = path;
+        }
+        pathCursor[slot] = 0;
+    }
+
+    /**
+     * Checks if a slot still has path nodes to follow.
+     *
+     * @param slot The slot to check
+     * @return True if there are nodes left, false otherwise
+     */
+    boolean hasPath(int slot) {
+        return pathCursor[slot] < paths[slot].length;
+    }
+
+    /**
+     * Moves a slot and updates the spatial index of the level.
+     *
+     * @param slot The slot to move
+     * @param newX The new X position
+     * @param newY The new Y position
+     */
+    void move(int slot, double newX, double newY) {
+        var oldX = x[slot];
+        var oldY = y[slot];
+        x[slot] = newX;
+        y[slot] = newY;
+
+        if(Math.floor(oldX) != Math.floor(newX) || Math.floor(oldY) != Math.floor(newY)) {
+            var actor = handles[slot];
+            actor.tilePos = null;
+            level.actorMoved(actor, oldX, oldY);
+        }
+    }
+
+    /**
+     * Runs all of the systems of this store, in order:
+     * <ol>
+     *     <li>Movement and jobs: living actors follow their path, find a job or work on their job. Busy actors keep their
+     *     chunk awake, idle actors in sleeping chunks only look for jobs when new jobs became available or paths
+     *     changed</li>
+     *     <li>Carrying: held actors are moved in front of their holder</li>
+     *     <li>Unbacked actors: every active actor without a slot is ticked through {@link Actor#tick()}</li>
+     * </ol>
+     */
+    public void tick() {
+        tickLiving();
+        tickCarrying();
+        tickUnbacked();
+    }
+
+    private void tickLiving() {
+        // Jobs can spawn new actors, those are not active so they are skipped regardless of where they end up
+        var required = FLAG_LIVING | FLAG_ACTIVE;
+        var jobManager = level.jobManager();
+        for(int slot = 0, size = this.size; slot < size; slot++) {
+            if((flags[slot] & required) != required) {
+                continue;
+            }
+
+            var job = jobs[slot];
+            var path = paths[slot];
+            var cursor = pathCursor[slot];
+            var tileX = (int) Math.floor(x[slot]);
+            var tileY = (int) Math.floor(y[slot]);
+            if(job != null || cursor < path.length) {
+                if(job != null) {
+                    jobManager.renewLease((LivingActor) handles[slot], job);
+                }
+                level.wake(tileX, tileY);
+            } else if(!level.isAwake(tileX, tileY) && idleGeneration[slot] == jobManager.generation()) {
+                continue;
+            }
+
+            if(cursor < path.length) {
+                //TODO Make this smoother
+                var node = path[cursor];
+                pathCursor[slot] = cursor + 1;
+                var nodeX = TilePos.unpackX(node);
+                var nodeY = TilePos.unpackY(node);
+                facing[slot] = Math.atan2(nodeY - y[slot], nodeX - x[slot]);
+                move(slot, nodeX + 0.5, nodeY + 0.5);
+                continue;
+            }
+
+            var actor = (LivingActor) handles[slot];
+            if(job == null) {
+                var generation = jobManager.generation();
+                job = jobManager.findJob(actor).orElse(null);
+                if(job == null) {
+                    idleGeneration[slot] = generation;
+                } else {
+                    // The job manager can't spawn or remove actors, so the slot is still valid
+                    jobs[slot] = job;
+                    job.start(actor);
+                }
+            } else {
+                job.tick(actor);
+            }
+        }
+    }
+
+    private void tickCarrying() {
+        for(int slot = 0, size = this.size; slot < size; slot++) {
+            var heldSlot = held[slot];
+            if(heldSlot != NONE) {
+                var angle = facing[slot];
+                move(heldSlot, x[slot] + Math.cos(angle) * 0.1, y[slot] + Math.sin(angle) * 0.1);
+            } else if((flags[slot] & FLAG_LIVING) != 0) {
+                // Unbacked actors are linked through the fields
+                var heldActor = ((LivingActor) handles[slot]).heldActor;
+                if(heldActor != null) {
+                    var angle = facing[slot];
+                    heldActor.pos(x[slot] + Math.cos(angle) * 0.1, y[slot] + Math.sin(angle) * 0.1);
+                }
+            }
+        }
+    }
+
+    private void tickUnbacked() {
+        if(unbacked.size() == pending.size()) {
+            return;
+        }
+
+        // Ticks can spawn actors, so iterate over a copy
+        var count = unbacked.size();
+        if(tickOrder.length < count) {
+            tickOrder = new Actor[count];
+        }
+        unbacked.toArray(tickOrder);
+        for(int i = 0; i < count; i++) {
+            var actor = tickOrder[i];
+            tickOrder[i] = null;
+            // Living actors handle sleeping chunks themselves, like the systems do
+            if(pending.contains(actor)) {
+                continue;
+            }
+            if(actor instanceof LivingActor || level.isAwake((int) Math.floor(actor.x), (int) Math.floor(actor.y))) {
+                actor.tick();
+            }
+        }
+    }
+}
@@ -13,24 +13,45 @@ import java.util.Optional;
 import java.util.Queue;
 
 /**
- * Any "living" actor, defined as an actor that can navigate and has health.
+ * Any "living" actor, defined as an actor that can navigate and has health.<br>
+ * <br>
+ * Navigation, jobs and carrying are handled by the systems in {@link ActorStore#tick()}. Living actors that have no slot
+ * in the store do the same work in {@link #tick()}.
  */
 public class LivingActor extends Actor {
     /**
-     * The health of this actor.
+     * The default amount of resources a living actor can carry in one trip.
+     */
+    private static final int DEFAULT_CARRY_CAPACITY = 4;
+
+    /**
+     * The health of this actor while it has no slot. Use {@link #health()} and {@link #health(double)} to access the
+     * health of any actor.
      */
     protected double health = 10;
 
     /**
-     * The nodes used for pathfinding. The actor will follow these in order.
+     * The nodes used for pathfinding while this actor has no slot. The actor will follow these in order.
      */
     protected Queue<TilePos> nodes = new LinkedList<>();
 
+    /**
+     * The current job of this actor while it has no slot.
+     */
     @Nullable
-    private Job job = null;
+    Job job;
 
+    /**
+     * The actor this actor is holding if either of them has no slot, links between two slots are kept in the store.
+     */
     @Nullable
-    private Actor heldActor;
+    Actor heldActor;
+
+    /**
+     * The {@link net.gudenau.cavegame.ai.JobManager#generation() job generation} at which this actor last failed to find
+     * a job while it had no slot.
+     */
+    private long idleGeneration = -1;
 
     /**
      * Creates a new living actor.
@@ -44,7 +65,7 @@ public class LivingActor extends Actor {
     }
 
     public boolean pickup(@NotNull Actor actor) {
-        if(heldActor != null || actor.holder().isPresent()) {
+        if(isHolding() || actor.isHeld()) {
             return false;
         }
 
@@ -54,34 +75,90 @@ public class LivingActor extends Actor {
             return false;
         }
 
-        actor.holder(this);
-        heldActor = actor;
+        if(slot != ActorStore.NONE && actor.slot != ActorStore.NONE && actor.store == store) {
+            store.holder[actor.slot] = slot;
+            store.held[slot] = actor.slot;
+        } else {
+            actor.holder = this;
+            heldActor = actor;
+        }
         return true;
     }
 
+    private boolean isHolding() {
+        return heldActor != null || slot != ActorStore.NONE && store.held[slot] != ActorStore.NONE;
+    }
+
+    /**
+     * Does the work of the store systems for an actor without a slot: follows its path, finds a job or works on its job
+     * and carries the held actor. Subclasses that override this have to call it.
+     */
     @Override
     public void tick() {
         super.tick();
+        if(slot != ActorStore.NONE) {
+            // Actors with a slot are run by the store
+            return;
+        }
+
+        var jobManager = level.jobManager();
+        var tileX = (int) Math.floor(x());
+        var tileY = (int) Math.floor(y());
+        if(job != null || !nodes.isEmpty()) {
+            if(job != null) {
+                jobManager.renewLease(this, job);
+            }
+            level.wake(tileX, tileY);
+        } else if(!level.isAwake(tileX, tileY) && idleGeneration == jobManager.generation()) {
+            carry();
+            return;
+        }
 
-        // Navigation
         if(!nodes.isEmpty()) {
             //TODO Make this smoother
             var node = nodes.remove();
-            facing = Math.atan2(node.y() - posY(), node.x() - posX());
+            facing(Math.atan2(node.y() - y(), node.x() - x()));
             pos(node.x() + 0.5, node.y() + 0.5);
         } else if(job == null) {
-            job = level.jobManager().findJob(this).orElse(null);
-            if(job != null) {
+            var generation = jobManager.generation();
+            job = jobManager.findJob(this).orElse(null);
+            if(job == null) {
+                idleGeneration = generation;
+            } else {
                 job.start(this);
             }
         } else {
             job.tick(this);
         }
+        carry();
+    }
 
+    private void carry() {
         if(heldActor != null) {
-            var heldX = x() + Math.cos(facing) * 0.1;
-            var heldY = y() + Math.sin(facing) * 0.1;
-            heldActor.pos(heldX, heldY);
+            var angle = facing();
+            heldActor.pos(x() + Math.cos(angle) * 0.1, y() + Math.sin(angle) * 0.1);
+        }
+    }
+
+    /**
+     * Gets the health of this actor.
+     *
+     * @return The health of this actor
+     */
+    public final double health() {
+        return slot != ActorStore.NONE ? store.health[slot] : health;
+    }
+
+    /**
+     * Sets the health of this actor.
+     *
+     * @param health The new health
+     */
+    protected void health(double health) {
+        if(slot != ActorStore.NONE) {
+            store.health[slot] = health;
+        } else {
+            this.health = health;
         }
     }
 
@@ -91,14 +168,71 @@ public class LivingActor extends Actor {
      * @return True if the actor has health, false otherwise
      */
     public final boolean isAlive() {
-        return health > 0;
+        return health() > 0;
     }
 
+    /**
+     * Gets the amount of resources this actor can carry in a single trip.
+     *
+     * @return The carry capacity of this actor
+     */
+    public int carryCapacity() {
+        return DEFAULT_CARRY_CAPACITY;
+    }
+
+    /**
+     * Stops working on the current job.
+     *
+     * @param failed True if the job was not finished and should be released for another actor to claim
+     */
     public void removeJob(boolean failed) {
-        if(failed && job != null) {
-            level.jobManager().enqueueJob(job);
+        var job = slot != ActorStore.NONE ? store.jobs[slot] : this.job;
+        if(job != null) {
+            if(failed) {
+                level.jobManager().releaseJob(this, job);
+            } else {
+                level.jobManager().completeJob(this, job);
+            }
+        }
+        if(slot != ActorStore.NONE) {
+            store.jobs[slot] = null;
+        } else {
+            this.job = null;
+        }
+    }
+
+    /**
+     * Called by the {@link net.gudenau.cavegame.ai.JobManager} when this actor stopped renewing the lease of its job and
+     * the job was reopened for other actors. The job is dropped without being released, along with the path to it and
+     * anything this actor was carrying for it.
+     *
+     * @param job The job that was reopened
+     */
+    public void leaseExpired(@NotNull Job job) {
+        if(slot != ActorStore.NONE) {
+            if(store.jobs[slot] != job) {
+                return;
+            }
+            store.jobs[slot] = null;
+            store.path(slot, List.of());
+        } else {
+            if(this.job != job) {
+                return;
+            }
+            this.job = null;
+            nodes.clear();
         }
-        job = null;
+        heldActor().ifPresent(this::drop);
+    }
+
+    /**
+     * Gets the job this actor is working on.
+     *
+     * @return The current job or empty if this actor is idle
+     */
+    @NotNull
+    public Optional<Job> job() {
+        return Optional.ofNullable(slot != ActorStore.NONE ? store.jobs[slot] : job);
     }
 
     /**
@@ -109,10 +243,7 @@ public class LivingActor extends Actor {
      */
     public boolean navigate(@NotNull TilePos goal) {
         var result = level.pathfinder().calculatePath(this, goal);
-        if(result.isPresent()) {
-            nodes.clear();
-            nodes.addAll(result.get().path());
-        }
+        result.ifPresent(this::navigate);
         return result.isPresent();
     }
 
@@ -124,10 +255,7 @@ public class LivingActor extends Actor {
      */
     public boolean navigateToCheapest(@NotNull List<TilePos> goals) {
         var result = level.pathfinder().calculateCheapestPath(this, goals);
-        if(result.isPresent()) {
-            nodes.clear();
-            nodes.addAll(result.get().path());
-        }
+        result.ifPresent(this::navigate);
         return result.isPresent();
     }
 
@@ -151,7 +279,7 @@ public class LivingActor extends Actor {
      * @return true if following a path, false otherwise
      */
     protected boolean hasNavTarget() {
-        return !nodes.isEmpty();
+        return slot != ActorStore.NONE ? store.hasPath(slot) : !nodes.isEmpty();
     }
 
     @Override
@@ -160,17 +288,28 @@ public class LivingActor extends Actor {
     }
 
     void navigate(@NotNull Pathfinder.PathResult result) {
-        nodes.clear();
-        nodes.addAll(result.path());
+        if(slot != ActorStore.NONE) {
+            store.path(slot, result.path());
+        } else {
+            nodes.clear();
+            nodes.addAll(result.path());
+        }
     }
 
     public void drop(@NotNull Actor actor) {
         if(heldActor == actor) {
             heldActor = null;
+            actor.holder = null;
+        } else if(slot != ActorStore.NONE && actor.slot != ActorStore.NONE && store.held[slot] == actor.slot) {
+            store.held[slot] = ActorStore.NONE;
+            store.holder[actor.slot] = ActorStore.NONE;
         }
     }
 
     public Optional<Actor> heldActor() {
+        if(slot != ActorStore.NONE && store.held[slot] != ActorStore.NONE) {
+            return Optional.of(store.handles[store.held[slot]]);
+        }
         return Optional.ofNullable(heldActor);
     }
 }
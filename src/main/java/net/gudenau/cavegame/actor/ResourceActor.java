@@ -1,5 +1,8 @@
 package net.gudenau.cavegame.actor;
 
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMaps;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import net.gudenau.cavegame.ai.ResourceJob;
 import net.gudenau.cavegame.level.Level;
 import net.gudenau.cavegame.material.Material;
@@ -9,41 +12,42 @@ import org.jetbrains.annotations.NotNull;
 import java.util.Objects;
 
 /**
- * The actor that contains dropped resources.
+ * The actor that contains dropped resources. A single actor is a pile that can contain any amount of any
+ * {@link Material}, resources dropped on a tile that already has a pile are merged into it.
  */
 public class ResourceActor extends Actor {
     /**
-     * The resource for this actor.
+     * The amount of each {@link Material} in this pile.
      */
     @NotNull
-    private final Material material;
+    private final Object2IntMap<Material> contents = new Object2IntOpenHashMap<>();
 
     /**
-     * Creates a new actor with the provided resource.
+     * The total amount of resources in this pile.
+     */
+    private int total = 0;
+
+    /**
+     * Creates a new empty pile.
      *
-     * @param material The resource for this actor
      * @param x The initial X position
      * @param y The initial Y position
      * @param level The level this actor belongs to
      */
-    public ResourceActor(@NotNull Material material, double x, double y, @NotNull Level level) {
+    public ResourceActor(double x, double y, @NotNull Level level) {
         super(x, y, level);
-
-        this.material = Objects.requireNonNull(material, "resource can't be null");
     }
 
     /**
-     * Creates a new actor with the provided resource.<br>
+     * Creates a new empty pile.<br>
      * <br>
      * The X and Y positions from the tile position will be randomized within the tile.
      *
-     * @param material The resource for this actor
      * @param pos The tile this actor will start in
      * @param level The level this actor belongs to
      */
-    public ResourceActor(@NotNull Material material, @NotNull TilePos pos, @NotNull Level level) {
+    public ResourceActor(@NotNull TilePos pos, @NotNull Level level) {
         this(
-            material,
             pos.x() + level.random().nextDouble(0.2, 0.8),
             pos.y() + level.random().nextDouble(0.2, 0.8),
             level
@@ -51,13 +55,110 @@ public class ResourceActor extends Actor {
     }
 
     /**
-     * Gets the resource this actor contains.
+     * Creates a new pile with a single resource.
+     *
+     * @param material The resource for this actor
+     * @param x The initial X position
+     * @param y The initial Y position
+     * @param level The level this actor belongs to
+     */
+    public ResourceActor(@NotNull Material material, double x, double y, @NotNull Level level) {
+        this(x, y, level);
+
+        add(Objects.requireNonNull(material, "resource can't be null"), 1);
+    }
+
+    /**
+     * Creates a new pile with a single resource.<br>
+     * <br>
+     * The X and Y positions from the tile position will be randomized within the tile.
+     *
+     * @param material The resource for this actor
+     * @param pos The tile this actor will start in
+     * @param level The level this actor belongs to
+     */
+    public ResourceActor(@NotNull Material material, @NotNull TilePos pos, @NotNull Level level) {
+        this(pos, level);
+
+        add(Objects.requireNonNull(material, "resource can't be null"), 1);
+    }
+
+    /**
+     * Adds resources to this pile.
+     *
+     * @param material The {@link Material} to add
+     * @param amount The amount to add
+     */
+    public void add(@NotNull Material material, int amount) {
+        Objects.requireNonNull(material, "resource can't be null");
+        if(amount <= 0) {
+            return;
+        }
+
+        contents.mergeInt(material, amount, Integer::sum);
+        total += amount;
+        level.journal().ifPresent((journal) -> journal.pileChanged(this));
+    }
+
+    /**
+     * Gets the amount of a {@link Material} in this pile.
      *
-     * @return The resource of this actor
+     * @param material The {@link Material} to query
+     * @return The amount of the {@link Material}
+     */
+    public int count(@NotNull Material material) {
+        Objects.requireNonNull(material, "resource can't be null");
+        return contents.getInt(material);
+    }
+
+    /**
+     * Gets the total amount of resources in this pile.
+     *
+     * @return The amount of resources in this pile
+     */
+    public int total() {
+        return total;
+    }
+
+    /**
+     * Gets all of the resources in this pile.
+     *
+     * @return A read-only view of the contents of this pile
      */
     @NotNull
-    public Material resource() {
-        return material;
+    public Object2IntMap<Material> contents() {
+        return Object2IntMaps.unmodifiable(contents);
+    }
+
+    /**
+     * Removes everything above a limit from this pile, used when a pile is too large to be carried in one trip.
+     *
+     * @param capacity The amount of resources this pile should be left with
+     * @return The resources that were removed, empty if the pile was already small enough
+     */
+    @NotNull
+    public Object2IntMap<Material> removeExcess(int capacity) {
+        var excess = new Object2IntOpenHashMap<Material>();
+        var remaining = total - capacity;
+        if(remaining <= 0) {
+            return excess;
+        }
+
+        var iterator = Object2IntMaps.fastIterator(contents);
+        while(remaining > 0 && iterator.hasNext()) {
+            var entry = iterator.next();
+            var amount = Math.min(entry.getIntValue(), remaining);
+            excess.put(entry.getKey(), amount);
+            remaining -= amount;
+            total -= amount;
+            if(amount == entry.getIntValue()) {
+                iterator.remove();
+            } else {
+                entry.setValue(entry.getIntValue() - amount);
+            }
+        }
+        level.journal().ifPresent((journal) -> journal.pileChanged(this));
+        return excess;
     }
 
     @Override
@@ -0,0 +1,18 @@
+package net.gudenau.cavegame.ai;
+
+import net.gudenau.cavegame.actor.Actor;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A {@link Job} that targets a single {@link Actor}. The {@link JobManager} will only queue one job of each
+ * {@link JobType} per actor and finds these jobs through the actor index of the level, starting with the actors closest
+ * to the actor looking for work.
+ */
+public interface ActorJob extends Job {
+    /**
+     * Gets the actor this job targets.
+     *
+     * @return The targeted actor
+     */
+    @NotNull Actor target();
+}
@@ -1,81 +1,706 @@
 package net.gudenau.cavegame.ai;
 
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import net.gudenau.cavegame.actor.Actor;
 import net.gudenau.cavegame.actor.LivingActor;
-import net.gudenau.cavegame.util.SharedLock;
+import net.gudenau.cavegame.level.Level;
+import net.gudenau.cavegame.level.TileChangeListener;
+import net.gudenau.cavegame.level.TileChanges;
+import net.gudenau.cavegame.level.TilePos;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
-public class JobManager {
+/**
+ * The job board of a level.<br>
+ * <br>
+ * Jobs are kept in a lock-free queue per {@link JobType}. Every queued job has an atomic state that is claimed with a
+ * compare-and-set, so multiple actors can look for jobs at the same time without blocking each other. A claim is a
+ * lease that has to be renewed every tick, if the actor stops renewing it the job is reopened automatically and the
+ * actor is told that it lost the job. Jobs compare equal across claims, so every claim records the actor that made it
+ * and renewals, completions and releases from any other actor are ignored.<br>
+ * <br>
+ * Whenever a job becomes claimable the chunk it targets is woken and the {@link #generation()} is advanced, idle actors
+ * in sleeping chunks only look for jobs after the generation changed. Tiles that change passability advance the
+ * generation as well, they can make jobs reachable that idle actors gave up on.<br>
+ * <br>
+ * {@link ActorJob}s are found through the actor index of the level in growing rings around the actor looking for work,
+ * so only the jobs of nearby targets are costed. Because of that {@link #findJob(LivingActor)} must be called from the
+ * tick thread.
+ */
+public class JobManager implements TileChangeListener {
+    /**
+     * The amount of ticks a claim lasts without being renewed.
+     */
+    private static final int LEASE_TICKS = 100;
+
+    /**
+     * How often, in ticks, claims are checked for expired leases.
+     */
+    private static final int LEASE_CHECK_INTERVAL = 20;
+
+    /**
+     * The radius of the first ring that is searched for {@link ActorJob}s, every following ring doubles it.
+     */
+    private static final double SEARCH_RADIUS = Level.CHUNK_SIZE;
+
+    /**
+     * The state of a job that can be claimed.
+     */
+    private static final int OPEN = 0;
+
+    /**
+     * The state of a job that is being worked on.
+     */
+    private static final int CLAIMED = 1;
+
+    /**
+     * The state of a job that was finished, it will be removed from its queue the next time it is encountered.
+     */
+    private static final int DONE = 2;
+
+    /**
+     * The level this job board belongs to.
+     */
     @NotNull
-    private final SharedLock lock = new SharedLock();
+    private final Level level;
+
     @NotNull
     private final List<JobType<?>> priorities = new ArrayList<>();
+
+    /**
+     * The queued jobs of each {@link JobType}, including claimed jobs.
+     */
+    @NotNull
+    private final Map<JobType<?>, Queue<Ticket>> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * The tickets of every queued {@link TileJob} indexed by packed position, per {@link JobType}. Used to prevent
+     * duplicate jobs.
+     */
+    @NotNull
+    private final Map<JobType<?>, Map<Long, Ticket>> positions = new ConcurrentHashMap<>();
+
+    /**
+     * The tickets of every queued {@link ActorJob} indexed by their target, per {@link JobType}. Used to prevent
+     * duplicate jobs and to find jobs near an actor.
+     */
+    @NotNull
+    private final Map<JobType<?>, Map<Actor, Ticket>> targets = new ConcurrentHashMap<>();
+
+    /**
+     * The tickets of every queued {@link TileJob} grouped by the packed position of the chunk of their tile.
+     */
     @NotNull
-    private final Map<JobType<?>, Set<Job>> jobs = new Object2ObjectOpenHashMap<>();
+    private final Map<Long, ChunkJobs> chunks = new ConcurrentHashMap<>();
+
+    /**
+     * The tickets of all claimed jobs.
+     */
+    @NotNull
+    private final Map<Job, Ticket> claimed = new ConcurrentHashMap<>();
+
+    /**
+     * The current tick, used for lease deadlines.
+     */
+    private volatile long tick = 0;
+
+    /**
+     * Advanced every time a job becomes claimable.
+     */
+    @NotNull
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * The bookkeeping for a single queued job.
+     */
+    private static final class Ticket {
+        @NotNull
+        private final Job job;
+        @NotNull
+        private final JobType<?> type;
+        @NotNull
+        private final AtomicInteger state = new AtomicInteger(OPEN);
+        /**
+         * The tick after which the current claim is considered abandoned.
+         */
+        private volatile long deadline;
+        /**
+         * The actor that made the current claim, null while the job is not claimed.
+         */
+        @Nullable
+        private volatile LivingActor claimant;
+        /**
+         * The chunk of the tile of a {@link TileJob}, null for every other job.
+         */
+        @Nullable
+        private ChunkJobs chunk;
+
+        private Ticket(@NotNull Job job, @NotNull JobType<?> type) {
+            this.job = job;
+            this.type = type;
+        }
+
+        /**
+         * Advances the version of the chunk of this ticket after its state changed.
+         */
+        private void changed() {
+            if(chunk != null) {
+                chunk.version.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * The queued {@link TileJob}s of a single chunk.
+     */
+    private static final class ChunkJobs {
+        @NotNull
+        private final Set<Ticket> tickets = ConcurrentHashMap.newKeySet();
+        /**
+         * Advanced every time a job in this chunk is enqueued, claimed, reopened or finished.
+         */
+        @NotNull
+        private final AtomicLong version = new AtomicLong();
+    }
+
+    public JobManager(@NotNull Level level) {
+        this.level = Objects.requireNonNull(level, "level can't be null");
 
-    public JobManager() {
         priorities.add(JobTypes.RESOURCE);
         priorities.add(JobTypes.MINING);
     }
 
+    /**
+     * Advances the lease clock and reopens any job whose claim was not renewed in time, the actors that held them are
+     * told with {@link LivingActor#leaseExpired(Job)}. Called once per level tick, on the tick thread.
+     */
+    public void tick() {
+        var now = ++tick;
+        if(now % LEASE_CHECK_INTERVAL != 0) {
+            return;
+        }
+
+        claimed.values().removeIf((ticket) -> {
+            if(ticket.deadline >= now) {
+                return false;
+            }
+            var claimant = ticket.claimant;
+            ticket.claimant = null;
+            if(ticket.state.compareAndSet(CLAIMED, OPEN)) {
+                ticket.changed();
+                opened(ticket.job);
+                if(claimant != null) {
+                    claimant.leaseExpired(ticket.job);
+                }
+            }
+            return true;
+        });
+
+        // Actor jobs are found without walking their queues, so finished ones are only dropped here
+        for(var entry : jobs.entrySet()) {
+            var typeTargets = targets.get(entry.getKey());
+            if(typeTargets != null && !typeTargets.isEmpty()) {
+                entry.getValue().removeIf((ticket) -> ticket.state.get() == DONE);
+            }
+        }
+    }
+
     public void enqueueJob(@NotNull Job job) {
         Objects.requireNonNull(job, "job can't be null");
 
-        lock.write(() -> {
-            jobs.computeIfAbsent(JobType.from(job), (key) -> new HashSet<>()).add(job);
+        var ticket = newTicket(JobType.from(job), job);
+        if(ticket != null) {
+            indexTicket(ticket);
+            queue(ticket.type).add(ticket);
+            level.journal().ifPresent((journal) -> journal.jobEnqueued(job));
+            opened(job);
+        }
+    }
+
+    /**
+     * Enqueues a batch of jobs. The types are resolved once per class and every type is published to its queue in a
+     * single lock-free batch. {@link TileJob}s that target a tile that already has a queued job of the same type are
+     * skipped.
+     *
+     * @param jobs The jobs to enqueue
+     * @return The amount of jobs that were enqueued
+     */
+    public int enqueueJobs(@NotNull Collection<? extends @NotNull Job> jobs) {
+        Objects.requireNonNull(jobs, "jobs can't be null");
+
+        if(jobs.isEmpty()) {
+            return 0;
+        }
+
+        // Batches tend to be made of very few classes
+        Map<Class<?>, JobType<?>> typeCache = new Reference2ObjectOpenHashMap<>();
+        Map<JobType<?>, List<Ticket>> batches = new Reference2ObjectOpenHashMap<>();
+        for(var job : jobs) {
+            Objects.requireNonNull(job, "job can't be null");
+            var type = typeCache.computeIfAbsent(job.getClass(), (key) -> JobType.from(job));
+            var ticket = newTicket(type, job);
+            if(ticket != null) {
+                batches.computeIfAbsent(type, (key) -> new ArrayList<>()).add(ticket);
+            }
+        }
+
+        var journal = level.journal().orElse(null);
+        int added = 0;
+        for(var entry : batches.entrySet()) {
+            var tickets = entry.getValue();
+            tickets.forEach(this::indexTicket);
+            queue(entry.getKey()).addAll(tickets);
+            for(var ticket : tickets) {
+                if(journal != null) {
+                    journal.jobEnqueued(ticket.job);
+                }
+                opened(ticket.job);
+            }
+            added += tickets.size();
+        }
+        return added;
+    }
+
+    /**
+     * Designates every tile in a rectangle, the factory is called for every tile and the resulting jobs are enqueued
+     * with {@link #enqueueJobs(Collection)}.
+     *
+     * @param min The smallest corner of the rectangle, inclusive
+     * @param max The largest corner of the rectangle, inclusive
+     * @param factory The job factory, returns null for tiles that should be skipped
+     * @return The amount of jobs that were enqueued
+     */
+    public int designateArea(@NotNull TilePos min, @NotNull TilePos max, @NotNull Function<@NotNull TilePos, @Nullable Job> factory) {
+        Objects.requireNonNull(min, "min can't be null");
+        Objects.requireNonNull(max, "max can't be null");
+        Objects.requireNonNull(factory, "factory can't be null");
+
+        List<Job> designated = new ArrayList<>();
+        TilePos.iterator(min.x(), min.y(), max.x() + 1, max.y() + 1).forEachRemaining((pos) -> {
+            var job = factory.apply(pos);
+            if(job != null) {
+                designated.add(job);
+            }
         });
+        return enqueueJobs(designated);
+    }
+
+    /**
+     * Designates a connected region of tiles, found with a flood fill from the starting tile. The factory is called for
+     * every tile in the region and the resulting jobs are enqueued with {@link #enqueueJobs(Collection)}.
+     *
+     * @param start The tile to start the flood fill from
+     * @param filter Checks if a tile is part of the region, must reject tiles outside of the level
+     * @param factory The job factory, returns null for tiles that should be skipped
+     * @return The amount of jobs that were enqueued
+     */
+    public int designateRegion(@NotNull TilePos start, @NotNull Predicate<@NotNull TilePos> filter, @NotNull Function<@NotNull TilePos, @Nullable Job> factory) {
+        Objects.requireNonNull(start, "start can't be null");
+        Objects.requireNonNull(filter, "filter can't be null");
+        Objects.requireNonNull(factory, "factory can't be null");
+
+        if(!filter.test(start)) {
+            return 0;
+        }
+
+        List<Job> designated = new ArrayList<>();
+        LongSet visited = new LongOpenHashSet();
+        var toVisit = new LongArrayList();
+        visited.add(start.asLong());
+        toVisit.add(start.asLong());
+
+        while(!toVisit.isEmpty()) {
+            var pos = new TilePos(toVisit.removeLong(toVisit.size() - 1));
+            var job = factory.apply(pos);
+            if(job != null) {
+                designated.add(job);
+            }
+
+            for(var neighbor : pos.neighbors()) {
+                if(visited.add(neighbor.asLong()) && filter.test(neighbor)) {
+                    toVisit.add(neighbor.asLong());
+                }
+            }
+        }
+
+        return enqueueJobs(designated);
+    }
+
+    /**
+     * Announces that a job became claimable, either because it was enqueued or because its claim ended.
+     *
+     * @param job The job that can be claimed
+     */
+    private void opened(@NotNull Job job) {
+        if(job instanceof TileJob tileJob) {
+            level.wake(tileJob.position());
+        }
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Gets the current generation of this job board, it changes every time a job becomes claimable.
+     *
+     * @return The current generation
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    @Override
+    public void tilesChanged(@NotNull Level level, @NotNull TileChanges changes) {
+        for(int i = 0, size = changes.size(); i < size; i++) {
+            if(changes.oldTile(i).passable() != changes.newTile(i).passable()) {
+                generation.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Invokes an action for every queued {@link TileJob}, claimed or not. Safe to call from any thread, jobs that are
+     * enqueued or finished at the same time may or may not be included.
+     *
+     * @param action The action to invoke
+     */
+    public void forEachTileJob(@NotNull TileJobConsumer action) {
+        Objects.requireNonNull(action, "action can't be null");
+
+        positions.forEach((type, typePositions) -> typePositions.forEach((position, ticket) -> {
+            var state = ticket.state.get();
+            if(state != DONE) {
+                action.accept(type, position, state == CLAIMED);
+            }
+        }));
     }
 
+    /**
+     * Invokes an action for every queued {@link TileJob} in a chunk, claimed or not. Safe to call from any thread with
+     * the same guarantees as {@link #forEachTileJob(TileJobConsumer)}.
+     *
+     * @param chunkX The X position of the chunk
+     * @param chunkY The Y position of the chunk
+     * @param action The action to invoke
+     */
+    public void forEachTileJobInChunk(int chunkX, int chunkY, @NotNull TileJobConsumer action) {
+        Objects.requireNonNull(action, "action can't be null");
+
+        var chunk = chunks.get(TilePos.pack(chunkX, chunkY));
+        if(chunk == null) {
+            return;
+        }
+        for(var ticket : chunk.tickets) {
+            var state = ticket.state.get();
+            if(state != DONE) {
+                action.accept(ticket.type, ((TileJob) ticket.job).position().asLong(), state == CLAIMED);
+            }
+        }
+    }
+
+    /**
+     * Gets the version of the jobs in a chunk, it changes every time a job in the chunk is enqueued, claimed, reopened
+     * or finished. Used to skip chunks whose jobs did not change. Thread safe.
+     *
+     * @param chunkX The X position of the chunk
+     * @param chunkY The Y position of the chunk
+     * @return The version of the jobs of the chunk, 0 if the chunk never had a job
+     */
+    public long chunkVersion(int chunkX, int chunkY) {
+        var chunk = chunks.get(TilePos.pack(chunkX, chunkY));
+        return chunk == null ? 0 : chunk.version.get();
+    }
+
+    /**
+     * Adds the ticket of a {@link TileJob} to the index of its chunk, must be called before it is queued so it can't
+     * be finished before it was indexed.
+     *
+     * @param ticket The ticket to index
+     */
+    private void indexTicket(@NotNull Ticket ticket) {
+        if(!(ticket.job instanceof TileJob tileJob)) {
+            return;
+        }
+
+        var position = tileJob.position();
+        var chunk = chunks.computeIfAbsent(
+            TilePos.pack(Level.toChunk(position.x()), Level.toChunk(position.y())),
+            (key) -> new ChunkJobs()
+        );
+        ticket.chunk = chunk;
+        chunk.tickets.add(ticket);
+        ticket.changed();
+    }
+
+    /**
+     * A consumer of queued {@link TileJob}s, see {@link #forEachTileJob(TileJobConsumer)}.
+     */
+    @FunctionalInterface
+    public interface TileJobConsumer {
+        /**
+         * Invoked for a single queued {@link TileJob}.
+         *
+         * @param type The type of the job
+         * @param position The packed position of the targeted tile
+         * @param claimed True if an actor is working on the job
+         */
+        void accept(@NotNull JobType<?> type, long position, boolean claimed);
+    }
+
+    @NotNull
+    private Queue<Ticket> queue(@NotNull JobType<?> type) {
+        return jobs.computeIfAbsent(type, (key) -> new ConcurrentLinkedQueue<>());
+    }
+
+    /**
+     * Creates the ticket for a new job, {@link TileJob}s are registered in the position index and {@link ActorJob}s in
+     * the target index.
+     *
+     * @param type The type of the job
+     * @param job The job
+     * @return The new ticket or null if the job was a duplicate
+     */
+    @Nullable
+    private Ticket newTicket(@NotNull JobType<?> type, @NotNull Job job) {
+        var ticket = new Ticket(job, type);
+        if(job instanceof TileJob tileJob) {
+            var typePositions = positions.computeIfAbsent(type, (key) -> new ConcurrentHashMap<>());
+            var existing = typePositions.putIfAbsent(tileJob.position().asLong(), ticket);
+            return existing == null ? ticket : null;
+        } else if(job instanceof ActorJob actorJob) {
+            var typeTargets = targets.computeIfAbsent(type, (key) -> new ConcurrentHashMap<>());
+            var existing = typeTargets.putIfAbsent(actorJob.target(), ticket);
+            return existing == null ? ticket : null;
+        } else {
+            return ticket;
+        }
+    }
+
+    /**
+     * Checks if there are any jobs that can be claimed.
+     *
+     * @return True if there is at least one open job
+     */
     public boolean hasJobs() {
-        return jobs.values().stream().noneMatch(Set::isEmpty);
+        for(var queue : jobs.values()) {
+            for(var ticket : queue) {
+                if(ticket.state.get() == OPEN) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
-    private record JobCost(Job job, long cost){
+    private record JobCost(Ticket ticket, long cost){
         private boolean valid() {
             return cost >= 0;
         }
     }
 
+    /**
+     * Finds and claims the cheapest job for an actor from the highest priority {@link JobType} that has open jobs. If
+     * another actor claims a job first the next cheapest job is tried. {@link ActorJob}s are searched in growing rings
+     * around the actor, the cheapest job of the closest ring that has a reachable job wins.
+     *
+     * @param actor The actor looking for a job
+     * @return The claimed job or empty if there were no jobs the actor could do
+     */
     @NotNull
     public Optional<Job> findJob(LivingActor actor) {
-        var state = new Object() {
-            @NotNull Set<Job> jobs = Set.of();
-            @Nullable JobType<?> type = null;
-        };
-
-        lock.read(() -> {
-            for(var type : priorities) {
-                var value = this.jobs.getOrDefault(type, Set.of());
-                if(!value.isEmpty()) {
-                    state.jobs = Set.copyOf(value);
-                    state.type = type;
+        for(var type : priorities) {
+            var queue = jobs.get(type);
+            if(queue == null) {
+                continue;
+            }
+
+            var typeTargets = targets.get(type);
+            if(typeTargets != null && !typeTargets.isEmpty()) {
+                var ticket = claimNearest(typeTargets, actor);
+                if(ticket != null) {
+                    return Optional.of(ticket.job);
+                }
+                continue;
+            }
+
+            List<JobCost> candidates = new ArrayList<>();
+            var anyOpen = false;
+            for(var iterator = queue.iterator(); iterator.hasNext();) {
+                var ticket = iterator.next();
+                var state = ticket.state.get();
+                if(state == DONE) {
+                    iterator.remove();
+                } else if(state == OPEN) {
+                    anyOpen = true;
+                    var cost = new JobCost(ticket, ticket.job.estimateCost(actor));
+                    if(cost.valid()) {
+                        candidates.add(cost);
+                    }
+                }
+            }
+            if(!anyOpen) {
+                continue;
+            }
+
+            var ticket = claimCheapest(candidates, actor);
+            return ticket == null ? Optional.empty() : Optional.of(ticket.job);
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Claims the cheapest open {@link ActorJob} whose target is close to an actor. The rings are searched from the inside
+     * out until one of them has a job the actor can do or the whole level was searched.
+     *
+     * @param typeTargets The tickets of the jobs of a single type by their target
+     * @param actor The actor looking for a job
+     * @return The claimed ticket or null if there was no job the actor could do
+     */
+    @Nullable
+    private Ticket claimNearest(@NotNull Map<Actor, Ticket> typeTargets, @NotNull LivingActor actor) {
+        var x = actor.x();
+        var y = actor.y();
+        var maxRadius = Math.hypot(level.width(), level.height());
+        List<JobCost> candidates = new ArrayList<>();
+        for(double innerRadius = 0, radius = SEARCH_RADIUS; ; innerRadius = radius, radius *= 2) {
+            // Targets of the inner rings were already costed
+            var innerSquared = innerRadius == 0 ? -1 : innerRadius * innerRadius;
+            candidates.clear();
+            level.forEachActorInRadius(x, y, radius, Actor.class, (target) -> {
+                var deltaX = target.x() - x;
+                var deltaY = target.y() - y;
+                if(deltaX * deltaX + deltaY * deltaY <= innerSquared) {
                     return;
                 }
+                var ticket = typeTargets.get(target);
+                if(ticket != null && ticket.state.get() == OPEN) {
+                    var cost = new JobCost(ticket, ticket.job.estimateCost(actor));
+                    if(cost.valid()) {
+                        candidates.add(cost);
+                    }
+                }
+            });
+
+            var ticket = claimCheapest(candidates, actor);
+            if(ticket != null || radius >= maxRadius) {
+                return ticket;
             }
-        });
-        if(state.jobs.isEmpty()) {
-            return Optional.empty();
         }
+    }
 
-        var proposedJob = state.jobs.stream()
-            .map((job) -> new JobCost(job, job.estimateCost(actor)))
-            .filter(JobCost::valid)
-            .min(Comparator.comparingLong(JobCost::cost))
-            .map(JobCost::job)
-            .orElse(null);
-        if(proposedJob == null) {
-            return Optional.empty();
+    /**
+     * Claims the cheapest of a list of costed jobs, jobs that were claimed by another actor in the meantime are skipped.
+     *
+     * @param candidates The costed jobs, sorted in place
+     * @param actor The actor that claims the job
+     * @return The claimed ticket or null if every job was claimed by someone else
+     */
+    @Nullable
+    private Ticket claimCheapest(@NotNull List<JobCost> candidates, @NotNull LivingActor actor) {
+        candidates.sort(Comparator.comparingLong(JobCost::cost));
+        for(var candidate : candidates) {
+            var ticket = candidate.ticket;
+            if(ticket.state.compareAndSet(OPEN, CLAIMED)) {
+                // Only the winner may touch the lease, the reaper only sees it once it is in the claimed map
+                ticket.claimant = actor;
+                ticket.deadline = tick + LEASE_TICKS;
+                ticket.changed();
+                claimed.put(ticket.job, ticket);
+                return ticket;
+            }
         }
+        return null;
+    }
 
-        return lock.write(() -> {
-            if(jobs.getOrDefault(state.type, Set.of()).remove(proposedJob)) {
-                return Optional.of(proposedJob);
-            } else {
-                return Optional.empty();
+    /**
+     * Gets the ticket of a job claimed by an actor.
+     *
+     * @param actor The actor that should hold the claim
+     * @param job The claimed job
+     * @return The ticket or null if the job is not claimed by the actor
+     */
+    @Nullable
+    private Ticket claimOf(@NotNull LivingActor actor, @NotNull Job job) {
+        var ticket = claimed.get(job);
+        return ticket != null && ticket.claimant == actor ? ticket : null;
+    }
+
+    /**
+     * Extends the lease of a claimed job, called every tick by the actor working on it.
+     *
+     * @param actor The actor working on the job
+     * @param job The claimed job
+     */
+    public void renewLease(@NotNull LivingActor actor, @NotNull Job job) {
+        var ticket = claimOf(actor, job);
+        if(ticket != null) {
+            ticket.deadline = tick + LEASE_TICKS;
+        }
+    }
+
+    /**
+     * Marks a claimed job as finished. Ignored if the claim of the actor expired in the meantime.
+     *
+     * @param actor The actor that finished the job
+     * @param job The finished job
+     */
+    public void completeJob(@NotNull LivingActor actor, @NotNull Job job) {
+        var ticket = claimOf(actor, job);
+        if(ticket == null || !claimed.remove(job, ticket)) {
+            return;
+        }
+
+        ticket.claimant = null;
+        ticket.state.set(DONE);
+        if(job instanceof TileJob tileJob) {
+            var typePositions = positions.get(ticket.type);
+            if(typePositions != null) {
+                typePositions.remove(tileJob.position().asLong(), ticket);
             }
-        });
+        } else if(job instanceof ActorJob actorJob) {
+            var typeTargets = targets.get(ticket.type);
+            if(typeTargets != null) {
+                typeTargets.remove(actorJob.target(), ticket);
+            }
+        }
+        if(ticket.chunk != null) {
+            ticket.chunk.tickets.remove(ticket);
+            ticket.changed();
+        }
+    }
+
+    /**
+     * Gives up on a claimed job so another actor can claim it. Jobs that were not claimed from this manager are
+     * enqueued instead, jobs that are claimed by another actor are left alone.
+     *
+     * @param actor The actor that gives up the job
+     * @param job The job to release
+     */
+    public void releaseJob(@NotNull LivingActor actor, @NotNull Job job) {
+        var ticket = claimed.get(job);
+        if(ticket == null) {
+            enqueueJob(job);
+            return;
+        }
+        if(ticket.claimant != actor || !claimed.remove(job, ticket)) {
+            return;
+        }
+
+        ticket.claimant = null;
+        if(ticket.state.compareAndSet(CLAIMED, OPEN)) {
+            ticket.changed();
+            opened(job);
+        }
     }
 }
@@ -11,7 +11,7 @@ import java.util.Objects;
 public record MiningJob(
     @NotNull Tile tile,
     @NotNull TilePos position
-) implements Job {
+) implements TileJob {
     public MiningJob {
         Objects.requireNonNull(tile, "tile can't be null");
         Objects.requireNonNull(position, "position can't be null");
@@ -1,19 +1,25 @@
 package net.gudenau.cavegame.ai;
 
+import net.gudenau.cavegame.actor.Actor;
 import net.gudenau.cavegame.actor.LivingActor;
 import net.gudenau.cavegame.actor.ResourceActor;
 import net.gudenau.cavegame.level.Pathfinder;
 import net.gudenau.cavegame.tile.Tiles;
-import net.gudenau.cavegame.tile.state.StoreRoomState;
 import org.jetbrains.annotations.NotNull;
 
 public record ResourceJob(
     @NotNull ResourceActor resource
-) implements Job {
+) implements ActorJob {
     public ResourceJob(Object state) {
         this(null);
     }
 
+    @NotNull
+    @Override
+    public Actor target() {
+        return resource;
+    }
+
     @Override
     public long estimateCost(@NotNull LivingActor actor) {
         if(actor.isHeld()) {
@@ -35,8 +41,7 @@ public record ResourceJob(
         if(held == resource) {
             var storeRoomPos = actor.findAdjacentTile(Tiles.STORE_ROOM).orElse(null);
             if(storeRoomPos != null) {
-                actor.level().tileState(storeRoomPos, StoreRoomState.class)
-                    .ifPresent((state) -> state.storeResource(resource.resource(), 1));
+                actor.level().storeResources(storeRoomPos, resource.contents());
                 resource.remove();
                 actor.removeJob(!resource.needsRemoval());
             }
@@ -45,6 +50,11 @@ public record ResourceJob(
                 actor.removeJob(true);
                 return;
             }
+            // Leave anything that doesn't fit behind as a new pile, it gets its own job
+            var excess = resource.removeExcess(actor.carryCapacity());
+            if(!excess.isEmpty()) {
+                actor.level().dropResources(position, excess);
+            }
             actor.level().findNearestTile(position, Tiles.STORE_ROOM)
                 .ifPresent(actor::navigateToSide);
         }
@@ -0,0 +1,17 @@
+package net.gudenau.cavegame.ai;
+
+import net.gudenau.cavegame.level.TilePos;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A {@link Job} that targets a single tile. The {@link JobManager} will only queue one job of each {@link JobType} per
+ * tile.
+ */
+public interface TileJob extends Job {
+    /**
+     * Gets the tile this job targets.
+     *
+     * @return The position of the targeted tile
+     */
+    @NotNull TilePos position();
+}
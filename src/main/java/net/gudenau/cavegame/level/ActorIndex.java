@@ -0,0 +1,241 @@
+package net.gudenau.cavegame.level;
+
+import net.gudenau.cavegame.actor.Actor;
+import net.gudenau.cavegame.util.MathUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A uniform grid spatial hash of the {@link Actor}s in a {@link Level}, every grid cell is a single chunk.<br>
+ * <br>
+ * Queries iterate the cells directly, no collections are created. Actors must not be moved, added or removed from
+ * within a query callback.
+ */
+final class ActorIndex {
+    /**
+     * The width of the grid in cells.
+     */
+    private final int cellWidth;
+
+    /**
+     * The height of the grid in cells.
+     */
+    private final int cellHeight;
+
+    /**
+     * The cells of the grid, null until an {@link Actor} enters the cell.
+     */
+    private final Cell @Nullable [] cells;
+
+    /**
+     * The actors in a single grid cell.
+     */
+    private static final class Cell {
+        /**
+         * The actors in this cell, only the first {@link #size} elements are valid.
+         */
+        private Actor @NotNull [] actors = new Actor[4];
+
+        /**
+         * The amount of actors in this cell.
+         */
+        private int size;
+
+        private void add(@NotNull Actor actor) {
+            if(size == actors.length) {
+                actors = Arrays.copyOf(actors, size << 1);
+            }
+            actors[size++] = actor;
+        }
+
+        private boolean remove(@NotNull Actor actor) {
+            for(int i = 0; i < size; i++) {
+                if(actors[i] == actor) {
+                    actors[i] = actors[--size];
+                    actors[size] = null;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Creates a new index for a level with the provided size in chunks.
+     *
+     * @param chunkWidth The width of the level in chunks
+     * @param chunkHeight The height of the level in chunks
+     */
+    ActorIndex(int chunkWidth, int chunkHeight) {
+        cellWidth = Math.max(chunkWidth, 1);
+        cellHeight = Math.max(chunkHeight, 1);
+        cells = new Cell[cellWidth * cellHeight];
+    }
+
+    /**
+     * Gets the index of the cell that contains the provided position, positions outside of the grid are placed in the
+     * closest cell.
+     *
+     * @param x The X position
+     * @param y The Y position
+     * @return The index of the cell
+     */
+    private int cellIndex(double x, double y) {
+        return cellIndex((int) Math.floor(x), (int) Math.floor(y));
+    }
+
+    private int cellIndex(int tileX, int tileY) {
+        var cellX = MathUtils.clamp(Level.toChunk(tileX), 0, cellWidth - 1);
+        var cellY = MathUtils.clamp(Level.toChunk(tileY), 0, cellHeight - 1);
+        return cellX + cellY * cellWidth;
+    }
+
+    /**
+     * Adds an {@link Actor} to this index at its current position.
+     *
+     * @param actor The {@link Actor} to add
+     */
+    void add(@NotNull Actor actor) {
+        var index = cellIndex(actor.x(), actor.y());
+        var cell = cells[index];
+        if(cell == null) {
+            cell = cells[index] = new Cell();
+        }
+        cell.add(actor);
+    }
+
+    /**
+     * Removes an {@link Actor} from this index, the {@link Actor} must not have moved since it was last indexed.
+     *
+     * @param actor The {@link Actor} to remove
+     */
+    void remove(@NotNull Actor actor) {
+        var cell = cells[cellIndex(actor.x(), actor.y())];
+        if(cell != null) {
+            cell.remove(actor);
+        }
+    }
+
+    /**
+     * Updates the cell of an {@link Actor} after it moved, does nothing if it stayed within the same cell.
+     *
+     * @param actor The {@link Actor} that moved
+     * @param oldX The previous X position
+     * @param oldY The previous Y position
+     */
+    void move(@NotNull Actor actor, double oldX, double oldY) {
+        var oldIndex = cellIndex(oldX, oldY);
+        var newIndex = cellIndex(actor.x(), actor.y());
+        if(oldIndex == newIndex) {
+            return;
+        }
+
+        var oldCell = cells[oldIndex];
+        if(oldCell == null || !oldCell.remove(actor)) {
+            // Not indexed, likely still pending
+            return;
+        }
+
+        var newCell = cells[newIndex];
+        if(newCell == null) {
+            newCell = cells[newIndex] = new Cell();
+        }
+        newCell.add(actor);
+    }
+
+    /**
+     * Invokes an action for every {@link Actor} of a type inside a rectangle of tiles, inclusive.
+     *
+     * @param minX The smallest X tile position
+     * @param minY The smallest Y tile position
+     * @param maxX The largest X tile position
+     * @param maxY The largest Y tile position
+     * @param type The type of {@link Actor} to visit
+     * @param action The action to invoke
+     * @param <T> The type of {@link Actor} to visit
+     */
+    <T extends Actor> void forEachInArea(int minX, int minY, int maxX, int maxY, @NotNull Class<T> type, @NotNull Consumer<? super T> action) {
+        var minCellX = MathUtils.clamp(Level.toChunk(minX), 0, cellWidth - 1);
+        var minCellY = MathUtils.clamp(Level.toChunk(minY), 0, cellHeight - 1);
+        var maxCellX = MathUtils.clamp(Level.toChunk(maxX), 0, cellWidth - 1);
+        var maxCellY = MathUtils.clamp(Level.toChunk(maxY), 0, cellHeight - 1);
+
+        for(int cellY = minCellY; cellY <= maxCellY; cellY++) {
+            for(int cellX = minCellX; cellX <= maxCellX; cellX++) {
+                var cell = cells[cellX + cellY * cellWidth];
+                if(cell == null) {
+                    continue;
+                }
+
+                var actors = cell.actors;
+                for(int i = 0, size = cell.size; i < size; i++) {
+                    var actor = actors[i];
+                    var tileX = (int) Math.floor(actor.x());
+                    var tileY = (int) Math.floor(actor.y());
+                    if(tileX >= minX && tileX <= maxX && tileY >= minY && tileY <= maxY && type.isInstance(actor)) {
+                        action.accept(type.cast(actor));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Invokes an action for every {@link Actor} of a type within a radius of a position.
+     *
+     * @param x The X position of the center
+     * @param y The Y position of the center
+     * @param radius The radius to search
+     * @param type The type of {@link Actor} to visit
+     * @param action The action to invoke
+     * @param <T> The type of {@link Actor} to visit
+     */
+    <T extends Actor> void forEachInRadius(double x, double y, double radius, @NotNull Class<T> type, @NotNull Consumer<? super T> action) {
+        var squaredRadius = radius * radius;
+        forEachInArea(
+            (int) Math.floor(x - radius),
+            (int) Math.floor(y - radius),
+            (int) Math.floor(x + radius),
+            (int) Math.floor(y + radius),
+            type,
+            (actor) -> {
+                var deltaX = actor.x() - x;
+                var deltaY = actor.y() - y;
+                if(deltaX * deltaX + deltaY * deltaY <= squaredRadius) {
+                    action.accept(actor);
+                }
+            }
+        );
+    }
+
+    /**
+     * Invokes an action for every {@link Actor} of a type in a chunk.
+     *
+     * @param chunkX The X position of the chunk
+     * @param chunkY The Y position of the chunk
+     * @param type The type of {@link Actor} to visit
+     * @param action The action to invoke
+     * @param <T> The type of {@link Actor} to visit
+     */
+    <T extends Actor> void forEachInChunk(int chunkX, int chunkY, @NotNull Class<T> type, @NotNull Consumer<? super T> action) {
+        if(chunkX < 0 || chunkY < 0 || chunkX >= cellWidth || chunkY >= cellHeight) {
+            return;
+        }
+
+        var cell = cells[chunkX + chunkY * cellWidth];
+        if(cell == null) {
+            return;
+        }
+
+        var actors = cell.actors;
+        for(int i = 0, size = cell.size; i < size; i++) {
+            var actor = actors[i];
+            if(type.isInstance(actor)) {
+                action.accept(type.cast(actor));
+            }
+        }
+    }
+}
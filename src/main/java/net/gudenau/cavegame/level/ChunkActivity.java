@@ -0,0 +1,163 @@
+package net.gudenau.cavegame.level;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tracks which chunks of a {@link Level} have something going on in them.<br>
+ * <br>
+ * A chunk is woken by events like tile changes, actors moving into it or jobs targeting it. It stays active for
+ * {@link #SLEEP_DELAY} ticks after the last event and is put to sleep afterwards, the systems of the level skip work in
+ * sleeping chunks. Keeping the chunks active for a while prevents chunks from flickering between the two states while
+ * something is happening in them.<br>
+ * <br>
+ * Wake requests are thread safe and are applied on the next {@link #tick()}, everything else must only be used from
+ * the thread that ticks the level.
+ */
+final class ChunkActivity {
+    /**
+     * The amount of ticks a chunk stays active after the last event in it.
+     */
+    private static final int SLEEP_DELAY = 40;
+
+    /**
+     * The width of the level in chunks.
+     */
+    private final int chunkWidth;
+
+    /**
+     * The height of the level in chunks.
+     */
+    private final int chunkHeight;
+
+    /**
+     * One bit per chunk that was woken since the last tick.
+     */
+    @NotNull
+    private final AtomicLongArray requested;
+
+    /**
+     * The amount of ticks each chunk will stay active for, 0 for sleeping chunks.
+     */
+    private final int @NotNull [] timers;
+
+    /**
+     * The indices of the active chunks, only the first {@link #activeCount} elements are valid.
+     */
+    private final int @NotNull [] active;
+
+    /**
+     * The amount of active chunks.
+     */
+    private int activeCount = 0;
+
+    /**
+     * Creates a new activity tracker for a level with the provided size in chunks, all chunks start out sleeping.
+     *
+     * @param chunkWidth The width of the level in chunks
+     * @param chunkHeight The height of the level in chunks
+     */
+    ChunkActivity(int chunkWidth, int chunkHeight) {
+        this.chunkWidth = Math.max(chunkWidth, 1);
+        this.chunkHeight = Math.max(chunkHeight, 1);
+
+        var total = this.chunkWidth * this.chunkHeight;
+        requested = new AtomicLongArray((total + Long.SIZE - 1) / Long.SIZE);
+        timers = new int[total];
+        active = new int[total];
+    }
+
+    /**
+     * Requests that a chunk is woken, chunks outside of the level are ignored. Thread safe.
+     *
+     * @param chunkX The X position of the chunk
+     * @param chunkY The Y position of the chunk
+     */
+    void wake(int chunkX, int chunkY) {
+        if(chunkX < 0 || chunkY < 0 || chunkX >= chunkWidth || chunkY >= chunkHeight) {
+            return;
+        }
+
+        var chunk = chunkX + chunkY * chunkWidth;
+        var bit = 1L << chunk;
+        var word = chunk >>> 6;
+        // Avoid the atomic write when the chunk was already requested this tick
+        if((requested.get(word) & bit) == 0) {
+            requested.getAndUpdate(word, (value) -> value | bit);
+        }
+    }
+
+    /**
+     * Applies all wake requests and puts chunks that have been quiet for long enough to sleep.
+     */
+    void tick() {
+        // Count down the chunks that are already active, waking them again resets the timer below
+        for(int i = activeCount - 1; i >= 0; i--) {
+            var chunk = active[i];
+            if(--timers[chunk] == 0) {
+                active[i] = active[--activeCount];
+            }
+        }
+
+        for(int word = 0, length = requested.length(); word < length; word++) {
+            if(requested.get(word) == 0) {
+                continue;
+            }
+
+            var bits = requested.getAndSet(word, 0);
+            while(bits != 0) {
+                var chunk = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if(timers[chunk] == 0) {
+                    active[activeCount++] = chunk;
+                }
+                timers[chunk] = SLEEP_DELAY;
+            }
+        }
+    }
+
+    /**
+     * Checks if a chunk is active, chunks outside of the level are never active.
+     *
+     * @param chunkX The X position of the chunk
+     * @param chunkY The Y position of the chunk
+     * @return True if the chunk is active
+     */
+    boolean isActive(int chunkX, int chunkY) {
+        if(chunkX < 0 || chunkY < 0 || chunkX >= chunkWidth || chunkY >= chunkHeight) {
+            return false;
+        }
+        return timers[chunkX + chunkY * chunkWidth] != 0;
+    }
+
+    /**
+     * Gets the amount of active chunks.
+     *
+     * @return The amount of active chunks
+     */
+    int activeCount() {
+        return activeCount;
+    }
+
+    /**
+     * Gets the amount of chunks, active or not.
+     *
+     * @return The amount of chunks
+     */
+    int totalCount() {
+        return timers.length;
+    }
+
+    /**
+     * Invokes an action for every active chunk, in no particular order.
+     *
+     * @param action The action to invoke
+     */
+    void forEachActive(@NotNull ChunkConsumer action) {
+        for(int i = 0; i < activeCount; i++) {
+            var chunk = active[i];
+            action.accept(chunk % chunkWidth, chunk / chunkWidth);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package net.gudenau.cavegame.level;
+
+/**
+ * An action that is invoked with the position of a chunk.
+ */
+@FunctionalInterface
+public interface ChunkConsumer {
+    /**
+     * Performs the action on a chunk.
+     *
+     * @param chunkX The X position of the chunk
+     * @param chunkY The Y position of the chunk
+     */
+    void accept(int chunkX, int chunkY);
+}
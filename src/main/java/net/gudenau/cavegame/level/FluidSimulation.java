@@ -0,0 +1,654 @@
+package net.gudenau.cavegame.level;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.gudenau.cavegame.tile.Tile;
+import net.gudenau.cavegame.tile.Tiles;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A cellular automaton that lets {@link Tiles#WATER} and {@link Tiles#LAVA} flow across the floor of a {@link Level}.
+ * <br>
+ * <br>
+ * Every tile has a fluid kind and a fluid level stored in primitive arrays. A step reads the current arrays and writes
+ * the next arrays, every cell gathers its own in- and outflow from the current values of its neighbors so cells can be
+ * computed in any order. Only chunks on the frontier are computed: chunks that changed in the previous step and their
+ * neighbors, a settled lake costs nothing. Large frontiers are split into stripes of chunk rows that are computed in
+ * parallel on the common {@link java.util.concurrent.ForkJoinPool}, the stripes and result buffers are reused between
+ * steps.<br>
+ * <br>
+ * The chunks whose fluid changed are marked dirty for the {@link LevelAutosave} and the changed cells are recorded in
+ * the {@link LevelJournal}, so fluid levels survive a reload.<br>
+ * <br>
+ * Lava that touches water cools into {@link Tiles#ROCK_WALL}.<br>
+ * <br>
+ * Not thread safe.
+ */
+final class FluidSimulation {
+    /**
+     * The kind of a cell without fluid.
+     */
+    static final byte NONE = 0;
+
+    /**
+     * The kind of a cell with water.
+     */
+    static final byte WATER = 1;
+
+    /**
+     * The kind of a cell with lava.
+     */
+    static final byte LAVA = 2;
+
+    /**
+     * The fluid level of a full cell, placed fluid tiles start out full.
+     */
+    static final int MAX_LEVEL = 64;
+
+    /**
+     * The fraction of the level difference between two cells that flows per step.
+     */
+    private static final int FLOW_DIVISOR = 5;
+
+    /**
+     * The level at which a cell turns into a fluid tile, shallower cells stay floor.
+     */
+    private static final int WET_LEVEL = 8;
+
+    /**
+     * The amount of frontier chunks required before the work is split across threads.
+     */
+    private static final int PARALLEL_THRESHOLD = 16;
+
+    /**
+     * The level that owns this simulation.
+     */
+    @NotNull
+    private final Level level;
+
+    /**
+     * The tiles of the level, only read during a step.
+     */
+    private final Tile @NotNull [] tiles;
+
+    private final int width;
+    private final int height;
+    private final int chunkWidth;
+    private final int chunkHeight;
+
+    /**
+     * The current fluid kind of every cell.
+     */
+    private final byte @NotNull [] kinds;
+
+    /**
+     * The current fluid level of every cell, unsigned.
+     */
+    private final byte @NotNull [] levels;
+
+    /**
+     * The fluid kind of every cell after the current step.
+     */
+    private final byte @NotNull [] nextKinds;
+
+    /**
+     * The fluid level of every cell after the current step.
+     */
+    private final byte @NotNull [] nextLevels;
+
+    /**
+     * The chunks that are part of the frontier.
+     */
+    private final boolean @NotNull [] dirty;
+
+    /**
+     * The indices of the chunks on the frontier.
+     */
+    @NotNull
+    private IntArrayList frontier = new IntArrayList();
+
+    /**
+     * The frontier of the step that is being computed, swapped with {@link #frontier} every step.
+     */
+    @NotNull
+    private IntArrayList computing = new IntArrayList();
+
+    /**
+     * Every stripe a step can be split into, by stripe index.
+     */
+    private final Stripe @NotNull [] stripes;
+
+    /**
+     * The stripes that have chunks in the current step.
+     */
+    @NotNull
+    private final List<Stripe> activeStripes = new ArrayList<>();
+
+    /**
+     * The packed positions of the tiles that need to be replaced after the current step.
+     */
+    @NotNull
+    private final LongArrayList positions = new LongArrayList();
+
+    /**
+     * The replacement tiles, parallel to {@link #positions}.
+     */
+    @NotNull
+    private final List<Tile> replacements = new ArrayList<>();
+
+    /**
+     * The indices of the cells whose fluid changed in the current step.
+     */
+    @NotNull
+    private final IntArrayList changedCells = new IntArrayList();
+
+    /**
+     * The work and results of a stripe of chunks.
+     */
+    private final class Stripe extends RecursiveAction {
+        /**
+         * The chunks of this stripe.
+         */
+        private final IntArrayList chunks = new IntArrayList();
+
+        /**
+         * The chunks that had any cell change.
+         */
+        private final IntArrayList changed = new IntArrayList();
+
+        /**
+         * The indices of the cells whose fluid kind or level changed.
+         */
+        private final IntArrayList cells = new IntArrayList();
+
+        /**
+         * The packed positions of the tiles that need to be replaced.
+         */
+        private final LongArrayList positions = new LongArrayList();
+
+        /**
+         * The replacement tiles, parallel to {@link #positions}.
+         */
+        private final List<Tile> replacements = new ArrayList<>();
+
+        @Override
+        protected void compute() {
+            step(this);
+        }
+
+        /**
+         * Clears the results of the previous step and makes the task runnable again.
+         */
+        private void reset() {
+            chunks.clear();
+            changed.clear();
+            cells.clear();
+            positions.clear();
+            replacements.clear();
+            reinitialize();
+        }
+    }
+
+    /**
+     * Creates a new fluid simulation for a level.
+     *
+     * @param level The level that owns the simulation
+     * @param tiles The tile storage of the level
+     * @param width The width of the level
+     * @param height The height of the level
+     */
+    FluidSimulation(@NotNull Level level, Tile @NotNull [] tiles, int width, int height) {
+        this.level = level;
+        this.tiles = tiles;
+        this.width = width;
+        this.height = height;
+        chunkWidth = Math.max(level.chunkWidth(), 1);
+        chunkHeight = Math.max(level.chunkHeight(), 1);
+
+        var size = width * height;
+        kinds = new byte[size];
+        levels = new byte[size];
+        nextKinds = new byte[size];
+        nextLevels = new byte[size];
+        dirty = new boolean[chunkWidth * chunkHeight];
+
+        stripes = new Stripe[Math.min(Runtime.getRuntime().availableProcessors(), chunkHeight)];
+        for(int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Updates the fluid of a cell after its tile was replaced from outside of the simulation. Fluid tiles become full
+     * cells, any other tile removes the fluid.
+     *
+     * @param x The X position of the tile
+     * @param y The Y position of the tile
+     * @param tile The new tile
+     */
+    void tileChanged(int x, int y, @NotNull Tile tile) {
+        var index = x + y * width;
+        byte kind;
+        int amount;
+        if(tile == Tiles.WATER) {
+            kind = WATER;
+            amount = MAX_LEVEL;
+        } else if(tile == Tiles.LAVA) {
+            kind = LAVA;
+            amount = MAX_LEVEL;
+        } else {
+            kind = NONE;
+            amount = 0;
+        }
+
+        kinds[index] = kind;
+        levels[index] = (byte) amount;
+        // Even without fluid the neighbors need to be checked, this tile may have opened up a path for them
+        markDirty(Level.toChunk(x), Level.toChunk(y));
+    }
+
+    /**
+     * Restores the fluid of a cell from a save or the journal, the tile has to be restored before.
+     *
+     * @param x The X position of the cell
+     * @param y The Y position of the cell
+     * @param kind The fluid kind
+     * @param amount The fluid level, between 0 and {@link #MAX_LEVEL}
+     */
+    void restore(int x, int y, byte kind, int amount) {
+        var index = x + y * width;
+        kinds[index] = kind;
+        levels[index] = (byte) amount;
+        markDirty(Level.toChunk(x), Level.toChunk(y));
+    }
+
+    /**
+     * Copies the fluid of a chunk, cells outside of the level are left alone.
+     *
+     * @param chunkX The X position of the chunk
+     * @param chunkY The Y position of the chunk
+     * @param fluids The array to copy into, the kinds of the cells followed by their levels, indexed by the local
+     *               position in the chunk
+     * @return True if any cell of the chunk has fluid
+     */
+    boolean copyChunk(int chunkX, int chunkY, byte @NotNull [] fluids) {
+        var area = Level.CHUNK_SIZE * Level.CHUNK_SIZE;
+        var minX = Level.fromChunk(chunkX);
+        var minY = Level.fromChunk(chunkY);
+        var length = Math.min(Level.CHUNK_SIZE, width - minX);
+        var any = false;
+        for(int y = minY, maxY = Math.min(minY + Level.CHUNK_SIZE, height); y < maxY; y++) {
+            var offset = minX + y * width;
+            var local = (y - minY) << Level.CHUNK_SHIFT;
+            System.arraycopy(kinds, offset, fluids, local, length);
+            System.arraycopy(levels, offset, fluids, area + local, length);
+            for(int i = 0; i < length && !any; i++) {
+                any = levels[offset + i] != 0;
+            }
+        }
+        return any;
+    }
+
+    /**
+     * Gets the width of the level, used to convert cell indices back into positions.
+     *
+     * @return The width of the level
+     */
+    int width() {
+        return width;
+    }
+
+    /**
+     * Gets the fluid kind of a cell.
+     *
+     * @param x The X position of the cell
+     * @param y The Y position of the cell
+     * @return The fluid kind, {@link #NONE} if there is no fluid
+     */
+    byte kind(int x, int y) {
+        return kinds[x + y * width];
+    }
+
+    /**
+     * Gets the fluid level of a cell.
+     *
+     * @param x The X position of the cell
+     * @param y The Y position of the cell
+     * @return The fluid level, between 0 and {@link #MAX_LEVEL}
+     */
+    int level(int x, int y) {
+        return levels[x + y * width] & 0xFF;
+    }
+
+    /**
+     * Gets the amount of chunks that will be computed during the next step.
+     *
+     * @return The size of the frontier
+     */
+    int frontierSize() {
+        return frontier.size();
+    }
+
+    /**
+     * Adds a chunk and its neighbors to the frontier.
+     *
+     * @param chunkX The X position of the chunk
+     * @param chunkY The Y position of the chunk
+     */
+    private void markDirty(int chunkX, int chunkY) {
+        for(int y = Math.max(chunkY - 1, 0), maxY = Math.min(chunkY + 1, chunkHeight - 1); y <= maxY; y++) {
+            for(int x = Math.max(chunkX - 1, 0), maxX = Math.min(chunkX + 1, chunkWidth - 1); x <= maxX; x++) {
+                var chunk = x + y * chunkWidth;
+                if(!dirty[chunk]) {
+                    dirty[chunk] = true;
+                    frontier.add(chunk);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a single step of the simulation and applies the resulting tile changes to the level.
+     */
+    void tick() {
+        if(frontier.isEmpty()) {
+            return;
+        }
+
+        var chunks = frontier;
+        frontier = computing;
+        computing = chunks;
+        frontier.clear();
+        for(int i = 0, size = chunks.size(); i < size; i++) {
+            dirty[chunks.getInt(i)] = false;
+        }
+
+        split(chunks);
+        if(activeStripes.size() == 1) {
+            step(activeStripes.getFirst());
+        } else {
+            // The stripes are pure computation, so they run on the platform threads of the common pool
+            ForkJoinTask.invokeAll(activeStripes);
+        }
+
+        // Everything was computed from the old values, now it is safe to publish the new ones
+        positions.clear();
+        replacements.clear();
+        changedCells.clear();
+        for(var stripe : activeStripes) {
+            for(int i = 0, size = stripe.chunks.size(); i < size; i++) {
+                commit(stripe.chunks.getInt(i));
+            }
+            for(int i = 0, size = stripe.changed.size(); i < size; i++) {
+                var chunk = stripe.changed.getInt(i);
+                var chunkX = chunk % chunkWidth;
+                var chunkY = chunk / chunkWidth;
+                markDirty(chunkX, chunkY);
+                level.fluidChunkChanged(chunkX, chunkY);
+            }
+            positions.addAll(stripe.positions);
+            replacements.addAll(stripe.replacements);
+            changedCells.addAll(stripe.cells);
+        }
+
+        if(!positions.isEmpty()) {
+            level.fluidTiles(positions, replacements);
+        }
+        if(!changedCells.isEmpty()) {
+            // After the tiles, replaying a tile record resets the fluid of the cell
+            level.journal().ifPresent((journal) -> journal.fluidsChanged(this, changedCells));
+        }
+    }
+
+    /**
+     * Splits the frontier into stripes of whole chunk rows, the stripes with chunks end up in {@link #activeStripes}.
+     *
+     * @param chunks The chunks on the frontier
+     */
+    private void split(@NotNull IntArrayList chunks) {
+        activeStripes.clear();
+        if(chunks.size() < PARALLEL_THRESHOLD) {
+            var stripe = stripes[0];
+            stripe.reset();
+            stripe.chunks.addAll(chunks);
+            activeStripes.add(stripe);
+            return;
+        }
+
+        for(var stripe : stripes) {
+            stripe.reset();
+        }
+        var rowsPerStripe = (chunkHeight + stripes.length - 1) / stripes.length;
+        for(int i = 0, size = chunks.size(); i < size; i++) {
+            var chunk = chunks.getInt(i);
+            stripes[(chunk / chunkWidth) / rowsPerStripe].chunks.add(chunk);
+        }
+        for(var stripe : stripes) {
+            if(!stripe.chunks.isEmpty()) {
+                activeStripes.add(stripe);
+            }
+        }
+    }
+
+    /**
+     * Computes the next values of every cell in a stripe, only the next arrays and the stripe are written.
+     *
+     * @param stripe The stripe to compute
+     */
+    private void step(@NotNull Stripe stripe) {
+        for(int i = 0, size = stripe.chunks.size(); i < size; i++) {
+            var chunk = stripe.chunks.getInt(i);
+            var minX = Level.fromChunk(chunk % chunkWidth);
+            var minY = Level.fromChunk(chunk / chunkWidth);
+            var maxX = Math.min(minX + Level.CHUNK_SIZE, width);
+            var maxY = Math.min(minY + Level.CHUNK_SIZE, height);
+
+            var changed = false;
+            for(int y = minY; y < maxY; y++) {
+                for(int x = minX; x < maxX; x++) {
+                    changed |= stepCell(stripe, x, y);
+                }
+            }
+            if(changed) {
+                stripe.changed.add(chunk);
+            }
+        }
+    }
+
+    /**
+     * Computes the next value of a single cell.
+     *
+     * @param stripe The stripe the cell belongs to
+     * @param x The X position of the cell
+     * @param y The Y position of the cell
+     * @return True if the cell changed
+     */
+    private boolean stepCell(@NotNull Stripe stripe, int x, int y) {
+        var index = x + y * width;
+        var current = levels[index] & 0xFF;
+        var kind = kinds[index];
+
+        if(!isOpen(index)) {
+            nextKinds[index] = NONE;
+            nextLevels[index] = 0;
+            if(current != 0) {
+                stripe.cells.add(index);
+                return true;
+            }
+            return false;
+        }
+
+        Tile replacement;
+        byte nextKind;
+        int amount;
+        if(solidifies(index)) {
+            nextKind = NONE;
+            amount = 0;
+            replacement = Tiles.ROCK_WALL;
+        } else {
+            amount = current;
+            int waterIn = 0;
+            int lavaIn = 0;
+            for(int side = 0; side < 4; side++) {
+                var neighbor = neighbor(x, y, side);
+                if(neighbor == -1) {
+                    continue;
+                }
+                amount -= flow(index, neighbor);
+                var inflow = flow(neighbor, index);
+                if(inflow > 0) {
+                    if(kinds[neighbor] == WATER) {
+                        waterIn += inflow;
+                    } else {
+                        lavaIn += inflow;
+                    }
+                }
+            }
+
+            if(waterIn > 0 && lavaIn > 0) {
+                // Only empty cells can receive both, the fluids mix and cool down
+                nextKind = NONE;
+                amount = 0;
+                replacement = Tiles.ROCK_WALL;
+            } else {
+                amount = Math.min(amount + waterIn + lavaIn, MAX_LEVEL);
+                if(amount == 0) {
+                    nextKind = NONE;
+                } else if(current != 0) {
+                    nextKind = kind;
+                } else {
+                    nextKind = waterIn > 0 ? WATER : LAVA;
+                }
+                replacement = tileFor(nextKind, amount);
+            }
+        }
+
+        nextKinds[index] = nextKind;
+        nextLevels[index] = (byte) amount;
+
+        var tileChanged = tiles[index] != replacement;
+        if(tileChanged) {
+            stripe.positions.add(TilePos.pack(x, y));
+            stripe.replacements.add(replacement);
+        }
+        // Cells whose tile changed are recorded too, replaying the tile resets their fluid
+        var changed = tileChanged || nextKind != kind || amount != current;
+        if(changed) {
+            stripe.cells.add(index);
+        }
+        return changed;
+    }
+
+    /**
+     * Copies the next values of a chunk into the current arrays.
+     *
+     * @param chunk The index of the chunk
+     */
+    private void commit(int chunk) {
+        var minX = Level.fromChunk(chunk % chunkWidth);
+        var minY = Level.fromChunk(chunk / chunkWidth);
+        var length = Math.min(Level.CHUNK_SIZE, width - minX);
+        for(int y = minY, maxY = Math.min(minY + Level.CHUNK_SIZE, height); y < maxY; y++) {
+            var offset = minX + y * width;
+            System.arraycopy(nextKinds, offset, kinds, offset, length);
+            System.arraycopy(nextLevels, offset, levels, offset, length);
+        }
+    }
+
+    /**
+     * Gets the index of a neighboring cell.
+     *
+     * @param x The X position of the cell
+     * @param y The Y position of the cell
+     * @param side The side, 0 to 3
+     * @return The index of the neighbor or -1 if it is outside of the level
+     */
+    private int neighbor(int x, int y, int side) {
+        switch(side) {
+            case 0 -> x--;
+            case 1 -> x++;
+            case 2 -> y--;
+            default -> y++;
+        }
+        if(x < 0 || y < 0 || x >= width || y >= height) {
+            return -1;
+        }
+        return x + y * width;
+    }
+
+    /**
+     * Checks if fluid can occupy a cell.
+     *
+     * @param index The index of the cell
+     * @return True if fluid can occupy the cell
+     */
+    private boolean isOpen(int index) {
+        var tile = tiles[index];
+        return tile == Tiles.FLOOR || tile == Tiles.WATER || tile == Tiles.LAVA;
+    }
+
+    /**
+     * Checks if a cell contains lava that is touching water.
+     *
+     * @param index The index of the cell
+     * @return True if the cell turns into a wall this step
+     */
+    private boolean solidifies(int index) {
+        if(kinds[index] != LAVA || levels[index] == 0) {
+            return false;
+        }
+
+        var x = index % width;
+        var y = index / width;
+        for(int side = 0; side < 4; side++) {
+            var neighbor = neighbor(x, y, side);
+            if(neighbor != -1 && kinds[neighbor] == WATER && levels[neighbor] != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes how much fluid flows from one cell into a neighboring cell this step.
+     *
+     * @param from The index of the source cell
+     * @param to The index of the destination cell
+     * @return The amount of fluid that flows
+     */
+    private int flow(int from, int to) {
+        var fromLevel = levels[from] & 0xFF;
+        if(fromLevel == 0 || !isOpen(to) || !isOpen(from)) {
+            return 0;
+        }
+
+        var toLevel = levels[to] & 0xFF;
+        if(toLevel >= fromLevel || (toLevel != 0 && kinds[to] != kinds[from])) {
+            return 0;
+        }
+        if(solidifies(from)) {
+            return 0;
+        }
+        return (fromLevel - toLevel) / FLOW_DIVISOR;
+    }
+
+    /**
+     * Gets the tile a cell should be displayed as.
+     *
+     * @param kind The fluid kind of the cell
+     * @param amount The fluid level of the cell
+     * @return The tile for the cell
+     */
+    @NotNull
+    private static Tile tileFor(byte kind, int amount) {
+        if(amount < WET_LEVEL) {
+            return Tiles.FLOOR;
+        }
+        return kind == LAVA ? Tiles.LAVA : Tiles.WATER;
+    }
+}
@@ -4,27 +4,53 @@ import it.unimi.dsi.fastutil.longs.Long2IntMap;
 import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMaps;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2LongOpenHashMap;
 import net.gudenau.cavegame.actor.Actor;
+import net.gudenau.cavegame.actor.ActorStore;
 import net.gudenau.cavegame.actor.ResourceActor;
 import net.gudenau.cavegame.ai.JobManager;
+import net.gudenau.cavegame.material.Material;
 import net.gudenau.cavegame.tile.MineableTile;
 import net.gudenau.cavegame.tile.Tile;
 import net.gudenau.cavegame.tile.Tiles;
+import net.gudenau.cavegame.tile.state.StoreRoomState;
 import net.gudenau.cavegame.tile.state.TileState;
 import net.gudenau.cavegame.tile.state.TileWithState;
 import net.gudenau.cavegame.util.LockedRandom;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.random.RandomGenerator;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * Contains all of the tiles and actors of a game.
  */
 public final class Level {
+    /**
+     * The amount of bits to shift a tile coordinate by to get the coordinate of the chunk that contains it.
+     */
+    public static final int CHUNK_SHIFT = 4;
+
+    /**
+     * The width and height (in tiles) of a chunk.
+     */
+    public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    /**
+     * The mask used to get the position of a tile inside of its chunk.
+     */
+    public static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
     /**
      * The width (in tiles) of this level.
      */
@@ -41,6 +67,12 @@ public final class Level {
     @NotNull
     private final Tile @NotNull [] tiles;
 
+    /**
+     * The index of where every {@link Tile} is in this level.
+     */
+    @NotNull
+    private final TileIndex tileIndex;
+
     /**
      * The actors in this level.
      */
@@ -53,6 +85,129 @@ public final class Level {
     @NotNull
     private final Set<@NotNull Actor> pendingActors = new HashSet<>();
 
+    /**
+     * The last {@link ResourceActor} spawned on each tile this tick, keyed by {@link TilePos#asLong()}. Pending actors
+     * are not in the {@link #actorIndex} yet, this lets {@link #dropResources(TilePos, Object2IntMap)} merge into them.
+     */
+    @NotNull
+    private final Long2ObjectMap<@NotNull ResourceActor> pendingPiles = new Long2ObjectOpenHashMap<>();
+
+    /**
+     * A read-only view of both {@link #actors} and {@link #pendingActors}.
+     */
+    @NotNull
+    private final Set<@NotNull Actor> actorsView = new AbstractSet<>() {
+        @Override
+        public boolean contains(Object o) {
+            return actors.contains(o) || pendingActors.contains(o);
+        }
+
+        @NotNull
+        @Override
+        public Iterator<Actor> iterator() {
+            var live = Collections.unmodifiableSet(actors).iterator();
+            var pending = Collections.unmodifiableSet(pendingActors).iterator();
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return live.hasNext() || pending.hasNext();
+                }
+
+                @Override
+                public Actor next() {
+                    return live.hasNext() ? live.next() : pending.next();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return actors.size() + pendingActors.size();
+        }
+    };
+
+    /**
+     * The ids of the actors in this level, they identify actors in saves and in the journal.
+     */
+    @NotNull
+    private final Reference2LongOpenHashMap<Actor> actorIds = new Reference2LongOpenHashMap<>();
+
+    /**
+     * The id of the next spawned {@link Actor}.
+     */
+    private long nextActorId = 0;
+
+    /**
+     * The backing storage of the state of every actor in this level, including pending actors.
+     */
+    @NotNull
+    private final ActorStore actorStore;
+
+    /**
+     * The spatial index of the actors in this level, pending actors are not included.
+     */
+    @NotNull
+    private final ActorIndex actorIndex;
+
+    /**
+     * Tracks which chunks have something going on in them, systems skip work in sleeping chunks.
+     */
+    @NotNull
+    private final ChunkActivity chunkActivity;
+
+    /**
+     * The scheduled tile updates.
+     */
+    @NotNull
+    private final TickScheduler tickScheduler = new TickScheduler();
+
+    /**
+     * The fluid simulation for water and lava.
+     */
+    @NotNull
+    private final FluidSimulation fluids;
+
+    /**
+     * The tiles that changed during the current tick.
+     */
+    @NotNull
+    private final TileChanges tileChanges = new TileChanges();
+
+    /**
+     * The listeners that are notified about tile changes at the end of every tick.
+     */
+    @NotNull
+    private final List<TileChangeListener> tileChangeListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Builds the snapshots of this level.
+     */
+    @NotNull
+    private final SnapshotPublisher snapshotPublisher;
+
+    /**
+     * The latest published snapshot of this level.
+     */
+    @NotNull
+    private volatile LevelSnapshot snapshot;
+
+    /**
+     * The amount of ticks this level has run for.
+     */
+    private long tickCount = 0;
+
+    /**
+     * The autosave of this level, null if autosaving is disabled.
+     */
+    @Nullable
+    private LevelAutosave autosave;
+
+    /**
+     * The mutation journal of this level, null if journaling is disabled.
+     */
+    @Nullable
+    private LevelJournal journal;
+
     /**
      * Any extra state the tiles need.
      */
@@ -72,7 +227,7 @@ public final class Level {
     private final RandomGenerator random = new LockedRandom();
 
     @NotNull
-    private final JobManager jobManager = new JobManager();
+    private final JobManager jobManager = new JobManager(this);
 
     private final Pathfinder pathfinder = new Pathfinder(this);
 
@@ -83,11 +238,53 @@ public final class Level {
      * @param height The height of the level
      */
     public Level(int width, int height) {
+        this(width, height, true);
+    }
+
+    /**
+     * Creates a new level with the provided size that is filled with {@link Tiles#BEDROCK}.
+     *
+     * @param width The width of the level
+     * @param height The height of the level
+     * @param batchedActors False to tick every {@link Actor} on its own instead of through the {@link ActorStore} systems
+     */
+    public Level(int width, int height, boolean batchedActors) {
         this.width = width;
         this.height = height;
+        actorStore = new ActorStore(this, batchedActors);
 
         tiles = new Tile[width * height];
         Arrays.fill(tiles, Tiles.BEDROCK);
+        tileIndex = new TileIndex(width, height, Tiles.BEDROCK);
+        actorIds.defaultReturnValue(-1);
+        actorIndex = new ActorIndex(chunkWidth(), chunkHeight());
+        chunkActivity = new ChunkActivity(chunkWidth(), chunkHeight());
+        fluids = new FluidSimulation(this, tiles, width, height);
+        tileChangeListeners.add(pathfinder);
+        tileChangeListeners.add(jobManager);
+        snapshotPublisher = new SnapshotPublisher(tiles, width, height, chunkWidth(), chunkHeight());
+        tileChangeListeners.add(snapshotPublisher);
+        snapshot = snapshotPublisher.publish(tickCount, actorStore);
+    }
+
+    /**
+     * Converts a tile coordinate into the coordinate of the chunk that contains it.
+     *
+     * @param coordinate The tile coordinate
+     * @return The chunk coordinate
+     */
+    public static int toChunk(int coordinate) {
+        return coordinate >> CHUNK_SHIFT;
+    }
+
+    /**
+     * Converts a chunk coordinate into the coordinate of the first tile it contains.
+     *
+     * @param coordinate The chunk coordinate
+     * @return The tile coordinate
+     */
+    public static int fromChunk(int coordinate) {
+        return coordinate << CHUNK_SHIFT;
     }
 
     /**
@@ -108,6 +305,24 @@ public final class Level {
         return height;
     }
 
+    /**
+     * Gets the width of this level in chunks, partial chunks are included.
+     *
+     * @return the width of this level in chunks
+     */
+    public int chunkWidth() {
+        return toChunk(width + CHUNK_MASK);
+    }
+
+    /**
+     * Gets the height of this level in chunks, partial chunks are included.
+     *
+     * @return the height of this level in chunks
+     */
+    public int chunkHeight() {
+        return toChunk(height + CHUNK_MASK);
+    }
+
     /**
      * Gets the {@link Tile} at the provided location, returns {@link Tiles#BEDROCK} for invalid coordinates.
      *
@@ -164,38 +379,422 @@ public final class Level {
             return;
         }
 
+        if(replaceTile(x, y, tile) != tile) {
+            fluids.tileChanged(x, y, tile);
+        }
+    }
+
+    /**
+     * Applies the tile changes of a step of the fluid simulation.
+     *
+     * @param positions The packed positions of the tiles to replace
+     * @param replacements The new tiles, parallel to the positions
+     */
+    void fluidTiles(@NotNull LongArrayList positions, @NotNull List<Tile> replacements) {
+        for(int i = 0, size = positions.size(); i < size; i++) {
+            var packed = positions.getLong(i);
+            replaceTile(TilePos.unpackX(packed), TilePos.unpackY(packed), replacements.get(i));
+        }
+    }
+
+    /**
+     * Called by the fluid simulation for every chunk whose fluid changed in a step, wakes the chunk and marks it for the
+     * next save.
+     *
+     * @param chunkX The X position of the chunk
+     * @param chunkY The Y position of the chunk
+     */
+    void fluidChunkChanged(int chunkX, int chunkY) {
+        wake(fromChunk(chunkX), fromChunk(chunkY));
+        if(autosave != null) {
+            autosave.markDirty(chunkX, chunkY);
+        }
+    }
+
+    /**
+     * Restores the fluid of a tile from a save or the journal, the tile has to be restored before. This does nothing
+     * for an out-of-bounds position.
+     *
+     * @param x The X position of the tile
+     * @param y The Y position of the tile
+     * @param kind The fluid kind
+     * @param amount The fluid level
+     */
+    void fluid(int x, int y, byte kind, int amount) {
+        if(x >= 0 && y >= 0 && x < width && y < height) {
+            fluids.restore(x, y, kind, amount);
+        }
+    }
+
+    /**
+     * Copies the fluid of a chunk, used by the autosave.
+     *
+     * @param chunkX The X position of the chunk
+     * @param chunkY The Y position of the chunk
+     * @param fluids The array to copy into, the fluid kinds of the tiles followed by their levels
+     * @return True if any tile of the chunk has fluid
+     */
+    boolean copyFluids(int chunkX, int chunkY, byte @NotNull [] fluids) {
+        return this.fluids.copyChunk(chunkX, chunkY, fluids);
+    }
+
+    /**
+     * Replaces a tile and updates everything that depends on the tile, except for the fluid simulation. The change is
+     * recorded for the {@link TileChangeListener}s.
+     *
+     * @param x The X position of the tile
+     * @param y The Y position of the tile
+     * @param tile The new tile
+     * @return The previous tile
+     */
+    @NotNull
+    private Tile replaceTile(int x, int y, @NotNull Tile tile) {
         int index = x + y * width;
+        var packed = TilePos.pack(x, y);
         var existing = tiles[index];
-        miningProgress.remove(pos.asLong());
+        miningProgress.remove(packed);
+        if(journal != null) {
+            // Also recorded when the tile stays the same, the mining progress still gets reset
+            journal.tileChanged(x, y, tile);
+        }
         if(existing == tile) {
-            return;
+            return existing;
         }
 
         tiles[index] = tile;
+        tileIndex.update(x, y, existing, tile);
+        tileChanges.record(x, y, existing, tile);
 
         if (tile instanceof TileWithState<?> withState) {
-            tileState.put(pos.asLong(), withState.createState());
+            tileState.put(packed, withState.createState());
         } else {
-            tileState.remove(pos.asLong());
+            tileState.remove(packed);
         }
 
-        pathfinder.tileModified(pos, existing, tile);
+        // Changes on the edge of a chunk can affect the neighboring chunks as well
+        for(int offsetY = -1; offsetY <= 1; offsetY += 2) {
+            for(int offsetX = -1; offsetX <= 1; offsetX += 2) {
+                chunkActivity.wake(toChunk(x + offsetX), toChunk(y + offsetY));
+            }
+        }
+        return existing;
     }
 
     /**
      * Ticks everything in this level that requires ticking.
      */
     public void tick() {
+        chunkActivity.tick();
+        tickScheduler.tick(this::scheduledTick);
+        fluids.tick();
         pathfinder.purgeOld();
-        actors.forEach(Actor::tick);
+        jobManager.tick();
+        actorStore.tick();
         actors.addAll(pendingActors);
+        pendingActors.forEach((actor) -> {
+            actorIndex.add(actor);
+            actorStore.activate(actor);
+            wake(actor.tilePos());
+        });
         pendingActors.forEach(Actor::onSpawned);
         pendingActors.clear();
+        pendingPiles.clear();
         actors.stream()
             .filter(Actor::needsRemoval)
             .peek(Actor::removed)
             .toList()
-            .forEach(actors::remove);
+            .forEach((actor) -> {
+                actors.remove(actor);
+                actorIndex.remove(actor);
+                actorStore.release(actor);
+                var id = actorIds.removeLong(actor);
+                if(journal != null) {
+                    journal.actorRemoved(id);
+                }
+            });
+        deliverTileChanges();
+        snapshot = snapshotPublisher.publish(++tickCount, actorStore);
+        if(autosave != null) {
+            autosave.tick();
+        }
+        if(journal != null) {
+            journal.commit();
+        }
+    }
+
+    /**
+     * Gets the amount of ticks this level has run for.
+     *
+     * @return The amount of ticks
+     */
+    public long tickCount() {
+        return tickCount;
+    }
+
+    /**
+     * Enables autosaving of this level. The first save writes every chunk, later saves only write the chunks that
+     * changed.
+     *
+     * @param directory The directory to save into
+     * @param interval The amount of ticks between saves
+     * @return The autosave of this level
+     * @throws IllegalStateException If autosaving is already enabled
+     */
+    @NotNull
+    public LevelAutosave enableAutosave(@NotNull Path directory, int interval) {
+        Objects.requireNonNull(directory, "directory can't be null");
+        if(autosave != null) {
+            throw new IllegalStateException("Autosave is already enabled");
+        }
+
+        autosave = new LevelAutosave(this, directory, interval);
+        tileChangeListeners.add(autosave);
+        return autosave;
+    }
+
+    /**
+     * Gets the autosave of this level.
+     *
+     * @return The autosave, empty if autosaving is disabled
+     */
+    @NotNull
+    public Optional<LevelAutosave> autosave() {
+        return Optional.ofNullable(autosave);
+    }
+
+    /**
+     * Enables the mutation journal of this level, any existing journal at the path is discarded. The journal is only
+     * useful together with {@link #enableAutosave(Path, int)}, use {@link LevelJournal#recover(Path, Path)} to load a
+     * level from both. The journal only records what happens after it was enabled, so the level should be saved
+     * right before.
+     *
+     * @param path The journal file
+     * @return The journal of this level
+     * @throws IOException If the journal could not be created
+     * @throws IllegalStateException If journaling is already enabled
+     */
+    @NotNull
+    public LevelJournal enableJournal(@NotNull Path path) throws IOException {
+        Objects.requireNonNull(path, "path can't be null");
+        if(journal != null) {
+            throw new IllegalStateException("Journaling is already enabled");
+        }
+
+        return attachJournal(LevelJournal.create(this, path));
+    }
+
+    /**
+     * Sets the journal of this level, used by {@link LevelJournal#recover(Path, Path)}.
+     *
+     * @param journal The journal
+     * @return The journal
+     */
+    @NotNull
+    LevelJournal attachJournal(@NotNull LevelJournal journal) {
+        this.journal = journal;
+        return journal;
+    }
+
+    /**
+     * Gets the mutation journal of this level.
+     *
+     * @return The journal, empty if journaling is disabled
+     */
+    @NotNull
+    public Optional<LevelJournal> journal() {
+        return Optional.ofNullable(journal);
+    }
+
+    /**
+     * Marks a tile as modified for systems that track changes, like the autosave. Tile replacements and mining are
+     * tracked automatically, this is only required after modifying a {@link TileState}.
+     *
+     * @param pos The position of the modified tile
+     */
+    public void markDirty(@NotNull TilePos pos) {
+        if(autosave != null && inBounds(pos)) {
+            autosave.markDirty(toChunk(pos.x()), toChunk(pos.y()));
+        }
+    }
+
+    /**
+     * Gets the mining progress of a tile.
+     *
+     * @param packed The packed position of the tile
+     * @return The mining progress
+     */
+    int miningProgress(long packed) {
+        return miningProgress.get(packed);
+    }
+
+    /**
+     * Restores the mining progress of a tile.
+     *
+     * @param packed The packed position of the tile
+     * @param progress The mining progress
+     */
+    void miningProgress(long packed, int progress) {
+        miningProgress.put(packed, progress);
+    }
+
+    /**
+     * Gets the mining progress of every tile that is being mined, used by the autosave. Must not be modified.
+     *
+     * @return The mining progress of the tiles
+     */
+    @NotNull
+    Long2IntMap miningProgress() {
+        return miningProgress;
+    }
+
+    /**
+     * Gets the state of every tile that has state, used by the autosave. Must not be modified.
+     *
+     * @return The tile states
+     */
+    @NotNull
+    Long2ObjectMap<TileState> tileStates() {
+        return tileState;
+    }
+
+    /**
+     * Delivers the tile changes that were made outside of a tick, like while generating or loading this level, and
+     * publishes a snapshot that contains them. Does nothing if no tiles changed since the last tick.
+     */
+    void publishSnapshot() {
+        if(tileChanges.size() == 0) {
+            return;
+        }
+        deliverTileChanges();
+        snapshot = snapshotPublisher.publish(tickCount, actorStore);
+    }
+
+    /**
+     * Delivers the tile changes of this tick to the listeners.
+     */
+    private void deliverTileChanges() {
+        if(tileChanges.prepare()) {
+            for(var listener : tileChangeListeners) {
+                listener.tilesChanged(this, tileChanges);
+            }
+        }
+        tileChanges.clear();
+    }
+
+    /**
+     * Gets the latest snapshot of this level, a new snapshot is published at the end of every tick. Thread safe.
+     *
+     * @return The latest snapshot
+     */
+    @NotNull
+    public LevelSnapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Acquires the latest snapshot of this level, the actors of a snapshot can only be read while it is acquired. The
+     * snapshot has to be closed once the caller is done with it. Thread safe.
+     *
+     * @return The latest snapshot
+     */
+    @NotNull
+    public LevelSnapshot acquireSnapshot() {
+        while(true) {
+            var snapshot = this.snapshot;
+            // Fails if a newer snapshot was published and the last reader released this one in the meantime
+            if(snapshot.retain()) {
+                return snapshot;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Registers a listener that is notified about the tiles that changed at the end of every tick.
+     *
+     * @param listener The listener to add
+     */
+    public void addTileChangeListener(@NotNull TileChangeListener listener) {
+        Objects.requireNonNull(listener, "listener can't be null");
+        tileChangeListeners.add(listener);
+    }
+
+    /**
+     * Removes a listener that was registered with {@link #addTileChangeListener(TileChangeListener)}.
+     *
+     * @param listener The listener to remove
+     */
+    public void removeTileChangeListener(@NotNull TileChangeListener listener) {
+        tileChangeListeners.remove(listener);
+    }
+
+    /**
+     * Schedules an update for a tile, the update invokes {@link TileWithState#scheduledTick(Level, TilePos, TileState)}
+     * if the tile at the position still has state by then.<br>
+     * <br>
+     * Every tile can only have a single pending update, if there is already an earlier update for the tile this does
+     * nothing. This does nothing for an out-of-bounds position.
+     *
+     * @param pos The position of the tile
+     * @param delay The amount of ticks until the update, values less than 1 are treated as 1
+     * @param priority The priority of the update, updates that are due on the same tick run in ascending priority
+     * @return True if the update was scheduled
+     */
+    public boolean scheduleTick(@NotNull TilePos pos, int delay, int priority) {
+        if(!inBounds(pos)) {
+            return false;
+        }
+        return tickScheduler.schedule(pos.asLong(), delay, priority);
+    }
+
+    /**
+     * Gets the fluid level of a tile, tiles turn into {@link Tiles#WATER} or {@link Tiles#LAVA} once their fluid level
+     * is high enough.
+     *
+     * @param pos The position of the tile
+     * @return The fluid level, 0 for tiles without fluid or out-of-bounds positions
+     */
+    public int fluidLevel(@NotNull TilePos pos) {
+        return inBounds(pos) ? fluids.level(pos.x(), pos.y()) : 0;
+    }
+
+    /**
+     * Checks if a tile has a pending scheduled update.
+     *
+     * @param pos The position of the tile
+     * @return True if an update is pending
+     */
+    public boolean isTickScheduled(@NotNull TilePos pos) {
+        return tickScheduler.isScheduled(pos.asLong());
+    }
+
+    /**
+     * Gets the amount of pending scheduled updates in this level.
+     *
+     * @return The amount of pending updates
+     */
+    public int scheduledTickCount() {
+        return tickScheduler.size();
+    }
+
+    /**
+     * Runs a scheduled update that is due.
+     *
+     * @param packed The packed position of the tile
+     */
+    private void scheduledTick(long packed) {
+        var pos = new TilePos(packed);
+        var tile = tiles[pos.x() + pos.y() * width];
+        var state = tileState.get(packed);
+        if(tile instanceof TileWithState<?> withState && state != null) {
+            wake(pos);
+            scheduledTick(withState, pos, state);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends TileState> void scheduledTick(@NotNull TileWithState<T> tile, @NotNull TilePos pos, @NotNull TileState state) {
+        tile.scheduledTick(this, pos, (T) state);
     }
 
     /**
@@ -204,18 +803,228 @@ public final class Level {
      */
     public void spawn(@NotNull Actor actor) {
         Objects.requireNonNull(actor, "actor can't be null");
-        pendingActors.add(actor);
+        spawn(actor, nextActorId);
     }
 
     /**
-     * Gets all {@link Actor}s currently in this level.
+     * Spawns an {@link Actor} with a specific id, used when restoring saved actors.
      *
-     * @return An immutable {@link Set<Actor>} of {@link Actor}s
+     * @param actor The actor to spawn
+     * @param id The id of the actor
+     */
+    void spawn(@NotNull Actor actor, long id) {
+        if(actor.level() != this) {
+            throw new IllegalArgumentException("Actor " + actor + " belongs to a different level");
+        }
+        if(!pendingActors.add(actor)) {
+            return;
+        }
+        actorStore.allocate(actor, id);
+        if(actor instanceof ResourceActor pile) {
+            pendingPiles.put(pile.tilePos().asLong(), pile);
+        }
+        actorIds.put(actor, id);
+        nextActorId = Math.max(nextActorId, id + 1);
+        if(journal != null) {
+            journal.actorSpawned(actor, id);
+        }
+    }
+
+    /**
+     * Gets the id of an {@link Actor} in this level.
+     *
+     * @param actor The actor
+     * @return The id of the actor, -1 if it is not in this level
+     */
+    long actorId(@NotNull Actor actor) {
+        return actorIds.getLong(actor);
+    }
+
+    /**
+     * Gets the id the next spawned {@link Actor} will get.
+     *
+     * @return The next id
+     */
+    long nextActorId() {
+        return nextActorId;
+    }
+
+    /**
+     * Restores the id the next spawned {@link Actor} will get, ids are never reused.
+     *
+     * @param nextActorId The next id
      */
+    void nextActorId(long nextActorId) {
+        this.nextActorId = Math.max(this.nextActorId, nextActorId);
+    }
+
+    /**
+     * Gets all {@link Actor}s currently in this level, including ones that are pending.
+     *
+     * @return A read-only view of the {@link Actor}s in this level
+     */
+    @NotNull
     public Set<Actor> actors() {
-        return Stream.of(actors, pendingActors)
-            .flatMap(Collection::stream)
-            .collect(Collectors.toUnmodifiableSet());
+        return actorsView;
+    }
+
+    /**
+     * Updates the spatial index after an {@link Actor} has moved, called by the {@link Actor} itself.
+     *
+     * @param actor The {@link Actor} that moved
+     * @param oldX The previous X position of the {@link Actor}
+     * @param oldY The previous Y position of the {@link Actor}
+     */
+    public void actorMoved(@NotNull Actor actor, double oldX, double oldY) {
+        actorIndex.move(actor, oldX, oldY);
+        if(journal != null) {
+            journal.actorMoved(actor);
+        }
+        wake((int) Math.floor(actor.x()), (int) Math.floor(actor.y()));
+    }
+
+    /**
+     * Wakes the chunk that contains a tile, the chunk will become active on the next tick. Thread safe.
+     *
+     * @param pos The tile that had something happen to it
+     */
+    public void wake(@NotNull TilePos pos) {
+        wake(pos.x(), pos.y());
+    }
+
+    /**
+     * Wakes the chunk that contains a tile, the chunk will become active on the next tick. Thread safe.
+     *
+     * @param x The X position of the tile
+     * @param y The Y position of the tile
+     */
+    public void wake(int x, int y) {
+        chunkActivity.wake(toChunk(x), toChunk(y));
+    }
+
+    /**
+     * Checks if the chunk that contains a tile is active. Tiles and idle {@link Actor}s in sleeping chunks are not
+     * ticked.
+     *
+     * @param x The X position of the tile
+     * @param y The Y position of the tile
+     * @return True if the chunk is active, false if it is sleeping or out of bounds
+     */
+    public boolean isAwake(int x, int y) {
+        return chunkActivity.isActive(toChunk(x), toChunk(y));
+    }
+
+    /**
+     * Gets the amount of active chunks in this level.
+     *
+     * @return The amount of active chunks
+     */
+    public int activeChunkCount() {
+        return chunkActivity.activeCount();
+    }
+
+    /**
+     * Gets the amount of chunks in this level, active or not.
+     *
+     * @return The amount of chunks
+     */
+    public int chunkCount() {
+        return chunkActivity.totalCount();
+    }
+
+    /**
+     * Invokes an action for every active chunk in this level, in no particular order.
+     *
+     * @param action The action to invoke
+     */
+    public void forEachActiveChunk(@NotNull ChunkConsumer action) {
+        Objects.requireNonNull(action, "action can't be null");
+        chunkActivity.forEachActive(action);
+    }
+
+    /**
+     * Invokes an action for every {@link Actor} standing on a tile.
+     *
+     * @param pos The tile to query
+     * @param action The action to invoke
+     */
+    public void forEachActorInTile(@NotNull TilePos pos, @NotNull Consumer<? super Actor> action) {
+        forEachActorInTile(pos, Actor.class, action);
+    }
+
+    /**
+     * Invokes an action for every {@link Actor} of a specific type standing on a tile.
+     *
+     * @param pos The tile to query
+     * @param type The type of {@link Actor} to visit
+     * @param action The action to invoke
+     * @param <T> The type of {@link Actor} to visit
+     */
+    public <T extends Actor> void forEachActorInTile(@NotNull TilePos pos, @NotNull Class<T> type, @NotNull Consumer<? super T> action) {
+        actorIndex.forEachInArea(pos.x(), pos.y(), pos.x(), pos.y(), type, action);
+    }
+
+    /**
+     * Invokes an action for every {@link Actor} standing in a rectangle of tiles.
+     *
+     * @param min The smallest corner of the rectangle, inclusive
+     * @param max The largest corner of the rectangle, inclusive
+     * @param action The action to invoke
+     */
+    public void forEachActorInArea(@NotNull TilePos min, @NotNull TilePos max, @NotNull Consumer<? super Actor> action) {
+        forEachActorInArea(min, max, Actor.class, action);
+    }
+
+    /**
+     * Invokes an action for every {@link Actor} of a specific type standing in a rectangle of tiles.
+     *
+     * @param min The smallest corner of the rectangle, inclusive
+     * @param max The largest corner of the rectangle, inclusive
+     * @param type The type of {@link Actor} to visit
+     * @param action The action to invoke
+     * @param <T> The type of {@link Actor} to visit
+     */
+    public <T extends Actor> void forEachActorInArea(@NotNull TilePos min, @NotNull TilePos max, @NotNull Class<T> type, @NotNull Consumer<? super T> action) {
+        actorIndex.forEachInArea(min.x(), min.y(), max.x(), max.y(), type, action);
+    }
+
+    /**
+     * Invokes an action for every {@link Actor} within a radius of a position.
+     *
+     * @param x The X position of the center
+     * @param y The Y position of the center
+     * @param radius The radius to search
+     * @param action The action to invoke
+     */
+    public void forEachActorInRadius(double x, double y, double radius, @NotNull Consumer<? super Actor> action) {
+        forEachActorInRadius(x, y, radius, Actor.class, action);
+    }
+
+    /**
+     * Invokes an action for every {@link Actor} of a specific type within a radius of a position.
+     *
+     * @param x The X position of the center
+     * @param y The Y position of the center
+     * @param radius The radius to search
+     * @param type The type of {@link Actor} to visit
+     * @param action The action to invoke
+     * @param <T> The type of {@link Actor} to visit
+     */
+    public <T extends Actor> void forEachActorInRadius(double x, double y, double radius, @NotNull Class<T> type, @NotNull Consumer<? super T> action) {
+        actorIndex.forEachInRadius(x, y, radius, type, action);
+    }
+
+    /**
+     * Invokes an action for every {@link Actor} of a specific type in a chunk.
+     *
+     * @param chunkX The X position of the chunk
+     * @param chunkY The Y position of the chunk
+     * @param type The type of {@link Actor} to visit
+     * @param action The action to invoke
+     * @param <T> The type of {@link Actor} to visit
+     */
+    public <T extends Actor> void forEachActorInChunk(int chunkX, int chunkY, @NotNull Class<T> type, @NotNull Consumer<? super T> action) {
+        actorIndex.forEachInChunk(chunkX, chunkY, type, action);
     }
 
     /**
@@ -227,13 +1036,45 @@ public final class Level {
     public Optional<TilePos> findTile(@NotNull Tile tile) {
         Objects.requireNonNull(tile, "tile can't be null");
 
-        //TODO Optimize, this is garbage.
-        for (int i = 0, length = tiles.length; i < length; i++) {
-            if(tiles[i] == tile) {
-                return Optional.of(new TilePos(i % width, i / height));
-            }
-        }
-        return Optional.empty();
+        return tileIndex.find(tile);
+    }
+
+    /**
+     * Checks if this level contains at least one of a specific {@link Tile}.
+     *
+     * @param tile The {@link Tile} to look for
+     * @return True if the {@link Tile} is present, false otherwise
+     */
+    public boolean hasTile(@NotNull Tile tile) {
+        Objects.requireNonNull(tile, "tile can't be null");
+
+        return tileIndex.count(tile) != 0;
+    }
+
+    /**
+     * Counts the instances of a specific {@link Tile} in this level.
+     *
+     * @param tile The {@link Tile} to count
+     * @return The amount of the {@link Tile} in this level
+     */
+    public int tileCount(@NotNull Tile tile) {
+        Objects.requireNonNull(tile, "tile can't be null");
+
+        return tileIndex.count(tile);
+    }
+
+    /**
+     * Counts the instances of a specific {@link Tile} in a chunk of this level.
+     *
+     * @param tile The {@link Tile} to count
+     * @param chunkX The X position of the chunk
+     * @param chunkY The Y position of the chunk
+     * @return The amount of the {@link Tile} in the chunk, 0 for invalid chunks
+     */
+    public int tileCount(@NotNull Tile tile, int chunkX, int chunkY) {
+        Objects.requireNonNull(tile, "tile can't be null");
+
+        return tileIndex.count(tile, chunkX, chunkY);
     }
 
     /**
@@ -270,8 +1111,19 @@ public final class Level {
         return Optional.empty();
     }
 
-    public Optional<TilePos> findNearestTile(TilePos position, Tile tile) {
-        return findNearestTile(position, (other) -> other == tile);
+    /**
+     * Finds the closest instance of a specific {@link Tile} by Manhattan distance, not including the starting position.
+     * This uses the tile index so it does not need to visit every tile between the start and the result.
+     *
+     * @param position The position to start searching from
+     * @param tile The {@link Tile} to look for
+     * @return The {@link TilePos} or empty if the {@link Tile} was not found
+     */
+    public Optional<TilePos> findNearestTile(@NotNull TilePos position, @NotNull Tile tile) {
+        Objects.requireNonNull(position, "position can't be null");
+        Objects.requireNonNull(tile, "tile can't be null");
+
+        return tileIndex.findNearest(position, tile);
     }
 
     /**
@@ -301,16 +1153,87 @@ public final class Level {
         }
 
         var progress = miningProgress.compute(pos.asLong(), (key, prog) -> (prog == null ? 0 : prog) + amount);
+        markDirty(pos);
+        if(journal != null) {
+            journal.miningProgress(pos, progress);
+        }
         if(progress < mineable.hardness()) {
             return;
         }
 
-        tile.resources(random).stream()
-            .map((resource) -> new ResourceActor(resource, pos, this))
-            .forEach(this::spawn);
+        var resources = new Object2IntOpenHashMap<Material>();
+        tile.resources(random).forEach((resource) -> resources.addTo(resource, 1));
+        dropResources(pos, resources);
         tile(pos, mineable.remainingTile());
     }
 
+    /**
+     * Drops resources on a tile. If the tile already contains a resource pile that isn't being carried the resources
+     * are merged into it, otherwise a new pile is spawned.
+     *
+     * @param pos The tile to drop the resources on
+     * @param resources The amount of each resource to drop
+     */
+    public void dropResources(@NotNull TilePos pos, @NotNull Object2IntMap<Material> resources) {
+        Objects.requireNonNull(pos, "pos can't be null");
+        Objects.requireNonNull(resources, "resources can't be null");
+
+        if(resources.isEmpty()) {
+            return;
+        }
+
+        var state = new Object() {
+            @Nullable ResourceActor pile = null;
+        };
+        forEachActorInTile(pos, ResourceActor.class, (pile) -> {
+            if(state.pile == null && !pile.isHeld() && !pile.needsRemoval()) {
+                state.pile = pile;
+            }
+        });
+
+        // Piles spawned earlier this tick are not indexed yet
+        if(state.pile == null) {
+            var pending = pendingPiles.get(pos.asLong());
+            if(pending != null && !pending.isHeld() && !pending.needsRemoval() && pending.tilePos().equals(pos)) {
+                state.pile = pending;
+            }
+        }
+
+        var pile = state.pile;
+        if(pile == null) {
+            pile = new ResourceActor(pos, this);
+            spawn(pile);
+        }
+
+        for(var entry : Object2IntMaps.fastIterable(resources)) {
+            pile.add(entry.getKey(), entry.getIntValue());
+        }
+    }
+
+    /**
+     * Stores resources in a {@link StoreRoomState}, does nothing if the tile has no store room state.
+     *
+     * @param pos The position of the store room
+     * @param resources The amount of each resource to store
+     */
+    public void storeResources(@NotNull TilePos pos, @NotNull Object2IntMap<Material> resources) {
+        Objects.requireNonNull(pos, "pos can't be null");
+        Objects.requireNonNull(resources, "resources can't be null");
+
+        var state = tileState(pos, StoreRoomState.class).orElse(null);
+        if(state == null || resources.isEmpty()) {
+            return;
+        }
+
+        for(var entry : Object2IntMaps.fastIterable(resources)) {
+            state.storeResource(entry.getKey(), entry.getIntValue());
+        }
+        markDirty(pos);
+        if(journal != null) {
+            journal.resourcesStored(pos, state, resources);
+        }
+    }
+
     /**
      * The random instance for this level.
      *
@@ -326,6 +1249,16 @@ public final class Level {
         return jobManager;
     }
 
+    /**
+     * Gets the store that backs the state of the actors in this level.
+     *
+     * @return The actor store of this level
+     */
+    @NotNull
+    public ActorStore actorStore() {
+        return actorStore;
+    }
+
     @NotNull
     public Pathfinder pathfinder() {
         return pathfinder;
@@ -0,0 +1,718 @@
+package net.gudenau.cavegame.level;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntMaps;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.gudenau.cavegame.Registries;
+import net.gudenau.cavegame.logger.Logger;
+import net.gudenau.cavegame.resource.Identifier;
+import net.gudenau.cavegame.tile.Tile;
+import net.gudenau.cavegame.tile.state.TileState;
+import net.gudenau.cavegame.util.ThreadPool;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Incrementally saves a {@link Level} into a directory.<br>
+ * <br>
+ * Chunks are marked dirty when their tiles, tile state, mining progress or fluid change. Every few ticks the dirty
+ * chunks are captured at the tick boundary: their tiles are the copy-on-write chunks of the latest
+ * {@link LevelSnapshot}, only the sparse mining progress, tile state and fluid are copied. The chunks are then serialized, compressed and written on a virtual
+ * thread while the level keeps ticking. A save only costs as much as the chunks that changed since the previous
+ * save.<br>
+ * <br>
+ * Every chunk is stored in its own file that is forced to disk and replaced atomically, a crash during a save leaves
+ * either the old or the new version of a chunk behind. The directory also contains an append-only index: a header that
+ * describes the level followed by a record for every chunk write. The records are appended once the chunks they point
+ * to are durable and loading only reads the chunks that have a record, a torn record at the end is ignored. The index
+ * is compacted into a single record per chunk once it grows too large. The {@link LevelEntities} of the last save are
+ * written last and complete the save. With a
+ * {@link LevelJournal} the entities also record the journal segment that follows the save.<br>
+ * <br>
+ * Not thread safe.
+ */
+public final class LevelAutosave implements TileChangeListener {
+    private static final Logger LOGGER = Logger.forName("Autosave");
+
+    /**
+     * The magic value at the start of the index.
+     */
+    private static final int MAGIC = 0x43415645;
+
+    /**
+     * The version of the save format.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * The name of the index file.
+     */
+    private static final String INDEX = "index.bin";
+
+    /**
+     * The name of the file that stores the actors and jobs.
+     */
+    private static final String ENTITIES = "entities.bin";
+
+    /**
+     * The amount of tiles in a chunk.
+     */
+    private static final int CHUNK_AREA = Level.CHUNK_SIZE * Level.CHUNK_SIZE;
+
+    /**
+     * The size of the header of the index: magic, version, width and height.
+     */
+    private static final int INDEX_HEADER_SIZE = Integer.BYTES * 4;
+
+    /**
+     * The size of a chunk record in the index: the chunk X and Y position.
+     */
+    private static final int INDEX_RECORD_SIZE = Integer.BYTES * 2;
+
+    /**
+     * The index is compacted once it has this many records per chunk of the level.
+     */
+    private static final int INDEX_COMPACT_FACTOR = 4;
+
+    @NotNull
+    private final Level level;
+
+    /**
+     * The directory the level is saved into.
+     */
+    @NotNull
+    private final Path directory;
+
+    /**
+     * The amount of ticks between saves.
+     */
+    private final int interval;
+
+    /**
+     * The chunks that changed since their last save.
+     */
+    private final boolean @NotNull [] dirty;
+
+    /**
+     * The indices of the chunks that changed since their last save.
+     */
+    @NotNull
+    private IntArrayList dirtyChunks = new IntArrayList();
+
+    /**
+     * The save that is currently being written, null if there is none.
+     */
+    @Nullable
+    private CompletableFuture<Void> pending;
+
+    /**
+     * The chunks of the save that is currently being written, they are marked dirty again if the save fails.
+     */
+    @NotNull
+    private IntArrayList pendingChunks = new IntArrayList();
+
+    /**
+     * The amount of ticks until the next save.
+     */
+    private int countdown;
+
+    /**
+     * The chunks that have a record in the index, only used by the save that is being written.
+     */
+    private final boolean @NotNull [] indexed;
+
+    /**
+     * The amount of records in the index, -1 until this autosave wrote its first index. Only used by the save that is
+     * being written.
+     */
+    private int indexRecords = -1;
+
+    /**
+     * The captured contents of a single chunk, safe to use from any thread once the capture is done.
+     */
+    private static final class ChunkCopy {
+        private final int chunkX;
+        private final int chunkY;
+
+        /**
+         * The tiles of the chunk, shared with the snapshot they were taken from.
+         */
+        private final Tile @NotNull [] tiles;
+
+        /**
+         * The local position and progress of every tile that is being mined, in pairs.
+         */
+        @NotNull
+        private final IntArrayList mining = new IntArrayList();
+
+        /**
+         * The local position, length and contents of every tile state, null if the chunk has no tile state.
+         */
+        @Nullable
+        private ByteArrayOutputStream states;
+
+        /**
+         * The amount of tile states in {@link #states}.
+         */
+        private int stateCount;
+
+        /**
+         * The fluid kind and level of every tile, in that order, null if the chunk has no fluid.
+         */
+        private byte @Nullable [] fluids;
+
+        private ChunkCopy(int chunkX, int chunkY, Tile @NotNull [] tiles) {
+            this.chunkX = chunkX;
+            this.chunkY = chunkY;
+            this.tiles = tiles;
+        }
+
+        private void addState(int local, @NotNull TileState state) throws IOException {
+            // Tile state is mutable, so it has to be serialized at the tick boundary
+            var bytes = new ByteArrayOutputStream();
+            state.write(new DataOutputStream(bytes));
+
+            if(states == null) {
+                states = new ByteArrayOutputStream();
+            }
+            var output = new DataOutputStream(states);
+            output.writeShort(local);
+            output.writeInt(bytes.size());
+            bytes.writeTo(output);
+            stateCount++;
+        }
+    }
+
+    /**
+     * Creates a new autosave for a level, every chunk is considered dirty so the first save is a full save.
+     *
+     * @param level The level to save
+     * @param directory The directory to save into
+     * @param interval The amount of ticks between saves
+     */
+    LevelAutosave(@NotNull Level level, @NotNull Path directory, int interval) {
+        this.level = level;
+        this.directory = directory;
+        this.interval = Math.max(interval, 1);
+        countdown = this.interval;
+
+        var count = level.chunkWidth() * level.chunkHeight();
+        dirty = new boolean[count];
+        indexed = new boolean[count];
+        for(int chunk = 0; chunk < count; chunk++) {
+            dirty[chunk] = true;
+            dirtyChunks.add(chunk);
+        }
+    }
+
+    @Override
+    public void tilesChanged(@NotNull Level level, @NotNull TileChanges changes) {
+        for(int i = 0, count = changes.chunkCount(); i < count; i++) {
+            markDirty(changes.chunkX(i), changes.chunkY(i));
+        }
+    }
+
+    /**
+     * Marks a chunk as dirty so it gets written with the next save.
+     *
+     * @param chunkX The X position of the chunk
+     * @param chunkY The Y position of the chunk
+     */
+    void markDirty(int chunkX, int chunkY) {
+        var chunk = chunkX + chunkY * level.chunkWidth();
+        if(chunk >= 0 && chunk < dirty.length && !dirty[chunk]) {
+            dirty[chunk] = true;
+            dirtyChunks.add(chunk);
+        }
+    }
+
+    /**
+     * Gets the amount of chunks that will be written with the next save.
+     *
+     * @return The amount of dirty chunks
+     */
+    public int dirtyChunkCount() {
+        return dirtyChunks.size();
+    }
+
+    /**
+     * Called at the end of every tick, starts a save when it is due.
+     */
+    void tick() {
+        if(pending != null) {
+            if(!pending.isDone()) {
+                // Still writing the previous save, the dirty chunks keep piling up until it is done
+                return;
+            }
+            if(pending.isCompletedExceptionally()) {
+                for(int i = 0, size = pendingChunks.size(); i < size; i++) {
+                    var chunk = pendingChunks.getInt(i);
+                    markDirty(chunk % level.chunkWidth(), chunk / level.chunkWidth());
+                }
+            }
+            pending = null;
+            pendingChunks.clear();
+        }
+
+        if(--countdown > 0) {
+            return;
+        }
+        countdown = interval;
+        save();
+    }
+
+    /**
+     * Starts a save of all dirty chunks and the actors and jobs, does nothing if a save is already being written.
+     *
+     * @return The future of the save, null if no save was started
+     */
+    @Nullable
+    public CompletableFuture<Void> save() {
+        // Makes sure the snapshot contains tiles that were changed outside of a tick, like while generating the level
+        level.publishSnapshot();
+
+        if(pending != null) {
+            return null;
+        }
+
+        var chunks = dirtyChunks;
+        dirtyChunks = pendingChunks;
+        pendingChunks = chunks;
+
+        List<ChunkCopy> copies;
+        try {
+            copies = capture(chunks);
+        } catch(IOException e) {
+            // Nothing but memory is involved here, so this should never happen
+            throw new UncheckedIOException("Failed to copy chunks", e);
+        }
+
+        var width = level.width();
+        var height = level.height();
+        // Everything the journal recorded up to now is part of this save, later records go into the next segment
+        var journal = level.journal().orElse(null);
+        var entities = LevelEntities.capture(level, journal == null ? 0 : journal.rotate());
+        pending = ThreadPool.future(() -> {
+            try {
+                write(width, height, copies, entities);
+            } catch(IOException e) {
+                LOGGER.error("Failed to save " + copies.size() + " chunks to " + directory, e);
+                throw new UncheckedIOException(e);
+            }
+            if(journal != null) {
+                journal.checkpoint(entities.generation());
+            }
+        });
+        return pending;
+    }
+
+    /**
+     * Waits for the save that is currently being written, if any.
+     */
+    public void flush() {
+        var pending = this.pending;
+        if(pending != null) {
+            try {
+                pending.join();
+            } catch(Throwable ignored) {
+                // Already logged, the chunks are marked dirty again on the next tick
+            }
+        }
+    }
+
+    /**
+     * Captures the current contents of chunks, must be called at a tick boundary.
+     *
+     * @param chunks The indices of the chunks to capture
+     * @return The captured chunks
+     */
+    @NotNull
+    private List<ChunkCopy> capture(@NotNull IntArrayList chunks) throws IOException {
+        var snapshot = level.snapshot();
+        var chunkWidth = level.chunkWidth();
+        Int2ObjectMap<ChunkCopy> copies = new Int2ObjectOpenHashMap<>(chunks.size());
+        var fluids = new byte[CHUNK_AREA * 2];
+        for(int i = 0, size = chunks.size(); i < size; i++) {
+            var chunk = chunks.getInt(i);
+            dirty[chunk] = false;
+            var copy = new ChunkCopy(chunk % chunkWidth, chunk / chunkWidth, snapshot.chunk(chunk));
+            copies.put(chunk, copy);
+
+            // Most chunks are dry, the scratch array is only handed over when it has fluid in it
+            if(level.copyFluids(copy.chunkX, copy.chunkY, fluids)) {
+                copy.fluids = fluids;
+                fluids = new byte[CHUNK_AREA * 2];
+            }
+        }
+
+        // Mining progress and tile state are sparse, walking them once is cheaper than probing every tile
+        for(var entry : Long2IntMaps.fastIterable(level.miningProgress())) {
+            var packed = entry.getLongKey();
+            var copy = copies.get(chunkIndex(packed, chunkWidth));
+            if(copy != null && entry.getIntValue() != 0) {
+                copy.mining.add(packedToLocal(packed));
+                copy.mining.add(entry.getIntValue());
+            }
+        }
+        for(var entry : Long2ObjectMaps.fastIterable(level.tileStates())) {
+            var packed = entry.getLongKey();
+            var copy = copies.get(chunkIndex(packed, chunkWidth));
+            if(copy != null) {
+                copy.addState(packedToLocal(packed), entry.getValue());
+            }
+        }
+
+        return new ArrayList<>(copies.values());
+    }
+
+    /**
+     * Serializes and compresses a captured chunk, runs on a virtual thread.
+     *
+     * @param copy The captured chunk
+     * @return The compressed chunk
+     */
+    private static byte @NotNull [] serialize(@NotNull ChunkCopy copy) throws IOException {
+        // The palette keeps the chunks small and independent of the numeric registry ids, tiles outside of the level
+        // are stored as the first palette entry and skipped when loading
+        Object2IntMap<Tile> palette = new Object2IntOpenHashMap<>();
+        palette.defaultReturnValue(-1);
+        List<Tile> paletteTiles = new ArrayList<>();
+        var tiles = copy.tiles;
+        var indices = new short[CHUNK_AREA];
+        for(int local = 0; local < CHUNK_AREA; local++) {
+            var tile = tiles[local];
+            if(tile == null) {
+                continue;
+            }
+            var index = palette.getInt(tile);
+            if(index == -1) {
+                index = paletteTiles.size();
+                palette.put(tile, index);
+                paletteTiles.add(tile);
+            }
+            indices[local] = (short) index;
+        }
+
+        var bytes = new ByteArrayOutputStream(CHUNK_AREA);
+        try(var output = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            output.writeInt(VERSION);
+            output.writeInt(copy.chunkX);
+            output.writeInt(copy.chunkY);
+            output.writeShort(paletteTiles.size());
+            for(var tile : paletteTiles) {
+                output.writeUTF(Registries.TILE.name(tile)
+                    .orElseThrow(() -> new IOException("Tile " + tile + " was not registered"))
+                    .toString());
+            }
+            for(var index : indices) {
+                output.writeShort(index);
+            }
+
+            var mining = copy.mining;
+            output.writeInt(mining.size() >> 1);
+            for(int i = 0, size = mining.size(); i < size; i += 2) {
+                output.writeShort(mining.getInt(i));
+                output.writeInt(mining.getInt(i + 1));
+            }
+
+            output.writeInt(copy.stateCount);
+            if(copy.states != null) {
+                copy.states.writeTo(output);
+            }
+
+            output.writeBoolean(copy.fluids != null);
+            if(copy.fluids != null) {
+                output.write(copy.fluids);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static int chunkIndex(long packed, int chunkWidth) {
+        return Level.toChunk(TilePos.unpackX(packed)) + Level.toChunk(TilePos.unpackY(packed)) * chunkWidth;
+    }
+
+    private static int packedToLocal(long packed) {
+        return (TilePos.unpackX(packed) & Level.CHUNK_MASK) | ((TilePos.unpackY(packed) & Level.CHUNK_MASK) << Level.CHUNK_SHIFT);
+    }
+
+    private static long localToPacked(int minX, int minY, int local) {
+        return TilePos.pack(minX + (local & Level.CHUNK_MASK), minY + (local >>> Level.CHUNK_SHIFT));
+    }
+
+    @NotNull
+    private static Path chunkPath(@NotNull Path directory, int chunkX, int chunkY) {
+        return directory.resolve("chunk_" + chunkX + "_" + chunkY + ".bin");
+    }
+
+    /**
+     * Serializes, compresses and writes captured chunks, runs on a virtual thread.
+     *
+     * @param width The width of the level
+     * @param height The height of the level
+     * @param copies The captured chunks to write
+     * @param entities The captured actors and jobs
+     */
+    private void write(int width, int height, @NotNull List<ChunkCopy> copies, @NotNull LevelEntities entities) throws IOException {
+        Files.createDirectories(directory);
+
+        for(var copy : copies) {
+            writeFile(chunkPath(directory, copy.chunkX, copy.chunkY), ByteBuffer.wrap(serialize(copy)));
+        }
+        // The index and the entities point to the chunks, so the chunks have to be durable before they are written
+        forceDirectory();
+        writeIndex(width, height, copies);
+
+        var bytes = new ByteArrayOutputStream();
+        try(var output = new DataOutputStream(bytes)) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            entities.write(output);
+        }
+        writeFile(directory.resolve(ENTITIES), ByteBuffer.wrap(bytes.toByteArray()));
+        // The journal deletes its old segments once this returns
+        forceDirectory();
+    }
+
+    /**
+     * Adds a record for every written chunk to the index. The first save of this autosave and saves that would grow the
+     * index too much replace it with a compacted index instead, the first save writes every chunk so any index from an
+     * older autosave is replaced.
+     *
+     * @param width The width of the level
+     * @param height The height of the level
+     * @param copies The chunks that were written
+     */
+    private void writeIndex(int width, int height, @NotNull List<ChunkCopy> copies) throws IOException {
+        var chunkWidth = level.chunkWidth();
+        var records = ByteBuffer.allocate(copies.size() * INDEX_RECORD_SIZE);
+        for(var copy : copies) {
+            indexed[copy.chunkX + copy.chunkY * chunkWidth] = true;
+            records.putInt(copy.chunkX).putInt(copy.chunkY);
+        }
+        records.flip();
+
+        var path = directory.resolve(INDEX);
+        if(indexRecords != -1 && indexRecords + copies.size() <= indexed.length * INDEX_COMPACT_FACTOR) {
+            try(var channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                while(records.hasRemaining()) {
+                    channel.write(records);
+                }
+                channel.force(false);
+            }
+            indexRecords += copies.size();
+            return;
+        }
+
+        var count = 0;
+        for(var chunk : indexed) {
+            if(chunk) {
+                count++;
+            }
+        }
+        var index = ByteBuffer.allocate(INDEX_HEADER_SIZE + count * INDEX_RECORD_SIZE)
+            .putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height);
+        for(int chunk = 0; chunk < indexed.length; chunk++) {
+            if(indexed[chunk]) {
+                index.putInt(chunk % chunkWidth).putInt(chunk / chunkWidth);
+            }
+        }
+        writeFile(path, index.flip());
+        forceDirectory();
+        indexRecords = count;
+    }
+
+    /**
+     * Forces the file moves in the save directory to disk.
+     */
+    private void forceDirectory() {
+        try(var channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch(IOException ignored) {
+            // Not every platform can open directories, the moves are all that can be done there
+        }
+    }
+
+    /**
+     * Writes a file into a temporary sibling, forces it to disk and moves it into place.
+     *
+     * @param destination The file to write
+     * @param contents The contents of the file
+     */
+    private static void writeFile(@NotNull Path destination, @NotNull ByteBuffer contents) throws IOException {
+        var temp = destination.resolveSibling(destination.getFileName() + ".tmp");
+        try(var channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while(contents.hasRemaining()) {
+                channel.write(contents);
+            }
+            channel.force(false);
+        }
+        Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Checks if a directory contains a level that was saved by an autosave.
+     *
+     * @param directory The directory to check
+     * @return True if the directory contains a save
+     */
+    public static boolean exists(@NotNull Path directory) {
+        Objects.requireNonNull(directory, "directory can't be null");
+        return Files.isRegularFile(directory.resolve(INDEX));
+    }
+
+    /**
+     * Loads a level that was saved by an autosave.
+     *
+     * @param directory The directory the level was saved into
+     * @return The loaded level
+     * @throws IOException If the save could not be read
+     */
+    @NotNull
+    public static Level load(@NotNull Path directory) throws IOException {
+        Objects.requireNonNull(directory, "directory can't be null");
+
+        var level = loadTiles(directory);
+        loadEntities(directory).restore(level);
+        return level;
+    }
+
+    /**
+     * Loads the tiles, tile state and mining progress of a save without any actors or jobs.
+     *
+     * @param directory The directory the level was saved into
+     * @return The loaded level
+     * @throws IOException If the save could not be read
+     */
+    @NotNull
+    static Level loadTiles(@NotNull Path directory) throws IOException {
+        var index = ByteBuffer.wrap(Files.readAllBytes(directory.resolve(INDEX)));
+        if(index.remaining() < INDEX_HEADER_SIZE || index.getInt() != MAGIC) {
+            throw new IOException("Not a level save: " + directory);
+        }
+        var version = index.getInt();
+        if(version != VERSION) {
+            throw new IOException("Unsupported save version " + version);
+        }
+        var width = index.getInt();
+        var height = index.getInt();
+
+        var level = new Level(width, height);
+        var chunkWidth = level.chunkWidth();
+        var chunkHeight = level.chunkHeight();
+        var saved = new boolean[chunkWidth * chunkHeight];
+        // A crash while appending can leave a torn record at the end
+        while(index.remaining() >= INDEX_RECORD_SIZE) {
+            var chunkX = index.getInt();
+            var chunkY = index.getInt();
+            if(chunkX < 0 || chunkY < 0 || chunkX >= chunkWidth || chunkY >= chunkHeight) {
+                throw new IOException("Index of " + directory + " has a record for chunk " + chunkX + ", " + chunkY + " outside of the level");
+            }
+            saved[chunkX + chunkY * chunkWidth] = true;
+        }
+
+        for(int chunk = 0; chunk < saved.length; chunk++) {
+            if(!saved[chunk]) {
+                continue;
+            }
+            var path = chunkPath(directory, chunk % chunkWidth, chunk / chunkWidth);
+            try(var input = new DataInputStream(new InflaterInputStream(new BufferedInputStream(Files.newInputStream(path))))) {
+                readChunk(level, input);
+            }
+        }
+        return level;
+    }
+
+    /**
+     * Loads the actors and jobs of a save.
+     *
+     * @param directory The directory the level was saved into
+     * @return The saved entities, empty if the save has none
+     * @throws IOException If the entities could not be read
+     */
+    @NotNull
+    static LevelEntities loadEntities(@NotNull Path directory) throws IOException {
+        var path = directory.resolve(ENTITIES);
+        if(!Files.exists(path)) {
+            return new LevelEntities(0);
+        }
+
+        try(var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if(input.readInt() != MAGIC) {
+                throw new IOException("Not a level save: " + directory);
+            }
+            var version = input.readInt();
+            if(version != VERSION) {
+                throw new IOException("Unsupported save version " + version);
+            }
+            return LevelEntities.read(input);
+        }
+    }
+
+    private static void readChunk(@NotNull Level level, @NotNull DataInputStream input) throws IOException {
+        var version = input.readInt();
+        if(version != VERSION) {
+            throw new IOException("Unsupported chunk version " + version);
+        }
+        var minX = Level.fromChunk(input.readInt());
+        var minY = Level.fromChunk(input.readInt());
+
+        var palette = new Tile[input.readUnsignedShort()];
+        for(int i = 0; i < palette.length; i++) {
+            var name = new Identifier(input.readUTF());
+            palette[i] = Registries.TILE.object(name).orElseThrow(() -> new IOException("Unknown tile " + name));
+        }
+
+        var maxX = Math.min(minX + Level.CHUNK_SIZE, level.width());
+        var maxY = Math.min(minY + Level.CHUNK_SIZE, level.height());
+        for(int local = 0; local < CHUNK_AREA; local++) {
+            var index = input.readShort();
+            var x = minX + (local & Level.CHUNK_MASK);
+            var y = minY + (local >>> Level.CHUNK_SHIFT);
+            if(x < maxX && y < maxY) {
+                level.tile(new TilePos(x, y), palette[index]);
+            }
+        }
+
+        for(int i = 0, count = input.readInt(); i < count; i++) {
+            var local = input.readUnsignedShort();
+            level.miningProgress(localToPacked(minX, minY, local), input.readInt());
+        }
+
+        for(int i = 0, count = input.readInt(); i < count; i++) {
+            var pos = new TilePos(localToPacked(minX, minY, input.readUnsignedShort()));
+            var data = input.readNBytes(input.readInt());
+            var state = level.tileState(pos).orElseThrow(() -> new IOException("Tile at " + pos + " has no state"));
+            state.read(new DataInputStream(new ByteArrayInputStream(data)));
+        }
+
+        if(input.readBoolean()) {
+            var fluids = input.readNBytes(CHUNK_AREA * 2);
+            if(fluids.length != CHUNK_AREA * 2) {
+                throw new EOFException("Truncated fluid data");
+            }
+            for(int local = 0; local < CHUNK_AREA; local++) {
+                var x = minX + (local & Level.CHUNK_MASK);
+                var y = minY + (local >>> Level.CHUNK_SHIFT);
+                if(x < maxX && y < maxY) {
+                    level.fluid(x, y, fluids[local], fluids[CHUNK_AREA + local] & 0xFF);
+                }
+            }
+        }
+    }
+}
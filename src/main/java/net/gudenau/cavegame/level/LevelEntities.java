@@ -0,0 +1,321 @@
+package net.gudenau.cavegame.level;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMaps;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.gudenau.cavegame.Registries;
+import net.gudenau.cavegame.actor.Actor;
+import net.gudenau.cavegame.actor.MinerActor;
+import net.gudenau.cavegame.actor.ResourceActor;
+import net.gudenau.cavegame.ai.JobType;
+import net.gudenau.cavegame.ai.JobTypes;
+import net.gudenau.cavegame.ai.MiningJob;
+import net.gudenau.cavegame.material.Material;
+import net.gudenau.cavegame.resource.Identifier;
+import net.gudenau.cavegame.tile.MineableTile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The actors and jobs of a {@link Level} as plain data, without creating any {@link Actor}s.<br>
+ * <br>
+ * The {@link LevelAutosave} captures them at the tick boundary and writes them as part of every save, the
+ * {@link LevelJournal} folds its replayed records into them. Only the actors that survive the whole replay are created,
+ * actors that were spawned and removed again never take up a slot in the {@link net.gudenau.cavegame.actor.ActorStore}.
+ * Only miners, resource piles and mining jobs are kept.<br>
+ * <br>
+ * Not thread safe.
+ */
+final class LevelEntities {
+    /**
+     * The kind of actors that are not kept.
+     */
+    static final byte UNKNOWN = 0;
+
+    /**
+     * The actor kind of miners.
+     */
+    static final byte MINER = 1;
+
+    /**
+     * The actor kind of resource piles.
+     */
+    static final byte RESOURCE = 2;
+
+    /**
+     * The actors by their ids, in spawn order.
+     */
+    @NotNull
+    private final Long2ObjectLinkedOpenHashMap<ActorEntry> actors = new Long2ObjectLinkedOpenHashMap<>();
+
+    /**
+     * The jobs by the packed position of their tile.
+     */
+    @NotNull
+    private final Long2ObjectOpenHashMap<JobType<?>> jobs = new Long2ObjectOpenHashMap<>();
+
+    /**
+     * The journal generation that continues after these entities, records of older generations are already included.
+     */
+    private long generation;
+
+    /**
+     * The id of the next spawned actor.
+     */
+    private long nextActorId;
+
+    /**
+     * The state of a single actor.
+     */
+    private static final class ActorEntry {
+        private final byte kind;
+        private double x;
+        private double y;
+
+        /**
+         * The contents of resource piles, null for every other actor.
+         */
+        @Nullable
+        private Object2IntMap<Material> contents;
+
+        private ActorEntry(byte kind, double x, double y) {
+            this.kind = kind;
+            this.x = x;
+            this.y = y;
+            if(kind == RESOURCE) {
+                contents = new Object2IntOpenHashMap<>();
+            }
+        }
+    }
+
+    LevelEntities(long generation) {
+        this.generation = generation;
+    }
+
+    /**
+     * Gets the kind of an {@link Actor}.
+     *
+     * @param actor The {@link Actor}
+     * @return The kind of the {@link Actor}, {@link #UNKNOWN} if it is not kept
+     */
+    static byte kind(@NotNull Actor actor) {
+        if(actor instanceof MinerActor) {
+            return MINER;
+        } else if(actor instanceof ResourceActor) {
+            return RESOURCE;
+        } else {
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * Captures the current actors and jobs of a level, must be called at a tick boundary.
+     *
+     * @param level The level to capture
+     * @param generation The journal generation that starts after this capture
+     * @return The captured entities
+     */
+    @NotNull
+    static LevelEntities capture(@NotNull Level level, long generation) {
+        var entities = new LevelEntities(generation);
+        entities.nextActorId = level.nextActorId();
+        for(var actor : level.actors()) {
+            var kind = kind(actor);
+            var id = level.actorId(actor);
+            if(kind != UNKNOWN && id != -1 && !actor.needsRemoval()) {
+                entities.spawn(id, kind, actor.x(), actor.y());
+                if(actor instanceof ResourceActor pile) {
+                    entities.contents(id, pile.contents());
+                }
+            }
+        }
+        level.jobManager().forEachTileJob((type, position, claimed) -> {
+            if(type == JobTypes.MINING) {
+                entities.jobs.put(position, type);
+            }
+        });
+        return entities;
+    }
+
+    long generation() {
+        return generation;
+    }
+
+    /**
+     * Adds a spawned actor.
+     *
+     * @param id The id of the actor
+     * @param kind The kind of the actor
+     * @param x The X position of the actor
+     * @param y The Y position of the actor
+     */
+    void spawn(long id, byte kind, double x, double y) {
+        actors.put(id, new ActorEntry(kind, x, y));
+        nextActorId = Math.max(nextActorId, id + 1);
+    }
+
+    /**
+     * Replaces the contents of a resource pile, does nothing for other actors.
+     *
+     * @param id The id of the pile
+     * @param contents The new contents
+     */
+    void contents(long id, @NotNull Object2IntMap<Material> contents) {
+        var actor = actors.get(id);
+        if(actor != null && actor.contents != null) {
+            actor.contents.clear();
+            actor.contents.putAll(contents);
+        }
+    }
+
+    /**
+     * Moves an actor.
+     *
+     * @param id The id of the actor
+     * @param x The new X position of the actor
+     * @param y The new Y position of the actor
+     */
+    void move(long id, double x, double y) {
+        var actor = actors.get(id);
+        if(actor != null) {
+            actor.x = x;
+            actor.y = y;
+        }
+    }
+
+    /**
+     * Removes an actor.
+     *
+     * @param id The id of the actor
+     */
+    void remove(long id) {
+        actors.remove(id);
+    }
+
+    /**
+     * Adds a job.
+     *
+     * @param type The type of the job
+     * @param position The packed position of the tile of the job
+     */
+    void job(@NotNull JobType<?> type, long position) {
+        jobs.put(position, type);
+    }
+
+    /**
+     * Creates the actors and enqueues the jobs that still have something to do, must be called after the tiles of the
+     * level were restored.
+     *
+     * @param level The level to restore into
+     */
+    void restore(@NotNull Level level) {
+        for(var entry : Long2ObjectMaps.fastIterable(actors)) {
+            var state = entry.getValue();
+            Actor actor = switch(state.kind) {
+                case MINER -> new MinerActor(state.x, state.y, level);
+                case RESOURCE -> {
+                    var pile = new ResourceActor(state.x, state.y, level);
+                    for(var content : Object2IntMaps.fastIterable(state.contents)) {
+                        pile.add(content.getKey(), content.getIntValue());
+                    }
+                    yield pile;
+                }
+                default -> throw new IllegalStateException("Unknown actor kind " + state.kind);
+            };
+            level.spawn(actor, entry.getLongKey());
+        }
+        level.nextActorId(nextActorId);
+
+        var jobManager = level.jobManager();
+        for(var entry : Long2ObjectMaps.fastIterable(jobs)) {
+            var pos = new TilePos(entry.getLongKey());
+            var tile = level.tile(pos);
+            if(entry.getValue() == JobTypes.MINING && tile instanceof MineableTile) {
+                jobManager.enqueueJob(new MiningJob(tile, pos));
+            }
+        }
+    }
+
+    /**
+     * Writes these entities into a save, registry names are used so saves don't depend on the numeric ids.
+     *
+     * @param output The output to write to
+     */
+    void write(@NotNull DataOutputStream output) throws IOException {
+        output.writeLong(generation);
+        output.writeLong(nextActorId);
+
+        output.writeInt(actors.size());
+        for(var entry : Long2ObjectMaps.fastIterable(actors)) {
+            var actor = entry.getValue();
+            output.writeLong(entry.getLongKey());
+            output.writeByte(actor.kind);
+            output.writeDouble(actor.x);
+            output.writeDouble(actor.y);
+            if(actor.contents != null) {
+                output.writeInt(actor.contents.size());
+                for(var content : Object2IntMaps.fastIterable(actor.contents)) {
+                    output.writeUTF(name(Registries.RESOURCE.name(content.getKey()).orElse(null), content.getKey()));
+                    output.writeInt(content.getIntValue());
+                }
+            }
+        }
+
+        output.writeInt(jobs.size());
+        for(var entry : Long2ObjectMaps.fastIterable(jobs)) {
+            output.writeUTF(name(Registries.JOB_TYPE.name(entry.getValue()).orElse(null), entry.getValue()));
+            output.writeLong(entry.getLongKey());
+        }
+    }
+
+    @NotNull
+    private static String name(@Nullable Identifier name, @NotNull Object object) throws IOException {
+        if(name == null) {
+            throw new IOException(object + " was not registered");
+        }
+        return name.toString();
+    }
+
+    /**
+     * Reads entities that were written with {@link #write(DataOutputStream)}.
+     *
+     * @param input The input to read from
+     * @return The read entities
+     */
+    @NotNull
+    static LevelEntities read(@NotNull DataInputStream input) throws IOException {
+        var entities = new LevelEntities(input.readLong());
+        entities.nextActorId = input.readLong();
+
+        for(int i = 0, count = input.readInt(); i < count; i++) {
+            var id = input.readLong();
+            var kind = input.readByte();
+            if(kind != MINER && kind != RESOURCE) {
+                throw new IOException("Unknown actor kind " + kind);
+            }
+            entities.spawn(id, kind, input.readDouble(), input.readDouble());
+            if(kind == RESOURCE) {
+                var contents = entities.actors.get(id).contents;
+                for(int j = 0, contentCount = input.readInt(); j < contentCount; j++) {
+                    var name = new Identifier(input.readUTF());
+                    var material = Registries.RESOURCE.object(name).orElseThrow(() -> new IOException("Unknown material " + name));
+                    contents.put(material, input.readInt());
+                }
+            }
+        }
+
+        for(int i = 0, count = input.readInt(); i < count; i++) {
+            var name = new Identifier(input.readUTF());
+            var type = Registries.JOB_TYPE.object(name).orElseThrow(() -> new IOException("Unknown job type " + name));
+            entities.jobs.put(input.readLong(), type);
+        }
+        return entities;
+    }
+}
@@ -0,0 +1,760 @@
+package net.gudenau.cavegame.level;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMaps;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.gudenau.cavegame.Registries;
+import net.gudenau.cavegame.actor.Actor;
+import net.gudenau.cavegame.actor.ResourceActor;
+import net.gudenau.cavegame.ai.Job;
+import net.gudenau.cavegame.ai.JobType;
+import net.gudenau.cavegame.ai.TileJob;
+import net.gudenau.cavegame.logger.Logger;
+import net.gudenau.cavegame.material.Material;
+import net.gudenau.cavegame.tile.Tile;
+import net.gudenau.cavegame.tile.state.StoreRoomState;
+import net.gudenau.cavegame.util.ExclusiveLock;
+import net.gudenau.cavegame.util.ThreadPool;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead journal of the mutations of a {@link Level}, used together with a {@link LevelAutosave} to recover
+ * the progress that was made after the last save.<br>
+ * <br>
+ * Mutations are appended as small checksummed records to an in-memory buffer. At the end of every tick the buffer is
+ * handed to a virtual thread that writes it and forces it to disk once, if the previous batch is still being written
+ * the records keep accumulating and are committed with the next batch.<br>
+ * <br>
+ * The journal is split into numbered segments. Every save starts a new segment when it is captured, once the save is
+ * durable it is the checkpoint: the save records the segment that follows it and every older segment is deleted.
+ * Recovery loads the save and only replays the segments after it. Tile, fluid and stored resource records are
+ * absolute, so replaying them on top of chunks that were already written by an unfinished save is harmless. Actor
+ * records are folded into the saved actors before any actor is created. Actor movement is recorded whenever an actor
+ * moves onto another tile, so recovered actors are restored to the tile they were last on but movement within a tile is
+ * lost. Claims, paths and carried actors are not recorded, recovered actors start out idle.<br>
+ * <br>
+ * The records use numeric registry ids, a journal can only be replayed by the same version of the game that wrote it.
+ * <br>
+ * <br>
+ * Thread safe.
+ */
+public final class LevelJournal implements AutoCloseable {
+    private static final Logger LOGGER = Logger.forName("Journal");
+
+    /**
+     * A tile was replaced: x, y, tile id.
+     */
+    private static final byte TILE = 1;
+
+    /**
+     * The mining progress of a tile changed: x, y, progress.
+     */
+    private static final byte MINING = 2;
+
+    /**
+     * Resources were stored: x, y, material id, the new stored amount.
+     */
+    private static final byte STORE = 3;
+
+    /**
+     * An actor was spawned: actor id, actor kind, x, y.
+     */
+    private static final byte SPAWN = 4;
+
+    /**
+     * The contents of a resource pile changed: actor id and the new contents.
+     */
+    private static final byte CONTENTS = 5;
+
+    /**
+     * An actor was removed: actor id.
+     */
+    private static final byte REMOVE = 6;
+
+    /**
+     * A job was enqueued: job type id, x, y.
+     */
+    private static final byte JOB = 7;
+
+    /**
+     * A step of the fluid simulation: the amount of changed cells, then x, y, fluid kind and fluid level of each.
+     */
+    private static final byte FLUID = 8;
+
+    /**
+     * An actor moved onto another tile: actor id, x, y.
+     */
+    private static final byte MOVE = 9;
+
+    /**
+     * The size of the header of every record: the payload length and its CRC.
+     */
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+
+    /**
+     * The initial size of the record buffers.
+     */
+    private static final int BUFFER_SIZE = 0x10000;
+
+    @NotNull
+    private final Level level;
+
+    /**
+     * The base path of the segments.
+     */
+    @NotNull
+    private final Path path;
+
+    /**
+     * The segment that is being written, only used by the writer.
+     */
+    @NotNull
+    private FileChannel channel;
+
+    /**
+     * The generation of {@link #channel}, only used by the writer.
+     */
+    private long channelGeneration;
+
+    /**
+     * Guards the record buffers and the generation.
+     */
+    @NotNull
+    private final ExclusiveLock lock = new ExclusiveLock();
+
+    @NotNull
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * A cache of tile registry ids, guarded by the {@link #lock}. The registry takes a lock for every lookup.
+     */
+    @NotNull
+    private final Reference2IntMap<Tile> tileIds = new Reference2IntOpenHashMap<>();
+
+    /**
+     * The generation new records belong to.
+     */
+    private long generation;
+
+    /**
+     * The offsets in {@link #buffer} at which a new segment starts.
+     */
+    @NotNull
+    private final IntArrayList rotations = new IntArrayList();
+
+    /**
+     * The buffer new records are appended to.
+     */
+    @NotNull
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * A free buffer that can be swapped in on the next commit, null while it is being written.
+     */
+    @Nullable
+    private ByteBuffer spare = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * The write that is in progress, completes with the buffer it wrote.
+     */
+    @NotNull
+    private CompletableFuture<ByteBuffer> writing = CompletableFuture.completedFuture(null);
+
+    /**
+     * The start of the record that is being appended.
+     */
+    private int recordStart;
+
+    private LevelJournal(@NotNull Level level, @NotNull Path path, long generation, long position) throws IOException {
+        this.level = level;
+        this.path = path;
+        this.generation = generation;
+        tileIds.defaultReturnValue(-1);
+
+        channelGeneration = generation;
+        channel = FileChannel.open(segmentPath(path, generation), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // Drops the incomplete record a crash can leave behind
+        channel.truncate(position);
+        channel.position(position);
+    }
+
+    /**
+     * Starts a new journal, any existing segments at the path are discarded. The level should be saved before, the
+     * journal only contains what happens after it was started.
+     *
+     * @param level The level to journal
+     * @param path The base path of the journal segments
+     * @return The new journal
+     * @throws IOException If the journal could not be created
+     */
+    @NotNull
+    static LevelJournal create(@NotNull Level level, @NotNull Path path) throws IOException {
+        for(var generation : segments(path)) {
+            Files.deleteIfExists(segmentPath(path, generation));
+        }
+        return new LevelJournal(level, path, 0, 0);
+    }
+
+    /**
+     * Checks if a journal exists at a path.
+     *
+     * @param path The base path of the journal segments
+     * @return True if there is at least one segment
+     * @throws IOException If the directory of the journal could not be read
+     */
+    public static boolean exists(@NotNull Path path) throws IOException {
+        Objects.requireNonNull(path, "path can't be null");
+        return !segments(path).isEmpty();
+    }
+
+    @NotNull
+    private static Path segmentPath(@NotNull Path path, long generation) {
+        return path.resolveSibling(path.getFileName() + "." + generation);
+    }
+
+    /**
+     * Finds the generations of the existing segments of a journal.
+     *
+     * @param path The base path of the journal segments
+     * @return The sorted generations
+     */
+    @NotNull
+    private static LongList segments(@NotNull Path path) throws IOException {
+        var directory = path.toAbsolutePath().getParent();
+        var prefix = path.getFileName() + ".";
+        var generations = new LongArrayList();
+        if(!Files.isDirectory(directory)) {
+            return generations;
+        }
+
+        try(var files = Files.list(directory)) {
+            files.map((file) -> file.getFileName().toString())
+                .filter((name) -> name.startsWith(prefix))
+                .forEach((name) -> {
+                    try {
+                        generations.add(Long.parseLong(name.substring(prefix.length())));
+                    } catch(NumberFormatException ignored) {
+                        // Not a segment
+                    }
+                });
+        }
+        generations.sort(null);
+        return generations;
+    }
+
+    /**
+     * Starts a new record, the payload is written directly into the returned buffer. Must be called with the lock
+     * held.
+     *
+     * @param type The type of the record
+     * @param payloadSize The size of the payload, without the type and tick
+     * @return The buffer to write the payload into
+     */
+    @NotNull
+    private ByteBuffer begin(byte type, int payloadSize) {
+        var required = HEADER_SIZE + Byte.BYTES + Long.BYTES + payloadSize;
+        if(buffer.remaining() < required) {
+            var grown = ByteBuffer.allocate(Math.max(buffer.capacity() << 1, buffer.position() + required));
+            grown.put(buffer.flip());
+            buffer = grown;
+        }
+
+        recordStart = buffer.position();
+        buffer.position(recordStart + HEADER_SIZE);
+        return buffer.put(type).putLong(level.tickCount());
+    }
+
+    /**
+     * Finishes the record that was started with {@link #begin(byte, int)}.
+     */
+    private void end() {
+        var end = buffer.position();
+        var payloadStart = recordStart + HEADER_SIZE;
+        var length = end - payloadStart;
+        crc.reset();
+        crc.update(buffer.array(), payloadStart, length);
+        buffer.putInt(recordStart, length);
+        buffer.putInt(recordStart + Integer.BYTES, (int) crc.getValue());
+    }
+
+    /**
+     * Records a tile replacement.
+     *
+     * @param x The X position of the tile
+     * @param y The Y position of the tile
+     * @param tile The new tile
+     */
+    void tileChanged(int x, int y, @NotNull Tile tile) {
+        lock.lock(() -> {
+            var id = tileIds.getInt(tile);
+            if(id == -1) {
+                id = Registries.TILE.id(tile).orElseThrow(() -> new IllegalStateException("Tile " + tile + " was not registered"));
+                tileIds.put(tile, id);
+            }
+            begin(TILE, Integer.BYTES * 3).putInt(x).putInt(y).putInt(id);
+            end();
+        });
+    }
+
+    /**
+     * Records the cells that changed in a step of the fluid simulation, must be recorded after the tiles of the step.
+     *
+     * @param fluids The fluid simulation, after the step
+     * @param cells The indices of the changed cells
+     */
+    void fluidsChanged(@NotNull FluidSimulation fluids, @NotNull IntArrayList cells) {
+        var width = fluids.width();
+        lock.lock(() -> {
+            var count = cells.size();
+            var buffer = begin(FLUID, Integer.BYTES + count * (Integer.BYTES * 2 + Byte.BYTES * 2)).putInt(count);
+            for(int i = 0; i < count; i++) {
+                var index = cells.getInt(i);
+                var x = index % width;
+                var y = index / width;
+                buffer.putInt(x).putInt(y).put(fluids.kind(x, y)).put((byte) fluids.level(x, y));
+            }
+            end();
+        });
+    }
+
+    /**
+     * Records the mining progress of a tile.
+     *
+     * @param pos The position of the tile
+     * @param progress The new mining progress
+     */
+    void miningProgress(@NotNull TilePos pos, int progress) {
+        lock.lock(() -> {
+            begin(MINING, Integer.BYTES * 3).putInt(pos.x()).putInt(pos.y()).putInt(progress);
+            end();
+        });
+    }
+
+    /**
+     * Records resources that were stored in a tile, the new totals are recorded so replaying the record is idempotent.
+     *
+     * @param pos The position of the tile
+     * @param state The state of the store room after the resources were stored
+     * @param resources The stored resources
+     */
+    void resourcesStored(@NotNull TilePos pos, @NotNull StoreRoomState state, @NotNull Object2IntMap<Material> resources) {
+        lock.lock(() -> {
+            for(var entry : Object2IntMaps.fastIterable(resources)) {
+                begin(STORE, Integer.BYTES * 4).putInt(pos.x()).putInt(pos.y())
+                    .putInt(materialId(entry.getKey()))
+                    .putInt(state.storedResource(entry.getKey()));
+                end();
+            }
+        });
+    }
+
+    /**
+     * Records a spawned actor, only miners and resource piles are recorded.
+     *
+     * @param actor The spawned actor
+     * @param id The id of the actor
+     */
+    void actorSpawned(@NotNull Actor actor, long id) {
+        var kind = LevelEntities.kind(actor);
+        if(kind == LevelEntities.UNKNOWN) {
+            return;
+        }
+
+        lock.lock(() -> {
+            begin(SPAWN, Long.BYTES + Byte.BYTES + Double.BYTES * 2).putLong(id).put(kind)
+                .putDouble(actor.x()).putDouble(actor.y());
+            end();
+            if(actor instanceof ResourceActor pile) {
+                writeContents(id, pile);
+            }
+        });
+    }
+
+    /**
+     * Records an actor that moved onto another tile, actors that are not kept or were not spawned yet are ignored.
+     *
+     * @param actor The actor that moved
+     */
+    void actorMoved(@NotNull Actor actor) {
+        if(LevelEntities.kind(actor) == LevelEntities.UNKNOWN) {
+            return;
+        }
+
+        var id = level.actorId(actor);
+        if(id != -1) {
+            var x = actor.x();
+            var y = actor.y();
+            lock.lock(() -> {
+                begin(MOVE, Long.BYTES + Double.BYTES * 2).putLong(id).putDouble(x).putDouble(y);
+                end();
+            });
+        }
+    }
+
+    /**
+     * Records the new contents of a resource pile, piles that were not spawned yet are ignored.
+     *
+     * @param pile The pile that changed
+     */
+    public void pileChanged(@NotNull ResourceActor pile) {
+        Objects.requireNonNull(pile, "pile can't be null");
+
+        var id = level.actorId(pile);
+        if(id != -1) {
+            lock.lock(() -> writeContents(id, pile));
+        }
+    }
+
+    private void writeContents(long id, @NotNull ResourceActor pile) {
+        var contents = pile.contents();
+        var buffer = begin(CONTENTS, Long.BYTES + Integer.BYTES + contents.size() * Integer.BYTES * 2)
+            .putLong(id)
+            .putInt(contents.size());
+        for(var entry : Object2IntMaps.fastIterable(contents)) {
+            buffer.putInt(materialId(entry.getKey())).putInt(entry.getIntValue());
+        }
+        end();
+    }
+
+    /**
+     * Records a removed actor.
+     *
+     * @param id The id of the removed actor, -1 is ignored
+     */
+    void actorRemoved(long id) {
+        if(id != -1) {
+            lock.lock(() -> {
+                begin(REMOVE, Long.BYTES).putLong(id);
+                end();
+            });
+        }
+    }
+
+    /**
+     * Records a job that was added to the job board, only {@link TileJob}s are recorded. Jobs that are reopened after
+     * a claim ended are still the same job and are not recorded again.
+     *
+     * @param job The enqueued job
+     */
+    public void jobEnqueued(@NotNull Job job) {
+        Objects.requireNonNull(job, "job can't be null");
+
+        if(!(job instanceof TileJob tileJob)) {
+            return;
+        }
+
+        var type = JobType.from(job);
+        var id = Registries.JOB_TYPE.id(type).orElseThrow(() -> new IllegalStateException("Job type " + type + " was not registered"));
+        var pos = tileJob.position();
+        lock.lock(() -> {
+            begin(JOB, Integer.BYTES * 3).putInt(id).putInt(pos.x()).putInt(pos.y());
+            end();
+        });
+    }
+
+    private static int materialId(@NotNull Material material) {
+        return Registries.RESOURCE.id(material).orElseThrow(() -> new IllegalStateException("Material " + material + " was not registered"));
+    }
+
+    /**
+     * Starts a new segment, called at the tick boundary when a save is captured. The records before it are part of
+     * the save.
+     *
+     * @return The generation of the new segment
+     */
+    long rotate() {
+        return lock.lock(() -> {
+            rotations.add(buffer.position());
+            return ++generation;
+        });
+    }
+
+    /**
+     * Hands the records of the current tick to the writer, called at the end of every tick. If the previous batch is
+     * still being written the records are kept and committed with a later batch.
+     */
+    void commit() {
+        lock.lock(() -> {
+            if(buffer.position() == 0 || !writing.isDone()) {
+                return;
+            }
+
+            if(spare == null) {
+                try {
+                    spare = writing.join().clear();
+                } catch(Throwable ignored) {
+                    // Already logged by the writer
+                    spare = ByteBuffer.allocate(BUFFER_SIZE);
+                }
+            }
+
+            var batch = buffer.flip();
+            var boundaries = rotations.toIntArray();
+            rotations.clear();
+            buffer = spare;
+            spare = null;
+            writing = ThreadPool.future(() -> {
+                try {
+                    var limit = batch.limit();
+                    for(var boundary : boundaries) {
+                        batch.limit(boundary);
+                        write(batch);
+                        channel.close();
+                        channel = FileChannel.open(
+                            segmentPath(path, ++channelGeneration),
+                            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING
+                        );
+                    }
+                    batch.limit(limit);
+                    write(batch);
+                    return batch;
+                } catch(IOException e) {
+                    LOGGER.error("Failed to write " + batch.remaining() + " bytes to the journal", e);
+                    throw new UncheckedIOException(e);
+                }
+            });
+        });
+    }
+
+    /**
+     * Writes a part of a batch into the current segment and forces it to disk, runs on the writer.
+     *
+     * @param batch The records to write
+     */
+    private void write(@NotNull ByteBuffer batch) throws IOException {
+        if(!batch.hasRemaining()) {
+            return;
+        }
+        while(batch.hasRemaining()) {
+            channel.write(batch);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * Deletes the segments that are older than a save, called once the save is durable.
+     *
+     * @param generation The generation of the segment that was started when the save was captured
+     */
+    void checkpoint(long generation) {
+        try {
+            for(var segment : segments(path)) {
+                if(segment < generation) {
+                    Files.deleteIfExists(segmentPath(path, segment));
+                }
+            }
+        } catch(IOException e) {
+            // Recovery never reads segments that are older than the save
+            LOGGER.error("Failed to delete old journal segments", e);
+        }
+    }
+
+    /**
+     * Commits all pending records, waits for them to be written and closes the journal.
+     */
+    @Override
+    public void close() throws IOException {
+        // The second pass commits the records that were appended while the first batch was in flight
+        for(int i = 0; i < 2; i++) {
+            awaitWrite();
+            commit();
+        }
+        awaitWrite();
+        channel.close();
+    }
+
+    private void awaitWrite() {
+        try {
+            writing.join();
+        } catch(Throwable ignored) {
+            // Already logged by the writer
+        }
+    }
+
+    /**
+     * Recovers a level by loading an autosave and replaying the journal segments that were written after it on top of
+     * it. Journaling is enabled on the returned level and continues the same journal. Replay stops at the first
+     * incomplete or corrupted record, which is expected after a crash.
+     *
+     * @param saveDirectory The directory of the autosave
+     * @param path The base path of the journal segments
+     * @return The recovered level
+     * @throws IOException If the save or the journal could not be read
+     */
+    @NotNull
+    public static Level recover(@NotNull Path saveDirectory, @NotNull Path path) throws IOException {
+        Objects.requireNonNull(saveDirectory, "saveDirectory can't be null");
+        Objects.requireNonNull(path, "path can't be null");
+
+        var level = LevelAutosave.loadTiles(saveDirectory);
+        var entities = LevelAutosave.loadEntities(saveDirectory);
+        var replay = new Replay(level, entities);
+
+        // Segments are created in order, the first missing or damaged one ends the journal
+        var generation = entities.generation();
+        long end = 0;
+        while(true) {
+            var segment = segmentPath(path, generation);
+            if(!Files.exists(segment)) {
+                end = 0;
+                break;
+            }
+
+            long size;
+            try(var channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                size = channel.size();
+                end = replay.segment(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+            if(end != size || !Files.exists(segmentPath(path, generation + 1))) {
+                break;
+            }
+            generation++;
+        }
+        entities.restore(level);
+
+        // Later segments follow a damaged record, replaying them on the next recovery would skip over the gap
+        for(var segment : segments(path)) {
+            if(segment < entities.generation() || segment > generation) {
+                Files.deleteIfExists(segmentPath(path, segment));
+            }
+        }
+
+        LOGGER.info("Replayed " + replay.replayed + " journal records on top of the save");
+        level.attachJournal(new LevelJournal(level, path, generation, end));
+        return level;
+    }
+
+    /**
+     * The state of a journal replay.
+     */
+    private static final class Replay {
+        @NotNull
+        private final Level level;
+
+        /**
+         * The saved actors and jobs, the actor and job records are folded into them.
+         */
+        @NotNull
+        private final LevelEntities entities;
+
+        private final CRC32 crc = new CRC32();
+        private int replayed = 0;
+
+        private Replay(@NotNull Level level, @NotNull LevelEntities entities) {
+            this.level = level;
+            this.entities = entities;
+        }
+
+        /**
+         * Replays the records of a single segment.
+         *
+         * @param buffer The contents of the segment
+         * @return The end of the last intact record
+         */
+        private long segment(@NotNull ByteBuffer buffer) throws IOException {
+            long end = 0;
+            while(buffer.remaining() >= HEADER_SIZE) {
+                var length = buffer.getInt();
+                var expected = buffer.getInt();
+                if(length <= 0 || length > buffer.remaining()) {
+                    break;
+                }
+
+                var record = buffer.slice(buffer.position(), length);
+                crc.reset();
+                crc.update(record.duplicate());
+                if((int) crc.getValue() != expected) {
+                    break;
+                }
+
+                record(record);
+                buffer.position(buffer.position() + length);
+                end = buffer.position();
+            }
+            return end;
+        }
+
+        private void record(@NotNull ByteBuffer record) throws IOException {
+            var type = record.get();
+            record.getLong(); // The tick is only useful when inspecting a journal
+            switch(type) {
+                case TILE, MINING, STORE -> tileRecord(type, record);
+                case SPAWN -> {
+                    var id = record.getLong();
+                    var kind = record.get();
+                    if(kind != LevelEntities.MINER && kind != LevelEntities.RESOURCE) {
+                        throw new IOException("Unknown actor kind " + kind);
+                    }
+                    entities.spawn(id, kind, record.getDouble(), record.getDouble());
+                }
+                case CONTENTS -> {
+                    var id = record.getLong();
+                    var contents = new Object2IntOpenHashMap<Material>();
+                    for(int i = 0, count = record.getInt(); i < count; i++) {
+                        contents.put(material(record.getInt()), record.getInt());
+                    }
+                    entities.contents(id, contents);
+                }
+                case REMOVE -> entities.remove(record.getLong());
+                case MOVE -> entities.move(record.getLong(), record.getDouble(), record.getDouble());
+                case JOB -> {
+                    var jobType = Registries.JOB_TYPE.object(record.getInt()).orElseThrow(() -> new IOException("Unknown job type"));
+                    entities.job(jobType, TilePos.pack(record.getInt(), record.getInt()));
+                }
+                case FLUID -> {
+                    for(int i = 0, count = record.getInt(); i < count; i++) {
+                        var x = record.getInt();
+                        var y = record.getInt();
+                        var kind = record.get();
+                        if(kind < FluidSimulation.NONE || kind > FluidSimulation.LAVA) {
+                            throw new IOException("Unknown fluid kind " + kind);
+                        }
+                        level.fluid(x, y, kind, record.get() & 0xFF);
+                    }
+                }
+                default -> throw new IOException("Unknown journal record " + type);
+            }
+            replayed++;
+        }
+
+        private void tileRecord(byte type, @NotNull ByteBuffer record) throws IOException {
+            var pos = new TilePos(record.getInt(), record.getInt());
+            switch(type) {
+                case TILE -> level.tile(pos, Registries.TILE.object(record.getInt()).orElseThrow(() -> new IOException("Unknown tile")));
+                case MINING -> level.miningProgress(pos.asLong(), record.getInt());
+                case STORE -> {
+                    var material = material(record.getInt());
+                    var total = record.getInt();
+                    var state = level.tileState(pos, StoreRoomState.class).orElse(null);
+                    if(state != null) {
+                        state.storeResource(material, total - state.storedResource(material));
+                        level.markDirty(pos);
+                    }
+                }
+                default -> throw new AssertionError();
+            }
+        }
+
+        @NotNull
+        private static Material material(int id) throws IOException {
+            return Registries.RESOURCE.object(id).orElseThrow(() -> new IOException("Unknown material " + id));
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package net.gudenau.cavegame.level;
+
+import net.gudenau.cavegame.actor.Actor;
+import net.gudenau.cavegame.tile.Tile;
+import net.gudenau.cavegame.tile.Tiles;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An immutable view of a {@link Level} at the end of a tick, published for threads other than the simulation thread.
+ * <br>
+ * <br>
+ * The tiles are stored per chunk. Chunks that did not change between two snapshots are shared by both of them, so
+ * publishing a snapshot only costs as much as the chunks that changed and the actors. Readers get a consistent view
+ * without taking any locks.<br>
+ * <br>
+ * The actors are sorted by the chunk they are in, {@link #chunkActorStart} and {@link #chunkActorEnd} give the
+ * indices of the actors of a chunk. The actors of a row of chunks are next to each other as well.<br>
+ * <br>
+ * The {@link Actor} handles are only meant for identity and type checks, their state is live and must not be read
+ * from other threads.<br>
+ * <br>
+ * The actor arrays are reused by later snapshots. To read the actors a snapshot has to be acquired with
+ * {@link Level#acquireSnapshot()} and closed once the reader is done with it, the tiles can be read from any snapshot at
+ * any time.<br>
+ * <br>
+ * Thread safe.
+ */
+public final class LevelSnapshot implements AutoCloseable {
+    /**
+     * The tick this snapshot was taken after.
+     */
+    private final long tick;
+
+    private final int width;
+    private final int height;
+    private final int chunkWidth;
+
+    /**
+     * The tiles of every chunk, {@link Level#CHUNK_SIZE} squared tiles per chunk in row-major order.
+     */
+    private final Tile @NotNull [] @NotNull [] chunks;
+
+    /**
+     * The amount of actors in this snapshot.
+     */
+    private final int actorCount;
+
+    /**
+     * The actors of this snapshot, handed back to the publisher once the last reference is released.
+     */
+    @NotNull
+    private final SnapshotPublisher.ActorBuffer actors;
+
+    /**
+     * The amount of references to this snapshot, starts with the reference of the publisher.
+     */
+    @NotNull
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    LevelSnapshot(
+        long tick,
+        int width,
+        int height,
+        int chunkWidth,
+        Tile @NotNull [] @NotNull [] chunks,
+        @NotNull SnapshotPublisher.ActorBuffer actors
+    ) {
+        this.tick = tick;
+        this.width = width;
+        this.height = height;
+        this.chunkWidth = chunkWidth;
+        this.chunks = chunks;
+        this.actors = actors;
+        actorCount = actors.count;
+    }
+
+    /**
+     * Adds a reference to this snapshot unless it was already released by everyone.
+     *
+     * @return True if the reference was added
+     */
+    boolean retain() {
+        while(true) {
+            var count = references.get();
+            if(count == 0) {
+                return false;
+            }
+            if(references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases a reference to this snapshot, the actor arrays are reused once the last one is released.
+     */
+    void release() {
+        var count = references.decrementAndGet();
+        if(count == 0) {
+            actors.recycle();
+        } else if(count < 0) {
+            throw new IllegalStateException("Snapshot of tick " + tick + " was released too often");
+        }
+    }
+
+    /**
+     * Releases a snapshot that was acquired with {@link Level#acquireSnapshot()}, the actors of this snapshot can't be
+     * read after this.
+     */
+    @Override
+    public void close() {
+        release();
+    }
+
+    /**
+     * Gets the actors of this snapshot, checking that they were not reused yet.
+     *
+     * @return The actors of this snapshot
+     */
+    @NotNull
+    private SnapshotPublisher.ActorBuffer actors() {
+        var actors = this.actors;
+        if(actors.owner != this) {
+            throw new IllegalStateException("The actors of the snapshot of tick " + tick + " were reused, acquire the snapshot to read them");
+        }
+        return actors;
+    }
+
+    /**
+     * Gets the tick this snapshot was taken after.
+     *
+     * @return The tick of this snapshot
+     */
+    public long tick() {
+        return tick;
+    }
+
+    /**
+     * Gets the width of the level.
+     *
+     * @return The width of the level
+     */
+    public int width() {
+        return width;
+    }
+
+    /**
+     * Gets the height of the level.
+     *
+     * @return The height of the level
+     */
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Gets a tile from this snapshot.
+     *
+     * @param x The X position of the tile
+     * @param y The Y position of the tile
+     * @return The tile, {@link Tiles#BEDROCK} if out of bounds
+     */
+    @NotNull
+    public Tile tile(int x, int y) {
+        if(x < 0 || y < 0 || x >= width || y >= height) {
+            return Tiles.BEDROCK;
+        }
+
+        var chunk = chunks[Level.toChunk(x) + Level.toChunk(y) * chunkWidth];
+        return chunk[(x & Level.CHUNK_MASK) + ((y & Level.CHUNK_MASK) << Level.CHUNK_SHIFT)];
+    }
+
+    /**
+     * Gets a tile from this snapshot.
+     *
+     * @param pos The position of the tile
+     * @return The tile, {@link Tiles#BEDROCK} if out of bounds
+     */
+    @NotNull
+    public Tile tile(@NotNull TilePos pos) {
+        Objects.requireNonNull(pos, "pos can't be null");
+        return tile(pos.x(), pos.y());
+    }
+
+    /**
+     * Gets the tiles of a chunk, indexed by their position inside of the chunk. Tiles outside of the level are null and
+     * the array is shared with other snapshots, it must not be modified.
+     *
+     * @param index The index of the chunk
+     * @return The tiles of the chunk
+     */
+    Tile @NotNull [] chunk(int index) {
+        return chunks[index];
+    }
+
+    /**
+     * Checks if a chunk is unchanged between this snapshot and another one of the same level, useful to skip work for
+     * chunks that were already processed.
+     *
+     * @param other The other snapshot
+     * @param chunkX The X position of the chunk
+     * @param chunkY The Y position of the chunk
+     * @return True if the tiles of the chunk are the same in both snapshots
+     */
+    public boolean sameChunk(@NotNull LevelSnapshot other, int chunkX, int chunkY) {
+        var index = chunkX + chunkY * chunkWidth;
+        return chunks[index] == other.chunks[index];
+    }
+
+    /**
+     * Gets the amount of actors in this snapshot, pending actors are not included.
+     *
+     * @return The amount of actors
+     */
+    public int actorCount() {
+        return actorCount;
+    }
+
+    /**
+     * Gets the index of the first actor in a chunk, actors outside of the level are part of the closest chunk.
+     *
+     * @param chunkX The X position of the chunk
+     * @param chunkY The Y position of the chunk
+     * @return The index of the first actor
+     */
+    public int chunkActorStart(int chunkX, int chunkY) {
+        return actors().chunkStarts[chunkIndex(chunkX, chunkY)];
+    }
+
+    /**
+     * Gets the index after the last actor in a chunk, actors outside of the level are part of the closest chunk.
+     *
+     * @param chunkX The X position of the chunk
+     * @param chunkY The Y position of the chunk
+     * @return The index after the last actor
+     */
+    public int chunkActorEnd(int chunkX, int chunkY) {
+        return actors().chunkStarts[chunkIndex(chunkX, chunkY) + 1];
+    }
+
+    private int chunkIndex(int chunkX, int chunkY) {
+        Objects.checkIndex(chunkX, chunkWidth);
+        Objects.checkIndex(chunkY, chunks.length / chunkWidth);
+        return chunkX + chunkY * chunkWidth;
+    }
+
+    /**
+     * Gets the handle of an actor, see the class documentation for what it can be used for.
+     *
+     * @param index The index of the actor
+     * @return The handle of the actor
+     */
+    @NotNull
+    public Actor actor(int index) {
+        Objects.checkIndex(index, actorCount);
+        return actors().handles[index];
+    }
+
+    /**
+     * Gets the id of an actor, it is unique in the level and stays the same while the actor exists.
+     *
+     * @param index The index of the actor
+     * @return The id of the actor
+     */
+    public long actorId(int index) {
+        Objects.checkIndex(index, actorCount);
+        return actors().ids[index];
+    }
+
+    /**
+     * Gets the X position of an actor.
+     *
+     * @param index The index of the actor
+     * @return The X position
+     */
+    public double actorX(int index) {
+        Objects.checkIndex(index, actorCount);
+        return actors().x[index];
+    }
+
+    /**
+     * Gets the Y position of an actor.
+     *
+     * @param index The index of the actor
+     * @return The Y position
+     */
+    public double actorY(int index) {
+        Objects.checkIndex(index, actorCount);
+        return actors().y[index];
+    }
+
+    /**
+     * Gets the facing of an actor, in radians.
+     *
+     * @param index The index of the actor
+     * @return The facing
+     */
+    public double actorFacing(int index) {
+        Objects.checkIndex(index, actorCount);
+        return actors().facing[index];
+    }
+}
@@ -1,10 +1,11 @@
 package net.gudenau.cavegame.level;
 
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.objects.Object2LongMap;
 import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import net.gudenau.cavegame.actor.LivingActor;
-import net.gudenau.cavegame.tile.Tile;
 import net.gudenau.cavegame.util.MathUtils;
 import net.gudenau.cavegame.util.SharedLock;
 import org.jetbrains.annotations.NotNull;
@@ -12,7 +13,7 @@ import org.jetbrains.annotations.NotNull;
 import java.util.*;
 import java.util.stream.Collectors;
 
-public class Pathfinder {
+public class Pathfinder implements TileChangeListener {
     @NotNull
     private final SharedLock lock = new SharedLock();
     @NotNull
@@ -20,24 +21,36 @@ public class Pathfinder {
     @NotNull
     private final Map<Class<? extends LivingActor>, Map<CacheKey, CacheEntry>> cache = new Object2ObjectOpenHashMap<>();
 
-    public void tileModified(@NotNull TilePos pos, @NotNull Tile existing, @NotNull Tile current) {
-        if(existing.passable() == current.passable()) {
+    /**
+     * Invalidates the cached paths after a batch of tiles changed their passability, the cache is only walked once for
+     * the entire batch.
+     *
+     * @param positions The packed positions of the tiles that changed
+     */
+    public void tilesModified(@NotNull LongSet positions) {
+        if(positions.isEmpty()) {
             return;
         }
 
         lock.write(() -> {
-            cache.values().forEach((map) -> {
-                    map.entrySet().stream()
-                        .filter((entry) -> {
-                            var cacheEntry = entry.getValue();
-                            return cacheEntry.result.isEmpty() || cacheEntry.result.get().contains(pos);
-                        })
-                        .collect(Collectors.toUnmodifiableSet())
-                        .forEach((entry) -> map.remove(entry.getKey()));
-                });
+            cache.values().forEach((map) -> map.values().removeIf((cacheEntry) ->
+                cacheEntry.result.isEmpty() || cacheEntry.result.get().path().stream()
+                    .anyMatch((pos) -> positions.contains(pos.asLong()))
+            ));
         });
     }
 
+    @Override
+    public void tilesChanged(@NotNull Level level, @NotNull TileChanges changes) {
+        LongSet positions = new LongOpenHashSet();
+        for(int i = 0, size = changes.size(); i < size; i++) {
+            if(changes.oldTile(i).passable() != changes.newTile(i).passable()) {
+                positions.add(changes.position(i));
+            }
+        }
+        tilesModified(positions);
+    }
+
     private record CacheKey(TilePos start, TilePos end) {}
 
     @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
@@ -0,0 +1,281 @@
+package net.gudenau.cavegame.level;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.gudenau.cavegame.actor.Actor;
+import net.gudenau.cavegame.actor.ActorStore;
+import net.gudenau.cavegame.tile.Tile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Builds the {@link LevelSnapshot}s of a {@link Level} with copy-on-write chunks.<br>
+ * <br>
+ * The publisher listens for tile changes and only copies the chunks that changed since the previous snapshot, every
+ * other chunk is shared with the previous snapshot.<br>
+ * <br>
+ * The actors are copied into pooled {@link ActorBuffer}s, sorted by the chunk they are in with a counting sort so
+ * readers can find the actors of an area without looking at every actor. A snapshot is reference counted, the publisher holds a
+ * reference to the latest snapshot and readers acquire their own. Once the last reference of a snapshot is released its
+ * buffer goes back into the pool and is reused by a later snapshot, so a steady state publishes without allocating new
+ * actor arrays.<br>
+ * <br>
+ * Not thread safe, only the published snapshots are.
+ */
+final class SnapshotPublisher implements TileChangeListener {
+    /**
+     * The amount of tiles in a chunk.
+     */
+    private static final int CHUNK_AREA = Level.CHUNK_SIZE * Level.CHUNK_SIZE;
+
+    private final Tile @NotNull [] tiles;
+    private final int width;
+    private final int height;
+    private final int chunkWidth;
+    private final int chunkHeight;
+
+    /**
+     * The chunks of the last snapshot, never modified after they were published.
+     */
+    private Tile @NotNull [] @NotNull [] chunks;
+
+    /**
+     * The chunks that changed since the last snapshot.
+     */
+    private final boolean @NotNull [] dirty;
+
+    /**
+     * The indices of the chunks that changed since the last snapshot.
+     */
+    @NotNull
+    private final IntArrayList dirtyChunks = new IntArrayList();
+
+    /**
+     * The actor buffers that are not used by any snapshot, released from any thread.
+     */
+    @NotNull
+    private final Queue<ActorBuffer> freeBuffers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The last published snapshot, the publisher holds a reference to it until it is replaced.
+     */
+    @Nullable
+    private LevelSnapshot latest;
+
+    /**
+     * The unsorted actors, copied out of the store before they are sorted into a buffer.
+     */
+    @NotNull
+    private final ActorBuffer staging = new ActorBuffer(this);
+
+    /**
+     * The chunk of every staged actor.
+     */
+    private int @NotNull [] stagedChunks = new int[0];
+
+    /**
+     * The actors of a snapshot, reused once the snapshot is released.
+     */
+    static final class ActorBuffer {
+        /**
+         * The publisher that owns this buffer.
+         */
+        @NotNull
+        private final SnapshotPublisher publisher;
+
+        /**
+         * The snapshot that is currently using this buffer, null while it is in the pool.
+         */
+        @Nullable
+        LevelSnapshot owner;
+
+        /**
+         * The amount of actors in this buffer.
+         */
+        int count;
+
+        Actor @NotNull [] handles = new Actor[0];
+        long @NotNull [] ids = new long[0];
+        double @NotNull [] x = new double[0];
+        double @NotNull [] y = new double[0];
+        double @NotNull [] facing = new double[0];
+
+        /**
+         * The index of the first actor of every chunk, the actors of a chunk end where the next chunk starts. Has an
+         * extra element that holds the actor count.
+         */
+        int @NotNull [] chunkStarts;
+
+        private ActorBuffer(@NotNull SnapshotPublisher publisher) {
+            this.publisher = publisher;
+            chunkStarts = new int[publisher.chunkWidth * publisher.chunkHeight + 1];
+        }
+
+        /**
+         * Makes sure this buffer can hold an amount of actors.
+         *
+         * @param capacity The amount of actors
+         */
+        private void ensureCapacity(int capacity) {
+            if(handles.length < capacity) {
+                // Some headroom so a growing level does not reallocate every tick
+                var grown = capacity + (capacity >> 1);
+                handles = new Actor[grown];
+                ids = new long[grown];
+                x = new double[grown];
+                y = new double[grown];
+                facing = new double[grown];
+            }
+        }
+
+        /**
+         * Returns this buffer to the pool of its publisher, called when the last reference of its snapshot is released.
+         */
+        void recycle() {
+            owner = null;
+            publisher.freeBuffers.add(this);
+        }
+    }
+
+    /**
+     * Creates a new publisher, every chunk is copied for the first snapshot.
+     *
+     * @param tiles The tile storage of the level
+     * @param width The width of the level
+     * @param height The height of the level
+     * @param chunkWidth The width of the level in chunks
+     * @param chunkHeight The height of the level in chunks
+     */
+    SnapshotPublisher(Tile @NotNull [] tiles, int width, int height, int chunkWidth, int chunkHeight) {
+        this.tiles = tiles;
+        this.width = width;
+        this.height = height;
+        this.chunkWidth = chunkWidth;
+        this.chunkHeight = chunkHeight;
+
+        var count = chunkWidth * chunkHeight;
+        chunks = new Tile[count][];
+        dirty = new boolean[count];
+        for(int chunk = 0; chunk < count; chunk++) {
+            dirty[chunk] = true;
+            dirtyChunks.add(chunk);
+        }
+    }
+
+    @Override
+    public void tilesChanged(@NotNull Level level, @NotNull TileChanges changes) {
+        for(int i = 0, count = changes.chunkCount(); i < count; i++) {
+            var chunk = changes.chunkX(i) + changes.chunkY(i) * chunkWidth;
+            if(!dirty[chunk]) {
+                dirty[chunk] = true;
+                dirtyChunks.add(chunk);
+            }
+        }
+    }
+
+    /**
+     * Creates a new snapshot from the current state of the level.
+     *
+     * @param tick The tick the snapshot is taken after
+     * @param store The actor store of the level
+     * @return The new snapshot
+     */
+    @NotNull
+    LevelSnapshot publish(long tick, @NotNull ActorStore store) {
+        if(!dirtyChunks.isEmpty()) {
+            // The previous snapshot still references the old array, so it has to be copied as well
+            chunks = chunks.clone();
+            for(int i = 0, size = dirtyChunks.size(); i < size; i++) {
+                var chunk = dirtyChunks.getInt(i);
+                dirty[chunk] = false;
+                chunks[chunk] = copyChunk(chunk);
+            }
+            dirtyChunks.clear();
+        }
+
+        var actors = freeBuffers.poll();
+        if(actors == null) {
+            actors = new ActorBuffer(this);
+        }
+        var capacity = store.size();
+        staging.ensureCapacity(capacity);
+        actors.ensureCapacity(capacity);
+        var count = store.copyActive(staging.handles, staging.ids, staging.x, staging.y, staging.facing);
+        sortActors(count, actors);
+        var previousCount = actors.count;
+        actors.count = count;
+        if(count < previousCount) {
+            // Don't keep removed actors alive
+            Arrays.fill(actors.handles, count, previousCount, null);
+        }
+        Arrays.fill(staging.handles, 0, count, null);
+
+        var snapshot = new LevelSnapshot(tick, width, height, chunkWidth, chunks, actors);
+        actors.owner = snapshot;
+        var previous = latest;
+        latest = snapshot;
+        if(previous != null) {
+            previous.release();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Sorts the staged actors into a buffer by their chunk, actors outside of the level count as part of the closest
+     * chunk.
+     *
+     * @param count The amount of staged actors
+     * @param actors The buffer to sort the actors into
+     */
+    private void sortActors(int count, @NotNull ActorBuffer actors) {
+        if(stagedChunks.length < count) {
+            stagedChunks = new int[staging.handles.length];
+        }
+
+        var starts = actors.chunkStarts;
+        Arrays.fill(starts, 0);
+        for(int i = 0; i < count; i++) {
+            var chunkX = Math.clamp(Level.toChunk((int) Math.floor(staging.x[i])), 0, chunkWidth - 1);
+            var chunkY = Math.clamp(Level.toChunk((int) Math.floor(staging.y[i])), 0, chunkHeight - 1);
+            var chunk = chunkX + chunkY * chunkWidth;
+            stagedChunks[i] = chunk;
+            starts[chunk + 1]++;
+        }
+        for(int chunk = 1; chunk < starts.length; chunk++) {
+            starts[chunk] += starts[chunk - 1];
+        }
+
+        // Fill every chunk from its start, which leaves each start pointing at the end of its chunk
+        for(int i = 0; i < count; i++) {
+            var index = starts[stagedChunks[i]]++;
+            actors.handles[index] = staging.handles[i];
+            actors.ids[index] = staging.ids[i];
+            actors.x[index] = staging.x[i];
+            actors.y[index] = staging.y[i];
+            actors.facing[index] = staging.facing[i];
+        }
+        // Shift the ends back into starts
+        System.arraycopy(starts, 0, starts, 1, starts.length - 1);
+        starts[0] = 0;
+    }
+
+    /**
+     * Copies the tiles of a chunk out of the level.
+     *
+     * @param chunk The index of the chunk
+     * @return The copied tiles
+     */
+    private Tile @NotNull [] copyChunk(int chunk) {
+        var copy = new Tile[CHUNK_AREA];
+        var minX = Level.fromChunk(chunk % chunkWidth);
+        var minY = Level.fromChunk(chunk / chunkWidth);
+        var length = Math.min(Level.CHUNK_SIZE, width - minX);
+        for(int y = minY, maxY = Math.min(minY + Level.CHUNK_SIZE, height); y < maxY; y++) {
+            System.arraycopy(tiles, minX + y * width, copy, (y - minY) << Level.CHUNK_SHIFT, length);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,207 @@
+package net.gudenau.cavegame.level;
+
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Schedules updates for tiles, keyed by their packed position.<br>
+ * <br>
+ * This is a hierarchical timing wheel: three wheels of {@link #WHEEL_SIZE} slots, where every slot of a wheel covers a
+ * full rotation of the wheel below it. Updates are placed into the lowest wheel that can hold their delay and are
+ * cascaded into lower wheels as time passes, so every update is touched at most once per wheel and a tick only costs
+ * as much as the updates that are due or cascading.<br>
+ * <br>
+ * Every tile can have at most a single pending update, scheduling an update for a tile that already has one keeps the
+ * earlier of the two. Superseded entries are left in their slots and dropped when they are reached.<br>
+ * <br>
+ * Not thread safe.
+ */
+final class TickScheduler {
+    /**
+     * The amount of bits of the tick used to index a single wheel.
+     */
+    private static final int WHEEL_BITS = 8;
+
+    /**
+     * The amount of slots in a wheel.
+     */
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+
+    /**
+     * The mask for a slot index.
+     */
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    /**
+     * The amount of wheels.
+     */
+    private static final int WHEELS = 3;
+
+    /**
+     * The largest delay that can be placed directly, longer delays are placed at the end of the last wheel and placed
+     * again when they are cascaded.
+     */
+    private static final long MAX_DELAY = (1L << (WHEEL_BITS * WHEELS)) - 1;
+
+    /**
+     * The slots of every wheel, null until something is placed into them.
+     */
+    private final LongArrayList @Nullable [] @NotNull [] wheels = new LongArrayList[WHEELS][WHEEL_SIZE];
+
+    /**
+     * The tick every scheduled tile is due on.
+     */
+    @NotNull
+    private final Long2LongMap due = new Long2LongOpenHashMap();
+
+    /**
+     * The priority of every scheduled tile.
+     */
+    @NotNull
+    private final Long2IntMap priorities = new Long2IntOpenHashMap();
+
+    /**
+     * The updates that are being run this tick, reused between ticks.
+     */
+    @NotNull
+    private final LongArrayList ready = new LongArrayList();
+
+    /**
+     * The current tick.
+     */
+    private long now = 0;
+
+    TickScheduler() {
+        due.defaultReturnValue(-1);
+    }
+
+    /**
+     * Schedules an update for a tile.
+     *
+     * @param pos The packed position of the tile
+     * @param delay The amount of ticks to wait, values less than 1 are treated as 1
+     * @param priority The priority of the update, updates that are due on the same tick run in ascending priority
+     * @return True if the update was scheduled, false if the tile already has an earlier update
+     */
+    boolean schedule(long pos, long delay, int priority) {
+        var target = now + Math.max(delay, 1);
+        var existing = due.get(pos);
+        if(existing != -1 && existing <= target) {
+            return false;
+        }
+
+        due.put(pos, target);
+        priorities.put(pos, priority);
+        place(pos, target);
+        return true;
+    }
+
+    /**
+     * Checks if a tile has a pending update.
+     *
+     * @param pos The packed position of the tile
+     * @return True if an update is pending
+     */
+    boolean isScheduled(long pos) {
+        return due.containsKey(pos);
+    }
+
+    /**
+     * Gets the amount of pending updates.
+     *
+     * @return The amount of pending updates
+     */
+    int size() {
+        return due.size();
+    }
+
+    private void place(long pos, long target) {
+        var delta = Math.min(target - now, MAX_DELAY);
+        var placed = now + delta;
+
+        int wheel = 0;
+        while(wheel < WHEELS - 1 && delta >= 1L << (WHEEL_BITS * (wheel + 1))) {
+            wheel++;
+        }
+
+        var slotIndex = (int) (placed >>> (WHEEL_BITS * wheel)) & WHEEL_MASK;
+        var slot = wheels[wheel][slotIndex];
+        if(slot == null) {
+            slot = wheels[wheel][slotIndex] = new LongArrayList();
+        }
+        slot.add(pos);
+    }
+
+    /**
+     * Moves the contents of a slot into the lower wheels.
+     *
+     * @param wheel The wheel of the slot
+     * @param slotIndex The index of the slot
+     */
+    private void cascade(int wheel, int slotIndex) {
+        var slot = wheels[wheel][slotIndex];
+        if(slot == null || slot.isEmpty()) {
+            return;
+        }
+
+        // Swap in a fresh list so entries can be placed back into the same slot if their delay was clamped
+        wheels[wheel][slotIndex] = new LongArrayList();
+        for(int i = 0, size = slot.size(); i < size; i++) {
+            var pos = slot.getLong(i);
+            var target = due.get(pos);
+            if(target != -1) {
+                place(pos, target);
+            }
+        }
+    }
+
+    /**
+     * Advances time by a single tick and runs every update that is due.
+     *
+     * @param action The action that performs the update, invoked with the packed position of the tile
+     */
+    void tick(@NotNull LongConsumer action) {
+        now++;
+
+        for(int wheel = WHEELS - 1; wheel > 0; wheel--) {
+            var shift = WHEEL_BITS * wheel;
+            if((now & ((1L << shift) - 1)) == 0) {
+                cascade(wheel, (int) (now >>> shift) & WHEEL_MASK);
+            }
+        }
+
+        var slotIndex = (int) now & WHEEL_MASK;
+        var slot = wheels[0][slotIndex];
+        if(slot == null || slot.isEmpty()) {
+            return;
+        }
+
+        for(int i = 0, size = slot.size(); i < size; i++) {
+            var pos = slot.getLong(i);
+            if(due.get(pos) == now) {
+                due.remove(pos);
+                ready.add(pos);
+            }
+        }
+        slot.clear();
+
+        if(ready.size() > 1) {
+            ready.sort((a, b) -> Integer.compare(priorities.get(a), priorities.get(b)));
+        }
+        for(int i = 0, size = ready.size(); i < size; i++) {
+            priorities.remove(ready.getLong(i));
+        }
+        // Updates can schedule new updates, those are always for a later tick so they can't end up in this batch
+        for(int i = 0, size = ready.size(); i < size; i++) {
+            action.accept(ready.getLong(i));
+        }
+        ready.clear();
+    }
+}
@@ -0,0 +1,20 @@
+package net.gudenau.cavegame.level;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A listener that is notified about the tiles that changed in a {@link Level}.<br>
+ * <br>
+ * Changes are not delivered as they happen, they are collected during a tick and delivered once at the end of the
+ * tick as a single batch that is grouped by chunk.
+ */
+@FunctionalInterface
+public interface TileChangeListener {
+    /**
+     * Invoked with all of the tiles that changed during a tick. The batch is only valid for the duration of this call.
+     *
+     * @param level The level the tiles changed in
+     * @param changes The changed tiles
+     */
+    void tilesChanged(@NotNull Level level, @NotNull TileChanges changes);
+}
@@ -0,0 +1,326 @@
+package net.gudenau.cavegame.level;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.gudenau.cavegame.Registries;
+import net.gudenau.cavegame.tile.Tile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * A batch of tile changes in a {@link Level}, delivered to every {@link TileChangeListener} at the end of a tick.<br>
+ * <br>
+ * Every changed tile is present once with the tile it had at the start of the tick and the tile it has now, tiles that
+ * were changed back during the tick are not included. The changes are grouped by chunk, the changes of chunk
+ * {@code c} are the indices from {@link #chunkStart(int) chunkStart(c)} inclusive to
+ * {@link #chunkEnd(int) chunkEnd(c)} exclusive.<br>
+ * <br>
+ * The same instance and its arrays are reused every tick, listeners must not keep a reference to it.
+ */
+public final class TileChanges {
+    /**
+     * The packed positions of the changed tiles.
+     */
+    private long @NotNull [] positions = new long[64];
+
+    /**
+     * The registry ids of the tiles before the changes.
+     */
+    private int @NotNull [] oldIds = new int[64];
+
+    /**
+     * The registry ids of the tiles after the changes.
+     */
+    private int @NotNull [] newIds = new int[64];
+
+    /**
+     * The amount of changes.
+     */
+    private int size = 0;
+
+    /**
+     * The index of the change of every tile that changed this tick, used to merge repeated changes.
+     */
+    @NotNull
+    private final Long2IntOpenHashMap indices = new Long2IntOpenHashMap();
+
+    /**
+     * The index of the first change of every chunk, the last element is {@link #size}.
+     */
+    private int @NotNull [] chunkStarts = new int[2];
+
+    /**
+     * The amount of chunks with changes.
+     */
+    private int chunkCount = 0;
+
+    /**
+     * A cache of tile registry ids, the registry takes a lock for every lookup.
+     */
+    @NotNull
+    private final Reference2IntMap<Tile> idCache = new Reference2IntOpenHashMap<>();
+
+    /**
+     * A cache of tiles indexed by their registry ids.
+     */
+    private Tile @NotNull [] tileCache = new Tile[16];
+
+    TileChanges() {
+        indices.defaultReturnValue(-1);
+        idCache.defaultReturnValue(-1);
+    }
+
+    /**
+     * Records a tile change.
+     *
+     * @param x The X position of the tile
+     * @param y The Y position of the tile
+     * @param existing The previous tile
+     * @param tile The new tile
+     */
+    void record(int x, int y, @NotNull Tile existing, @NotNull Tile tile) {
+        var packed = TilePos.pack(x, y);
+        var index = indices.get(packed);
+        if(index != -1) {
+            newIds[index] = id(tile);
+            return;
+        }
+
+        if(size == positions.length) {
+            var capacity = size << 1;
+            positions = Arrays.copyOf(positions, capacity);
+            oldIds = Arrays.copyOf(oldIds, capacity);
+            newIds = Arrays.copyOf(newIds, capacity);
+        }
+
+        indices.put(packed, size);
+        positions[size] = packed;
+        oldIds[size] = id(existing);
+        newIds[size] = id(tile);
+        size++;
+    }
+
+    /**
+     * Drops changes that were reverted, sorts the remaining changes by chunk and finds the chunk ranges.
+     *
+     * @return True if there are any changes
+     */
+    boolean prepare() {
+        indices.clear();
+        if(size > 4096) {
+            indices.trim();
+        }
+
+        int kept = 0;
+        for(int i = 0; i < size; i++) {
+            if(oldIds[i] != newIds[i]) {
+                positions[kept] = positions[i];
+                oldIds[kept] = oldIds[i];
+                newIds[kept] = newIds[i];
+                kept++;
+            }
+        }
+        size = kept;
+        if(size == 0) {
+            return false;
+        }
+
+        it.unimi.dsi.fastutil.Arrays.quickSort(0, size, (a, b) -> {
+            var result = Long.compare(chunkKey(positions[a]), chunkKey(positions[b]));
+            return result != 0 ? result : Long.compare(positions[a], positions[b]);
+        }, (a, b) -> {
+            var position = positions[a];
+            positions[a] = positions[b];
+            positions[b] = position;
+            var oldId = oldIds[a];
+            oldIds[a] = oldIds[b];
+            oldIds[b] = oldId;
+            var newId = newIds[a];
+            newIds[a] = newIds[b];
+            newIds[b] = newId;
+        });
+
+        chunkCount = 0;
+        var lastKey = Long.MIN_VALUE;
+        for(int i = 0; i < size; i++) {
+            var key = chunkKey(positions[i]);
+            if(key != lastKey) {
+                if(chunkCount + 1 >= chunkStarts.length) {
+                    chunkStarts = Arrays.copyOf(chunkStarts, chunkStarts.length << 1);
+                }
+                chunkStarts[chunkCount++] = i;
+                lastKey = key;
+            }
+        }
+        chunkStarts[chunkCount] = size;
+        return true;
+    }
+
+    /**
+     * Empties this batch after it was delivered.
+     */
+    void clear() {
+        size = 0;
+        chunkCount = 0;
+    }
+
+    private static long chunkKey(long packed) {
+        return TilePos.pack(Level.toChunk(TilePos.unpackX(packed)), Level.toChunk(TilePos.unpackY(packed)));
+    }
+
+    private int id(@NotNull Tile tile) {
+        var id = idCache.getInt(tile);
+        if(id == -1) {
+            id = Registries.TILE.id(tile).orElseThrow(() -> new IllegalStateException("Tile " + tile + " was not registered"));
+            idCache.put(tile, id);
+            if(id >= tileCache.length) {
+                tileCache = Arrays.copyOf(tileCache, Math.max(id + 1, tileCache.length << 1));
+            }
+            tileCache[id] = tile;
+        }
+        return id;
+    }
+
+    /**
+     * Gets the amount of changed tiles.
+     *
+     * @return The amount of changed tiles
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the packed position of a changed tile, see {@link TilePos#pack(int, int)}.
+     *
+     * @param index The index of the change
+     * @return The packed position
+     */
+    public long position(int index) {
+        return positions[index];
+    }
+
+    /**
+     * Gets the X position of a changed tile.
+     *
+     * @param index The index of the change
+     * @return The X position
+     */
+    public int x(int index) {
+        return TilePos.unpackX(positions[index]);
+    }
+
+    /**
+     * Gets the Y position of a changed tile.
+     *
+     * @param index The index of the change
+     * @return The Y position
+     */
+    public int y(int index) {
+        return TilePos.unpackY(positions[index]);
+    }
+
+    /**
+     * Gets the registry id of the tile before the change.
+     *
+     * @param index The index of the change
+     * @return The registry id of the old tile
+     */
+    public int oldTileId(int index) {
+        return oldIds[index];
+    }
+
+    /**
+     * Gets the registry id of the tile after the change.
+     *
+     * @param index The index of the change
+     * @return The registry id of the new tile
+     */
+    public int newTileId(int index) {
+        return newIds[index];
+    }
+
+    /**
+     * Gets the tile before the change.
+     *
+     * @param index The index of the change
+     * @return The old tile
+     */
+    @NotNull
+    public Tile oldTile(int index) {
+        return tileCache[oldIds[index]];
+    }
+
+    /**
+     * Gets the tile after the change.
+     *
+     * @param index The index of the change
+     * @return The new tile
+     */
+    @NotNull
+    public Tile newTile(int index) {
+        return tileCache[newIds[index]];
+    }
+
+    /**
+     * Gets the amount of chunks with changed tiles.
+     *
+     * @return The amount of chunks
+     */
+    public int chunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Gets the index of the first change in a chunk.
+     *
+     * @param chunk The index of the chunk, between 0 and {@link #chunkCount()}
+     * @return The first change of the chunk, inclusive
+     */
+    public int chunkStart(int chunk) {
+        return chunkStarts[chunk];
+    }
+
+    /**
+     * Gets the index after the last change in a chunk.
+     *
+     * @param chunk The index of the chunk, between 0 and {@link #chunkCount()}
+     * @return The last change of the chunk, exclusive
+     */
+    public int chunkEnd(int chunk) {
+        return chunkStarts[chunk + 1];
+    }
+
+    /**
+     * Gets the X position of a chunk with changes.
+     *
+     * @param chunk The index of the chunk, between 0 and {@link #chunkCount()}
+     * @return The X position of the chunk
+     */
+    public int chunkX(int chunk) {
+        return Level.toChunk(x(chunkStarts[chunk]));
+    }
+
+    /**
+     * Gets the Y position of a chunk with changes.
+     *
+     * @param chunk The index of the chunk, between 0 and {@link #chunkCount()}
+     * @return The Y position of the chunk
+     */
+    public int chunkY(int chunk) {
+        return Level.toChunk(y(chunkStarts[chunk]));
+    }
+
+    /**
+     * Invokes an action once for every chunk that has changes.
+     *
+     * @param action The action to invoke
+     */
+    public void forEachChunk(@NotNull ChunkConsumer action) {
+        for(int chunk = 0; chunk < chunkCount; chunk++) {
+            action.accept(chunkX(chunk), chunkY(chunk));
+        }
+    }
+}
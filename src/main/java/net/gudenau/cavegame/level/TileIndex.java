@@ -0,0 +1,275 @@
+package net.gudenau.cavegame.level;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import net.gudenau.cavegame.tile.Tile;
+import net.gudenau.cavegame.util.MathUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A per-{@link Tile} index of the tiles in a {@link Level}, allows for finding and counting tiles without scanning the
+ * entire level.<br>
+ * <br>
+ * Every {@link Tile} gets a set of occupancy bitsets, one per chunk, and a count of how many tiles are set in each
+ * chunk. Chunks that have never contained a {@link Tile} do not have a bitset allocated.
+ */
+final class TileIndex {
+    /**
+     * The amount of longs needed to store the occupancy of a single chunk.
+     */
+    private static final int CHUNK_WORDS = (Level.CHUNK_SIZE * Level.CHUNK_SIZE) / Long.SIZE;
+
+    /**
+     * The width of the indexed level in chunks.
+     */
+    private final int chunkWidth;
+
+    /**
+     * The height of the indexed level in chunks.
+     */
+    private final int chunkHeight;
+
+    /**
+     * The index entries for every {@link Tile} that has been present in the level.
+     */
+    @NotNull
+    private final Map<Tile, Entry> entries = new Object2ObjectOpenHashMap<>();
+
+    /**
+     * The occupancy of a single {@link Tile}.
+     */
+    private final class Entry {
+        /**
+         * The occupancy bits of each chunk, null if the {@link Tile} has never been present in a chunk.
+         */
+        private final long @Nullable [] @NotNull [] bits = new long[chunkWidth * chunkHeight][];
+
+        /**
+         * The amount of tiles in each chunk.
+         */
+        private final int @NotNull [] counts = new int[chunkWidth * chunkHeight];
+
+        /**
+         * The amount of tiles in the entire level.
+         */
+        private int total;
+
+        private void set(int chunk, int local) {
+            var words = bits[chunk];
+            if(words == null) {
+                words = bits[chunk] = new long[CHUNK_WORDS];
+            }
+            words[local >>> 6] |= 1L << local;
+            counts[chunk]++;
+            total++;
+        }
+
+        private void clear(int chunk, int local) {
+            var words = bits[chunk];
+            if(words == null) {
+                return;
+            }
+            words[local >>> 6] &= ~(1L << local);
+            counts[chunk]--;
+            total--;
+        }
+    }
+
+    /**
+     * Creates a new index for a level of the provided size that is filled with a single {@link Tile}.
+     *
+     * @param width The width of the level
+     * @param height The height of the level
+     * @param fill The {@link Tile} the level is filled with
+     */
+    TileIndex(int width, int height, @NotNull Tile fill) {
+        chunkWidth = Level.toChunk(width + Level.CHUNK_MASK);
+        chunkHeight = Level.toChunk(height + Level.CHUNK_MASK);
+
+        var entry = entry(fill);
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                entry.set(chunkIndex(x, y), localIndex(x, y));
+            }
+        }
+    }
+
+    @NotNull
+    private Entry entry(@NotNull Tile tile) {
+        return entries.computeIfAbsent(tile, (key) -> new Entry());
+    }
+
+    private int chunkIndex(int x, int y) {
+        return Level.toChunk(x) + Level.toChunk(y) * chunkWidth;
+    }
+
+    private static int localIndex(int x, int y) {
+        return (x & Level.CHUNK_MASK) | ((y & Level.CHUNK_MASK) << Level.CHUNK_SHIFT);
+    }
+
+    /**
+     * Updates the index to reflect a changed {@link Tile}.
+     *
+     * @param x The X position of the tile
+     * @param y The Y position of the tile
+     * @param existing The {@link Tile} that was replaced
+     * @param current The new {@link Tile}
+     */
+    void update(int x, int y, @NotNull Tile existing, @NotNull Tile current) {
+        var chunk = chunkIndex(x, y);
+        var local = localIndex(x, y);
+
+        var existingEntry = entries.get(existing);
+        if(existingEntry != null) {
+            existingEntry.clear(chunk, local);
+        }
+        entry(current).set(chunk, local);
+    }
+
+    /**
+     * Gets the amount of a {@link Tile} in the level.
+     *
+     * @param tile The {@link Tile} to count
+     * @return The amount of the {@link Tile}
+     */
+    int count(@NotNull Tile tile) {
+        var entry = entries.get(tile);
+        return entry == null ? 0 : entry.total;
+    }
+
+    /**
+     * Gets the amount of a {@link Tile} in a single chunk.
+     *
+     * @param tile The {@link Tile} to count
+     * @param chunkX The X position of the chunk
+     * @param chunkY The Y position of the chunk
+     * @return The amount of the {@link Tile}
+     */
+    int count(@NotNull Tile tile, int chunkX, int chunkY) {
+        if(chunkX < 0 || chunkY < 0 || chunkX >= chunkWidth || chunkY >= chunkHeight) {
+            return 0;
+        }
+        var entry = entries.get(tile);
+        return entry == null ? 0 : entry.counts[chunkX + chunkY * chunkWidth];
+    }
+
+    /**
+     * Finds the first instance of a {@link Tile}, in chunk order.
+     *
+     * @param tile The {@link Tile} to look for
+     * @return The {@link TilePos} or empty if the {@link Tile} is not present
+     */
+    @NotNull
+    Optional<TilePos> find(@NotNull Tile tile) {
+        var entry = entries.get(tile);
+        if(entry == null || entry.total == 0) {
+            return Optional.empty();
+        }
+
+        var counts = entry.counts;
+        for(int chunk = 0, length = counts.length; chunk < length; chunk++) {
+            if(counts[chunk] == 0) {
+                continue;
+            }
+
+            //noinspection DataFlowIssue A chunk with a count always has bits
+            var words = entry.bits[chunk];
+            for(int word = 0; word < CHUNK_WORDS; word++) {
+                if(words[word] != 0) {
+                    var local = (word << 6) | Long.numberOfTrailingZeros(words[word]);
+                    return Optional.of(new TilePos(
+                        Level.fromChunk(chunk % chunkWidth) | (local & Level.CHUNK_MASK),
+                        Level.fromChunk(chunk / chunkWidth) | (local >>> Level.CHUNK_SHIFT)
+                    ));
+                }
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Finds the instance of a {@link Tile} with the smallest Manhattan distance to the provided position, excluding the
+     * provided position itself.<br>
+     * <br>
+     * Chunks are visited in rings around the chunk of the starting position, the search stops as soon as no chunk in
+     * the next ring could contain a closer tile.
+     *
+     * @param position The position to search from
+     * @param tile The {@link Tile} to look for
+     * @return The {@link TilePos} or empty if the {@link Tile} is not present
+     */
+    @NotNull
+    Optional<TilePos> findNearest(@NotNull TilePos position, @NotNull Tile tile) {
+        var entry = entries.get(tile);
+        if(entry == null || entry.total == 0) {
+            return Optional.empty();
+        }
+
+        var x = position.x();
+        var y = position.y();
+        var originX = MathUtils.clamp(Level.toChunk(x), 0, chunkWidth - 1);
+        var originY = MathUtils.clamp(Level.toChunk(y), 0, chunkHeight - 1);
+        var maxRing = Math.max(
+            Math.max(originX, chunkWidth - 1 - originX),
+            Math.max(originY, chunkHeight - 1 - originY)
+        );
+
+        var bestDistance = Integer.MAX_VALUE;
+        var bestX = 0;
+        var bestY = 0;
+
+        for(int ring = 0; ring <= maxRing; ring++) {
+            // Every tile in this ring is at least this far away along one axis
+            if(bestDistance <= Level.fromChunk(ring - 1)) {
+                break;
+            }
+
+            var minX = originX - ring;
+            var maxX = originX + ring;
+            var minY = originY - ring;
+            var maxY = originY + ring;
+            for(int chunkY = Math.max(minY, 0), endY = Math.min(maxY, chunkHeight - 1); chunkY <= endY; chunkY++) {
+                var edge = chunkY == minY || chunkY == maxY;
+                for(int chunkX = Math.max(minX, 0), endX = Math.min(maxX, chunkWidth - 1); chunkX <= endX; chunkX++) {
+                    if(!edge && chunkX != minX && chunkX != maxX) {
+                        // Only the outline of the ring needs to be visited, skip the interior.
+                        chunkX = maxX - 1;
+                        continue;
+                    }
+
+                    var chunk = chunkX + chunkY * chunkWidth;
+                    if(entry.counts[chunk] == 0) {
+                        continue;
+                    }
+
+                    var baseX = Level.fromChunk(chunkX);
+                    var baseY = Level.fromChunk(chunkY);
+                    //noinspection DataFlowIssue A chunk with a count always has bits
+                    var words = entry.bits[chunk];
+                    for(int word = 0; word < CHUNK_WORDS; word++) {
+                        var bits = words[word];
+                        while(bits != 0) {
+                            var local = (word << 6) | Long.numberOfTrailingZeros(bits);
+                            bits &= bits - 1;
+
+                            var tileX = baseX | (local & Level.CHUNK_MASK);
+                            var tileY = baseY | (local >>> Level.CHUNK_SHIFT);
+                            var distance = Math.abs(tileX - x) + Math.abs(tileY - y);
+                            if(distance != 0 && distance < bestDistance) {
+                                bestDistance = distance;
+                                bestX = tileX;
+                                bestY = tileY;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        return bestDistance == Integer.MAX_VALUE ? Optional.empty() : Optional.of(new TilePos(bestX, bestY));
+    }
+}
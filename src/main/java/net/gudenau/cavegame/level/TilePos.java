@@ -39,10 +39,38 @@ public record TilePos(int x, int y) {
      * @param pos The long to unpack
      */
     public TilePos(long pos) {
-        this(
-            (int) ((pos & X_MASK) >>> X_SHIFT),
-            (int) ((pos & Y_MASK) >>> Y_SHIFT)
-        );
+        this(unpackX(pos), unpackY(pos));
+    }
+
+    /**
+     * Extracts the X value from the long representation of a position without creating a new position.
+     *
+     * @param pos The packed position
+     * @return The X value
+     */
+    public static int unpackX(long pos) {
+        return (int) ((pos & X_MASK) >>> X_SHIFT);
+    }
+
+    /**
+     * Extracts the Y value from the long representation of a position without creating a new position.
+     *
+     * @param pos The packed position
+     * @return The Y value
+     */
+    public static int unpackY(long pos) {
+        return (int) ((pos & Y_MASK) >>> Y_SHIFT);
+    }
+
+    /**
+     * Packs a position into a long without creating a new position.
+     *
+     * @param x The X value
+     * @param y The Y value
+     * @return The long representation of the position
+     */
+    public static long pack(int x, int y) {
+        return ((((long) x) << X_SHIFT) & X_MASK) | (((long) y) << Y_SHIFT);
     }
 
     /**
@@ -96,7 +124,7 @@ public record TilePos(int x, int y) {
      * @return The long representation of this position
      */
     public long asLong() {
-        return (((long) x) << X_SHIFT) | (((long) y) << Y_SHIFT);
+        return pack(x, y);
     }
 
     /**
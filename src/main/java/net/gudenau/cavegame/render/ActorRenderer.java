@@ -0,0 +1,130 @@
+package net.gudenau.cavegame.render;
+
+import net.gudenau.cavegame.CaveGame;
+import net.gudenau.cavegame.actor.MinerActor;
+import net.gudenau.cavegame.actor.ResourceActor;
+import net.gudenau.cavegame.level.Level;
+import net.gudenau.cavegame.renderer.Renderer;
+import net.gudenau.cavegame.renderer.texture.AtlasedTexture;
+import net.gudenau.cavegame.renderer.texture.Sprite;
+import net.gudenau.cavegame.resource.Identifier;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Draws the actors of a {@link Level} as sprites, read from the latest snapshot so the level can be ticked on another
+ * thread.<br>
+ * <br>
+ * Not thread safe, must be used from the render thread.
+ */
+public final class ActorRenderer implements AutoCloseable {
+    /**
+     * The maximum amount of actors drawn per frame.
+     */
+    private static final int CAPACITY = 1 << 16;
+
+    private static final Identifier MINER = new Identifier(CaveGame.NAMESPACE, "actor/miner");
+    private static final Identifier RESOURCE = new Identifier(CaveGame.NAMESPACE, "actor/resource");
+
+    /**
+     * The size of the sprite of a miner in tiles.
+     */
+    private static final float MINER_SIZE = 0.75F;
+
+    /**
+     * The size of the sprite of a resource in tiles.
+     */
+    private static final float RESOURCE_SIZE = 0.5F;
+
+    @NotNull
+    private final Level level;
+
+    @NotNull
+    private final AtlasedTexture<Identifier> atlas;
+
+    @NotNull
+    private final SpriteBatch batch;
+
+    @NotNull
+    private final Sprite miner;
+
+    @NotNull
+    private final Sprite resource;
+
+    /**
+     * Creates a new actor renderer.
+     *
+     * @param renderer The renderer to create the resources with
+     * @param level The level to draw the actors of
+     */
+    public ActorRenderer(@NotNull Renderer renderer, @NotNull Level level) {
+        Objects.requireNonNull(renderer, "renderer can't be null");
+        this.level = Objects.requireNonNull(level, "level can't be null");
+
+        try {
+            atlas = renderer.textureManager().loadAtlas(new Identifier(CaveGame.NAMESPACE, "actors"), List.of(MINER, RESOURCE));
+        } catch(IOException e) {
+            throw new UncheckedIOException("Failed to load the actor textures", e);
+        }
+        miner = atlas.sprite(MINER).orElseThrow();
+        resource = atlas.sprite(RESOURCE).orElseThrow();
+
+        batch = new SpriteBatch(renderer, atlas, CAPACITY);
+    }
+
+    /**
+     * Draws every actor that overlaps a rectangle. The camera has to be set up by the caller.
+     *
+     * @param renderer The renderer to draw with
+     * @param minX The smallest visible X position in tiles
+     * @param minY The smallest visible Y position in tiles
+     * @param maxX The largest visible X position in tiles
+     * @param maxY The largest visible Y position in tiles
+     */
+    public void draw(@NotNull Renderer renderer, double minX, double minY, double maxX, double maxY) {
+        // Grown by half of the largest sprite so actors on the edge are not cut off
+        minX -= MINER_SIZE / 2;
+        minY -= MINER_SIZE / 2;
+        maxX += MINER_SIZE / 2;
+        maxY += MINER_SIZE / 2;
+
+        try(var snapshot = level.acquireSnapshot()) {
+            batch.begin();
+            for(int i = 0, count = snapshot.actorCount(); i < count; i++) {
+                var x = snapshot.actorX(i);
+                var y = snapshot.actorY(i);
+                if(x < minX || y < minY || x > maxX || y > maxY) {
+                    continue;
+                }
+
+                var actor = snapshot.actor(i);
+                Sprite sprite;
+                float size;
+                if(actor instanceof MinerActor) {
+                    sprite = miner;
+                    size = MINER_SIZE;
+                } else if(actor instanceof ResourceActor) {
+                    sprite = resource;
+                    size = RESOURCE_SIZE;
+                } else {
+                    continue;
+                }
+
+                if(!batch.add(sprite, (float) x, (float) y, (float) snapshot.actorFacing(i), size)) {
+                    break;
+                }
+            }
+        }
+        batch.draw(renderer);
+    }
+
+    @Override
+    public void close() {
+        batch.close();
+        atlas.close();
+    }
+}
@@ -0,0 +1,179 @@
+package net.gudenau.cavegame.render;
+
+import net.gudenau.cavegame.CaveGame;
+import net.gudenau.cavegame.renderer.BufferType;
+import net.gudenau.cavegame.renderer.GraphicsBuffer;
+import net.gudenau.cavegame.renderer.Renderer;
+import net.gudenau.cavegame.renderer.StreamBuffer;
+import net.gudenau.cavegame.renderer.shader.Shader;
+import net.gudenau.cavegame.renderer.texture.AtlasedTexture;
+import net.gudenau.cavegame.renderer.texture.Sprite;
+import net.gudenau.cavegame.resource.Identifier;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.Objects;
+
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.system.MemoryUtil.memPutFloat;
+
+/**
+ * Draws sprites from a single texture page with one instanced draw per frame.<br>
+ * <br>
+ * Every sprite is written straight into the region of a {@link StreamBuffer} that belongs to the frame being
+ * recorded, so adding a sprite is a handful of stores and nothing is copied or allocated afterwards. Regions are only
+ * reused after the frame that last used them finished on the GPU.<br>
+ * <br>
+ * Not thread safe, must be used from the render thread.
+ */
+public final class SpriteBatch implements AutoCloseable {
+    /**
+     * The size of a sprite instance: X, Y, rotation and size followed by the texture rectangle, must match the sprite
+     * shader.
+     */
+    private static final int INSTANCE_SIZE = Float.BYTES * 8;
+
+    @NotNull
+    private final Shader shader;
+
+    @NotNull
+    private final StreamBuffer instances;
+
+    @NotNull
+    private final GraphicsBuffer quadVertices;
+
+    @NotNull
+    private final GraphicsBuffer quadIndices;
+
+    private final int quadIndexCount;
+
+    /**
+     * The maximum amount of sprites per frame.
+     */
+    private final int capacity;
+
+    /**
+     * The address of the region of the current frame, 0 outside of {@link #begin()} and {@link #draw(Renderer)}.
+     */
+    private long address;
+
+    /**
+     * The amount of sprites added this frame.
+     */
+    private int count;
+
+    /**
+     * Creates a new sprite batch.
+     *
+     * @param renderer The renderer to create the resources with
+     * @param page The texture all sprites of this batch come from
+     * @param capacity The maximum amount of sprites per frame
+     */
+    public SpriteBatch(@NotNull Renderer renderer, @NotNull AtlasedTexture<?> page, int capacity) {
+        Objects.requireNonNull(renderer, "renderer can't be null");
+        Objects.requireNonNull(page, "page can't be null");
+        if(capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+
+        shader = renderer.loadShader(new Identifier(CaveGame.NAMESPACE, "sprite"), Map.of("texSampler", page));
+        if(shader.format().instanceStride() != INSTANCE_SIZE) {
+            shader.close();
+            throw new IllegalStateException("Sprite shader does not match the sprite instance layout");
+        }
+
+        // Wound counter-clockwise with Y pointing down
+        var builder = shader.builder();
+        builder.position(-0.5F, -0.5F, 0).next();
+        builder.position(-0.5F, 0.5F, 0).next();
+        builder.position(0.5F, -0.5F, 0).next();
+        builder.position(0.5F, -0.5F, 0).next();
+        builder.position(-0.5F, 0.5F, 0).next();
+        builder.position(0.5F, 0.5F, 0).next();
+        quadIndexCount = builder.vertexCount();
+        var quad = builder.build();
+        quadVertices = quad.get(BufferType.VERTEX);
+        quadIndices = quad.get(BufferType.INDEX);
+
+        instances = renderer.createStreamBuffer(BufferType.VERTEX, Math.multiplyExact(capacity, INSTANCE_SIZE));
+    }
+
+    /**
+     * Starts a new batch, must be called after {@link Renderer#begin()}.
+     */
+    public void begin() {
+        address = memAddress(instances.frame());
+        count = 0;
+    }
+
+    /**
+     * Adds a sprite to the current batch.
+     *
+     * @param sprite The sprite to draw, has to be from the page of this batch
+     * @param x The X position of the center of the sprite
+     * @param y The Y position of the center of the sprite
+     * @param rotation The rotation of the sprite in radians
+     * @param size The width and height of the sprite
+     * @return False if the batch is full and the sprite was dropped
+     */
+    public boolean add(@NotNull Sprite sprite, float x, float y, float rotation, float size) {
+        if(address == 0) {
+            throw new IllegalStateException("Sprite batch was not started");
+        }
+        if(count == capacity) {
+            return false;
+        }
+
+        var instance = address + (long) count++ * INSTANCE_SIZE;
+        memPutFloat(instance, x);
+        memPutFloat(instance + 4, y);
+        memPutFloat(instance + 8, rotation);
+        memPutFloat(instance + 12, size);
+        memPutFloat(instance + 16, sprite.minU());
+        memPutFloat(instance + 20, sprite.minV());
+        memPutFloat(instance + 24, sprite.maxU());
+        memPutFloat(instance + 28, sprite.maxV());
+        return true;
+    }
+
+    /**
+     * Gets the amount of sprites in the current batch.
+     *
+     * @return The amount of sprites
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Queues the sprites of the current batch, the camera has to be set up by the caller.
+     *
+     * @param renderer The renderer to draw with
+     */
+    public void draw(@NotNull Renderer renderer) {
+        if(address == 0) {
+            throw new IllegalStateException("Sprite batch was not started");
+        }
+
+        if(count != 0) {
+            renderer.drawInstanced(
+                quadIndexCount,
+                quadVertices,
+                quadIndices,
+                instances.buffer(),
+                instances.frameOffset() / INSTANCE_SIZE,
+                count
+            );
+        }
+        address = 0;
+    }
+
+    @Override
+    public void close() {
+        instances.close();
+        quadVertices.close();
+        quadIndices.close();
+        shader.close();
+    }
+}
@@ -0,0 +1,318 @@
+package net.gudenau.cavegame.render;
+
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.gudenau.cavegame.CaveGame;
+import net.gudenau.cavegame.Registries;
+import net.gudenau.cavegame.level.Level;
+import net.gudenau.cavegame.level.LevelSnapshot;
+import net.gudenau.cavegame.level.TileChangeListener;
+import net.gudenau.cavegame.level.TileChanges;
+import net.gudenau.cavegame.logger.Logger;
+import net.gudenau.cavegame.renderer.BufferType;
+import net.gudenau.cavegame.renderer.GraphicsBuffer;
+import net.gudenau.cavegame.renderer.Renderer;
+import net.gudenau.cavegame.renderer.shader.Shader;
+import net.gudenau.cavegame.renderer.texture.NativeTexture;
+import net.gudenau.cavegame.renderer.texture.PngReader;
+import net.gudenau.cavegame.renderer.texture.Texture;
+import net.gudenau.cavegame.renderer.texture.TextureFormat;
+import net.gudenau.cavegame.resource.Identifier;
+import net.gudenau.cavegame.resource.ResourceLoader;
+import net.gudenau.cavegame.tile.Tile;
+import org.jetbrains.annotations.NotNull;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Draws the tiles of a {@link Level} with one instanced quad draw per visible chunk.<br>
+ * <br>
+ * Every tile is a single 32 bit instance that holds its registry id and the position of its chunk, the tiles of chunk
+ * {@code c} are instances {@code c * CHUNK_SIZE²} and up so the shader can work out the position of a tile from its
+ * instance index. The textures of every tile are packed into a single atlas indexed by registry id.<br>
+ * <br>
+ * Chunks are only uploaded again after a tile in them changed, the changes are tracked with a
+ * {@link TileChangeListener} and the tiles are read from the latest {@link LevelSnapshot} so the level can be ticked on
+ * another thread.<br>
+ * <br>
+ * {@link #draw} and {@link #close()} must be called from the render thread.
+ */
+public final class TileMapRenderer implements TileChangeListener, AutoCloseable {
+    private static final Logger LOGGER = Logger.forName("TileMapRenderer");
+
+    /**
+     * The amount of tiles in a chunk, which is also the amount of instances per chunk.
+     */
+    private static final int CHUNK_AREA = Level.CHUNK_SIZE * Level.CHUNK_SIZE;
+
+    /**
+     * The amount of cells in each row and column of the atlas, must match the tile shader.
+     */
+    private static final int ATLAS_CELLS = 16;
+
+    /**
+     * The size of every tile texture in pixels, must match the tile shader.
+     */
+    private static final int CELL_SIZE = 32;
+
+    /**
+     * The largest chunk position that fits into an instance.
+     */
+    private static final int MAX_CHUNKS = 1 << 12;
+
+    @NotNull
+    private final Level level;
+
+    @NotNull
+    private final Texture atlas;
+
+    @NotNull
+    private final Shader shader;
+
+    @NotNull
+    private final GraphicsBuffer quadVertices;
+
+    @NotNull
+    private final GraphicsBuffer quadIndices;
+
+    private final int quadIndexCount;
+
+    /**
+     * The tiles of every chunk in chunk index order.
+     */
+    @NotNull
+    private final GraphicsBuffer instances;
+
+    /**
+     * Scratch space for a row of chunks.
+     */
+    @NotNull
+    private final ByteBuffer scratch;
+
+    /**
+     * The tick of the first snapshot that contains the latest change of every chunk, written by the thread that ticks
+     * the level.
+     */
+    @NotNull
+    private final AtomicLongArray dirtyTicks;
+
+    /**
+     * The tick of the snapshot every chunk was last uploaded from.
+     */
+    private final long @NotNull [] uploadedTicks;
+
+    /**
+     * A cache of tile registry ids, the registry takes a lock for every lookup.
+     */
+    @NotNull
+    private final Reference2IntMap<Tile> idCache = new Reference2IntOpenHashMap<>();
+
+    /**
+     * Creates a new tile map renderer and starts tracking changes of the level.
+     *
+     * @param renderer The renderer to create the resources with
+     * @param level The level to draw
+     */
+    public TileMapRenderer(@NotNull Renderer renderer, @NotNull Level level) {
+        Objects.requireNonNull(renderer, "renderer can't be null");
+        this.level = Objects.requireNonNull(level, "level can't be null");
+
+        if(level.chunkWidth() > MAX_CHUNKS || level.chunkHeight() > MAX_CHUNKS) {
+            throw new IllegalArgumentException("Level is too large to draw, at most " + MAX_CHUNKS + " chunks per side are supported");
+        }
+
+        idCache.defaultReturnValue(-1);
+
+        atlas = createAtlas(renderer);
+        shader = renderer.loadShader(new Identifier(CaveGame.NAMESPACE, "tile"), Map.of("texSampler", atlas));
+
+        // Wound counter-clockwise with Y pointing down
+        var builder = shader.builder();
+        builder.position(0, 0, 0).next();
+        builder.position(0, 1, 0).next();
+        builder.position(1, 0, 0).next();
+        builder.position(1, 0, 0).next();
+        builder.position(0, 1, 0).next();
+        builder.position(1, 1, 0).next();
+        quadIndexCount = builder.vertexCount();
+        var quad = builder.build();
+        quadVertices = quad.get(BufferType.VERTEX);
+        quadIndices = quad.get(BufferType.INDEX);
+
+        var chunkCount = level.chunkWidth() * level.chunkHeight();
+        instances = renderer.createBuffer(BufferType.VERTEX, Math.multiplyExact(chunkCount, CHUNK_AREA * Integer.BYTES));
+        scratch = MemoryUtil.memAlloc(level.chunkWidth() * CHUNK_AREA * Integer.BYTES);
+
+        // Every chunk starts out dirty, snapshot ticks start at 0
+        dirtyTicks = new AtomicLongArray(chunkCount);
+        uploadedTicks = new long[chunkCount];
+        Arrays.fill(uploadedTicks, -1);
+
+        level.addTileChangeListener(this);
+    }
+
+    /**
+     * Packs the texture of every registered tile into an atlas, the cell of a tile is its registry id.
+     *
+     * @param renderer The renderer to create the atlas with
+     * @return The atlas
+     */
+    @NotNull
+    private static Texture createAtlas(@NotNull Renderer renderer) {
+        var size = ATLAS_CELLS * CELL_SIZE;
+        try(var atlas = NativeTexture.create(size, size, TextureFormat.RGBA)) {
+            MemoryUtil.memSet(atlas.pixels(), 0);
+
+            Registries.TILE.entries().forEach((entry) -> {
+                var name = entry.getKey();
+                var id = Registries.TILE.id(entry.getValue()).orElseThrow();
+                if(id >= ATLAS_CELLS * ATLAS_CELLS) {
+                    LOGGER.warn("Tile " + name + " does not fit into the tile atlas");
+                    return;
+                }
+
+                var identifier = name.prefixPath("tile").normalize("texture", ".png");
+                ByteBuffer file;
+                try {
+                    file = ResourceLoader.buffer(identifier);
+                } catch(IOException e) {
+                    LOGGER.warn("Tile " + name + " has no texture");
+                    return;
+                }
+
+                try(var texture = PngReader.read(file, TextureFormat.RGBA)) {
+                    if(texture.width() != CELL_SIZE || texture.height() != CELL_SIZE) {
+                        LOGGER.warn("Texture of tile " + name + " is not " + CELL_SIZE + "x" + CELL_SIZE);
+                        return;
+                    }
+                    atlas.blit((id % ATLAS_CELLS) * CELL_SIZE, (id / ATLAS_CELLS) * CELL_SIZE, texture);
+                } catch(IOException e) {
+                    LOGGER.warn("Failed to read the texture of tile " + name, e);
+                } finally {
+                    MemoryUtil.memFree(file);
+                }
+            });
+
+            // Mipmaps would blend neighbouring cells together
+            return renderer.textureManager().createTexture(new Identifier(CaveGame.NAMESPACE, "tile_atlas"), atlas, false);
+        }
+    }
+
+    @Override
+    public void tilesChanged(@NotNull Level level, @NotNull TileChanges changes) {
+        // Changes are delivered before the snapshot of this tick is published
+        var tick = level.tickCount() + 1;
+        var chunkWidth = level.chunkWidth();
+        for(int i = 0, count = changes.chunkCount(); i < count; i++) {
+            dirtyTicks.set(changes.chunkX(i) + changes.chunkY(i) * chunkWidth, tick);
+        }
+    }
+
+    /**
+     * Draws every chunk that overlaps a rectangle, uploading the ones that changed since they were last drawn. The
+     * camera has to be set up by the caller.
+     *
+     * @param renderer The renderer to draw with
+     * @param minX The smallest visible X position in tiles
+     * @param minY The smallest visible Y position in tiles
+     * @param maxX The largest visible X position in tiles
+     * @param maxY The largest visible Y position in tiles
+     */
+    public void draw(@NotNull Renderer renderer, double minX, double minY, double maxX, double maxY) {
+        var snapshot = level.snapshot();
+        var tick = snapshot.tick();
+        var chunkWidth = level.chunkWidth();
+
+        var minChunkX = Math.max(0, Level.toChunk((int) Math.floor(minX)));
+        var minChunkY = Math.max(0, Level.toChunk((int) Math.floor(minY)));
+        var maxChunkX = Math.min(chunkWidth - 1, Level.toChunk((int) Math.floor(maxX)));
+        var maxChunkY = Math.min(level.chunkHeight() - 1, Level.toChunk((int) Math.floor(maxY)));
+
+        for(int chunkY = minChunkY; chunkY <= maxChunkY; chunkY++) {
+            // Neighbouring dirty chunks are contiguous in the instance buffer, so they are uploaded together
+            int runStart = -1;
+            for(int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+                var chunk = chunkX + chunkY * chunkWidth;
+                var dirtyTick = dirtyTicks.get(chunk);
+                if(uploadedTicks[chunk] < dirtyTick && dirtyTick <= tick) {
+                    if(runStart == -1) {
+                        runStart = chunkX;
+                        scratch.clear();
+                    }
+                    encodeChunk(snapshot, chunkX, chunkY);
+                    uploadedTicks[chunk] = tick;
+                } else if(runStart != -1) {
+                    upload(runStart + chunkY * chunkWidth);
+                    runStart = -1;
+                }
+            }
+            if(runStart != -1) {
+                upload(runStart + chunkY * chunkWidth);
+            }
+
+            for(int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+                renderer.drawInstanced(
+                    quadIndexCount,
+                    quadVertices,
+                    quadIndices,
+                    instances,
+                    (chunkX + chunkY * chunkWidth) * CHUNK_AREA,
+                    CHUNK_AREA
+                );
+            }
+        }
+    }
+
+    /**
+     * Writes the instances of a chunk to the scratch buffer.
+     *
+     * @param snapshot The snapshot to read the tiles from
+     * @param chunkX The X position of the chunk
+     * @param chunkY The Y position of the chunk
+     */
+    private void encodeChunk(@NotNull LevelSnapshot snapshot, int chunkX, int chunkY) {
+        var position = chunkX << 8 | chunkY << 20;
+        var originX = Level.fromChunk(chunkX);
+        var originY = Level.fromChunk(chunkY);
+        for(int y = 0; y < Level.CHUNK_SIZE; y++) {
+            for(int x = 0; x < Level.CHUNK_SIZE; x++) {
+                scratch.putInt(tileId(snapshot.tile(originX + x, originY + y)) & 0xFF | position);
+            }
+        }
+    }
+
+    /**
+     * Uploads the chunks in the scratch buffer.
+     *
+     * @param firstChunk The index of the first chunk in the scratch buffer
+     */
+    private void upload(int firstChunk) {
+        instances.upload(scratch.flip(), firstChunk * CHUNK_AREA * Integer.BYTES);
+    }
+
+    private int tileId(@NotNull Tile tile) {
+        var id = idCache.getInt(tile);
+        if(id == -1) {
+            id = Registries.TILE.id(tile).orElseThrow(() -> new IllegalStateException("Tile " + tile + " was not registered"));
+            idCache.put(tile, id);
+        }
+        return id;
+    }
+
+    @Override
+    public void close() {
+        level.removeTileChangeListener(this);
+        MemoryUtil.memFree(scratch);
+        instances.close();
+        quadVertices.close();
+        quadIndices.close();
+        shader.close();
+        atlas.close();
+    }
+}
@@ -0,0 +1,95 @@
+package net.gudenau.cavegame.replication;
+
+import net.gudenau.cavegame.codec.Codec;
+import net.gudenau.cavegame.codec.CodecBuilder;
+import net.gudenau.cavegame.level.Level;
+
+/**
+ * The area of a level a {@link ReplicationClient} is interested in, usually the chunks that are visible. Only the
+ * tiles, actors and jobs inside of this area are replicated.
+ *
+ * @param minChunkX The smallest chunk X position, inclusive
+ * @param minChunkY The smallest chunk Y position, inclusive
+ * @param maxChunkX The largest chunk X position, exclusive
+ * @param maxChunkY The largest chunk Y position, exclusive
+ */
+public record Interest(int minChunkX, int minChunkY, int maxChunkX, int maxChunkY) {
+    /**
+     * An area that contains nothing.
+     */
+    public static final Interest EMPTY = new Interest(0, 0, 0, 0);
+
+    public static final Codec<Interest> CODEC = CodecBuilder.<Interest>builder()
+        .required("min_chunk_x", Codec.INT, Interest::minChunkX)
+        .required("min_chunk_y", Codec.INT, Interest::minChunkY)
+        .required("max_chunk_x", Codec.INT, Interest::maxChunkX)
+        .required("max_chunk_y", Codec.INT, Interest::maxChunkY)
+        .build(Interest.class);
+
+    /**
+     * Creates the area that covers a rectangle of tiles.
+     *
+     * @param minX The smallest X position, inclusive
+     * @param minY The smallest Y position, inclusive
+     * @param maxX The largest X position, exclusive
+     * @param maxY The largest Y position, exclusive
+     * @return The area
+     */
+    public static Interest ofTiles(int minX, int minY, int maxX, int maxY) {
+        return new Interest(
+            Level.toChunk(minX),
+            Level.toChunk(minY),
+            Level.toChunk(maxX - 1) + 1,
+            Level.toChunk(maxY - 1) + 1
+        );
+    }
+
+    /**
+     * Limits this area to the chunks of a level.
+     *
+     * @param chunkWidth The width of the level in chunks
+     * @param chunkHeight The height of the level in chunks
+     * @return The limited area
+     */
+    Interest clamp(int chunkWidth, int chunkHeight) {
+        var minX = Math.clamp(minChunkX, 0, chunkWidth);
+        var minY = Math.clamp(minChunkY, 0, chunkHeight);
+        return new Interest(
+            minX,
+            minY,
+            Math.clamp(maxChunkX, minX, chunkWidth),
+            Math.clamp(maxChunkY, minY, chunkHeight)
+        );
+    }
+
+    /**
+     * Checks if a chunk is inside of this area.
+     *
+     * @param chunkX The X position of the chunk
+     * @param chunkY The Y position of the chunk
+     * @return True if the chunk is inside
+     */
+    public boolean containsChunk(int chunkX, int chunkY) {
+        return chunkX >= minChunkX && chunkY >= minChunkY && chunkX < maxChunkX && chunkY < maxChunkY;
+    }
+
+    /**
+     * Checks if a tile is inside of this area.
+     *
+     * @param x The X position of the tile
+     * @param y The Y position of the tile
+     * @return True if the tile is inside
+     */
+    public boolean containsTile(int x, int y) {
+        return containsChunk(Level.toChunk(x), Level.toChunk(y));
+    }
+
+    /**
+     * Gets the amount of chunks in this area.
+     *
+     * @return The amount of chunks
+     */
+    public int chunkCount() {
+        return Math.max(maxChunkX - minChunkX, 0) * Math.max(maxChunkY - minChunkY, 0);
+    }
+}
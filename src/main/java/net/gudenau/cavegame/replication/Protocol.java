@@ -0,0 +1,244 @@
+package net.gudenau.cavegame.replication;
+
+import com.google.gson.JsonParser;
+import net.gudenau.cavegame.codec.Codec;
+import net.gudenau.cavegame.codec.CodecBuilder;
+import net.gudenau.cavegame.codec.ops.JsonOps;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * The wire format shared by the {@link ReplicationServer} and the {@link ReplicationClient}.<br>
+ * <br>
+ * Every packet is an int length, a packet type and the payload. The rare control packets are JSON encoded with the
+ * codec system, frames are a compact binary stream of operations that ends with {@link #OP_END}. Integers in frames
+ * are variable length, signed values are zigzag encoded.
+ */
+final class Protocol {
+    private Protocol() {
+        throw new AssertionError();
+    }
+
+    /**
+     * The largest packet either side accepts.
+     */
+    static final int MAX_PACKET_SIZE = 1 << 24;
+
+    /**
+     * The size of the packet header: the length of the rest of the packet and the type.
+     */
+    static final int HEADER_SIZE = Integer.BYTES + Byte.BYTES;
+
+    /**
+     * Server to client: {@link Hello} as JSON.
+     */
+    static final byte PACKET_HELLO = 1;
+
+    /**
+     * Server to client: the tick followed by operations.
+     */
+    static final byte PACKET_FRAME = 2;
+
+    /**
+     * Client to server: {@link Interest} as JSON.
+     */
+    static final byte PACKET_INTEREST = 3;
+
+    /**
+     * Ends a frame.
+     */
+    static final byte OP_END = 0;
+
+    /**
+     * A chunk left the interest area: chunk x, chunk y.
+     */
+    static final byte OP_CHUNK_UNLOAD = 1;
+
+    /**
+     * Every tile of a chunk: chunk x, chunk y and runs of tile ids as length and id.
+     */
+    static final byte OP_CHUNK_FULL = 2;
+
+    /**
+     * The changed tiles of a loaded chunk: chunk x, chunk y, count and the index in the chunk and id of every tile.
+     */
+    static final byte OP_CHUNK_DELTA = 3;
+
+    /**
+     * An actor entered the interest area: id, kind, x, y, facing.
+     */
+    static final byte OP_ACTOR_SPAWN = 4;
+
+    /**
+     * An actor moved: id, x delta, y delta, facing.
+     */
+    static final byte OP_ACTOR_MOVE = 5;
+
+    /**
+     * An actor left the interest area or was removed: id.
+     */
+    static final byte OP_ACTOR_REMOVE = 6;
+
+    /**
+     * The job state of a tile changed: x, y, state.
+     */
+    static final byte OP_JOB = 7;
+
+    /**
+     * Actor positions are quantized to this many steps per tile.
+     */
+    static final int POSITION_SCALE = 256;
+
+    /**
+     * Actor facings are quantized to this many steps per turn.
+     */
+    static final int FACING_STEPS = 256;
+
+    /**
+     * The first message of the server.
+     *
+     * @param width The width of the level
+     * @param height The height of the level
+     * @param tiles The names of the tiles, indexed by the tile ids used in frames
+     */
+    record Hello(int width, int height, @NotNull List<String> tiles) {
+        static final Codec<Hello> CODEC = CodecBuilder.<Hello>builder()
+            .required("width", Codec.INT, Hello::width)
+            .required("height", Codec.INT, Hello::height)
+            .required("tiles", Codec.STRING.list(), Hello::tiles)
+            .build(Hello.class);
+    }
+
+    /**
+     * Writes a JSON control packet.
+     *
+     * @param buffer The buffer to write into
+     * @param type The type of the packet
+     * @param codec The codec of the value
+     * @param value The value to write
+     * @return The buffer, a new one if it had to grow
+     * @param <T> The type of the value
+     */
+    @NotNull
+    static <T> ByteBuffer writeJson(@NotNull ByteBuffer buffer, byte type, @NotNull Codec<T> codec, @NotNull T value) {
+        var json = codec.encode(JsonOps.INSTANCE, value)
+            .getOrThrow(false, (error) -> {})
+            .toString()
+            .getBytes(StandardCharsets.UTF_8);
+        buffer = ensure(buffer, HEADER_SIZE + json.length);
+        return buffer.putInt(json.length + Byte.BYTES).put(type).put(json);
+    }
+
+    /**
+     * Reads the payload of a JSON control packet.
+     *
+     * @param payload The payload of the packet
+     * @param codec The codec of the value
+     * @return The value
+     * @param <T> The type of the value
+     * @throws IOException If the value was malformed
+     */
+    @NotNull
+    static <T> T readJson(@NotNull ByteBuffer payload, @NotNull Codec<T> codec) throws IOException {
+        var json = StandardCharsets.UTF_8.decode(payload).toString();
+        try {
+            var result = codec.decode(JsonOps.INSTANCE, JsonParser.parseString(json));
+            if(!result.hasResult()) {
+                throw new IOException("Malformed packet: " + result.getPartial().error());
+            }
+            return result.getResult();
+        } catch(RuntimeException e) {
+            throw new IOException("Malformed packet", e);
+        }
+    }
+
+    /**
+     * Makes sure a buffer has enough space left, the contents are copied into a larger buffer if required.
+     *
+     * @param buffer The buffer
+     * @param bytes The amount of bytes that will be written
+     * @return The buffer or its replacement
+     */
+    @NotNull
+    static ByteBuffer ensure(@NotNull ByteBuffer buffer, int bytes) {
+        if(buffer.remaining() >= bytes) {
+            return buffer;
+        }
+
+        var grown = ByteBuffer.allocate(Math.max(buffer.capacity() << 1, buffer.position() + bytes));
+        return grown.put(buffer.flip());
+    }
+
+    static void writeVarInt(@NotNull ByteBuffer buffer, int value) {
+        while((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static void writeVarLong(@NotNull ByteBuffer buffer, long value) {
+        while((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static void writeSignedVarInt(@NotNull ByteBuffer buffer, int value) {
+        writeVarInt(buffer, (value << 1) ^ (value >> 31));
+    }
+
+    static int readVarInt(@NotNull ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for(int shift = 0; shift < 35; shift += 7) {
+            var b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("VarInt is too long");
+    }
+
+    static long readVarLong(@NotNull ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for(int shift = 0; shift < 70; shift += 7) {
+            var b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("VarLong is too long");
+    }
+
+    static int readSignedVarInt(@NotNull ByteBuffer buffer) throws IOException {
+        var value = readVarInt(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Quantizes an actor position.
+     *
+     * @param value The position in tiles
+     * @return The quantized position
+     */
+    static int quantizePosition(double value) {
+        return (int) Math.round(value * POSITION_SCALE);
+    }
+
+    /**
+     * Quantizes an actor facing.
+     *
+     * @param facing The facing in radians
+     * @return The quantized facing
+     */
+    static int quantizeFacing(double facing) {
+        return (int) Math.round(facing / (Math.PI * 2) * FACING_STEPS) & (FACING_STEPS - 1);
+    }
+}
@@ -0,0 +1,105 @@
+package net.gudenau.cavegame.replication;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The client side view of an actor, positions are only as precise as the wire format.<br>
+ * <br>
+ * Not thread safe.
+ */
+public final class ReplicatedActor {
+    private final long id;
+
+    @NotNull
+    private final Kind kind;
+
+    /**
+     * The X position in 1/{@link Protocol#POSITION_SCALE} tiles.
+     */
+    int x;
+
+    /**
+     * The Y position in 1/{@link Protocol#POSITION_SCALE} tiles.
+     */
+    int y;
+
+    /**
+     * The facing in 1/{@link Protocol#FACING_STEPS} turns.
+     */
+    int facing;
+
+    ReplicatedActor(long id, @NotNull Kind kind, int x, int y, int facing) {
+        this.id = id;
+        this.kind = kind;
+        this.x = x;
+        this.y = y;
+        this.facing = facing;
+    }
+
+    /**
+     * Gets the id of this actor, unique for the lifetime of the level.
+     *
+     * @return The id of this actor
+     */
+    public long id() {
+        return id;
+    }
+
+    /**
+     * Gets the kind of this actor.
+     *
+     * @return The kind of this actor
+     */
+    @NotNull
+    public Kind kind() {
+        return kind;
+    }
+
+    /**
+     * Gets the X position of this actor.
+     *
+     * @return The X position in tiles
+     */
+    public double x() {
+        return x / (double) Protocol.POSITION_SCALE;
+    }
+
+    /**
+     * Gets the Y position of this actor.
+     *
+     * @return The Y position in tiles
+     */
+    public double y() {
+        return y / (double) Protocol.POSITION_SCALE;
+    }
+
+    /**
+     * Gets the facing of this actor.
+     *
+     * @return The facing in radians
+     */
+    public double facing() {
+        return facing * (Math.PI * 2) / Protocol.FACING_STEPS;
+    }
+
+    /**
+     * The kinds of actors that are replicated.
+     */
+    public enum Kind {
+        OTHER,
+        MINER,
+        RESOURCE,
+        ;
+
+        private static final Kind[] VALUES = values();
+
+        byte id() {
+            return (byte) ordinal();
+        }
+
+        @NotNull
+        static Kind of(byte id) {
+            return id >= 0 && id < VALUES.length ? VALUES[id] : OTHER;
+        }
+    }
+}
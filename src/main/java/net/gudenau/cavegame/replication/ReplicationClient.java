@@ -0,0 +1,415 @@
+package net.gudenau.cavegame.replication;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ByteOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.gudenau.cavegame.Registries;
+import net.gudenau.cavegame.level.Level;
+import net.gudenau.cavegame.level.TilePos;
+import net.gudenau.cavegame.resource.Identifier;
+import net.gudenau.cavegame.tile.Tile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Objects;
+
+import static net.gudenau.cavegame.replication.Protocol.*;
+
+/**
+ * Receives the state of a level from a {@link ReplicationServer}.<br>
+ * <br>
+ * Only the chunks, actors and jobs inside of the {@link Interest} area are known to the client, everything else
+ * reads as empty. The state only changes in {@link #poll(long)}.<br>
+ * <br>
+ * Not thread safe.
+ */
+public final class ReplicationClient implements AutoCloseable {
+    @NotNull
+    private final SocketChannel socket;
+
+    @NotNull
+    private final Selector selector;
+
+    private final int width;
+    private final int height;
+    private final int chunkWidth;
+    private final int chunkHeight;
+
+    /**
+     * The local tiles, indexed by the tile ids of the server. Null for tiles this client does not know about.
+     */
+    private final @Nullable Tile @NotNull [] palette;
+
+    /**
+     * The tiles of the loaded chunks by chunk index, indexed by their position inside of the chunk like on the wire.
+     */
+    @NotNull
+    private final Int2ObjectOpenHashMap<Tile[]> chunks = new Int2ObjectOpenHashMap<>();
+
+    @NotNull
+    private final Long2ObjectOpenHashMap<ReplicatedActor> actors = new Long2ObjectOpenHashMap<>();
+
+    /**
+     * The job states of the tiles with jobs.
+     */
+    @NotNull
+    private final Long2ByteOpenHashMap jobs = new Long2ByteOpenHashMap();
+
+    /**
+     * Received bytes that did not form a complete packet yet, in write mode.
+     */
+    @NotNull
+    private ByteBuffer in = ByteBuffer.allocate(0x10000);
+
+    @NotNull
+    private ByteBuffer out = ByteBuffer.allocate(0x100);
+
+    private long tick = -1;
+    private long bytesReceived = 0;
+
+    /**
+     * Connects to a replication server and waits for its hello.
+     *
+     * @param address The address of the server
+     * @throws IOException If the connection failed
+     */
+    public ReplicationClient(@NotNull SocketAddress address) throws IOException {
+        Objects.requireNonNull(address, "address can't be null");
+
+        socket = SocketChannel.open(address);
+        Hello hello;
+        try {
+            socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            var payload = readBlocking(PACKET_HELLO);
+            hello = readJson(payload, Hello.CODEC);
+            socket.configureBlocking(false);
+            selector = Selector.open();
+            socket.register(selector, SelectionKey.OP_READ);
+        } catch(IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+
+        width = hello.width();
+        height = hello.height();
+        chunkWidth = Level.toChunk(width - 1) + 1;
+        chunkHeight = Level.toChunk(height - 1) + 1;
+
+        palette = new Tile[hello.tiles().size()];
+        for(int id = 0; id < palette.length; id++) {
+            try {
+                palette[id] = Registries.TILE.object(new Identifier(hello.tiles().get(id))).orElse(null);
+            } catch(IllegalArgumentException e) {
+                palette[id] = null;
+            }
+        }
+    }
+
+    /**
+     * Reads the first packet while the socket is still blocking.
+     */
+    @NotNull
+    private ByteBuffer readBlocking(byte expectedType) throws IOException {
+        var header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header);
+        var length = header.getInt(0);
+        var type = header.get(Integer.BYTES);
+        if(type != expectedType || length <= 0 || length > MAX_PACKET_SIZE) {
+            throw new IOException("Unexpected packet " + type);
+        }
+        var payload = ByteBuffer.allocate(length - Byte.BYTES);
+        readFully(payload);
+        return payload.flip();
+    }
+
+    private void readFully(@NotNull ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) {
+            var read = socket.read(buffer);
+            if(read == -1) {
+                throw new IOException("Connection closed");
+            }
+            bytesReceived += read;
+        }
+    }
+
+    /**
+     * Changes the area this client receives, the server unloads and sends chunks to match.
+     *
+     * @param interest The new area
+     * @throws IOException If the request could not be sent
+     */
+    public void interest(@NotNull Interest interest) throws IOException {
+        Objects.requireNonNull(interest, "interest can't be null");
+
+        out.clear();
+        out = writeJson(out, PACKET_INTEREST, Interest.CODEC, interest);
+        out.flip();
+        while(out.hasRemaining()) {
+            if(socket.write(out) == 0) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * Waits for frames from the server and applies them.
+     *
+     * @param timeoutMillis The longest time to wait for the first frame, 0 to not wait
+     * @return The amount of frames that were applied
+     * @throws IOException If the connection failed or the server sent invalid data
+     */
+    public int poll(long timeoutMillis) throws IOException {
+        if(timeoutMillis > 0) {
+            selector.select(timeoutMillis);
+        } else {
+            selector.selectNow();
+        }
+        selector.selectedKeys().clear();
+
+        int frames = 0;
+        int read;
+        while((read = socket.read(in)) > 0) {
+            bytesReceived += read;
+            frames += processPackets();
+        }
+        if(read == -1) {
+            throw new IOException("Connection closed");
+        }
+        return frames;
+    }
+
+    private int processPackets() throws IOException {
+        int frames = 0;
+        in.flip();
+        while(in.remaining() >= HEADER_SIZE) {
+            var length = in.getInt(in.position());
+            if(length <= 0 || length > MAX_PACKET_SIZE) {
+                throw new IOException("Invalid packet length " + length);
+            }
+            if(in.remaining() < Integer.BYTES + length) {
+                if(in.capacity() < Integer.BYTES + length) {
+                    in = ByteBuffer.allocate(Integer.BYTES + length).put(in);
+                    return frames;
+                }
+                break;
+            }
+
+            in.getInt();
+            var type = in.get();
+            var payload = in.slice(in.position(), length - Byte.BYTES);
+            in.position(in.position() + length - Byte.BYTES);
+            if(type != PACKET_FRAME) {
+                throw new IOException("Unexpected packet " + type);
+            }
+            try {
+                applyFrame(payload);
+            } catch(RuntimeException e) {
+                throw new IOException("Malformed frame", e);
+            }
+            frames++;
+        }
+        in.compact();
+        return frames;
+    }
+
+    private void applyFrame(@NotNull ByteBuffer frame) throws IOException {
+        tick = readVarLong(frame);
+        while(true) {
+            var op = frame.get();
+            switch(op) {
+                case OP_END -> {
+                    return;
+                }
+                case OP_CHUNK_UNLOAD -> chunks.remove(chunkIndex(readVarInt(frame), readVarInt(frame)));
+                case OP_CHUNK_FULL -> {
+                    var chunk = chunkIndex(readVarInt(frame), readVarInt(frame));
+                    var tiles = chunks.get(chunk);
+                    if(tiles == null) {
+                        tiles = new Tile[Level.CHUNK_SIZE * Level.CHUNK_SIZE];
+                    }
+                    int index = 0;
+                    while(index < tiles.length) {
+                        var length = readVarInt(frame);
+                        var tile = tile(readVarInt(frame));
+                        if(length <= 0 || index + length > tiles.length) {
+                            throw new IOException("Invalid tile run");
+                        }
+                        Arrays.fill(tiles, index, index + length, tile);
+                        index += length;
+                    }
+                    chunks.put(chunk, tiles);
+                }
+                case OP_CHUNK_DELTA -> {
+                    var chunkX = readVarInt(frame);
+                    var chunkY = readVarInt(frame);
+                    var tiles = chunks.get(chunkIndex(chunkX, chunkY));
+                    if(tiles == null) {
+                        throw new IOException("Chunk " + chunkX + ", " + chunkY + " changed before it was loaded");
+                    }
+                    for(int i = readVarInt(frame); i > 0; i--) {
+                        var index = frame.get() & 0xFF;
+                        tiles[index] = tile(readVarInt(frame));
+                    }
+                }
+                case OP_ACTOR_SPAWN -> {
+                    var id = readVarLong(frame);
+                    var kind = ReplicatedActor.Kind.of(frame.get());
+                    var x = readSignedVarInt(frame);
+                    var y = readSignedVarInt(frame);
+                    actors.put(id, new ReplicatedActor(id, kind, x, y, frame.get() & 0xFF));
+                }
+                case OP_ACTOR_MOVE -> {
+                    var actor = actors.get(readVarLong(frame));
+                    if(actor == null) {
+                        throw new IOException("Moved an unknown actor");
+                    }
+                    actor.x += readSignedVarInt(frame);
+                    actor.y += readSignedVarInt(frame);
+                    actor.facing = frame.get() & 0xFF;
+                }
+                case OP_ACTOR_REMOVE -> actors.remove(readVarLong(frame));
+                case OP_JOB -> {
+                    var position = TilePos.pack(readVarInt(frame), readVarInt(frame));
+                    var state = frame.get();
+                    if(state == ReplicationServer.JOB_NONE) {
+                        jobs.remove(position);
+                    } else {
+                        jobs.put(position, state);
+                    }
+                }
+                default -> throw new IOException("Unknown frame operation " + op);
+            }
+        }
+    }
+
+    private int chunkIndex(int chunkX, int chunkY) throws IOException {
+        if(chunkX < 0 || chunkY < 0 || chunkX >= chunkWidth || chunkY >= chunkHeight) {
+            throw new IOException("Chunk " + chunkX + ", " + chunkY + " is outside of the level");
+        }
+        return chunkX + chunkY * chunkWidth;
+    }
+
+    @Nullable
+    private Tile tile(int id) throws IOException {
+        if(id < 0 || id >= palette.length) {
+            throw new IOException("Unknown tile id " + id);
+        }
+        return palette[id];
+    }
+
+    /**
+     * Gets the tick of the most recent frame.
+     *
+     * @return The tick of the last frame or -1 if no frame was received
+     */
+    public long tick() {
+        return tick;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Checks if a chunk was received and is inside of the interest area.
+     *
+     * @param chunkX The X position of the chunk
+     * @param chunkY The Y position of the chunk
+     * @return True if the chunk is loaded
+     */
+    public boolean isLoaded(int chunkX, int chunkY) {
+        return chunkX >= 0 && chunkY >= 0 && chunkX < chunkWidth && chunkY < chunkHeight &&
+            chunks.containsKey(chunkX + chunkY * chunkWidth);
+    }
+
+    /**
+     * Gets a replicated tile.
+     *
+     * @param x The X position of the tile
+     * @param y The Y position of the tile
+     * @return The tile or null if it is not loaded or not known to this client
+     */
+    @Nullable
+    public Tile tile(int x, int y) {
+        if(x < 0 || y < 0 || x >= width || y >= height) {
+            return null;
+        }
+        var tiles = chunks.get(Level.toChunk(x) + Level.toChunk(y) * chunkWidth);
+        return tiles == null ? null : tiles[(x & Level.CHUNK_MASK) + ((y & Level.CHUNK_MASK) << Level.CHUNK_SHIFT)];
+    }
+
+    /**
+     * Gets the actors inside of the interest area.
+     *
+     * @return An unmodifiable view of the actors
+     */
+    @NotNull
+    public Collection<ReplicatedActor> actors() {
+        return Collections.unmodifiableCollection(actors.values());
+    }
+
+    /**
+     * Gets an actor by its id.
+     *
+     * @param id The id of the actor
+     * @return The actor or null if it is not inside of the interest area
+     */
+    @Nullable
+    public ReplicatedActor actor(long id) {
+        return actors.get(id);
+    }
+
+    /**
+     * Checks if a tile has a queued job.
+     *
+     * @param x The X position of the tile
+     * @param y The Y position of the tile
+     * @return True if there is a job for the tile
+     */
+    public boolean hasJob(int x, int y) {
+        return jobs.containsKey(TilePos.pack(x, y));
+    }
+
+    /**
+     * Checks if an actor is working on a job of a tile.
+     *
+     * @param x The X position of the tile
+     * @param y The Y position of the tile
+     * @return True if a job of the tile is claimed
+     */
+    public boolean isJobClaimed(int x, int y) {
+        return jobs.get(TilePos.pack(x, y)) == ReplicationServer.JOB_CLAIMED;
+    }
+
+    /**
+     * Gets the total amount of bytes that were received from the server.
+     *
+     * @return The amount of bytes received
+     */
+    public long bytesReceived() {
+        return bytesReceived;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            selector.close();
+        } finally {
+            socket.close();
+        }
+    }
+}
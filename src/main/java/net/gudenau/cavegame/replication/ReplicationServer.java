@@ -0,0 +1,737 @@
+package net.gudenau.cavegame.replication;
+
+import it.unimi.dsi.fastutil.longs.Long2ByteMaps;
+import it.unimi.dsi.fastutil.longs.Long2ByteOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2LongMaps;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.gudenau.cavegame.Registries;
+import net.gudenau.cavegame.actor.Actor;
+import net.gudenau.cavegame.actor.MinerActor;
+import net.gudenau.cavegame.actor.ResourceActor;
+import net.gudenau.cavegame.level.Level;
+import net.gudenau.cavegame.level.LevelSnapshot;
+import net.gudenau.cavegame.level.TilePos;
+import net.gudenau.cavegame.logger.Logger;
+import net.gudenau.cavegame.tile.Tile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.gudenau.cavegame.replication.Protocol.*;
+
+/**
+ * Replicates the state of a {@link Level} to {@link ReplicationClient}s over TCP.<br>
+ * <br>
+ * The server runs on its own thread and only reads the published {@link LevelSnapshot}s and the thread safe parts of
+ * the job board, so it never blocks the tick thread. Every client has an {@link Interest} area and the server keeps a
+ * copy of what it last sent to it. When a new snapshot is published the client gets a frame with only the differences
+ * inside of its area:
+ * <ul>
+ *     <li>Chunks that did not change are found with {@link LevelSnapshot#sameChunk}, changed chunks send their changed
+ *     tiles and chunks that entered the area send all tiles run-length encoded</li>
+ *     <li>Actors send quantized position deltas, only the actors of the chunks in the area are looked at</li>
+ *     <li>Tiles with queued jobs send their job state, only chunks whose jobs changed since the previous frame are
+ *     looked at</li>
+ * </ul>
+ * Clients that have not received the previous frame yet skip snapshots, their next frame contains everything they
+ * missed. The cost of a frame depends on the interest area and the amount of changes, not on the size of the level.
+ * <br>
+ * <br>
+ * Only the control methods of this class are thread safe.
+ */
+public final class ReplicationServer implements AutoCloseable {
+    private static final Logger LOGGER = Logger.forName("Replication");
+
+    /**
+     * How long the server waits for network events before checking for a new snapshot, in milliseconds.
+     */
+    private static final int POLL_MILLIS = 5;
+
+    /**
+     * The largest interest area a client can request, in chunks.
+     */
+    private static final int MAX_INTEREST_CHUNKS = 64 * 64;
+
+    /**
+     * The amount of changed tiles after which a chunk is sent in full instead.
+     */
+    private static final int DELTA_LIMIT = Level.CHUNK_SIZE * Level.CHUNK_SIZE / 3;
+
+    /**
+     * The job state of a tile without jobs.
+     */
+    static final byte JOB_NONE = 0;
+
+    /**
+     * The job state of a tile with an unclaimed job.
+     */
+    static final byte JOB_OPEN = 1;
+
+    /**
+     * The job state of a tile with a job that is being worked on.
+     */
+    static final byte JOB_CLAIMED = 2;
+
+    @NotNull
+    private final Level level;
+
+    @NotNull
+    private final ServerSocketChannel channel;
+
+    @NotNull
+    private final Selector selector;
+
+    @NotNull
+    private final List<Client> clients = new ArrayList<>();
+
+    /**
+     * The job state of every tile with a queued job in the chunk that is being encoded.
+     */
+    @NotNull
+    private final Long2ByteOpenHashMap chunkJobs = new Long2ByteOpenHashMap();
+
+    /**
+     * A cache of tile registry ids.
+     */
+    @NotNull
+    private final Reference2IntOpenHashMap<Tile> tileIds = new Reference2IntOpenHashMap<>();
+
+    /**
+     * The JSON of the hello packet, the same for every client.
+     */
+    @NotNull
+    private final Hello hello;
+
+    /**
+     * The snapshot the clients are being updated to, acquired until it is replaced.
+     */
+    @Nullable
+    private LevelSnapshot snapshot;
+
+    @NotNull
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    @Nullable
+    private Thread thread;
+
+    private volatile boolean running = true;
+
+    /**
+     * Binds a replication server, use the loopback address to only accept local clients.
+     *
+     * @param level The level to replicate
+     * @param address The address to bind to
+     * @throws IOException If the socket could not be bound
+     */
+    public ReplicationServer(@NotNull Level level, @NotNull SocketAddress address) throws IOException {
+        this.level = Objects.requireNonNull(level, "level can't be null");
+        Objects.requireNonNull(address, "address can't be null");
+
+        tileIds.defaultReturnValue(-1);
+
+        var tiles = new ArrayList<String>();
+        for(int id = 0; ; id++) {
+            var name = Registries.TILE.name(id);
+            if(name.isEmpty()) {
+                break;
+            }
+            tiles.add(name.get().toString());
+        }
+        hello = new Hello(level.width(), level.height(), List.copyOf(tiles));
+
+        selector = Selector.open();
+        channel = ServerSocketChannel.open();
+        channel.bind(address);
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Gets the address this server is bound to, useful when binding to port 0.
+     *
+     * @return The bound address
+     * @throws IOException If the address could not be queried
+     */
+    @NotNull
+    public InetSocketAddress address() throws IOException {
+        return (InetSocketAddress) channel.getLocalAddress();
+    }
+
+    /**
+     * Gets the total amount of bytes that were sent to all clients.
+     *
+     * @return The amount of bytes sent
+     */
+    public long bytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Starts the replication thread.
+     */
+    public void start() {
+        if(thread != null) {
+            throw new IllegalStateException("Replication server was already started");
+        }
+
+        thread = Thread.ofPlatform().daemon().name("Replication").start(() -> {
+            try {
+                run();
+            } catch(Throwable e) {
+                LOGGER.error("Replication server failed", e);
+            }
+        });
+    }
+
+    private void run() throws IOException {
+        while(running) {
+            selector.select(POLL_MILLIS);
+            var keys = selector.selectedKeys();
+            for(var key : keys) {
+                if(!key.isValid()) {
+                    continue;
+                }
+                try {
+                    if(key.isAcceptable()) {
+                        accept();
+                    } else {
+                        var client = (Client) key.attachment();
+                        if(key.isReadable()) {
+                            client.read();
+                        }
+                        if(key.isValid() && key.isWritable()) {
+                            client.flush();
+                        }
+                    }
+                } catch(IOException e) {
+                    if(key.attachment() instanceof Client client) {
+                        LOGGER.debug("Replication client disconnected", e);
+                        client.close();
+                    } else {
+                        throw e;
+                    }
+                }
+            }
+            keys.clear();
+
+            var latest = level.acquireSnapshot();
+            if(latest != snapshot) {
+                update(latest);
+            } else {
+                latest.close();
+            }
+            for(int i = 0; i < clients.size(); i++) {
+                var client = clients.get(i);
+                if(client.needsFrame()) {
+                    try {
+                        client.sendFrame();
+                    } catch(IOException e) {
+                        LOGGER.debug("Replication client disconnected", e);
+                        client.close();
+                        i--;
+                    }
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        var socket = channel.accept();
+        if(socket == null) {
+            return;
+        }
+
+        socket.configureBlocking(false);
+        socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        var client = new Client(socket);
+        client.key = socket.register(selector, SelectionKey.OP_READ, client);
+        clients.add(client);
+        client.out = writeJson(client.out, PACKET_HELLO, Hello.CODEC, hello);
+        client.flush();
+    }
+
+    /**
+     * Switches to a new snapshot.
+     *
+     * @param snapshot The new snapshot
+     */
+    private void update(@NotNull LevelSnapshot snapshot) {
+        // The actors of the previous snapshot are not read anymore, only the tiles of the baselines are
+        if(this.snapshot != null) {
+            this.snapshot.close();
+        }
+        this.snapshot = snapshot;
+        for(var client : clients) {
+            client.stale = true;
+        }
+    }
+
+    private int tileId(@NotNull Tile tile) {
+        var id = tileIds.getInt(tile);
+        if(id == -1) {
+            id = Registries.TILE.id(tile).orElseThrow(() -> new IllegalStateException("Tile " + tile + " was not registered"));
+            tileIds.put(tile, id);
+        }
+        return id;
+    }
+
+    private static byte kind(@NotNull Actor actor) {
+        if(actor instanceof MinerActor) {
+            return ReplicatedActor.Kind.MINER.id();
+        } else if(actor instanceof ResourceActor) {
+            return ReplicatedActor.Kind.RESOURCE.id();
+        } else {
+            return ReplicatedActor.Kind.OTHER.id();
+        }
+    }
+
+    /**
+     * Stops the replication thread and disconnects every client.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        if(thread != null) {
+            try {
+                thread.join();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for(var client : List.copyOf(clients)) {
+            client.close();
+        }
+        if(snapshot != null) {
+            snapshot.close();
+            snapshot = null;
+        }
+        channel.close();
+        selector.close();
+    }
+
+    /**
+     * The replication state of a single client, only used by the replication thread.
+     */
+    private final class Client {
+        @NotNull
+        private final SocketChannel socket;
+
+        private SelectionKey key;
+
+        /**
+         * Packets waiting to be sent, in write mode.
+         */
+        @NotNull
+        private ByteBuffer out = ByteBuffer.allocate(0x4000);
+
+        /**
+         * Received bytes that did not form a complete packet yet, in write mode.
+         */
+        @NotNull
+        private ByteBuffer in = ByteBuffer.allocate(0x1000);
+
+        /**
+         * The area the client asked for, clamped to the level.
+         */
+        @NotNull
+        private Interest interest = Interest.EMPTY;
+
+        /**
+         * The area the client currently has loaded.
+         */
+        @NotNull
+        private Interest loaded = Interest.EMPTY;
+
+        /**
+         * The snapshot the loaded chunks of the client match, null if no chunks were sent yet.
+         */
+        @Nullable
+        private LevelSnapshot baseline;
+
+        /**
+         * The quantized positions of the actors the client knows about, X in the high bits.
+         */
+        @NotNull
+        private final Long2LongOpenHashMap actors = new Long2LongOpenHashMap();
+
+        /**
+         * The quantized facings of the actors the client knows about.
+         */
+        @NotNull
+        private final Long2ByteOpenHashMap facings = new Long2ByteOpenHashMap();
+
+        /**
+         * The actors that are part of the current frame.
+         */
+        @NotNull
+        private final LongOpenHashSet seenActors = new LongOpenHashSet();
+
+        /**
+         * The job states the client knows about, by the packed position of their chunk.
+         */
+        @NotNull
+        private final Long2ObjectOpenHashMap<Long2ByteOpenHashMap> clientJobs = new Long2ObjectOpenHashMap<>();
+
+        /**
+         * The job versions of the chunks in the area of the client when their jobs were last sent.
+         */
+        @NotNull
+        private final Long2LongOpenHashMap jobVersions = new Long2LongOpenHashMap();
+
+        /**
+         * True if the client has not received the current snapshot or its area changed.
+         */
+        private boolean stale = true;
+
+        private Client(@NotNull SocketChannel socket) {
+            this.socket = socket;
+            jobVersions.defaultReturnValue(-1);
+        }
+
+        private boolean needsFrame() {
+            return stale && snapshot != null && out.position() == 0;
+        }
+
+        private void read() throws IOException {
+            if(socket.read(in) == -1) {
+                throw new IOException("Connection closed");
+            }
+
+            in.flip();
+            while(in.remaining() >= HEADER_SIZE) {
+                var length = in.getInt(in.position());
+                if(length <= 0 || length > MAX_PACKET_SIZE) {
+                    throw new IOException("Invalid packet length " + length);
+                }
+                if(in.remaining() < Integer.BYTES + length) {
+                    if(in.capacity() < Integer.BYTES + length) {
+                        var grown = ByteBuffer.allocate(Integer.BYTES + length);
+                        grown.put(in);
+                        in = grown;
+                        return;
+                    }
+                    break;
+                }
+
+                in.getInt();
+                var type = in.get();
+                var payload = in.slice(in.position(), length - Byte.BYTES);
+                in.position(in.position() + length - Byte.BYTES);
+                if(type != PACKET_INTEREST) {
+                    throw new IOException("Unexpected packet " + type);
+                }
+
+                var requested = readJson(payload, Interest.CODEC).clamp(level.chunkWidth(), level.chunkHeight());
+                if(requested.chunkCount() > MAX_INTEREST_CHUNKS) {
+                    throw new IOException("Interest area is too large");
+                }
+                interest = requested;
+                stale = true;
+            }
+            in.compact();
+        }
+
+        private void flush() throws IOException {
+            out.flip();
+            try {
+                bytesSent.addAndGet(socket.write(out));
+            } finally {
+                out.compact();
+            }
+            key.interestOps(out.position() == 0 ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        /**
+         * Encodes the differences between what this client knows and the current snapshot.
+         */
+        private void sendFrame() throws IOException {
+            var snapshot = Objects.requireNonNull(ReplicationServer.this.snapshot);
+            stale = false;
+
+            out = ensure(out, HEADER_SIZE + Long.BYTES + 2);
+            var start = out.position();
+            out.position(start + HEADER_SIZE);
+            writeVarLong(out, snapshot.tick());
+
+            // Frames without changes are still sent so the client knows it is up to date
+            writeChunks(snapshot);
+            writeActors(snapshot);
+            writeJobs();
+
+            baseline = snapshot;
+            loaded = interest;
+
+            out = ensure(out, 1);
+            out.put(OP_END);
+            out.putInt(start, out.position() - start - Integer.BYTES);
+            out.put(start + Integer.BYTES, PACKET_FRAME);
+            flush();
+        }
+
+        private void writeChunks(@NotNull LevelSnapshot snapshot) {
+            for(int chunkY = loaded.minChunkY(); chunkY < loaded.maxChunkY(); chunkY++) {
+                for(int chunkX = loaded.minChunkX(); chunkX < loaded.maxChunkX(); chunkX++) {
+                    if(!interest.containsChunk(chunkX, chunkY)) {
+                        out = ensure(out, 11);
+                        out.put(OP_CHUNK_UNLOAD);
+                        writeVarInt(out, chunkX);
+                        writeVarInt(out, chunkY);
+                    }
+                }
+            }
+
+            for(int chunkY = interest.minChunkY(); chunkY < interest.maxChunkY(); chunkY++) {
+                for(int chunkX = interest.minChunkX(); chunkX < interest.maxChunkX(); chunkX++) {
+                    if(baseline == null || !loaded.containsChunk(chunkX, chunkY)) {
+                        writeFullChunk(snapshot, chunkX, chunkY);
+                    } else if(!snapshot.sameChunk(baseline, chunkX, chunkY)) {
+                        writeChunkDelta(snapshot, baseline, chunkX, chunkY);
+                    }
+                }
+            }
+        }
+
+        private void writeFullChunk(@NotNull LevelSnapshot snapshot, int chunkX, int chunkY) {
+            // Worst case: every tile is its own run
+            out = ensure(out, 11 + Level.CHUNK_SIZE * Level.CHUNK_SIZE * 10);
+            out.put(OP_CHUNK_FULL);
+            writeVarInt(out, chunkX);
+            writeVarInt(out, chunkY);
+
+            var minX = Level.fromChunk(chunkX);
+            var minY = Level.fromChunk(chunkY);
+            int runId = -1;
+            int runLength = 0;
+            for(int index = 0; index < Level.CHUNK_SIZE * Level.CHUNK_SIZE; index++) {
+                var id = tileId(snapshot.tile(minX + (index & Level.CHUNK_MASK), minY + (index >>> Level.CHUNK_SHIFT)));
+                if(id == runId) {
+                    runLength++;
+                } else {
+                    if(runLength > 0) {
+                        writeVarInt(out, runLength);
+                        writeVarInt(out, runId);
+                    }
+                    runId = id;
+                    runLength = 1;
+                }
+            }
+            writeVarInt(out, runLength);
+            writeVarInt(out, runId);
+        }
+
+        private void writeChunkDelta(@NotNull LevelSnapshot snapshot, @NotNull LevelSnapshot baseline, int chunkX, int chunkY) {
+            var minX = Level.fromChunk(chunkX);
+            var minY = Level.fromChunk(chunkY);
+            int changed = 0;
+            for(int index = 0; index < Level.CHUNK_SIZE * Level.CHUNK_SIZE; index++) {
+                var x = minX + (index & Level.CHUNK_MASK);
+                var y = minY + (index >>> Level.CHUNK_SHIFT);
+                if(snapshot.tile(x, y) != baseline.tile(x, y)) {
+                    changed++;
+                }
+            }
+            if(changed == 0) {
+                return;
+            }
+            if(changed > DELTA_LIMIT) {
+                writeFullChunk(snapshot, chunkX, chunkY);
+                return;
+            }
+
+            out = ensure(out, 16 + changed * 6);
+            out.put(OP_CHUNK_DELTA);
+            writeVarInt(out, chunkX);
+            writeVarInt(out, chunkY);
+            writeVarInt(out, changed);
+            for(int index = 0; index < Level.CHUNK_SIZE * Level.CHUNK_SIZE; index++) {
+                var x = minX + (index & Level.CHUNK_MASK);
+                var y = minY + (index >>> Level.CHUNK_SHIFT);
+                var tile = snapshot.tile(x, y);
+                if(tile != baseline.tile(x, y)) {
+                    out.put((byte) index);
+                    writeVarInt(out, tileId(tile));
+                }
+            }
+        }
+
+        private void writeActors(@NotNull LevelSnapshot snapshot) {
+            seenActors.clear();
+            if(interest.chunkCount() > 0) {
+                // The actors of a row of chunks are next to each other in the snapshot
+                for(int chunkY = interest.minChunkY(); chunkY < interest.maxChunkY(); chunkY++) {
+                    var start = snapshot.chunkActorStart(interest.minChunkX(), chunkY);
+                    var end = snapshot.chunkActorEnd(interest.maxChunkX() - 1, chunkY);
+                    for(int i = start; i < end; i++) {
+                        writeActor(snapshot, i);
+                    }
+                }
+            }
+
+            for(var iterator = Long2LongMaps.fastIterator(actors); iterator.hasNext(); ) {
+                var id = iterator.next().getLongKey();
+                if(!seenActors.contains(id)) {
+                    iterator.remove();
+                    facings.remove(id);
+                    out = ensure(out, 11);
+                    out.put(OP_ACTOR_REMOVE);
+                    writeVarLong(out, id);
+                }
+            }
+        }
+
+        private void writeActor(@NotNull LevelSnapshot snapshot, int index) {
+            var x = snapshot.actorX(index);
+            var y = snapshot.actorY(index);
+            // Actors outside of the level are part of the chunks on its edge
+            if(!interest.containsTile((int) Math.floor(x), (int) Math.floor(y))) {
+                return;
+            }
+
+            var id = snapshot.actorId(index);
+            var quantizedX = quantizePosition(x);
+            var quantizedY = quantizePosition(y);
+            var facing = (byte) quantizeFacing(snapshot.actorFacing(index));
+            seenActors.add(id);
+
+            out = ensure(out, 1 + 10 + 5 * 2 + 2);
+            if(!actors.containsKey(id)) {
+                out.put(OP_ACTOR_SPAWN);
+                writeVarLong(out, id);
+                out.put(kind(snapshot.actor(index)));
+                writeSignedVarInt(out, quantizedX);
+                writeSignedVarInt(out, quantizedY);
+                out.put(facing);
+            } else {
+                var known = actors.get(id);
+                var deltaX = quantizedX - (int) (known >> 32);
+                var deltaY = quantizedY - (int) known;
+                if(deltaX == 0 && deltaY == 0 && facings.get(id) == facing) {
+                    return;
+                }
+                out.put(OP_ACTOR_MOVE);
+                writeVarLong(out, id);
+                writeSignedVarInt(out, deltaX);
+                writeSignedVarInt(out, deltaY);
+                out.put(facing);
+            }
+            actors.put(id, ((long) quantizedX << 32) | (quantizedY & 0xFFFFFFFFL));
+            facings.put(id, facing);
+        }
+
+        private void writeJobs() {
+            // Jobs of chunks that left the area are removed
+            for(var iterator = Long2ObjectMaps.fastIterator(clientJobs); iterator.hasNext(); ) {
+                var entry = iterator.next();
+                var chunk = entry.getLongKey();
+                if(!interest.containsChunk(TilePos.unpackX(chunk), TilePos.unpackY(chunk))) {
+                    for(var positions = entry.getValue().keySet().iterator(); positions.hasNext(); ) {
+                        writeJob(positions.nextLong(), JOB_NONE);
+                    }
+                    iterator.remove();
+                }
+            }
+            for(var iterator = jobVersions.keySet().iterator(); iterator.hasNext(); ) {
+                var chunk = iterator.nextLong();
+                if(!interest.containsChunk(TilePos.unpackX(chunk), TilePos.unpackY(chunk))) {
+                    iterator.remove();
+                }
+            }
+
+            var jobManager = level.jobManager();
+            for(int chunkY = interest.minChunkY(); chunkY < interest.maxChunkY(); chunkY++) {
+                for(int chunkX = interest.minChunkX(); chunkX < interest.maxChunkX(); chunkX++) {
+                    var chunk = TilePos.pack(chunkX, chunkY);
+                    // Read before the jobs are collected, changes made while collecting are picked up by the next frame
+                    var version = jobManager.chunkVersion(chunkX, chunkY);
+                    if(jobVersions.put(chunk, version) == version) {
+                        continue;
+                    }
+
+                    chunkJobs.clear();
+                    jobManager.forEachTileJobInChunk(chunkX, chunkY, (type, position, claimed) -> {
+                        if(claimed) {
+                            chunkJobs.put(position, JOB_CLAIMED);
+                        } else {
+                            chunkJobs.putIfAbsent(position, JOB_OPEN);
+                        }
+                    });
+                    writeChunkJobs(chunk);
+                }
+            }
+        }
+
+        /**
+         * Sends the differences between the job states the client knows about in a chunk and {@link #chunkJobs}.
+         *
+         * @param chunk The packed position of the chunk
+         */
+        private void writeChunkJobs(long chunk) {
+            var known = clientJobs.get(chunk);
+            if(known == null) {
+                if(chunkJobs.isEmpty()) {
+                    return;
+                }
+                known = new Long2ByteOpenHashMap();
+                clientJobs.put(chunk, known);
+            }
+
+            for(var entry : Long2ByteMaps.fastIterable(chunkJobs)) {
+                var position = entry.getLongKey();
+                var state = entry.getByteValue();
+                if(known.put(position, state) != state) {
+                    writeJob(position, state);
+                }
+            }
+
+            for(var iterator = Long2ByteMaps.fastIterator(known); iterator.hasNext(); ) {
+                var position = iterator.next().getLongKey();
+                if(!chunkJobs.containsKey(position)) {
+                    iterator.remove();
+                    writeJob(position, JOB_NONE);
+                }
+            }
+
+            if(known.isEmpty()) {
+                clientJobs.remove(chunk);
+            }
+        }
+
+        private void writeJob(long position, byte state) {
+            out = ensure(out, 12);
+            out.put(OP_JOB);
+            writeVarInt(out, TilePos.unpackX(position));
+            writeVarInt(out, TilePos.unpackY(position));
+            out.put(state);
+        }
+
+        private void close() {
+            clients.remove(this);
+            if(key != null) {
+                key.cancel();
+            }
+            try {
+                socket.close();
+            } catch(IOException ignored) {
+                // Nothing left to do with it
+            }
+        }
+    }
+}
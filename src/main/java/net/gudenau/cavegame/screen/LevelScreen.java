@@ -0,0 +1,54 @@
+package net.gudenau.cavegame.screen;
+
+import net.gudenau.cavegame.level.Level;
+import net.gudenau.cavegame.render.ActorRenderer;
+import net.gudenau.cavegame.render.TileMapRenderer;
+import net.gudenau.cavegame.renderer.Renderer;
+import net.gudenau.cavegame.renderer.screen.Screen;
+import org.jetbrains.annotations.NotNull;
+
+public class LevelScreen implements Screen {
+    // The amount of tiles that fit vertically
+    private static final double VIEW_HEIGHT = 24;
+
+    @NotNull
+    private final TileMapRenderer tileMap;
+    @NotNull
+    private final ActorRenderer actors;
+
+    private final double cameraX;
+    private final double cameraY;
+
+    public LevelScreen(@NotNull Renderer renderer, @NotNull Level level) {
+        tileMap = new TileMapRenderer(renderer, level);
+        actors = new ActorRenderer(renderer, level);
+        cameraX = level.width() / 2.0;
+        cameraY = level.height() / 2.0;
+    }
+
+    @Override
+    public void draw(@NotNull Renderer renderer) {
+        var size = renderer.window().size();
+        var halfHeight = VIEW_HEIGHT / 2;
+        var halfWidth = halfHeight * size.width() / Math.max(1, size.height());
+        var minX = cameraX - halfWidth;
+        var minY = cameraY - halfHeight;
+        var maxX = cameraX + halfWidth;
+        var maxY = cameraY + halfHeight;
+
+        // Vulkan has Y pointing down, so does the level
+        var ubo = renderer.uniforms();
+        ubo.model().identity();
+        ubo.view().identity();
+        ubo.proj().setOrtho((float) minX, (float) maxX, (float) minY, (float) maxY, -1, 1, true);
+
+        tileMap.draw(renderer, minX, minY, maxX, maxY);
+        actors.draw(renderer, minX, minY, maxX, maxY);
+    }
+
+    @Override
+    public void close() {
+        actors.close();
+        tileMap.close();
+    }
+}
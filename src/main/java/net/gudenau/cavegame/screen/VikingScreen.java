@@ -24,6 +24,7 @@ public class VikingScreen implements Screen {
     private final int vertexCount;
     private final GraphicsBuffer vertexBuffer;
     private final GraphicsBuffer indexBuffer;
+    private final long startTime = System.nanoTime();
 
     public VikingScreen(Renderer renderer) {
         try {
@@ -51,6 +52,26 @@ public class VikingScreen implements Screen {
 
     @Override
     public void draw(@NotNull Renderer renderer) {
+        var delta = (float)((System.nanoTime() - startTime) / 10000000000D);
+        var size = renderer.window().size();
+
+        var ubo = renderer.uniforms();
+        ubo.model().rotationZ((float) (delta * Math.toRadians(90)));
+        ubo.view().setLookAt(
+            2, 2, 2,
+            0, 0, 0,
+            0, 0, 1
+        );
+        var projection = ubo.proj();
+        projection.setPerspective(
+            (float) Math.toRadians(45),
+            size.width() / (float) Math.max(1, size.height()),
+            0.1F,
+            10.0F,
+            true
+        );
+        projection.m11(-projection.m11());
+
         renderer.drawBuffer(vertexCount, vertexBuffer, indexBuffer);
     }
 
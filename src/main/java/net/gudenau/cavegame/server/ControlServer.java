@@ -0,0 +1,208 @@
+package net.gudenau.cavegame.server;
+
+import net.gudenau.cavegame.actor.MinerActor;
+import net.gudenau.cavegame.logger.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+
+/**
+ * A line based control interface for a {@link DedicatedServer} on a Unix domain socket, so it is only reachable from
+ * the local machine.<br>
+ * <br>
+ * Every line is a command, every command is answered with a single line that starts with {@code ok} or
+ * {@code error}. Every connection is handled by its own virtual thread, commands that touch the level are run on the
+ * tick thread with {@link DedicatedServer#submit(java.util.function.Function)}.<br>
+ * <br>
+ * Commands:
+ * <ul>
+ *     <li>{@code help}: Lists the commands</li>
+ *     <li>{@code metrics}: Prints the {@link DedicatedServer.Metrics} of the server</li>
+ *     <li>{@code pause}: Pauses the tick loop</li>
+ *     <li>{@code resume}: Resumes the tick loop</li>
+ *     <li>{@code step [count]}: Runs ticks immediately, one by default</li>
+ *     <li>{@code save}: Starts an autosave</li>
+ *     <li>{@code spawn <x> <y>}: Spawns a miner</li>
+ *     <li>{@code stop}: Stops the server</li>
+ * </ul>
+ */
+public final class ControlServer implements AutoCloseable {
+    private static final Logger LOGGER = Logger.forName("Control");
+
+    @NotNull
+    private final DedicatedServer server;
+
+    /**
+     * The path of the socket.
+     */
+    @NotNull
+    private final Path path;
+
+    @NotNull
+    private final ServerSocketChannel channel;
+
+    /**
+     * The thread that accepts new connections, null until started.
+     */
+    @Nullable
+    private Thread acceptor;
+
+    /**
+     * Binds the control socket, a stale socket file from a previous run is replaced.
+     *
+     * @param server The server to control
+     * @param path The path of the socket
+     * @throws IOException If the socket could not be bound
+     */
+    public ControlServer(@NotNull DedicatedServer server, @NotNull Path path) throws IOException {
+        this.server = Objects.requireNonNull(server, "server can't be null");
+        this.path = Objects.requireNonNull(path, "path can't be null").toAbsolutePath();
+
+        Files.deleteIfExists(this.path);
+        channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        channel.bind(UnixDomainSocketAddress.of(this.path));
+    }
+
+    /**
+     * Gets the path of the control socket.
+     *
+     * @return The path of the socket
+     */
+    @NotNull
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * Starts accepting connections.
+     */
+    public void start() {
+        if(acceptor != null) {
+            throw new IllegalStateException("Control server was already started");
+        }
+
+        acceptor = Thread.ofVirtual().name("ControlAcceptor").start(() -> {
+            while(channel.isOpen()) {
+                try {
+                    var client = channel.accept();
+                    Thread.ofVirtual().name("ControlClient").start(() -> handle(client));
+                } catch(IOException e) {
+                    if(channel.isOpen()) {
+                        LOGGER.error("Failed to accept a control connection", e);
+                    }
+                }
+            }
+        });
+    }
+
+    private void handle(@NotNull SocketChannel client) {
+        try(
+            client;
+            var reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8));
+            var writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(client), StandardCharsets.UTF_8))
+        ) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                line = line.strip();
+                if(line.isEmpty()) {
+                    continue;
+                }
+
+                String response;
+                try {
+                    response = "ok " + execute(line.split("\\s+"));
+                } catch(CompletionException e) {
+                    response = "error " + e.getCause().getMessage();
+                } catch(RuntimeException e) {
+                    response = "error " + e.getMessage();
+                }
+                writer.write(response.stripTrailing());
+                writer.newLine();
+                writer.flush();
+            }
+        } catch(IOException e) {
+            LOGGER.debug("Control connection closed", e);
+        }
+    }
+
+    /**
+     * Executes a single command.
+     *
+     * @param command The command and its arguments
+     * @return The response to the command, without the status
+     */
+    @NotNull
+    private String execute(@NotNull String @NotNull [] command) {
+        return switch(command[0].toLowerCase()) {
+            case "help" -> "help metrics pause resume step save spawn stop";
+            case "metrics" -> server.submit(DedicatedServer::metrics).join().format();
+            case "pause" -> server.submit((server) -> {
+                server.paused(true);
+                return "";
+            }).join();
+            case "resume" -> server.submit((server) -> {
+                server.paused(false);
+                return "";
+            }).join();
+            case "step" -> {
+                var count = command.length > 1 ? Integer.parseInt(command[1]) : 1;
+                if(count <= 0) {
+                    throw new IllegalArgumentException("count must be positive");
+                }
+                yield server.submit((server) -> {
+                    server.step(count);
+                    return "tick=" + server.level().tickCount();
+                }).join();
+            }
+            case "save" -> server.submit((server) -> {
+                var autosave = server.level().autosave()
+                    .orElseThrow(() -> new IllegalStateException("saving is disabled"));
+                return autosave.save() == null ? "nothing to save" : "saving";
+            }).join();
+            case "spawn" -> {
+                if(command.length != 3) {
+                    throw new IllegalArgumentException("usage: spawn <x> <y>");
+                }
+                var x = Double.parseDouble(command[1]);
+                var y = Double.parseDouble(command[2]);
+                yield server.submit((server) -> {
+                    var level = server.level();
+                    if(x < 0 || y < 0 || x >= level.width() || y >= level.height()) {
+                        throw new IllegalArgumentException("position is outside of the level");
+                    }
+                    level.spawn(new MinerActor(x, y, level));
+                    return "";
+                }).join();
+            }
+            case "stop" -> {
+                server.stop();
+                yield "";
+            }
+            default -> throw new IllegalArgumentException("unknown command " + command[0]);
+        };
+    }
+
+    /**
+     * Stops accepting connections and removes the socket file.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+}
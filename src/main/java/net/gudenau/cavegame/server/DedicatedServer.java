@@ -0,0 +1,413 @@
+package net.gudenau.cavegame.server;
+
+import net.gudenau.cavegame.CaveGame;
+import net.gudenau.cavegame.Registries;
+import net.gudenau.cavegame.actor.MinerActor;
+import net.gudenau.cavegame.ai.JobTypes;
+import net.gudenau.cavegame.ai.MiningJob;
+import net.gudenau.cavegame.config.Config;
+import net.gudenau.cavegame.level.Level;
+import net.gudenau.cavegame.level.LevelAutosave;
+import net.gudenau.cavegame.level.LevelJournal;
+import net.gudenau.cavegame.level.TilePos;
+import net.gudenau.cavegame.logger.Logger;
+import net.gudenau.cavegame.material.Materials;
+import net.gudenau.cavegame.replication.ReplicationServer;
+import net.gudenau.cavegame.resource.ClassPathResourceProvider;
+import net.gudenau.cavegame.resource.ResourceLoader;
+import net.gudenau.cavegame.tile.Tiles;
+import net.gudenau.cavegame.tile.WallTile;
+import net.gudenau.cavegame.util.Treachery;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * A headless server that only runs the simulation of a single {@link Level}, without GLFW, a window or a renderer.
+ * <br>
+ * <br>
+ * The level is ticked at a fixed rate on the main thread. When a tick takes too long the server catches up by ticking
+ * without waiting, if it falls more than a second behind the missed ticks are dropped instead. The server is
+ * controlled through a {@link ControlServer} that hands its commands to the tick thread between ticks.
+ */
+public final class DedicatedServer {
+    private static final Logger LOGGER = Logger.forName("Server");
+
+    /**
+     * The base name of the journal segments in the save directory.
+     */
+    private static final String JOURNAL = "journal";
+
+    /**
+     * The amount of seconds between autosaves.
+     */
+    private static final int AUTOSAVE_SECONDS = 30;
+
+    @NotNull
+    private final Level level;
+
+    /**
+     * The amount of ticks per second.
+     */
+    private final int tickRate;
+
+    /**
+     * The commands that are waiting for the tick thread.
+     */
+    @NotNull
+    private final Queue<Runnable> commands = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The duration of the most recent ticks in nanoseconds, used as a ring buffer.
+     */
+    private final long @NotNull [] tickTimes;
+
+    /**
+     * The amount of ticks that were dropped because the server fell too far behind.
+     */
+    private long droppedTicks = 0;
+
+    private volatile boolean running = true;
+    private boolean paused = false;
+
+    /**
+     * Creates a server for a level.
+     *
+     * @param level The level to simulate
+     * @param tickRate The amount of ticks per second
+     */
+    public DedicatedServer(@NotNull Level level, int tickRate) {
+        this.level = Objects.requireNonNull(level, "level can't be null");
+        if(tickRate <= 0) {
+            throw new IllegalArgumentException("tickRate must be positive");
+        }
+        this.tickRate = tickRate;
+        tickTimes = new long[tickRate];
+    }
+
+    public static void main(String[] args) throws IOException {
+        var startTime = System.nanoTime();
+
+        Config.parseArguments(args);
+        Logger.level(Config.LOG_LEVEL.get());
+
+        ResourceLoader.registerProvider(CaveGame.NAMESPACE, ClassPathResourceProvider.of(CaveGame.class));
+        Treachery.ensureInitialized(Registries.class, Tiles.class, Materials.class, JobTypes.class);
+
+        var saveDirectory = Config.SAVE_DIRECTORY.get().isEmpty() ? null : Path.of(Config.SAVE_DIRECTORY.get());
+        var level = loadLevel(saveDirectory, Config.LEVEL_SIZE.get(), Config.TICK_RATE.get());
+        var server = new DedicatedServer(level, Config.TICK_RATE.get());
+
+        var replicationPort = Config.REPLICATION_PORT.get();
+        try(
+            var control = new ControlServer(server, Path.of(Config.CONTROL_SOCKET.get()));
+            var replication = replicationPort == 0 ? null : new ReplicationServer(
+                level,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), replicationPort)
+            )
+        ) {
+            control.start();
+            if(replication != null) {
+                replication.start();
+                LOGGER.info("Replicating on " + replication.address());
+            }
+            LOGGER.info("Started in " + (System.nanoTime() - startTime) / 1_000_000 + "ms, control socket at " + control.path());
+            server.run();
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Loads the level from a save directory, a new level is created if there is no save.
+     *
+     * @param saveDirectory The save directory, null to disable saving
+     * @param size The width and height of new levels
+     * @param tickRate The amount of ticks per second
+     * @return The level
+     * @throws IOException If the save could not be loaded
+     */
+    @NotNull
+    private static Level loadLevel(@Nullable Path saveDirectory, int size, int tickRate) throws IOException {
+        if(saveDirectory == null) {
+            return newLevel(size);
+        }
+
+        var journal = saveDirectory.resolve(JOURNAL);
+        if(LevelAutosave.exists(saveDirectory) || LevelJournal.exists(journal)) {
+            var level = LevelJournal.recover(saveDirectory, journal);
+            level.enableAutosave(saveDirectory, AUTOSAVE_SECONDS * tickRate);
+            return level;
+        }
+
+        Files.createDirectories(saveDirectory);
+        var level = new Level(size, size);
+        populate(level);
+
+        // The generated level is saved before the journal starts, the journal only holds what happens after the save
+        var autosave = level.enableAutosave(saveDirectory, AUTOSAVE_SECONDS * tickRate);
+        try {
+            Objects.requireNonNull(autosave.save(), "initial save").join();
+        } catch(CompletionException e) {
+            throw new IOException("Failed to write the initial save to " + saveDirectory, e.getCause());
+        }
+        level.enableJournal(journal);
+        return level;
+    }
+
+    /**
+     * Creates a new level that is not saved and fills it the same way the dedicated server does.
+     *
+     * @param size The width and height of the level
+     * @return The new level
+     */
+    @NotNull
+    public static Level newLevel(int size) {
+        var level = new Level(size, size);
+        populate(level);
+        return level;
+    }
+
+    /**
+     * Fills a new level: solid dirt with a store room in a corner, a miner and a mining job for every wall.
+     *
+     * @param level The level to fill
+     */
+    private static void populate(@NotNull Level level) {
+        TilePos.iterator(1, 1, level.width() - 1, level.height() - 1)
+            .forEachRemaining((pos) -> level.tile(pos, Tiles.DIRT_WALL));
+
+        level.tile(new TilePos(5, 5), Tiles.STORE_ROOM);
+        level.tile(new TilePos(5, 4), Tiles.FLOOR);
+        level.tile(new TilePos(5, 6), Tiles.FLOOR);
+        level.tile(new TilePos(4, 5), Tiles.FLOOR);
+        level.tile(new TilePos(6, 5), Tiles.FLOOR);
+
+        level.spawn(new MinerActor(5.5, 4.5, level));
+
+        TilePos.iterator(0, 0, level.width(), level.height()).forEachRemaining((pos) -> {
+            var tile = level.tile(pos);
+            if(tile instanceof WallTile wall && wall.isMineable()) {
+                level.jobManager().enqueueJob(new MiningJob(tile, pos));
+            }
+        });
+    }
+
+    /**
+     * Runs the tick loop until {@link #stop()} is called. Must be called from the thread that owns the level.
+     */
+    public void run() {
+        var tickNanos = 1_000_000_000L / tickRate;
+        var maxLag = tickNanos * tickRate;
+        var nextTick = System.nanoTime();
+        while(running) {
+            runCommands();
+            if(!paused) {
+                tick();
+            }
+
+            nextTick += tickNanos;
+            var now = System.nanoTime();
+            if(now - nextTick > maxLag) {
+                var dropped = (now - nextTick) / tickNanos;
+                droppedTicks += dropped;
+                LOGGER.warn("Can't keep up, dropping " + dropped + " ticks");
+                nextTick = now;
+            }
+            while((now = System.nanoTime()) < nextTick && running) {
+                LockSupport.parkNanos(nextTick - now);
+            }
+        }
+        runCommands();
+    }
+
+    private void tick() {
+        var start = System.nanoTime();
+        level.tick();
+        tickTimes[(int) (level.tickCount() % tickTimes.length)] = System.nanoTime() - start;
+    }
+
+    private void runCommands() {
+        Runnable command;
+        while((command = commands.poll()) != null) {
+            command.run();
+        }
+    }
+
+    /**
+     * Runs a function on the tick thread between two ticks, the only safe way to access the level from other threads.
+     *
+     * @param function The function to run
+     * @return A future that completes with the result of the function
+     * @param <T> The type of the result
+     */
+    @NotNull
+    public <T> CompletableFuture<T> submit(@NotNull Function<@NotNull DedicatedServer, T> function) {
+        Objects.requireNonNull(function, "function can't be null");
+
+        var future = new CompletableFuture<T>();
+        commands.add(() -> {
+            try {
+                future.complete(function.apply(this));
+            } catch(Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Gets the level of this server, only safe to use on the tick thread.
+     *
+     * @return The level
+     */
+    @NotNull
+    public Level level() {
+        return level;
+    }
+
+    /**
+     * Checks if the tick loop is paused.
+     *
+     * @return True if paused
+     */
+    public boolean paused() {
+        return paused;
+    }
+
+    /**
+     * Pauses or resumes the tick loop, commands are still processed while paused.
+     *
+     * @param paused True to pause, false to resume
+     */
+    public void paused(boolean paused) {
+        this.paused = paused;
+    }
+
+    /**
+     * Runs ticks immediately, meant to be used while paused.
+     *
+     * @param count The amount of ticks to run
+     */
+    public void step(int count) {
+        for(int i = 0; i < count; i++) {
+            tick();
+        }
+    }
+
+    /**
+     * Stops the tick loop after the current tick.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Collects the current metrics of this server, must be called on the tick thread.
+     *
+     * @return The current metrics
+     */
+    @NotNull
+    public Metrics metrics() {
+        var samples = (int) Math.min(level.tickCount(), tickTimes.length);
+        long total = 0;
+        long max = 0;
+        for(int i = 0; i < samples; i++) {
+            total += tickTimes[i];
+            max = Math.max(max, tickTimes[i]);
+        }
+        return new Metrics(
+            level.tickCount(),
+            tickRate,
+            samples == 0 ? 0 : total / samples,
+            max,
+            droppedTicks,
+            paused,
+            level.actors().size(),
+            level.activeChunkCount(),
+            level.chunkCount(),
+            level.scheduledTickCount()
+        );
+    }
+
+    /**
+     * Saves the level and closes its journal, called after the tick loop stopped.
+     */
+    private void shutdown() {
+        var autosave = level.autosave().orElse(null);
+        if(autosave != null) {
+            autosave.flush();
+            var save = autosave.save();
+            if(save != null) {
+                autosave.flush();
+            }
+        }
+
+        var journal = level.journal().orElse(null);
+        if(journal != null) {
+            try {
+                journal.close();
+            } catch(IOException e) {
+                LOGGER.error("Failed to close the journal", e);
+            }
+        }
+    }
+
+    /**
+     * A snapshot of the state of the server.
+     *
+     * @param tick The amount of ticks the level has run for
+     * @param tickRate The target amount of ticks per second
+     * @param averageTickNanos The average duration of the last second of ticks
+     * @param maxTickNanos The longest duration of the last second of ticks
+     * @param droppedTicks The amount of ticks that were dropped because the server could not keep up
+     * @param paused True if the tick loop is paused
+     * @param actors The amount of actors in the level
+     * @param activeChunks The amount of chunks that are awake
+     * @param chunks The amount of chunks in the level
+     * @param scheduledTicks The amount of pending scheduled tile updates
+     */
+    public record Metrics(
+        long tick,
+        int tickRate,
+        long averageTickNanos,
+        long maxTickNanos,
+        long droppedTicks,
+        boolean paused,
+        int actors,
+        int activeChunks,
+        int chunks,
+        int scheduledTicks
+    ) {
+        /**
+         * Formats these metrics as space separated key value pairs, durations are in microseconds.
+         *
+         * @return The formatted metrics
+         */
+        @NotNull
+        public String format() {
+            return "tick=" + tick +
+                " tick_rate=" + tickRate +
+                " tick_avg_us=" + averageTickNanos / 1000 +
+                " tick_max_us=" + maxTickNanos / 1000 +
+                " dropped=" + droppedTicks +
+                " paused=" + paused +
+                " actors=" + actors +
+                " active_chunks=" + activeChunks +
+                " chunks=" + chunks +
+                " scheduled=" + scheduledTicks;
+        }
+    }
+}
@@ -2,9 +2,14 @@ package net.gudenau.cavegame.tile.state;
 
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.gudenau.cavegame.Registries;
 import net.gudenau.cavegame.material.Material;
+import net.gudenau.cavegame.resource.Identifier;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Objects;
 
 /**
@@ -37,4 +42,27 @@ public class StoreRoomState extends TileState {
         Objects.requireNonNull(material, "resource can't be null");
         return storage.getInt(material);
     }
+
+    @Override
+    public void write(@NotNull DataOutput output) throws IOException {
+        output.writeInt(storage.size());
+        for(var entry : storage.object2IntEntrySet()) {
+            var name = Registries.RESOURCE.name(entry.getKey())
+                .orElseThrow(() -> new IOException("Material " + entry.getKey() + " was not registered"));
+            output.writeUTF(name.toString());
+            output.writeInt(entry.getIntValue());
+        }
+    }
+
+    @Override
+    public void read(@NotNull DataInput input) throws IOException {
+        storage.clear();
+        for(int i = 0, count = input.readInt(); i < count; i++) {
+            var name = new Identifier(input.readUTF());
+            var amount = input.readInt();
+            var material = Registries.RESOURCE.object(name)
+                .orElseThrow(() -> new IOException("Unknown material " + name));
+            storage.put(material, amount);
+        }
+    }
 }
@@ -1,7 +1,28 @@
 package net.gudenau.cavegame.tile.state;
 
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * The base class for tile state, intended to be used by buildings.
  */
 public abstract class TileState {
+    /**
+     * Writes this state so it can be saved, the default implementation writes nothing.
+     *
+     * @param output The output to write to
+     * @throws IOException If the output could not be written
+     */
+    public void write(@NotNull DataOutput output) throws IOException {}
+
+    /**
+     * Reads this state from a save, this is the inverse of {@link #write(DataOutput)}.
+     *
+     * @param input The input to read from
+     * @throws IOException If the input could not be read
+     */
+    public void read(@NotNull DataInput input) throws IOException {}
 }
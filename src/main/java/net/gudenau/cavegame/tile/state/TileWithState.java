@@ -1,5 +1,7 @@
 package net.gudenau.cavegame.tile.state;
 
+import net.gudenau.cavegame.level.Level;
+import net.gudenau.cavegame.level.TilePos;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
@@ -14,4 +16,14 @@ public interface TileWithState<T extends TileState> {
      * @return The new state instance
      */
     @Contract("-> new") @NotNull T createState();
+
+    /**
+     * Invoked when an update that was scheduled with {@link Level#scheduleTick(TilePos, int, int)} is due and this tile
+     * is still present at the scheduled position. Further updates have to be scheduled again.
+     *
+     * @param level The level the tile is in
+     * @param pos The position of the tile
+     * @param state The state of the tile
+     */
+    default void scheduledTick(@NotNull Level level, @NotNull TilePos pos, @NotNull T state) {}
 }
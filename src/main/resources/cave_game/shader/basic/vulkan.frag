@@ -1,6 +1,15 @@
 #version 450
 
+#ifdef BINDLESS
+#extension GL_EXT_nonuniform_qualifier : require
+// The renderer defines every texture name to its entry of the texture table
+layout(set = 1, binding = 0) uniform sampler2D textures[];
+layout(push_constant) uniform TextureIndices {
+    uint indices[BINDLESS_TEXTURES];
+} textureIndices;
+#else
 layout(binding = 1) uniform sampler2D texSampler;
+#endif
 
 layout(location = 0) in vec3 fragColor;
 layout(location = 1) in vec2 fragTextureCoord;
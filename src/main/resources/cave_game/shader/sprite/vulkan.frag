@@ -0,0 +1,25 @@
+#version 450
+
+#ifdef BINDLESS
+#extension GL_EXT_nonuniform_qualifier : require
+// The renderer defines every texture name to its entry of the texture table
+layout(set = 1, binding = 0) uniform sampler2D textures[];
+layout(push_constant) uniform TextureIndices {
+    uint indices[BINDLESS_TEXTURES];
+} textureIndices;
+#else
+layout(binding = 1) uniform sampler2D texSampler;
+#endif
+
+layout(location = 0) in vec2 fragTextureCoord;
+
+layout(location = 0) out vec4 outColor;
+
+void main() {
+    vec4 color = texture(texSampler, fragTextureCoord);
+    // The pipeline does not blend, so transparent texels are cut out instead
+    if(color.a < 0.5) {
+        discard;
+    }
+    outColor = color;
+}
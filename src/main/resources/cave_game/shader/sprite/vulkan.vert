@@ -0,0 +1,25 @@
+#version 450
+
+layout(binding = 0) uniform UniformBufferObject {
+    mat4 model;
+    mat4 view;
+    mat4 proj;
+} ubo;
+
+// A corner of a unit quad, centered on the origin
+layout(location = 0) in vec2 inPosition;
+// X, Y, rotation in radians and size, has to match SpriteBatch
+layout(location = 1) in vec4 inTransform;
+// The minimum and maximum texture coordinates of the sprite
+layout(location = 2) in vec4 inTextureRect;
+
+layout(location = 0) out vec2 fragTextureCoord;
+
+void main() {
+    float c = cos(inTransform.z);
+    float s = sin(inTransform.z);
+    vec2 corner = mat2(c, s, -s, c) * inPosition * inTransform.w;
+    // In front of the tiles
+    gl_Position = ubo.proj * ubo.view * ubo.model * vec4(inTransform.xy + corner, 0.5, 1.0);
+    fragTextureCoord = mix(inTextureRect.xy, inTextureRect.zw, inPosition + 0.5);
+}
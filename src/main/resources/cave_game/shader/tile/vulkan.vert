@@ -0,0 +1,31 @@
+#version 450
+
+layout(binding = 0) uniform UniformBufferObject {
+    mat4 model;
+    mat4 view;
+    mat4 proj;
+} ubo;
+
+// These have to match TileMapRenderer
+const uint CHUNK_SHIFT = 4;
+const uint ATLAS_CELLS = 16;
+const float CELL_SIZE = 32.0;
+
+layout(location = 0) in vec2 inPosition;
+// The tile id in the low 8 bits, then the X and Y position of the chunk in 12 bits each
+layout(location = 1) in uint inTile;
+
+layout(location = 0) out vec2 fragTextureCoord;
+
+void main() {
+    // Every chunk starts at a multiple of the chunk area, so the low bits are the tile inside of the chunk
+    uint local = uint(gl_InstanceIndex) & ((1u << (CHUNK_SHIFT * 2u)) - 1u);
+    uvec2 chunk = uvec2((inTile >> 8) & 0xFFFu, inTile >> 20);
+    uvec2 tile = (chunk << CHUNK_SHIFT) + uvec2(local & ((1u << CHUNK_SHIFT) - 1u), local >> CHUNK_SHIFT);
+    gl_Position = ubo.proj * ubo.view * ubo.model * vec4(vec2(tile) + inPosition, 0.0, 1.0);
+
+    // Inset by half a texel so filtering never reaches into the neighbouring cells
+    uint id = inTile & 0xFFu;
+    vec2 cell = vec2(id % ATLAS_CELLS, id / ATLAS_CELLS) * CELL_SIZE;
+    fragTextureCoord = (cell + 0.5 + inPosition * (CELL_SIZE - 1.0)) / (CELL_SIZE * ATLAS_CELLS);
+}
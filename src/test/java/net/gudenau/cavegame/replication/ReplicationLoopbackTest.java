@@ -0,0 +1,187 @@
+package net.gudenau.cavegame.replication;
+
+import net.gudenau.cavegame.CaveGame;
+import net.gudenau.cavegame.Registries;
+import net.gudenau.cavegame.actor.ResourceActor;
+import net.gudenau.cavegame.ai.JobTypes;
+import net.gudenau.cavegame.level.Level;
+import net.gudenau.cavegame.level.TilePos;
+import net.gudenau.cavegame.material.Materials;
+import net.gudenau.cavegame.resource.ClassPathResourceProvider;
+import net.gudenau.cavegame.resource.ResourceLoader;
+import net.gudenau.cavegame.server.DedicatedServer;
+import net.gudenau.cavegame.tile.Tiles;
+import net.gudenau.cavegame.util.Treachery;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs a {@link ReplicationServer} and a {@link ReplicationClient} over the loopback interface. The level is ticked
+ * on the test thread, the same way the dedicated server ticks it on its main thread.
+ */
+final class ReplicationLoopbackTest {
+    /**
+     * How long a client waits for the server to catch up before a test fails, in milliseconds.
+     */
+    private static final long TIMEOUT_MILLIS = 5_000;
+
+    private Level level;
+    private ReplicationServer server;
+    private ReplicationClient client;
+
+    @BeforeAll
+    static void bootstrap() {
+        ResourceLoader.registerProvider(CaveGame.NAMESPACE, ClassPathResourceProvider.of(CaveGame.class));
+        Treachery.ensureInitialized(Registries.class, Tiles.class, Materials.class, JobTypes.class);
+    }
+
+    @BeforeEach
+    void connect() throws IOException {
+        // Three by three chunks with the miner in the first one
+        level = DedicatedServer.newLevel(Level.CHUNK_SIZE * 3);
+        level.tick();
+
+        server = new ReplicationServer(level, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.start();
+        client = new ReplicationClient(server.address());
+    }
+
+    @AfterEach
+    void disconnect() throws IOException {
+        try {
+            client.close();
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Polls the client until a condition is met.
+     *
+     * @param message The failure message
+     * @param condition The condition to wait for
+     */
+    private void await(@NotNull String message, @NotNull BooleanSupplier condition) throws IOException {
+        var deadline = System.nanoTime() + TIMEOUT_MILLIS * 1_000_000;
+        while(!condition.getAsBoolean()) {
+            if(System.nanoTime() > deadline) {
+                fail(message);
+            }
+            client.poll(10);
+        }
+    }
+
+    /**
+     * Waits until the client received the frame of the current tick.
+     */
+    private void awaitCurrentTick() throws IOException {
+        var tick = level.tickCount();
+        await("Client did not receive tick " + tick, () -> client.tick() >= tick);
+    }
+
+    @Test
+    void hello() {
+        assertEquals(level.width(), client.width());
+        assertEquals(level.height(), client.height());
+        assertEquals(-1, client.tick());
+        assertFalse(client.isLoaded(0, 0));
+    }
+
+    @Test
+    void replicatesInterestArea() throws IOException {
+        client.interest(Interest.ofTiles(0, 0, Level.CHUNK_SIZE, Level.CHUNK_SIZE));
+        await("Chunk was not loaded", () -> client.isLoaded(0, 0));
+        awaitCurrentTick();
+
+        for(int y = 0; y < Level.CHUNK_SIZE; y++) {
+            for(int x = 0; x < Level.CHUNK_SIZE; x++) {
+                assertSame(level.tile(new TilePos(x, y)), client.tile(x, y), "Tile " + x + ", " + y);
+            }
+        }
+        assertFalse(client.isLoaded(1, 0));
+        assertNull(client.tile(Level.CHUNK_SIZE, 0));
+
+        assertEquals(1, client.actors().size());
+        var miner = client.actors().iterator().next();
+        assertEquals(ReplicatedActor.Kind.MINER, miner.kind());
+        assertSame(miner, client.actor(miner.id()));
+
+        assertTrue(client.hasJob(1, 1), "Wall job was not replicated");
+        assertFalse(client.hasJob(5, 5), "Store room has a job");
+    }
+
+    @Test
+    void replicatesTileChanges() throws IOException {
+        client.interest(Interest.ofTiles(0, 0, Level.CHUNK_SIZE * 2, Level.CHUNK_SIZE));
+        awaitCurrentTick();
+        await("Chunks were not loaded", () -> client.isLoaded(0, 0) && client.isLoaded(1, 0));
+
+        var pos = new TilePos(Level.CHUNK_SIZE + 8, 8);
+        assertSame(Tiles.DIRT_WALL, client.tile(pos.x(), pos.y()));
+        level.tile(pos, Tiles.FLOOR);
+        level.tick();
+        awaitCurrentTick();
+        assertSame(Tiles.FLOOR, client.tile(pos.x(), pos.y()));
+    }
+
+    @Test
+    void unloadsChunksThatLeaveTheArea() throws IOException {
+        client.interest(Interest.ofTiles(0, 0, Level.CHUNK_SIZE, Level.CHUNK_SIZE));
+        await("Chunk was not loaded", () -> client.isLoaded(0, 0) && !client.actors().isEmpty());
+
+        var size = Level.CHUNK_SIZE;
+        client.interest(Interest.ofTiles(size, size, size * 2, size * 2));
+        await("Area did not move", () -> client.isLoaded(1, 1) && !client.isLoaded(0, 0));
+
+        assertNull(client.tile(1, 1));
+        assertTrue(client.actors().isEmpty(), "Actors outside of the area were kept");
+        assertFalse(client.hasJob(1, 1), "Jobs outside of the area were kept");
+        assertSame(level.tile(new TilePos(size, size)), client.tile(size, size));
+    }
+
+    @Test
+    void onlySendsActorsInsideOfTheArea() throws IOException {
+        // A pile in the middle of every chunk, the miner is in the first one
+        var size = Level.CHUNK_SIZE;
+        for(int chunkY = 0; chunkY < 3; chunkY++) {
+            for(int chunkX = 0; chunkX < 3; chunkX++) {
+                level.spawn(new ResourceActor(Materials.ORE, chunkX * size + 8.5, chunkY * size + 8.5, level));
+            }
+        }
+        level.tick();
+
+        client.interest(Interest.ofTiles(size, 0, size * 3, size * 2));
+        awaitCurrentTick();
+        await("Chunks were not loaded", () -> client.isLoaded(2, 1));
+
+        assertEquals(4, client.actors().size());
+        for(var actor : client.actors()) {
+            assertEquals(ReplicatedActor.Kind.RESOURCE, actor.kind());
+            assertTrue(actor.x() >= size && actor.y() < size * 2, "Actor outside of the area was sent");
+        }
+
+        client.interest(Interest.ofTiles(0, 0, size * 3, size * 3));
+        await("Actors were not sent", () -> client.actors().size() == 10);
+    }
+
+    @Test
+    void clampsAreaToTheLevel() throws IOException {
+        client.interest(new Interest(-4, -4, 100, 100));
+        await("Level was not loaded", () -> client.isLoaded(0, 0) && client.isLoaded(2, 2));
+
+        assertFalse(client.isLoaded(3, 3));
+        assertSame(Tiles.BEDROCK, client.tile(0, 0));
+        assertSame(Tiles.BEDROCK, client.tile(level.width() - 1, level.height() - 1));
+        assertNull(client.tile(level.width(), 0));
+    }
+}